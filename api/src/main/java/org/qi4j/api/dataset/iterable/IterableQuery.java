@@ -3,21 +3,32 @@ package org.qi4j.api.dataset.iterable;
 import org.qi4j.api.dataset.Query;
 import org.qi4j.api.property.Property;
 import org.qi4j.api.query.QueryException;
+import org.qi4j.api.query.QueryExpressions;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.OrderByComparator;
 import org.qi4j.functional.Iterables;
 import org.qi4j.functional.Specification;
 import org.qi4j.functional.Visitor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
- * TODO
+ * Query over an Iterable. Filtering, skip and limit are evaluated lazily while iterating. If an order is
+ * given and there is a limit, only the best skip+limit items are kept while the source is read,
+ * otherwise all matching items are sorted. Ordering requires the items to be composites.
  */
 public class IterableQuery<T> implements Query<T>
 {
     private Iterable<T> iterable;
+    private final List<OrderBy> orderBy = new ArrayList<OrderBy>();
     private int skip;
-    private int limit;
+    private Integer limit;
     private Map<String, Object> variables = new HashMap<String, Object>(  );
 
     public IterableQuery( Iterable<T> iterable )
@@ -36,6 +47,7 @@ public class IterableQuery<T> implements Query<T>
     @Override
     public Query orderBy( Property<?> property, Order order )
     {
+        orderBy.add( toOrderBy( property, order ) );
         return this;
     }
 
@@ -70,19 +82,20 @@ public class IterableQuery<T> implements Query<T>
     @Override
     public long count()
     {
-        return Iterables.count(Iterables.limit( limit, Iterables.skip( skip, iterable ) ));
+        // The order does not change the number of results
+        return Iterables.count( page( iterable, limit ) );
     }
 
     @Override
     public T first()
     {
-        return Iterables.first(Iterables.limit( limit, Iterables.skip( skip, iterable ) ));
+        return Iterables.first( results( 1 ) );
     }
 
     @Override
     public T single() throws QueryException
     {
-        return Iterables.single( Iterables.limit( limit, Iterables.skip( skip, iterable ) ) );
+        return Iterables.single( results( 2 ) );
     }
 
     @Override
@@ -100,6 +113,108 @@ public class IterableQuery<T> implements Query<T>
     @Override
     public Iterable<T> toIterable() throws QueryException
     {
-        return Iterables.limit( limit, Iterables.skip( skip, iterable ));
+        return results( null );
+    }
+
+    /**
+     * Convert the order of a DataSet Query to the order of the query grammar.
+     */
+    public static OrderBy toOrderBy( Property<?> property, Order order )
+    {
+        return new OrderBy( QueryExpressions.property( property ),
+                            order == Order.DESCENDING ? OrderBy.Order.DESCENDING : OrderBy.Order.ASCENDING );
+    }
+
+    private Iterable<T> results( Integer maxResults )
+    {
+        Integer max = limit == null ? maxResults : ( maxResults == null ? limit : Integer.valueOf( Math.min( limit, maxResults ) ) );
+        if( orderBy.isEmpty() )
+        {
+            return page( iterable, max );
+        }
+
+        // Without a limit, or with one so large that skip+limit does not fit in an int, sort everything
+        long end = max == null ? Long.MAX_VALUE : (long) skip + max;
+        List<T> sorted;
+        if( end > Integer.MAX_VALUE )
+        {
+            sorted = Iterables.toList( iterable );
+            Collections.sort( sorted, new OrderByComparator<T>( orderBy ) );
+        }
+        else
+        {
+            sorted = top( (int) end );
+        }
+        return page( sorted, max );
+    }
+
+    private Iterable<T> page( Iterable<T> items, Integer max )
+    {
+        Iterable<T> page = skip > 0 ? Iterables.skip( skip, items ) : items;
+        return max == null ? page : Iterables.limit( max, page );
+    }
+
+    /**
+     * Keep the first items in a bounded heap while reading the source. Items that compare equal keep the order
+     * of the source.
+     */
+    private List<T> top( int count )
+    {
+        if( count <= 0 )
+        {
+            return Collections.emptyList();
+        }
+
+        final Comparator<T> comparator = new OrderByComparator<T>( orderBy );
+        Comparator<Ranked<T>> ranking = new Comparator<Ranked<T>>()
+        {
+            public int compare( Ranked<T> first, Ranked<T> second )
+            {
+                int result = comparator.compare( first.item, second.item );
+                if( result == 0 )
+                {
+                    result = first.position < second.position ? -1 : ( first.position == second.position ? 0 : 1 );
+                }
+                return result;
+            }
+        };
+
+        // The head of the heap is the worst of the items kept so far
+        PriorityQueue<Ranked<T>> heap = new PriorityQueue<Ranked<T>>( Math.min( count, 1024 ), Collections.reverseOrder( ranking ) );
+        long position = 0;
+        for( T item : iterable )
+        {
+            Ranked<T> ranked = new Ranked<T>( item, position++ );
+            if( heap.size() < count )
+            {
+                heap.add( ranked );
+            }
+            else if( ranking.compare( ranked, heap.peek() ) < 0 )
+            {
+                heap.poll();
+                heap.add( ranked );
+            }
+        }
+
+        List<Ranked<T>> best = new ArrayList<Ranked<T>>( heap );
+        Collections.sort( best, ranking );
+        List<T> result = new ArrayList<T>( best.size() );
+        for( Ranked<T> ranked : best )
+        {
+            result.add( ranked.item );
+        }
+        return result;
+    }
+
+    private static final class Ranked<T>
+    {
+        private final T item;
+        private final long position;
+
+        private Ranked( T item, long position )
+        {
+            this.item = item;
+            this.position = position;
+        }
     }
 }
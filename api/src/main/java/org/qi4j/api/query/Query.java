@@ -118,4 +118,13 @@ public interface Query<T>
      */
     long count()
         throws QueryExecutionException;
+
+    /**
+     * Describe how this Query would be executed, including which parts
+     * are done by the indexing system and the estimated cost.
+     * This does not execute the Query.
+     *
+     * @return description of the query plan
+     */
+    String explain();
 }
\ No newline at end of file
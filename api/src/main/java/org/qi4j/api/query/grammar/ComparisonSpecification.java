@@ -2,6 +2,8 @@ package org.qi4j.api.query.grammar;
 
 import org.qi4j.api.composite.Composite;
 import org.qi4j.api.property.Property;
+import org.qi4j.functional.DoubleSpecification;
+import org.qi4j.functional.LongSpecification;
 
 /**
 * TODO
@@ -12,10 +14,17 @@ public abstract class ComparisonSpecification<T>
     protected final PropertyFunction<T> property;
     protected final T value;
 
+    private final LongSpecification longSpecification;
+    private final DoubleSpecification doubleSpecification;
+
     public ComparisonSpecification( PropertyFunction<T> property, T value )
     {
         this.property = property;
         this.value = value;
+
+        // Comparisons of wrapped primitives are done on the primitive values, without calling compareTo
+        longSpecification = isIntegral( value ) ? longSpecification( ( (Number) value ).longValue() ) : null;
+        doubleSpecification = isFloatingPoint( value ) ? doubleSpecification( ( (Number) value ).doubleValue() ) : null;
     }
 
     public PropertyFunction<T> getProperty()
@@ -37,6 +46,18 @@ public abstract class ComparisonSpecification<T>
             if (value == null)
                 return false;
 
+            if( value.getClass() == this.value.getClass() )
+            {
+                if( longSpecification != null )
+                {
+                    return longSpecification.satisfiedBy( ( (Number) value ).longValue() );
+                }
+                if( doubleSpecification != null )
+                {
+                    return doubleSpecification.satisfiedBy( ( (Number) value ).doubleValue() );
+                }
+            }
+
             return compare(value);
         } catch( IllegalArgumentException e )
         {
@@ -46,6 +67,58 @@ public abstract class ComparisonSpecification<T>
 
     protected abstract boolean compare(T value);
 
+    /**
+     * Override this to compare Long, Integer, Short and Byte values without boxing. The result must be the same
+     * as that of {@link #compare(Object)}.
+     *
+     * @param value the value to compare property values with
+     *
+     * @return specification of property values, or null if the comparison is only done by {@link #compare(Object)}
+     */
+    protected LongSpecification longSpecification( long value )
+    {
+        return null;
+    }
+
+    /**
+     * Override this to compare Double and Float values without boxing. The result must be the same
+     * as that of {@link #compare(Object)}, so use {@link Double#compare(double, double)}.
+     *
+     * @param value the value to compare property values with
+     *
+     * @return specification of property values, or null if the comparison is only done by {@link #compare(Object)}
+     */
+    protected DoubleSpecification doubleSpecification( double value )
+    {
+        return null;
+    }
+
+    /**
+     * @return the comparison of primitive values, if the value is a Long, Integer, Short or Byte, otherwise null
+     */
+    public LongSpecification getLongSpecification()
+    {
+        return longSpecification;
+    }
+
+    /**
+     * @return the comparison of primitive values, if the value is a Double or Float, otherwise null
+     */
+    public DoubleSpecification getDoubleSpecification()
+    {
+        return doubleSpecification;
+    }
+
+    private static boolean isIntegral( Object value )
+    {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isFloatingPoint( Object value )
+    {
+        return value instanceof Double || value instanceof Float;
+    }
+
     public T getValue()
     {
         return value;
@@ -1,5 +1,8 @@
 package org.qi4j.api.query.grammar;
 
+import org.qi4j.functional.DoubleSpecification;
+import org.qi4j.functional.LongSpecification;
+
 /**
  * TODO
  */
@@ -17,6 +20,30 @@ public class GeSpecification<T>
         return ((Comparable) value).compareTo( this.value ) >= 0;
     }
 
+    @Override
+    protected LongSpecification longSpecification( final long bound )
+    {
+        return new LongSpecification()
+        {
+            public boolean satisfiedBy( long value )
+            {
+                return value >= bound;
+            }
+        };
+    }
+
+    @Override
+    protected DoubleSpecification doubleSpecification( final double bound )
+    {
+        return new DoubleSpecification()
+        {
+            public boolean satisfiedBy( double value )
+            {
+                return Double.compare( value, bound ) >= 0;
+            }
+        };
+    }
+
     @Override
     public String toString()
     {
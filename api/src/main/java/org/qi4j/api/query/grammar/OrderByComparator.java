@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.api.query.grammar;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.property.Property;
+
+import java.util.Comparator;
+
+/**
+ * Compares composites by the order segments of a query, which is the order that query results have.
+ * <p>
+ * Missing values, which are null values and properties of associations that are not set, are smaller than
+ * all other values. They are ordered first for {@link OrderBy.Order#ASCENDING} and last for
+ * {@link OrderBy.Order#DESCENDING}. Values that are not {@link Comparable} are ordered as equal.
+ * </p>
+ */
+public final class OrderByComparator<T>
+    implements Comparator<T>
+{
+    private final Iterable<OrderBy> orderBySegments;
+
+    /**
+     * @param orderBySegments order segments, the first one has the highest priority
+     */
+    public OrderByComparator( Iterable<OrderBy> orderBySegments )
+    {
+        this.orderBySegments = orderBySegments;
+    }
+
+    public int compare( T first, T second )
+    {
+        for( OrderBy orderBy : orderBySegments )
+        {
+            int result = compareValues( value( orderBy, first ), value( orderBy, second ) );
+            if( result != 0 )
+            {
+                return orderBy.order() == OrderBy.Order.DESCENDING ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two values in ascending order, with missing values first.
+     *
+     * @param first  value, or null if it is missing
+     * @param second value, or null if it is missing
+     *
+     * @return negative, zero or positive if the first value is smaller than, equal to or larger than the second
+     */
+    @SuppressWarnings( "unchecked" )
+    public static int compareValues( Object first, Object second )
+    {
+        if( first == null )
+        {
+            return second == null ? 0 : -1;
+        }
+        else if( second == null )
+        {
+            return 1;
+        }
+        else if( first instanceof Comparable )
+        {
+            return ( (Comparable<Object>) first ).compareTo( second );
+        }
+        return 0;
+    }
+
+    private static Object value( OrderBy orderBy, Object item )
+    {
+        try
+        {
+            // The property is null if a traversed association is not set
+            Property<?> property = orderBy.getPropertyFunction().map( (Composite) item );
+            return property == null ? null : property.get();
+        }
+        catch( IllegalArgumentException e )
+        {
+            // The property can not be evaluated on this item
+            return null;
+        }
+    }
+}
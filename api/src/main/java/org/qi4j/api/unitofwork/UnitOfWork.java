@@ -88,7 +88,18 @@ public interface UnitOfWork
 
     <T> Query<T> newQuery(QueryBuilder<T> queryBuilder);
 
-//    DataSet newDataSetBuilder(Specification<?>... constraints);
+    /**
+     * Create a DataSet of the Entities of the given type. Constraints and filters that are query expressions
+     * are evaluated by the EntityFinder, and other specifications are evaluated on the loaded Entities.
+     *
+     * @param type the Entity type
+     *
+     * @return a DataSet of all Entities of the type
+     *
+     * @throws org.qi4j.api.query.MissingIndexingSystemException
+     *          if no EntityFinder is available
+     */
+    <T> DataSet<T> newDataSet( Class<T> type );
 
     /**
      * Create a new Entity which implements the given mixin type. An EntityComposite
@@ -213,6 +224,21 @@ public interface UnitOfWork
     void complete()
         throws UnitOfWorkCompletionException, ConcurrentEntityModificationException;
 
+    /**
+     * Complete this UnitOfWork asynchronously. The changes are validated and captured on the calling thread,
+     * after which this UnitOfWork is no longer the current one for the thread. The changes are then committed
+     * to the underlying EntityStore's using the {@link java.util.concurrent.Executor} found in the MetaInfo of
+     * the UnitOfWork or its Usecase, or a default one if none has been set.
+     * <p>
+     * If the changes could not be captured, for instance because of concurrent modifications, then the
+     * returned handle reports the failure and this UnitOfWork is left open, just as if {@link #complete()}
+     * had failed.
+     * </p>
+     *
+     * @return a handle that reports the outcome of the completion
+     */
+    UnitOfWorkCompletion completeAsync();
+
     /**
      * Discard thie UnitOfWork. Use this if a failure occurs that you cannot handle,
      * or if the usecase was of a read-only character. This is a no-op of the UnitOfWork
@@ -237,6 +263,15 @@ public interface UnitOfWork
      */
     boolean isPaused();
 
+    /**
+     * Check if the UnitOfWork is read-only. A read-only UnitOfWork is created by
+     * {@link UnitOfWorkFactory#newReadOnlyUnitOfWork()} or for a Usecase with {@link UnitOfWorkOptions#READ_ONLY},
+     * and throws {@link ReadOnlyUnitOfWorkException} if an entity is created, changed or removed.
+     *
+     * @return true if this UnitOfWork is read-only.
+     */
+    boolean isReadOnly();
+
     /**
      * Pauses this UnitOfWork.
      * <p>
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.api.unitofwork;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to an asynchronous completion of a UnitOfWork, as returned by {@link UnitOfWork#completeAsync()}.
+ * <p>
+ * The outcome is reported through {@link #await()}, which either returns normally if all changes
+ * were committed, or throws the same exceptions that {@link UnitOfWork#complete()} would have thrown.
+ * </p>
+ */
+public interface UnitOfWorkCompletion
+{
+    /**
+     * @return true if the completion has finished, either successfully or with a failure
+     */
+    boolean isDone();
+
+    /**
+     * Wait for the completion to finish.
+     *
+     * @throws ConcurrentEntityModificationException
+     *                                       if entities have been modified by others
+     * @throws UnitOfWorkCompletionException if the UnitOfWork could not be completed
+     * @throws InterruptedException          if the waiting thread was interrupted
+     */
+    void await()
+        throws UnitOfWorkCompletionException, InterruptedException;
+
+    /**
+     * Wait at most the given time for the completion to finish.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     *
+     * @throws ConcurrentEntityModificationException
+     *                                       if entities have been modified by others
+     * @throws UnitOfWorkCompletionException if the UnitOfWork could not be completed
+     * @throws InterruptedException          if the waiting thread was interrupted
+     * @throws TimeoutException              if the completion did not finish in time
+     */
+    void await( long timeout, TimeUnit unit )
+        throws UnitOfWorkCompletionException, InterruptedException, TimeoutException;
+}
@@ -66,6 +66,19 @@ public interface UnitOfWorkFactory
      */
     UnitOfWork newUnitOfWork( Usecase usecase, long currentTime );
 
+    /**
+     * Create a new read-only UnitOfWork and associate
+     * it with the current thread.
+     * <p/>
+     * Entities can be read and queried, but not created, changed or removed. Since nothing
+     * can be changed, the EntityStores do not have to keep track of the loaded entities.
+     * <p/>
+     * Current time will be set to System.currentTimeMillis();
+     *
+     * @return a new read-only UnitOfWork
+     */
+    UnitOfWork newReadOnlyUnitOfWork();
+
     /**
      * @return true if there is an active UnitOfWork associated with the executing thread
      */
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.api.unitofwork;
+
+/**
+ * Sizes of the caches of a UnitOfWork, to monitor the effect of {@link UnitOfWorkOptions#getMaxCleanEntities()}.
+ * The UnitOfWork instances of the runtime implement this interface.
+ */
+public interface UnitOfWorkGauges
+{
+    /**
+     * @return number of entities in the cache of the UnitOfWork
+     */
+    int cachedEntityCount();
+
+    /**
+     * @return number of entities that have been cleared out of the cache because they were not modified
+     */
+    long evictedEntityCount();
+
+    /**
+     * @return number of entity states that the EntityStore UnitOfWorks strongly reference
+     */
+    int cachedStateCount();
+
+    /**
+     * @return number of entity states that the EntityStore UnitOfWorks have evicted because they were not modified
+     */
+    long evictedStateCount();
+}
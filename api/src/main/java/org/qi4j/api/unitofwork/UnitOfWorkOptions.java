@@ -4,19 +4,86 @@ package org.qi4j.api.unitofwork;
  * Set instances of this in MetaInfo on UnitOfWork or the associated Usecase.
  *
  * Options: <br/>
- * "pruneOnPause": if true, then clear out all instances that have been loaded in the UoW but not modified
+ * "pruneOnPause": if true, then clear out all instances that have been loaded in the UoW but not modified <br/>
+ * "readOnly": if true, then the UoW cannot create, change or remove entities, and the EntityStores do not
+ * have to keep track of what has been loaded. This option is only read from the Usecase. <br/>
+ * "queryBatchSize": if more than 0, then query results are streamed. Entities are loaded this many at a time,
+ * and the ones that were loaded by the query are cleared out of the UoW when the iteration has moved past them,
+ * unless they have been modified. <br/>
+ * "maxCleanEntities": if more than 0, then at most this many entities that have been loaded but not modified are
+ * kept in the UoW and in the EntityStore UoWs, and the least recently used ones are cleared out. Entities that
+ * are cleared out this way or by "queryBatchSize" are not lost while the caller still references them, and can
+ * be modified. {@link UnitOfWorkGauges} reports how many are kept and cleared out. This option is only read
+ * from the Usecase.
  */
 public class UnitOfWorkOptions
 {
+    public static final UnitOfWorkOptions READ_ONLY = new UnitOfWorkOptions( false, true );
+
     private boolean pruneOnPause = false;
+    private boolean readOnly = false;
+    private int queryBatchSize = 0;
+    private int maxCleanEntities = 0;
 
     public UnitOfWorkOptions( boolean pruneOnPause )
     {
         this.pruneOnPause = pruneOnPause;
     }
 
+    public UnitOfWorkOptions( boolean pruneOnPause, boolean readOnly )
+    {
+        this.pruneOnPause = pruneOnPause;
+        this.readOnly = readOnly;
+    }
+
+    public UnitOfWorkOptions( boolean pruneOnPause, boolean readOnly, int queryBatchSize )
+    {
+        if( queryBatchSize < 0 )
+        {
+            throw new IllegalArgumentException( "Query batch size must not be negative" );
+        }
+        this.pruneOnPause = pruneOnPause;
+        this.readOnly = readOnly;
+        this.queryBatchSize = queryBatchSize;
+    }
+
+    public UnitOfWorkOptions( boolean pruneOnPause, boolean readOnly, int queryBatchSize, int maxCleanEntities )
+    {
+        this( pruneOnPause, readOnly, queryBatchSize );
+        if( maxCleanEntities < 0 )
+        {
+            throw new IllegalArgumentException( "Max clean entities must not be negative" );
+        }
+        this.maxCleanEntities = maxCleanEntities;
+    }
+
     public boolean isPruneOnPause()
     {
         return pruneOnPause;
     }
+
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    public int getQueryBatchSize()
+    {
+        return queryBatchSize;
+    }
+
+    /**
+     * Max number of loaded entities that have not been modified to keep referenced, or 0 for no bound.
+     * <p>
+     * This weakens the concurrent modification check: an entity that was cleared out before it was modified
+     * is not checked when the UnitOfWork completes, so a concurrent change to it is not detected. Entities
+     * that have been modified are always kept and checked.
+     * </p>
+     *
+     * @return max number of clean entities, or 0
+     */
+    public int getMaxCleanEntities()
+    {
+        return maxCleanEntities;
+    }
 }
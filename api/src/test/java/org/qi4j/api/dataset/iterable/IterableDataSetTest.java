@@ -3,12 +3,22 @@ package org.qi4j.api.dataset.iterable;
 import org.junit.Before;
 import org.junit.Test;
 import org.qi4j.api.dataset.DataSet;
+import org.qi4j.api.dataset.Query;
 import org.qi4j.api.property.Property;
+import org.qi4j.api.value.ValueComposite;
 import org.qi4j.bootstrap.AssemblyException;
 import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Function;
 import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
 import org.qi4j.test.AbstractQi4jTest;
 
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+
 /**
  * TODO
  */
@@ -24,17 +34,88 @@ public class IterableDataSetTest
     }
 
     @Before
-    public void setUp()
+    public void createDataSet()
     {
         dataSet = new IterableDataSet<TestValue>( Iterables.iterable( newTestValue("Rickard"),newTestValue("Niclas"), newTestValue("Paul") ) );
     }
 
+    @Test
+    public void testCountWithoutLimit()
+    {
+        assertThat( dataSet.newQuery().count(), equalTo( 3L ) );
+        assertThat( dataSet.newQuery().skip( 1 ).count(), equalTo( 2L ) );
+        assertThat( dataSet.newQuery().skip( 1 ).limit( 1 ).count(), equalTo( 1L ) );
+    }
+
+    @Test
+    public void testOrderBy()
+    {
+        TestValue template = templateFor( TestValue.class );
+        Query<TestValue> query = dataSet.newQuery();
+        query.orderBy( template.name(), Query.Order.ASCENDING );
+
+        assertThat( names( query.toIterable() ), equalTo( "Niclas,Paul,Rickard," ) );
+        assertThat( query.first().name().get(), equalTo( "Niclas" ) );
+    }
+
+    @Test
+    public void testOrderByWithSkipAndLimit()
+    {
+        TestValue template = templateFor( TestValue.class );
+        Query<TestValue> query = dataSet.newQuery();
+        query.orderBy( template.name(), Query.Order.DESCENDING ).skip( 1 ).limit( 1 );
+
+        assertThat( names( query.toIterable() ), equalTo( "Paul," ) );
+        assertThat( query.single().name().get(), equalTo( "Paul" ) );
+    }
+
+    @Test
+    public void testOrderByWithSkipAndMaximumLimit()
+    {
+        TestValue template = templateFor( TestValue.class );
+        Query<TestValue> query = dataSet.newQuery();
+        query.orderBy( template.name(), Query.Order.ASCENDING ).skip( 1 ).limit( Integer.MAX_VALUE );
+
+        assertThat( names( query.toIterable() ), equalTo( "Paul,Rickard," ) );
+    }
+
+    @Test
+    public void testConstrainAndProject()
+    {
+        DataSet<String> names = dataSet.constrain( new Specification<TestValue>()
+        {
+            public boolean satisfiedBy( TestValue item )
+            {
+                return item.name().get().length() > 4;
+            }
+        } ).project( new Function<TestValue, String>()
+        {
+            public String map( TestValue testValue )
+            {
+                return testValue.name().get();
+            }
+        } );
+
+        assertThat( Iterables.toList( names.newQuery().toIterable() ), equalTo( Arrays.asList( "Rickard", "Niclas" ) ) );
+    }
+
+    private String names( Iterable<TestValue> values )
+    {
+        StringBuilder names = new StringBuilder();
+        for( TestValue value : values )
+        {
+            names.append( value.name().get() ).append( ',' );
+        }
+        return names.toString();
+    }
+
     private TestValue newTestValue( String name )
     {
         return module.newValueFromJSON( TestValue.class, "{name:'"+name+"'}" );
     }
 
-    interface TestValue
+    public interface TestValue
+        extends ValueComposite
     {
         Property<String> name();
     }
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.api.query.grammar;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.value.ValueBuilder;
+import org.qi4j.api.value.ValueComposite;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.test.AbstractQi4jTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.qi4j.api.query.QueryExpressions.ge;
+import static org.qi4j.api.query.QueryExpressions.gt;
+import static org.qi4j.api.query.QueryExpressions.le;
+import static org.qi4j.api.query.QueryExpressions.lt;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+
+public class ComparisonSpecificationTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.values( Measurement.class );
+    }
+
+    @Test
+    public void testIntegralComparisons()
+    {
+        Measurement template = templateFor( Measurement.class );
+        Measurement measurement = measurement( 5, 2.5 );
+
+        assertNotNull( gt( template.count(), 4 ).getLongSpecification() );
+        assertEquals( true, gt( template.count(), 4 ).satisfiedBy( measurement ) );
+        assertEquals( false, gt( template.count(), 5 ).satisfiedBy( measurement ) );
+        assertEquals( true, ge( template.count(), 5 ).satisfiedBy( measurement ) );
+        assertEquals( false, lt( template.count(), 5 ).satisfiedBy( measurement ) );
+        assertEquals( true, le( template.count(), 5 ).satisfiedBy( measurement ) );
+        assertEquals( false, gt( template.count(), 4 ).satisfiedBy( measurement( null, 2.5 ) ) );
+    }
+
+    @Test
+    public void testFloatingPointComparisons()
+    {
+        Measurement template = templateFor( Measurement.class );
+        Measurement measurement = measurement( 5, 2.5 );
+
+        assertNotNull( lt( template.value(), 3.0 ).getDoubleSpecification() );
+        assertEquals( true, lt( template.value(), 3.0 ).satisfiedBy( measurement ) );
+        assertEquals( false, gt( template.value(), 2.5 ).satisfiedBy( measurement ) );
+        assertEquals( true, ge( template.value(), 2.5 ).satisfiedBy( measurement ) );
+        assertEquals( true, gt( template.value(), Double.NEGATIVE_INFINITY ).satisfiedBy( measurement ) );
+    }
+
+    @Test
+    public void testOtherComparableValues()
+    {
+        Measurement template = templateFor( Measurement.class );
+        Measurement measurement = measurement( 5, 2.5 );
+
+        assertNull( gt( template.name(), "A" ).getLongSpecification() );
+        assertEquals( true, gt( template.name(), "A" ).satisfiedBy( measurement ) );
+        assertEquals( false, lt( template.name(), "A" ).satisfiedBy( measurement ) );
+    }
+
+    private Measurement measurement( Integer count, double value )
+    {
+        ValueBuilder<Measurement> builder = module.newValueBuilder( Measurement.class );
+        builder.prototype().count().set( count );
+        builder.prototype().value().set( value );
+        builder.prototype().name().set( "Temperature" );
+        return builder.newInstance();
+    }
+
+    public interface Measurement
+        extends ValueComposite
+    {
+        @Optional
+        Property<Integer> count();
+
+        Property<Double> value();
+
+        Property<String> name();
+    }
+}
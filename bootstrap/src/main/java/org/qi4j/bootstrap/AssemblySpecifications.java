@@ -10,12 +10,13 @@ public class AssemblySpecifications
 {
     public static final Specification<TypeAssembly> types( final Class... types)
     {
+        final Specification<Class> allowed = Specifications.in( types );
         return new Specification<TypeAssembly>()
         {
             @Override
             public boolean satisfiedBy( TypeAssembly item )
             {
-                return Specifications.in( types ).satisfiedBy( item.type() );
+                return allowed.satisfiedBy( item.type() );
             }
         };
     }
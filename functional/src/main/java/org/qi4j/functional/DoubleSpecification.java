@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.functional;
+
+/**
+ * Specification of primitive double values. Use {@link Specifications#translateDouble(DoubleFunction, DoubleSpecification)}
+ * to apply it to items.
+ */
+public interface DoubleSpecification
+{
+    /**
+     * Test whether a value matches the given specification
+     *
+     * @param value the value to be tested
+     *
+     * @return true if the value matches, false otherwise
+     */
+    boolean satisfiedBy( double value );
+}
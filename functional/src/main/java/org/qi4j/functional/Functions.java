@@ -97,6 +97,36 @@ public final class Functions
         };
     }
 
+    /**
+     * Primitive value of numbers, for use with {@link Iterables#longSum(LongFunction, Iterable)}.
+     */
+    public static LongFunction<Number> longValue()
+    {
+        return new LongFunction<Number>()
+        {
+            @Override
+            public long map( Number number )
+            {
+                return number.longValue();
+            }
+        };
+    }
+
+    /**
+     * Primitive value of numbers, for use with {@link Iterables#doubleSum(DoubleFunction, Iterable)}.
+     */
+    public static DoubleFunction<Number> doubleValue()
+    {
+        return new DoubleFunction<Number>()
+        {
+            @Override
+            public double map( Number number )
+            {
+                return number.doubleValue();
+            }
+        };
+    }
+
     public static Function<Number, Integer> intSum()
     {
         return new Function<Number, Integer>()
@@ -421,6 +421,68 @@ public final class Iterables
         return last( map( function, i ) );
     }
 
+    /**
+     * Sum of the values of the items, without boxing each value.
+     */
+    public static <T> long longSum( LongFunction<? super T> function, Iterable<T> iterable )
+    {
+        long sum = 0;
+        for( T item : iterable )
+        {
+            sum += function.map( item );
+        }
+        return sum;
+    }
+
+    /**
+     * Sum of the values of the items, without boxing each value.
+     */
+    public static <T> double doubleSum( DoubleFunction<? super T> function, Iterable<T> iterable )
+    {
+        double sum = 0;
+        for( T item : iterable )
+        {
+            sum += function.map( item );
+        }
+        return sum;
+    }
+
+    /**
+     * Largest value of the items, or the given default if there are none.
+     */
+    public static <T> long max( LongFunction<? super T> function, long defaultValue, Iterable<T> iterable )
+    {
+        Iterator<T> iterator = iterable.iterator();
+        if( !iterator.hasNext() )
+        {
+            return defaultValue;
+        }
+        long max = function.map( iterator.next() );
+        while( iterator.hasNext() )
+        {
+            max = Math.max( max, function.map( iterator.next() ) );
+        }
+        return max;
+    }
+
+    /**
+     * Smallest value of the items, or the given default if there are none.
+     */
+    public static <T> long min( LongFunction<? super T> function, long defaultValue, Iterable<T> iterable )
+    {
+        Iterator<T> iterator = iterable.iterator();
+        if( !iterator.hasNext() )
+        {
+            return defaultValue;
+        }
+        long min = function.map( iterator.next() );
+        while( iterator.hasNext() )
+        {
+            min = Math.min( min, function.map( iterator.next() ) );
+        }
+        return min;
+    }
+
     public static <T, C extends T> Iterable<T> prepend( final C item, final Iterable<T> iterable )
     {
         return new Iterable<T>()
@@ -550,9 +612,26 @@ public final class Iterables
                 }, iterable );
     }
 
+    /**
+     * Cache the items of an iterable the first time they are read. The cache is safe to use from several threads,
+     * and concurrent iterators share one pass over the source.
+     */
     public static <T> Iterable<T> cache(Iterable<T> iterable)
     {
-        return new CacheIterable<T>(iterable);
+        return new CacheIterable<T>( iterable, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Cache the items of an iterable, unless it has more than maxSize items. In that case the cache is dropped
+     * and each iteration reads the source.
+     */
+    public static <T> Iterable<T> cache( Iterable<T> iterable, int maxSize )
+    {
+        if( maxSize < 0 )
+        {
+            throw new IllegalArgumentException( "Maximum size may not be negative" );
+        }
+        return new CacheIterable<T>( iterable, maxSize );
     }
 
     public static <T> List<T> toList( Iterable<T> iterable )
@@ -778,54 +857,163 @@ public final class Iterables
         }
     }
 
+    /**
+     * Iterable that reads its source at most once. Concurrent iterators share the items read so far, and
+     * take turns reading the next item from the source. The items are kept in an array that is trimmed to
+     * size when the source is exhausted.
+     * <p>
+     * If the source has more items than the maximum size, the cache is dropped, and from then on each
+     * iterator reads the source on its own.
+     * </p>
+     */
     private static class CacheIterable<T>
         implements Iterable<T>
     {
+        private final Object lock = new Object();
+        private final int maxSize;
         private Iterable<T> iterable;
-        private Iterable<T> cache;
+        private Iterator<T> source;
+        private boolean complete;
+
+        // Items are written before the size is incremented, so readers that read size first see them
+        private volatile Object[] items = new Object[ 16 ];
+        private volatile int size;
 
-        private CacheIterable( Iterable<T> iterable )
+        private CacheIterable( Iterable<T> iterable, int maxSize )
         {
             this.iterable = iterable;
+            this.maxSize = maxSize;
         }
 
         @Override
         public Iterator<T> iterator()
         {
-            if (cache != null)
-                return cache.iterator();
-
-            final Iterator<T> source = iterable.iterator();
+            if( items == null )
+            {
+                return iterable.iterator();
+            }
 
             return new Iterator<T>()
             {
-                List<T> iteratorCache = new ArrayList<T>();
+                private int index;
+                private Iterator<T> overflow;
 
                 @Override
                 public boolean hasNext()
                 {
-                    boolean hasNext = source.hasNext();
-                    if (!hasNext)
+                    if( overflow != null )
                     {
-                        cache = iteratorCache;
+                        return overflow.hasNext();
                     }
-                    return hasNext;
+                    if( index < size && items != null )
+                    {
+                        return true;
+                    }
+                    if( fill( index ) )
+                    {
+                        return true;
+                    }
+                    if( items != null )
+                    {
+                        return false;
+                    }
+                    return readSource().hasNext();
                 }
 
                 @Override
+                @SuppressWarnings( "unchecked" )
                 public T next()
                 {
-                    T next = source.next();
-                    iteratorCache.add( next );
-                    return next;
+                    if( !hasNext() )
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    if( overflow == null )
+                    {
+                        Object[] cached = items;
+                        if( cached != null )
+                        {
+                            return (T) cached[ index++ ];
+                        }
+                        // The cache was dropped after hasNext()
+                        readSource();
+                    }
+                    index++;
+                    return overflow.next();
+                }
+
+                /**
+                 * The cache has been dropped, so continue on a new iterator of the source.
+                 */
+                private Iterator<T> readSource()
+                {
+                    overflow = iterable.iterator();
+                    for( int i = 0; i < index && overflow.hasNext(); i++ )
+                    {
+                        overflow.next();
+                    }
+                    return overflow;
                 }
 
                 @Override
                 public void remove()
                 {
-
+                    throw new UnsupportedOperationException( "Cached iterables can not be changed" );
                 }
             };
         }
+
+        /**
+         * Read items from the source until there is an item at the given index.
+         *
+         * @return true if there is an item at the index in the cache
+         */
+        private boolean fill( int index )
+        {
+            synchronized( lock )
+            {
+                if( items == null )
+                {
+                    return false;
+                }
+                while( index >= size )
+                {
+                    if( complete )
+                    {
+                        return false;
+                    }
+                    if( source == null )
+                    {
+                        source = iterable.iterator();
+                    }
+                    if( !source.hasNext() )
+                    {
+                        complete = true;
+                        source = null;
+                        iterable = null;
+                        items = Arrays.copyOf( items, size );
+                        return false;
+                    }
+                    if( size == maxSize )
+                    {
+                        // Too many items to cache
+                        source = null;
+                        items = null;
+                        return false;
+                    }
+
+                    T item = source.next();
+                    Object[] cached = items;
+                    if( size == cached.length )
+                    {
+                        cached = Arrays.copyOf( cached, (int) Math.min( (long) maxSize, cached.length * 2L ) );
+                        items = cached;
+                    }
+                    cached[ size ] = item;
+                    size++;
+                }
+                return true;
+            }
+        }
     }
 }
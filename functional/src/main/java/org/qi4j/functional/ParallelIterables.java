@@ -0,0 +1,370 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.functional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel versions of some of the methods in {@link Iterables}. The source is split into chunks that are
+ * evaluated on an executor, and the results are combined in encounter order. Sources that are smaller than
+ * the threshold are evaluated sequentially with {@link Iterables}.
+ * <p>
+ * Unlike the methods in Iterables the results are not lazy. Lists that implement RandomAccess are split
+ * without copying, other collections and iterables are copied first. The functions and specifications
+ * must be safe to call from several threads at once.
+ * </p>
+ * <pre>
+ * List&lt;String&gt; names = ParallelIterables.parallel().map( nameFunction, persons );
+ * </pre>
+ */
+public final class ParallelIterables
+{
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final ParallelIterables DEFAULT = new ParallelIterables( null, DEFAULT_THRESHOLD );
+
+    private final Executor executor;
+    private final int threshold;
+
+    /**
+     * @return parallel evaluation on a shared pool of daemon threads, one per processor
+     */
+    public static ParallelIterables parallel()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * @param executor  the executor to evaluate chunks on
+     * @param threshold sources with fewer items than this are evaluated sequentially
+     *
+     * @return parallel evaluation on the given executor
+     */
+    public static ParallelIterables parallel( ExecutorService executor, int threshold )
+    {
+        if( executor == null )
+        {
+            throw new IllegalArgumentException( "Executor may not be null" );
+        }
+        if( threshold < 1 )
+        {
+            throw new IllegalArgumentException( "Threshold must be at least 1" );
+        }
+        return new ParallelIterables( executor, threshold );
+    }
+
+    private ParallelIterables( Executor executor, int threshold )
+    {
+        this.executor = executor;
+        this.threshold = threshold;
+    }
+
+    public <FROM, TO> List<TO> map( final Function<? super FROM, TO> function, Iterable<FROM> from )
+    {
+        List<FROM> source = toList( from );
+        if( source.size() < threshold )
+        {
+            return Iterables.addAll( new ArrayList<TO>( source.size() ), Iterables.map( function, source ) );
+        }
+
+        List<TO> result = new ArrayList<TO>( source.size() );
+        for( List<TO> chunk : evaluate( source, new ChunkFunction<FROM, List<TO>>()
+        {
+            public List<TO> evaluate( List<FROM> chunk )
+            {
+                List<TO> mapped = new ArrayList<TO>( chunk.size() );
+                for( FROM item : chunk )
+                {
+                    mapped.add( function.map( item ) );
+                }
+                return mapped;
+            }
+        } ) )
+        {
+            result.addAll( chunk );
+        }
+        return result;
+    }
+
+    public <X> List<X> filter( final Specification<? super X> specification, Iterable<X> iterable )
+    {
+        List<X> source = toList( iterable );
+        if( source.size() < threshold )
+        {
+            return Iterables.addAll( new ArrayList<X>(), Iterables.filter( specification, source ) );
+        }
+
+        List<X> result = new ArrayList<X>();
+        for( List<X> chunk : evaluate( source, new ChunkFunction<X, List<X>>()
+        {
+            public List<X> evaluate( List<X> chunk )
+            {
+                List<X> matching = new ArrayList<X>();
+                for( X item : chunk )
+                {
+                    if( specification.satisfiedBy( item ) )
+                    {
+                        matching.add( item );
+                    }
+                }
+                return matching;
+            }
+        } ) )
+        {
+            result.addAll( chunk );
+        }
+        return result;
+    }
+
+    /**
+     * Combine all items with an associative function. Each chunk is reduced from left to right, and the
+     * results of the chunks are then combined in encounter order.
+     * <p>
+     * There is no parallel version of {@link Iterables#fold(Function, Iterable)}, as the fold function keeps
+     * its state between calls.
+     * </p>
+     *
+     * @param combiner associative function that combines two items
+     * @param iterable the items
+     *
+     * @return the combined result, or null if there are no items
+     */
+    public <T> T reduce( final Function2<T, T, T> combiner, Iterable<T> iterable )
+    {
+        List<T> source = toList( iterable );
+        ChunkFunction<T, T> reduce = new ChunkFunction<T, T>()
+        {
+            public T evaluate( List<T> chunk )
+            {
+                T result = null;
+                boolean first = true;
+                for( T item : chunk )
+                {
+                    result = first ? item : combiner.map( result, item );
+                    first = false;
+                }
+                return result;
+            }
+        };
+
+        if( source.size() < threshold )
+        {
+            return reduce.evaluate( source );
+        }
+        return reduce.evaluate( evaluate( source, reduce ) );
+    }
+
+    public <T> long count( final Specification<? super T> specification, Iterable<T> iterable )
+    {
+        List<T> source = toList( iterable );
+        ChunkFunction<T, Long> count = new ChunkFunction<T, Long>()
+        {
+            public Long evaluate( List<T> chunk )
+            {
+                long count = 0;
+                for( T item : chunk )
+                {
+                    if( specification.satisfiedBy( item ) )
+                    {
+                        count++;
+                    }
+                }
+                return count;
+            }
+        };
+
+        if( source.size() < threshold )
+        {
+            return count.evaluate( source );
+        }
+        long result = 0;
+        for( Long chunkCount : evaluate( source, count ) )
+        {
+            result += chunkCount;
+        }
+        return result;
+    }
+
+    public <T> boolean matchesAny( Specification<? super T> specification, Iterable<T> iterable )
+    {
+        return matches( specification, iterable, true );
+    }
+
+    public <T> boolean matchesAll( Specification<? super T> specification, Iterable<T> iterable )
+    {
+        return !matches( specification, iterable, false );
+    }
+
+    /**
+     * @return true if any item satisfies the specification with the given result. Chunks stop early once
+     *         such an item has been found.
+     */
+    private <T> boolean matches( final Specification<? super T> specification,
+                                 Iterable<T> iterable,
+                                 final boolean expected
+    )
+    {
+        List<T> source = toList( iterable );
+        if( source.size() < threshold )
+        {
+            for( T item : source )
+            {
+                if( specification.satisfiedBy( item ) == expected )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final AtomicBoolean found = new AtomicBoolean();
+        for( Boolean chunkFound : evaluate( source, new ChunkFunction<T, Boolean>()
+        {
+            public Boolean evaluate( List<T> chunk )
+            {
+                for( T item : chunk )
+                {
+                    if( found.get() )
+                    {
+                        // Another chunk has the answer already
+                        return false;
+                    }
+                    if( specification.satisfiedBy( item ) == expected )
+                    {
+                        found.set( true );
+                        return true;
+                    }
+                }
+                return false;
+            }
+        } ) )
+        {
+            if( chunkFound )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T, R> List<R> evaluate( List<T> source, final ChunkFunction<T, R> function )
+    {
+        int chunks = Math.min( source.size(), PARALLELISM * 4 );
+        int chunkSize = ( source.size() + chunks - 1 ) / chunks;
+
+        List<FutureTask<R>> tasks = new ArrayList<FutureTask<R>>( chunks );
+        for( int start = 0; start < source.size(); start += chunkSize )
+        {
+            final List<T> chunk = source.subList( start, Math.min( source.size(), start + chunkSize ) );
+            FutureTask<R> task = new FutureTask<R>( new Callable<R>()
+            {
+                public R call()
+                    throws Exception
+                {
+                    return function.evaluate( chunk );
+                }
+            } );
+            tasks.add( task );
+        }
+
+        Executor executor = this.executor == null ? SharedPool.EXECUTOR : this.executor;
+        for( FutureTask<R> task : tasks.subList( 1, tasks.size() ) )
+        {
+            executor.execute( task );
+        }
+
+        List<R> results = new ArrayList<R>( tasks.size() );
+        for( FutureTask<R> task : tasks )
+        {
+            // Run chunks that have not been started yet in this thread. This does nothing if the executor has
+            // started the chunk already, and avoids deadlock when called from a thread of the executor itself
+            task.run();
+            try
+            {
+                results.add( task.get() );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while waiting for parallel evaluation", e );
+            }
+            catch( ExecutionException e )
+            {
+                for( FutureTask<R> other : tasks )
+                {
+                    other.cancel( false );
+                }
+                Throwable cause = e.getCause();
+                if( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException( cause );
+            }
+        }
+        return results;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T> List<T> toList( Iterable<T> iterable )
+    {
+        if( iterable instanceof List && iterable instanceof RandomAccess )
+        {
+            return (List<T>) iterable;
+        }
+        if( iterable instanceof Collection )
+        {
+            return (List<T>) Arrays.asList( ( (Collection<T>) iterable ).toArray() );
+        }
+        return Iterables.toList( iterable );
+    }
+
+    private interface ChunkFunction<T, R>
+    {
+        R evaluate( List<T> chunk );
+    }
+
+    private static final class SharedPool
+    {
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool( PARALLELISM, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "qi4j-parallel-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+}
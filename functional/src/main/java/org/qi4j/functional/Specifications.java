@@ -14,6 +14,14 @@
 
 package org.qi4j.functional;
 
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Common generic specification expressions
  */
@@ -41,6 +49,7 @@ public class Specifications
         };
     }
 
+    @SuppressWarnings( "unchecked" )
     public static <T> AndSpecification<T> and( final Specification<T>... specifications )
     {
         return and( Iterables.iterable( specifications ));
@@ -51,6 +60,7 @@ public class Specifications
         return new AndSpecification<T>( specifications );
     }
 
+    @SuppressWarnings( "unchecked" )
     public static <T> OrSpecification<T> or( final Specification<T>... specifications )
     {
         return or( Iterables.iterable( specifications ) );
@@ -61,29 +71,111 @@ public class Specifications
         return new OrSpecification<T>( specifications );
     }
 
+    @SuppressWarnings( "unchecked" )
     public static <T> Specification<T> in( final T... allowed )
     {
         return in( Iterables.iterable( allowed ) );
     }
 
+    /**
+     * The allowed values are copied into a hash set when the specification is created, so later changes
+     * to the iterable are not seen.
+     */
     public static <T> Specification<T> in( final Iterable<T> allowed )
     {
+        final Set<T> values = Iterables.addAll( new HashSet<T>(), allowed );
         return new Specification<T>()
         {
             public boolean satisfiedBy( T item )
             {
-                for( T allow : allowed )
-                {
-                    if( allow.equals( item ) )
-                    {
-                        return true;
-                    }
-                }
-                return false;
+                return values.contains( item );
+            }
+        };
+    }
+
+    /**
+     * Primitive version of {@link #in(Object[])} for numeric ids, which does not box the allowed values.
+     */
+    public static Specification<Long> in( final long[] allowed )
+    {
+        final LongSet values = new LongSet( allowed );
+        return new Specification<Long>()
+        {
+            public boolean satisfiedBy( Long item )
+            {
+                return item != null && values.contains( item );
+            }
+        };
+    }
+
+    /**
+     * Primitive version of {@link #in(Object[])} for numeric ids, which does not box the allowed values.
+     */
+    public static Specification<Integer> in( final int[] allowed )
+    {
+        long[] longs = new long[ allowed.length ];
+        for( int i = 0; i < allowed.length; i++ )
+        {
+            longs[ i ] = allowed[ i ];
+        }
+        final LongSet values = new LongSet( longs );
+        return new Specification<Integer>()
+        {
+            public boolean satisfiedBy( Integer item )
+            {
+                return item != null && values.contains( item );
             }
         };
     }
 
+    /**
+     * Declare the relative cost of evaluating a specification, for use with {@link #optimizingAnd(Specification[])}
+     * and {@link #optimizingOr(Specification[])}. Specifications without a declared cost have cost 1.
+     */
+    public static <T> CostedSpecification<T> withCost( final int cost, final Specification<T> specification )
+    {
+        return new CostedSpecification<T>()
+        {
+            public int cost()
+            {
+                return cost;
+            }
+
+            public boolean satisfiedBy( T item )
+            {
+                return specification.satisfiedBy( item );
+            }
+        };
+    }
+
+    /**
+     * AND that evaluates cheap and selective specifications first. See {@link OptimizingSpecification}.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <T> OptimizingSpecification<T> optimizingAnd( final Specification<T>... specifications )
+    {
+        return new OptimizingSpecification<T>( true, Iterables.iterable( specifications ) );
+    }
+
+    public static <T> OptimizingSpecification<T> optimizingAnd( final Iterable<Specification<T>> specifications )
+    {
+        return new OptimizingSpecification<T>( true, specifications );
+    }
+
+    /**
+     * OR that evaluates cheap and likely specifications first. See {@link OptimizingSpecification}.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <T> OptimizingSpecification<T> optimizingOr( final Specification<T>... specifications )
+    {
+        return new OptimizingSpecification<T>( false, Iterables.iterable( specifications ) );
+    }
+
+    public static <T> OptimizingSpecification<T> optimizingOr( final Iterable<Specification<T>> specifications )
+    {
+        return new OptimizingSpecification<T>( false, specifications );
+    }
+
     public static <T> Specification<T> notNull()
     {
         return new Specification<T>()
@@ -108,6 +200,30 @@ public class Specifications
         };
     }
 
+    public static <T> Specification<T> translateLong( final LongFunction<? super T> function, final LongSpecification specification )
+    {
+        return new Specification<T>()
+        {
+            @Override
+            public boolean satisfiedBy( T item )
+            {
+                return specification.satisfiedBy( function.map( item ) );
+            }
+        };
+    }
+
+    public static <T> Specification<T> translateDouble( final DoubleFunction<? super T> function, final DoubleSpecification specification )
+    {
+        return new Specification<T>()
+        {
+            @Override
+            public boolean satisfiedBy( T item )
+            {
+                return specification.satisfiedBy( function.map( item ) );
+            }
+        };
+    }
+
     public static class AndSpecification<T> implements Specification<T>
     {
         private final Iterable<Specification<T>> specifications;
@@ -130,6 +246,7 @@ public class Specifications
             return true;
         }
 
+        @SuppressWarnings( "unchecked" )
         public AndSpecification<T> and(Specification<T>... specifications)
         {
             Iterable<Specification<T>> iterable = Iterables.iterable( specifications );
@@ -137,6 +254,7 @@ public class Specifications
             return Specifications.and( flatten );
         }
 
+        @SuppressWarnings( "unchecked" )
         public OrSpecification<T> or(Specification<T>... specifications)
         {
             return Specifications.or( Iterables.prepend( this, Iterables.iterable( specifications ) ) );
@@ -165,11 +283,13 @@ public class Specifications
             return false;
         }
 
+        @SuppressWarnings( "unchecked" )
         public AndSpecification<T> and(Specification<T>... specifications)
         {
             return Specifications.and( Iterables.prepend( this, Iterables.iterable( specifications ) ) );
         }
 
+        @SuppressWarnings( "unchecked" )
         public OrSpecification<T> or(Specification<T>... specifications)
         {
             Iterable<Specification<T>> iterable = Iterables.iterable( specifications );
@@ -177,4 +297,175 @@ public class Specifications
             return Specifications.or( flatten );
         }
     }
+
+    /**
+     * AND or OR of specifications that may be evaluated in any order, and therefore must not have side effects.
+     * <p>
+     * The specifications are first ordered by declared cost, see {@link CostedSpecification}. While evaluating,
+     * the specification counts how often each child decides the result on its own, and every
+     * {@link #REORDER_INTERVAL} evaluations the children are ordered by cost divided by that probability.
+     * The counters are updated without synchronization, as they are only estimates.
+     * </p>
+     */
+    public static class OptimizingSpecification<T> implements Specification<T>
+    {
+        public static final int REORDER_INTERVAL = 1000;
+
+        private final boolean and;
+        private volatile Child<T>[] children;
+        private int evaluations;
+
+        private OptimizingSpecification( boolean and, Iterable<Specification<T>> specifications )
+        {
+            this.and = and;
+            List<Child<T>> list = Iterables.toList( Iterables.map( new Function<Specification<T>, Child<T>>()
+            {
+                public Child<T> map( Specification<T> specification )
+                {
+                    return new Child<T>( specification );
+                }
+            }, specifications ) );
+            Collections.sort( list, new Comparator<Child<T>>()
+            {
+                public int compare( Child<T> first, Child<T> second )
+                {
+                    return first.cost < second.cost ? -1 : ( first.cost == second.cost ? 0 : 1 );
+                }
+            } );
+            children = toArray( list );
+        }
+
+        @SuppressWarnings( "unchecked" )
+        private static <T> Child<T>[] toArray( List<Child<T>> list )
+        {
+            return list.toArray( (Child<T>[]) Array.newInstance( Child.class, list.size() ) );
+        }
+
+        public boolean satisfiedBy( T instance )
+        {
+            if( ++evaluations >= REORDER_INTERVAL )
+            {
+                evaluations = 0;
+                reorder();
+            }
+
+            for( Child<T> child : children )
+            {
+                child.evaluations++;
+                if( child.specification.satisfiedBy( instance ) != and )
+                {
+                    child.decisions++;
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        /**
+         * @return the specifications in the order they are currently evaluated
+         */
+        public Iterable<Specification<T>> specifications()
+        {
+            return Iterables.map( new Function<Child<T>, Specification<T>>()
+            {
+                public Specification<T> map( Child<T> child )
+                {
+                    return child.specification;
+                }
+            }, Arrays.asList( children ) );
+        }
+
+        private void reorder()
+        {
+            Child<T>[] reordered = children.clone();
+            for( Child<T> child : reordered )
+            {
+                // Probability that the child decides the result, with one decision and one miss added so that
+                // children that have not been evaluated yet still get a chance
+                double probability = ( child.decisions + 1.0 ) / ( child.evaluations + 2.0 );
+                child.rank = child.cost / probability;
+
+                // Decay, so that the order follows changes in the data
+                child.evaluations /= 2;
+                child.decisions /= 2;
+            }
+            Arrays.sort( reordered, new Comparator<Child<T>>()
+            {
+                public int compare( Child<T> first, Child<T> second )
+                {
+                    return Double.compare( first.rank, second.rank );
+                }
+            } );
+            children = reordered;
+        }
+
+        private static final class Child<T>
+        {
+            private final Specification<T> specification;
+            private final int cost;
+            private int evaluations;
+            private int decisions;
+            private double rank;
+
+            private Child( Specification<T> specification )
+            {
+                this.specification = specification;
+                cost = specification instanceof CostedSpecification
+                       ? Math.max( 1, ( (CostedSpecification<?>) specification ).cost() )
+                       : 1;
+            }
+        }
+    }
+
+    /**
+     * Open addressing hash set of longs.
+     */
+    private static final class LongSet
+    {
+        private final long[] values;
+        private final boolean[] used;
+        private final int mask;
+
+        private LongSet( long[] allowed )
+        {
+            int capacity = 2;
+            while( capacity < allowed.length * 2 )
+            {
+                capacity <<= 1;
+            }
+            values = new long[ capacity ];
+            used = new boolean[ capacity ];
+            mask = capacity - 1;
+            for( long value : allowed )
+            {
+                int slot = slot( value );
+                while( used[ slot ] && values[ slot ] != value )
+                {
+                    slot = ( slot + 1 ) & mask;
+                }
+                values[ slot ] = value;
+                used[ slot ] = true;
+            }
+        }
+
+        private boolean contains( long value )
+        {
+            int slot = slot( value );
+            while( used[ slot ] )
+            {
+                if( values[ slot ] == value )
+                {
+                    return true;
+                }
+                slot = ( slot + 1 ) & mask;
+            }
+            return false;
+        }
+
+        private int slot( long value )
+        {
+            long hash = value * 0x9E3779B97F4A7C15L;
+            return (int) ( hash ^ ( hash >>> 32 ) ) & mask;
+        }
+    }
 }
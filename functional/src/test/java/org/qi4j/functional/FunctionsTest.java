@@ -63,6 +63,29 @@ public class FunctionsTest
         assertThat( last( map( longSum(), iterable( 1, 2L, 3F, 4D ) ) ), equalTo( 10L ) );
     }
 
+    @Test
+    public void testPrimitiveSum()
+    {
+        assertThat( Iterables.longSum( Functions.longValue(), Iterables.<Number, Number>iterable( 1, 2L, 3F, 4D ) ), equalTo( 10L ) );
+        assertThat( Iterables.doubleSum( Functions.doubleValue(), Iterables.<Number, Number>iterable( 1, 2L, 0.5F, 0.25D ) ), equalTo( 3.75D ) );
+        assertThat( Iterables.max( Functions.longValue(), -1, Iterables.<Number, Number>iterable( 3, 7L, 5 ) ), equalTo( 7L ) );
+        assertThat( Iterables.min( Functions.longValue(), -1, Iterables.<Number, Number>iterable( 3, 7L, 5 ) ), equalTo( 3L ) );
+        assertThat( Iterables.min( Functions.longValue(), -1, Iterables.<Number>empty() ), equalTo( -1L ) );
+    }
+
+    @Test
+    public void testPrimitiveSpecification()
+    {
+        Specification<Number> positive = Specifications.translateLong( Functions.longValue(), new LongSpecification()
+        {
+            public boolean satisfiedBy( long value )
+            {
+                return value > 0;
+            }
+        } );
+        assertThat( Iterables.count( Iterables.filter( positive, Iterables.<Number, Number>iterable( -1, 0, 1, 2L ) ) ), equalTo( 2L ) );
+    }
+
     @Test
     public void testIntSum()
     {
@@ -18,6 +18,7 @@ import org.hamcrest.CoreMatchers;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
@@ -248,4 +249,103 @@ public class IterablesTest
 
         assertThat( count[0], equalTo( 3 ) );
     }
+
+    @Test
+    public void testCachePartialIterationsShareOnePass()
+    {
+        final int[] count = new int[1];
+        Iterable<Integer> cached = Iterables.cache( Iterables.map( new Function<Integer, Integer>()
+        {
+            public Integer map( Integer value )
+            {
+                count[0]++;
+                return value;
+            }
+        }, numberIntegers ) );
+
+        Iterator<Integer> first = cached.iterator();
+        Iterator<Integer> second = cached.iterator();
+        assertThat( first.next(), equalTo( 1 ) );
+        assertThat( second.next(), equalTo( 1 ) );
+        assertThat( second.next(), equalTo( 2 ) );
+        assertThat( first.next(), equalTo( 2 ) );
+        assertThat( count[0], equalTo( 2 ) );
+
+        assertThat( Iterables.toList( cached ), equalTo( Arrays.asList( 1, 2, 3 ) ) );
+        assertThat( first.next(), equalTo( 3 ) );
+        assertThat( first.hasNext(), equalTo( false ) );
+        assertThat( count[0], equalTo( 3 ) );
+    }
+
+    @Test
+    public void testCacheConcurrentIterations()
+        throws Exception
+    {
+        final AtomicInteger count = new AtomicInteger();
+        List<Integer> numbers = new ArrayList<Integer>();
+        for( int i = 0; i < 10000; i++ )
+        {
+            numbers.add( i );
+        }
+        final Iterable<Integer> cached = Iterables.cache( Iterables.map( new Function<Integer, Integer>()
+        {
+            public Integer map( Integer value )
+            {
+                count.incrementAndGet();
+                return value;
+            }
+        }, numbers ) );
+
+        final List<List<Integer>> results = Collections.synchronizedList( new ArrayList<List<Integer>>() );
+        List<Thread> threads = new ArrayList<Thread>();
+        for( int i = 0; i < 8; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    results.add( Iterables.toList( cached ) );
+                }
+            };
+            threads.add( thread );
+            thread.start();
+        }
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertThat( count.get(), equalTo( 10000 ) );
+        for( List<Integer> result : results )
+        {
+            assertThat( result, equalTo( numbers ) );
+        }
+    }
+
+    @Test
+    public void testBoundedCache()
+    {
+        final int[] count = new int[1];
+        Iterable<Integer> cached = Iterables.cache( Iterables.map( new Function<Integer, Integer>()
+        {
+            public Integer map( Integer value )
+            {
+                count[0]++;
+                return value;
+            }
+        }, numberIntegers ), 2 );
+
+        Iterator<Integer> partial = cached.iterator();
+        assertThat( partial.next(), equalTo( 1 ) );
+
+        assertThat( Iterables.toList( cached ), equalTo( Arrays.asList( 1, 2, 3 ) ) );
+        assertThat( partial.next(), equalTo( 2 ) );
+        assertThat( partial.next(), equalTo( 3 ) );
+        assertThat( Iterables.toList( cached ), equalTo( Arrays.asList( 1, 2, 3 ) ) );
+        assertThat( count[0] > 3, equalTo( true ) );
+
+        Iterable<Integer> large = Iterables.cache( numberIntegers, 3 );
+        assertThat( Iterables.toList( large ), equalTo( Arrays.asList( 1, 2, 3 ) ) );
+        assertThat( Iterables.toList( large ), equalTo( Arrays.asList( 1, 2, 3 ) ) );
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.functional;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test of ParallelIterables
+ */
+public class ParallelIterablesTest
+{
+    private static final Function<Integer, Integer> DOUBLE = new Function<Integer, Integer>()
+    {
+        public Integer map( Integer value )
+        {
+            return value * 2;
+        }
+    };
+
+    private static final Specification<Integer> EVEN = new Specification<Integer>()
+    {
+        public boolean satisfiedBy( Integer item )
+        {
+            return item % 2 == 0;
+        }
+    };
+
+    private static final Function2<Integer, Integer, Integer> SUM = new Function2<Integer, Integer, Integer>()
+    {
+        public Integer map( Integer first, Integer second )
+        {
+            return first + second;
+        }
+    };
+
+    private final List<Integer> numbers = numbers( 10000 );
+
+    @Test
+    public void testMapPreservesOrder()
+    {
+        List<Integer> result = ParallelIterables.parallel().map( DOUBLE, numbers );
+
+        assertThat( result, equalTo( Iterables.toList( Iterables.map( DOUBLE, numbers ) ) ) );
+    }
+
+    @Test
+    public void testFilterPreservesOrder()
+    {
+        List<Integer> result = ParallelIterables.parallel().filter( EVEN, numbers );
+
+        assertThat( result, equalTo( Iterables.toList( Iterables.filter( EVEN, numbers ) ) ) );
+    }
+
+    @Test
+    public void testReduce()
+    {
+        assertThat( ParallelIterables.parallel().reduce( SUM, numbers ), equalTo( 49995000 ) );
+        assertThat( ParallelIterables.parallel().reduce( SUM, new ArrayList<Integer>() ), equalTo( null ) );
+    }
+
+    @Test
+    public void testCountAndMatches()
+    {
+        ParallelIterables parallel = ParallelIterables.parallel();
+        assertThat( parallel.count( EVEN, numbers ), equalTo( 5000L ) );
+        assertThat( parallel.matchesAny( EVEN, numbers ), equalTo( true ) );
+        assertThat( parallel.matchesAll( EVEN, numbers ), equalTo( false ) );
+        assertThat( parallel.matchesAll( EVEN, parallel.map( DOUBLE, numbers ) ), equalTo( true ) );
+    }
+
+    @Test
+    public void testUnsizedSourceAndSmallSource()
+    {
+        Iterable<Integer> lazy = Iterables.map( DOUBLE, numbers );
+        assertThat( ParallelIterables.parallel().count( EVEN, lazy ), equalTo( 10000L ) );
+
+        assertThat( ParallelIterables.parallel().map( DOUBLE, numbers( 3 ) ), equalTo( Arrays.asList( 0, 2, 4 ) ) );
+    }
+
+    @Test
+    public void testNestedEvaluationOnSingleThreadExecutor()
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            final ParallelIterables parallel = ParallelIterables.parallel( executor, 10 );
+            List<Integer> sums = parallel.map( new Function<Integer, Integer>()
+            {
+                public Integer map( Integer value )
+                {
+                    return parallel.reduce( SUM, numbers( 100 ) ) + value;
+                }
+            }, numbers( 100 ) );
+
+            assertThat( sums.get( 0 ), equalTo( 4950 ) );
+            assertThat( sums.get( 99 ), equalTo( 5049 ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void testExceptionIsRethrown()
+    {
+        ParallelIterables.parallel().map( new Function<Integer, Integer>()
+        {
+            public Integer map( Integer value )
+            {
+                if( value == 5000 )
+                {
+                    throw new IllegalStateException( "Failed" );
+                }
+                return value;
+            }
+        }, numbers );
+    }
+
+    private static List<Integer> numbers( int count )
+    {
+        List<Integer> numbers = new ArrayList<Integer>( count );
+        for( int i = 0; i < count; i++ )
+        {
+            numbers.add( i );
+        }
+        return numbers;
+    }
+}
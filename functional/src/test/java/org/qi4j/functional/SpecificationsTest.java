@@ -17,6 +17,10 @@ package org.qi4j.functional;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 
 /**
@@ -68,6 +72,88 @@ public class SpecificationsTest
         Assert.assertThat( Specifications.in( "1", "2", "3" ).satisfiedBy( "4" ), equalTo( false ) );
     }
 
+    @Test
+    public void testInTakesSnapshotOfValues()
+    {
+        List<String> allowed = new ArrayList<String>( Arrays.asList( "1", "2" ) );
+        Specification<String> in = Specifications.in( allowed );
+        allowed.add( "3" );
+
+        Assert.assertThat( in.satisfiedBy( "2" ), equalTo( true ) );
+        Assert.assertThat( in.satisfiedBy( "3" ), equalTo( false ) );
+        Assert.assertThat( in.satisfiedBy( null ), equalTo( false ) );
+    }
+
+    @Test
+    public void testInPrimitives()
+    {
+        long[] ids = new long[ 1000 ];
+        for( int i = 0; i < ids.length; i++ )
+        {
+            ids[ i ] = i * 7L - 3000;
+        }
+        Specification<Long> in = Specifications.in( ids );
+        Assert.assertThat( in.satisfiedBy( -3000L ), equalTo( true ) );
+        Assert.assertThat( in.satisfiedBy( 7L * 999 - 3000 ), equalTo( true ) );
+        Assert.assertThat( in.satisfiedBy( 1L ), equalTo( false ) );
+        Assert.assertThat( in.satisfiedBy( null ), equalTo( false ) );
+
+        Assert.assertThat( Specifications.in( new int[]{ 1, 2, 3 } ).satisfiedBy( 3 ), equalTo( true ) );
+        Assert.assertThat( Specifications.in( new int[]{ } ).satisfiedBy( 3 ), equalTo( false ) );
+    }
+
+    @Test
+    public void testOptimizingAndOrdersByCostAndSelectivity()
+    {
+        final int[] calls = new int[ 2 ];
+        Specification<Integer> expensive = Specifications.withCost( 10, new Specification<Integer>()
+        {
+            public boolean satisfiedBy( Integer item )
+            {
+                calls[ 0 ]++;
+                return item % 2 == 0;
+            }
+        } );
+        Specification<Integer> rarelyTrue = new Specification<Integer>()
+        {
+            public boolean satisfiedBy( Integer item )
+            {
+                calls[ 1 ]++;
+                return item % 100 == 0;
+            }
+        };
+        Specification<Integer> alwaysTrue = Specifications.TRUE();
+
+        Specifications.OptimizingSpecification<Integer> and = Specifications.optimizingAnd( expensive, alwaysTrue, rarelyTrue );
+        Assert.assertThat( Iterables.first( and.specifications() ), equalTo( alwaysTrue ) );
+
+        int matches = 0;
+        for( int i = 0; i < 10000; i++ )
+        {
+            if( and.satisfiedBy( i ) )
+            {
+                matches++;
+            }
+        }
+
+        Assert.assertThat( matches, equalTo( 100 ) );
+        Assert.assertThat( Iterables.first( and.specifications() ), equalTo( rarelyTrue ) );
+        // The expensive specification is only evaluated for items that pass the selective one
+        Assert.assertThat( calls[ 0 ] < 1000, equalTo( true ) );
+    }
+
+    @Test
+    public void testOptimizingOr()
+    {
+        Specification<Integer> trueSpec = Specifications.TRUE();
+        Specification<Integer> falseSpec = Specifications.not( trueSpec );
+
+        Assert.assertThat( Specifications.optimizingOr( falseSpec, falseSpec ).satisfiedBy( 1 ), equalTo( false ) );
+        Assert.assertThat( Specifications.optimizingOr( falseSpec, trueSpec ).satisfiedBy( 1 ), equalTo( true ) );
+        Assert.assertThat( Specifications.optimizingAnd( trueSpec, falseSpec ).satisfiedBy( 1 ), equalTo( false ) );
+        Assert.assertThat( Specifications.optimizingAnd( trueSpec, trueSpec ).satisfiedBy( 1 ), equalTo( true ) );
+    }
+
     @Test
     public void testTranslate()
     {
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sender of a region of a file. Outputs that write to a channel can check if the Sender they get
+ * is a FileChannelSender, and then transfer the region with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * instead of receiving the data as ByteBuffers.
+ */
+interface FileChannelSender
+    extends Sender<ByteBuffer, IOException>
+{
+    FileChannel channel();
+
+    long position();
+
+    long size()
+        throws IOException;
+}
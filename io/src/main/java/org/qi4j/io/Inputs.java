@@ -23,6 +23,8 @@ import java.net.URLConnection;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
@@ -31,6 +33,8 @@ import java.util.zip.GZIPInputStream;
  */
 public class Inputs
 {
+    private static final long MAPPED_CHUNK_SIZE = 64 * 1024 * 1024;
+
     /**
      * Read lines from a UTF-8 encoded textfile.
      *
@@ -156,7 +160,9 @@ public class Inputs
     }
 
     /**
-     * Read a file using ByteBuffer of a given size. Useful for transferring raw data.
+     * Read a file using ByteBuffer of a given size. Useful for transferring raw data. If the Output writes
+     * to a file or channel, such as {@link Outputs#byteBuffer(File)} or {@link Outputs#channel(java.nio.channels.WritableByteChannel)},
+     * the file is copied directly between the channels instead.
      *
      * @param source
      * @param bufferSize
@@ -177,8 +183,24 @@ public class Inputs
 
                 try
                 {
-                    output.receiveFrom( new Sender<ByteBuffer, IOException>()
+                    output.receiveFrom( new FileChannelSender()
                     {
+                        public FileChannel channel()
+                        {
+                            return fci;
+                        }
+
+                        public long position()
+                        {
+                            return 0;
+                        }
+
+                        public long size()
+                            throws IOException
+                        {
+                            return fci.size();
+                        }
+
                        @Override
                        public <ReceiverThrowableType extends Throwable> void sendTo(Receiver<? super ByteBuffer, ReceiverThrowableType> receiver) throws ReceiverThrowableType, IOException
                        {
@@ -199,6 +221,138 @@ public class Inputs
         };
     }
 
+    /**
+     * Read a file by mapping it into memory. The file is sent as read-only ByteBuffers of up to 64MB each, which
+     * are not copied to the Java heap. Use {@link Transforms#split(byte, Output)} to split the buffers into records.
+     *
+     * @param source
+     *
+     * @return
+     */
+    public static Input<ByteBuffer, IOException> mapped( final File source )
+    {
+        return mapped( source, 0, source.length() );
+    }
+
+    /**
+     * Read a region of a file by mapping it into memory. See {@link #mapped(File)}.
+     *
+     * @param source
+     * @param position start of the region
+     * @param size     size of the region
+     *
+     * @return
+     */
+    public static Input<ByteBuffer, IOException> mapped( final File source, final long position, final long size )
+    {
+        return new Input<ByteBuffer, IOException>()
+        {
+           @Override
+           public <ReceiverThrowableType extends Throwable> void transferTo(Output<? super ByteBuffer, ReceiverThrowableType> output) throws IOException, ReceiverThrowableType
+           {
+                final FileInputStream stream = new FileInputStream( source );
+                final FileChannel fci = stream.getChannel();
+
+                try
+                {
+                    output.receiveFrom( new FileChannelSender()
+                    {
+                        public FileChannel channel()
+                        {
+                            return fci;
+                        }
+
+                        public long position()
+                        {
+                            return position;
+                        }
+
+                        public long size()
+                        {
+                            return size;
+                        }
+
+                       @Override
+                       public <ReceiverThrowableType extends Throwable> void sendTo(Receiver<? super ByteBuffer, ReceiverThrowableType> receiver) throws ReceiverThrowableType, IOException
+                       {
+                            long end = position + size;
+                            for( long chunk = position; chunk < end; chunk += MAPPED_CHUNK_SIZE )
+                            {
+                                receiver.receive( fci.map( FileChannel.MapMode.READ_ONLY, chunk, Math.min( MAPPED_CHUNK_SIZE, end - chunk ) ) );
+                            }
+                        }
+                    } );
+                }
+                finally
+                {
+                    stream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Split a file into regions that can be read in parallel, each by mapping it into memory. The regions end
+     * just after a separator, so that no record is split between two regions. There may be fewer regions than
+     * requested if the file is small or has few separators.
+     *
+     * @param source
+     * @param count     number of regions
+     * @param separator separator between records, e.g. '\n'
+     *
+     * @return Inputs for the regions, in the order of the file
+     *
+     * @throws IOException if the file could not be read
+     */
+    public static List<Input<ByteBuffer, IOException>> mappedRegions( File source, int count, byte separator )
+        throws IOException
+    {
+        List<Input<ByteBuffer, IOException>> regions = new ArrayList<Input<ByteBuffer, IOException>>();
+        long length = source.length();
+
+        FileInputStream stream = new FileInputStream( source );
+        try
+        {
+            FileChannel fci = stream.getChannel();
+            long start = 0;
+            for( int i = 1; i <= count && start < length; i++ )
+            {
+                long end = i == count ? length : nextRecord( fci, Math.max( start, length * i / count ), separator );
+                if( end > start )
+                {
+                    regions.add( mapped( source, start, end - start ) );
+                    start = end;
+                }
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        return regions;
+    }
+
+    private static long nextRecord( FileChannel channel, long position, byte separator )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( 8192 );
+        int read;
+        while( ( read = channel.read( buffer, position ) ) != -1 )
+        {
+            for( int i = 0; i < read; i++ )
+            {
+                if( buffer.get( i ) == separator )
+                {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+            buffer.clear();
+        }
+        return channel.size();
+    }
+
     /**
      * Read an inputstream using ByteBuffer of a given size.
      *
@@ -16,8 +16,11 @@ package org.qi4j.io;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -25,6 +28,8 @@ import java.util.zip.GZIPOutputStream;
  */
 public class Outputs
 {
+    private static final int MAPPED_CHUNK_SIZE = 16 * 1024 * 1024;
+
     /**
      * Write lines to a text file with UTF-8 encoding. Separate each line with a newline ("\n" character). If the writing or sending fails,
      * the file is deleted.
@@ -105,6 +110,8 @@ public class Outputs
 
     /**
      * Write ByteBuffer data to a file. If the writing or sending of data fails the file will be deleted.
+     * If the data comes from a file, such as with {@link Inputs#byteBuffer(File, int)}, it is copied
+     * directly between the file channels.
      *
      * @param file
      * @param <T>
@@ -124,14 +131,21 @@ public class Outputs
 
                 try
                 {
-                    sender.sendTo( new Receiver<ByteBuffer, IOException>()
+                    if( sender instanceof FileChannelSender )
                     {
-                        public void receive( ByteBuffer item )
-                            throws IOException
+                        transfer( (FileChannelSender) sender, fco );
+                    }
+                    else
+                    {
+                        sender.sendTo( new Receiver<ByteBuffer, IOException>()
                         {
-                            fco.write( item );
-                        }
-                    } );
+                            public void receive( ByteBuffer item )
+                                throws IOException
+                            {
+                                fco.write( item );
+                            }
+                        } );
+                    }
                     stream.close();
 
                     // Replace file with temporary file
@@ -156,6 +170,133 @@ public class Outputs
         };
     }
 
+    /**
+     * Write ByteBuffer data to a file by mapping it into memory, so that the data is written without going through
+     * a stream. If the writing or sending of data fails the file will be deleted.
+     *
+     * @param file
+     *
+     * @return
+     */
+    public static Output<ByteBuffer, IOException> mapped( final File file )
+    {
+        return new Output<ByteBuffer, IOException>()
+        {
+           @Override
+           public <SenderThrowableType extends Throwable> void receiveFrom(Sender<? extends ByteBuffer, SenderThrowableType> sender) throws IOException, SenderThrowableType
+           {
+                File tmpFile = File.createTempFile( file.getName(), ".bin" );
+                RandomAccessFile randomAccessFile = new RandomAccessFile( tmpFile, "rw" );
+                final FileChannel fco = randomAccessFile.getChannel();
+                final long[] written = new long[ 1 ];
+
+                try
+                {
+                    sender.sendTo( new Receiver<ByteBuffer, IOException>()
+                    {
+                        private MappedByteBuffer region;
+                        private long regionEnd;
+
+                        public void receive( ByteBuffer item )
+                            throws IOException
+                        {
+                            while( item.hasRemaining() )
+                            {
+                                if( region == null || !region.hasRemaining() )
+                                {
+                                    // Map the next part of the file, which grows the file
+                                    region = fco.map( FileChannel.MapMode.READ_WRITE, regionEnd, MAPPED_CHUNK_SIZE );
+                                    regionEnd += MAPPED_CHUNK_SIZE;
+                                }
+
+                                int length = Math.min( item.remaining(), region.remaining() );
+                                ByteBuffer part = item.duplicate();
+                                part.limit( part.position() + length );
+                                region.put( part );
+                                item.position( item.position() + length );
+                                written[ 0 ] += length;
+                            }
+                        }
+                    } );
+
+                    // Remove the unused part of the last mapped region
+                    fco.truncate( written[ 0 ] );
+                    randomAccessFile.close();
+
+                    // Replace file with temporary file
+                    if( !file.exists() || file.delete() )
+                    {
+                        if( !tmpFile.renameTo( file ) )
+                        {
+                            throw new IOException( "Could not rename " + tmpFile + " to " + file );
+                        }
+                    }
+                }
+                catch( IOException e )
+                {
+                    // We failed writing - close and delete
+                    randomAccessFile.close();
+                    tmpFile.delete();
+                    throw e;
+                }
+                catch( Throwable senderThrowableType )
+                {
+                    // We failed writing - close and delete
+                    randomAccessFile.close();
+                    tmpFile.delete();
+
+                    throw (SenderThrowableType) senderThrowableType;
+                }
+            }
+        };
+    }
+
+    /**
+     * Write ByteBuffer data to a channel, such as a socket or a pipe. If the data comes from a file, such as
+     * with {@link Inputs#byteBuffer(File, int)}, it is transferred directly from the file channel. The channel
+     * is closed when the transfer is done.
+     *
+     * @param channel a blocking channel
+     *
+     * @return
+     */
+    public static Output<ByteBuffer, IOException> channel( final WritableByteChannel channel )
+    {
+        return new Output<ByteBuffer, IOException>()
+        {
+           @Override
+           public <SenderThrowableType extends Throwable> void receiveFrom(Sender<? extends ByteBuffer, SenderThrowableType> sender) throws IOException, SenderThrowableType
+           {
+                try
+                {
+                    if( sender instanceof FileChannelSender )
+                    {
+                        transfer( (FileChannelSender) sender, channel );
+                    }
+                    else
+                    {
+                        sender.sendTo( new Receiver<ByteBuffer, IOException>()
+                        {
+                            public void receive( ByteBuffer item )
+                                throws IOException
+                            {
+                                ByteBuffer buffer = item.duplicate();
+                                while( buffer.hasRemaining() )
+                                {
+                                    channel.write( buffer );
+                                }
+                            }
+                        } );
+                    }
+                }
+                finally
+                {
+                    channel.close();
+                }
+            }
+        };
+    }
+
     /**
      * Write ByteBuffer data to an OutputStream.
      *
@@ -173,6 +314,12 @@ public class Outputs
            {
                 try
                 {
+                    if( sender instanceof FileChannelSender && stream instanceof FileOutputStream )
+                    {
+                        transfer( (FileChannelSender) sender, ( (FileOutputStream) stream ).getChannel() );
+                        return;
+                    }
+
                     sender.sendTo( new Receiver<ByteBuffer, IOException>()
                     {
                         public void receive( ByteBuffer item )
@@ -293,6 +440,22 @@ public class Outputs
         };
     }
 
+    /**
+     * Use given receiver as Output for lists of items. Use this when the receiver can write several items at once,
+     * for instance in one transaction or request per list.
+     *
+     * @param <T>
+     * @param size     maximum number of items in each list
+     * @param receiver receiver of the lists of items
+     *
+     * @return
+     */
+    public static <T, ReceiverThrowableType extends Throwable> Output<T, ReceiverThrowableType> withBatchReceiver( int size,
+                                                                                                                 Receiver<List<T>, ReceiverThrowableType> receiver )
+    {
+        return Transforms.batch( size, withReceiver( receiver ) );
+    }
+
     /**
      * Write objects to System.out.println.
      *
@@ -337,4 +500,22 @@ public class Outputs
             }
         };
     }
+
+    private static void transfer( FileChannelSender sender, WritableByteChannel target )
+        throws IOException
+    {
+        FileChannel source = sender.channel();
+        long position = sender.position();
+        long end = position + sender.size();
+        while( position < end )
+        {
+            long transferred = source.transferTo( position, end - position, target );
+            if( transferred <= 0 )
+            {
+                // File was truncated during the transfer
+                break;
+            }
+            position += transferred;
+        }
+    }
 }
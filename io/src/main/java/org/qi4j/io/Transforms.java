@@ -21,7 +21,21 @@ import org.slf4j.Logger;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -153,6 +167,243 @@ public class Transforms
       };
    }
 
+   /**
+    * Map items in a transfer from one type to another by applying the given function on a number of worker threads.
+    * The mapped items are received by the output in the same order as they were sent.
+    * <p/>
+    * At most queueSize items are being mapped at any time. When that limit is reached the sender is blocked
+    * until the oldest item has been mapped and received. Items are received by the output on the sender's thread,
+    * so exceptions from the output and the sender propagate as with {@link #map(Function, Output)}.
+    * RuntimeExceptions and Errors thrown by the function are rethrown on the sender's thread.
+    *
+    * @param workers   number of worker threads
+    * @param queueSize maximum number of items being mapped at the same time, at least the number of workers
+    * @param function
+    * @param output
+    * @param <From>
+    * @param <To>
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <From, To, ReceiverThrowableType extends Throwable> Output<From, ReceiverThrowableType> parallelMap(int workers,
+                                                                                                                     int queueSize,
+                                                                                                                     Function<? super From, ? extends To> function,
+                                                                                                                     Output<To, ReceiverThrowableType> output
+   )
+   {
+      return parallelMap(workers, queueSize, true, function, output);
+   }
+
+   /**
+    * Map items in a transfer from one type to another by applying the given function on a number of worker threads.
+    * The mapped items are received by the output as soon as they are available, so the order is not preserved.
+    * <p/>
+    * See {@link #parallelMap(int, int, Function, Output)} for how the number of items in progress is bounded and
+    * how exceptions propagate.
+    *
+    * @param workers   number of worker threads
+    * @param queueSize maximum number of items being mapped at the same time, at least the number of workers
+    * @param function
+    * @param output
+    * @param <From>
+    * @param <To>
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <From, To, ReceiverThrowableType extends Throwable> Output<From, ReceiverThrowableType> parallelMapUnordered(int workers,
+                                                                                                                              int queueSize,
+                                                                                                                              Function<? super From, ? extends To> function,
+                                                                                                                              Output<To, ReceiverThrowableType> output
+   )
+   {
+      return parallelMap(workers, queueSize, false, function, output);
+   }
+
+   private static <From, To, ReceiverThrowableType extends Throwable> Output<From, ReceiverThrowableType> parallelMap(final int workers,
+                                                                                                                      final int queueSize,
+                                                                                                                      final boolean ordered,
+                                                                                                                      final Function<? super From, ? extends To> function,
+                                                                                                                      final Output<To, ReceiverThrowableType> output
+   )
+   {
+      if (workers < 1)
+      {
+         throw new IllegalArgumentException("Number of workers must be at least 1");
+      }
+      if (queueSize < workers)
+      {
+         throw new IllegalArgumentException("Queue size must be at least the number of workers");
+      }
+
+      return new Output<From, ReceiverThrowableType>()
+      {
+         @Override
+         public <SenderThrowableType extends Throwable> void receiveFrom(final Sender<? extends From, SenderThrowableType> sender) throws ReceiverThrowableType, SenderThrowableType
+         {
+            output.receiveFrom(new Sender<To, SenderThrowableType>()
+            {
+               @Override
+               public <ReceiverThrowableType extends Throwable> void sendTo(final Receiver<? super To, ReceiverThrowableType> receiver) throws ReceiverThrowableType, SenderThrowableType
+               {
+                  ExecutorService executor = Executors.newFixedThreadPool(workers, new TransformThreadFactory());
+                  ParallelMapReceiver<From, To, ReceiverThrowableType> mapper = new ParallelMapReceiver<From, To, ReceiverThrowableType>(function, receiver, executor, queueSize, ordered);
+                  try
+                  {
+                     sender.sendTo(mapper);
+                     mapper.finish();
+                  } finally
+                  {
+                     mapper.cancel();
+                     executor.shutdownNow();
+                  }
+               }
+            });
+         }
+      };
+   }
+
+   /**
+    * Group items in a transfer into lists of the given size. The last list holds the remaining items, and may be smaller.
+    *
+    * @param size    maximum number of items in each list
+    * @param output
+    * @param <T>
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <T, ReceiverThrowableType extends Throwable> Output<T, ReceiverThrowableType> batch(int size,
+                                                                                                     Output<? super List<T>, ReceiverThrowableType> output
+   )
+   {
+      return window(0, TimeUnit.MILLISECONDS, size, output);
+   }
+
+   /**
+    * Group items in a transfer into lists of at most the given size, and limit how long items wait in an incomplete list.
+    * A list is sent when it is full, or when the time since its first item was received has passed, also if the sender
+    * is not sending more items. Lists that are sent because of the time are sent by a timer thread, but never at
+    * the same time as other lists. If that fails, the exception is thrown to the sender when it sends the next item
+    * or ends the transfer.
+    *
+    * @param time    maximum time that the first item of a list waits for more items, or 0 for no limit
+    * @param unit    unit of time
+    * @param size    maximum number of items in each list
+    * @param output
+    * @param <T>
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <T, ReceiverThrowableType extends Throwable> Output<T, ReceiverThrowableType> window(final long time,
+                                                                                                      final TimeUnit unit,
+                                                                                                      final int size,
+                                                                                                      final Output<? super List<T>, ReceiverThrowableType> output
+   )
+   {
+      if (size < 1)
+      {
+         throw new IllegalArgumentException("Batch size must be at least 1");
+      }
+
+      return new Output<T, ReceiverThrowableType>()
+      {
+         @Override
+         public <SenderThrowableType extends Throwable> void receiveFrom(final Sender<? extends T, SenderThrowableType> sender) throws ReceiverThrowableType, SenderThrowableType
+         {
+            output.receiveFrom(new Sender<List<T>, SenderThrowableType>()
+            {
+               @Override
+               public <ReceiverThrowableType extends Throwable> void sendTo(final Receiver<? super List<T>, ReceiverThrowableType> receiver) throws ReceiverThrowableType, SenderThrowableType
+               {
+                  ScheduledExecutorService timer = time > 0 ? Executors.newSingleThreadScheduledExecutor(new TransformThreadFactory()) : null;
+                  BatchReceiver<T, ReceiverThrowableType> batchReceiver = new BatchReceiver<T, ReceiverThrowableType>(size, unit.toNanos(time), timer, receiver);
+                  try
+                  {
+                     sender.sendTo(batchReceiver);
+                     batchReceiver.finish();
+                  } finally
+                  {
+                     if (timer != null)
+                     {
+                        timer.shutdownNow();
+                     }
+                  }
+               }
+            });
+         }
+      };
+   }
+
+   /**
+    * Split lists of items in a transfer into the separate items. This is the reverse of {@link #batch(int, Output)}.
+    *
+    * @param output
+    * @param <T>
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <T, ReceiverThrowableType extends Throwable> Output<Iterable<T>, ReceiverThrowableType> unbatch(final Output<T, ReceiverThrowableType> output)
+   {
+      return new Output<Iterable<T>, ReceiverThrowableType>()
+      {
+         @Override
+         public <SenderThrowableType extends Throwable> void receiveFrom(final Sender<? extends Iterable<T>, SenderThrowableType> sender) throws ReceiverThrowableType, SenderThrowableType
+         {
+            output.receiveFrom(new Sender<T, SenderThrowableType>()
+            {
+               @Override
+               public <ReceiverThrowableType extends Throwable> void sendTo(final Receiver<? super T, ReceiverThrowableType> receiver) throws ReceiverThrowableType, SenderThrowableType
+               {
+                  sender.sendTo(new Receiver<Iterable<T>, ReceiverThrowableType>()
+                  {
+                     public void receive(Iterable<T> items)
+                             throws ReceiverThrowableType
+                     {
+                        for (T item : items)
+                        {
+                           receiver.receive(item);
+                        }
+                     }
+                  });
+               }
+            });
+         }
+      };
+   }
+
+   /**
+    * Split ByteBuffers in a transfer into records that end with the given separator, such as lines of text. The records
+    * are sent as slices of the received buffers without the separator, so no bytes are copied or decoded unless a record
+    * spans two buffers. The records are only valid until the next record has been received. This can be used with
+    * {@link Inputs#mapped(java.io.File)} to read large files without going through Strings.
+    *
+    * @param separator separator between records, e.g. '\n'
+    * @param output
+    * @param <ReceiverThrowableType>
+    * @return
+    */
+   public static <ReceiverThrowableType extends Throwable> Output<ByteBuffer, ReceiverThrowableType> split(final byte separator,
+                                                                                                         final Output<ByteBuffer, ReceiverThrowableType> output
+   )
+   {
+      return new Output<ByteBuffer, ReceiverThrowableType>()
+      {
+         @Override
+         public <SenderThrowableType extends Throwable> void receiveFrom(final Sender<? extends ByteBuffer, SenderThrowableType> sender) throws ReceiverThrowableType, SenderThrowableType
+         {
+            output.receiveFrom(new Sender<ByteBuffer, SenderThrowableType>()
+            {
+               @Override
+               public <ReceiverThrowableType extends Throwable> void sendTo(final Receiver<? super ByteBuffer, ReceiverThrowableType> receiver) throws ReceiverThrowableType, SenderThrowableType
+               {
+                  SplitReceiver<ReceiverThrowableType> splitReceiver = new SplitReceiver<ReceiverThrowableType>(separator, receiver);
+                  sender.sendTo(splitReceiver);
+                  splitReceiver.flush();
+               }
+            });
+         }
+      };
+   }
+
    /**
     * Wrapper for Outputs that uses a lock whenever a transfer is instantiated. Typically a read-lock would be used on the sending side and a write-lock
     * would be used on the receiving side. Inputs can use this as well to create a wrapper on the send side when transferTo is invoked.
@@ -251,6 +502,326 @@ public class Transforms
       };
    }
 
+   /**
+    * Receiver that maps items on an executor and hands the results to the next receiver on the sending thread.
+    */
+   private static class ParallelMapReceiver<From, To, ReceiverThrowableType extends Throwable>
+           implements Receiver<From, ReceiverThrowableType>
+   {
+      private final Function<? super From, ? extends To> function;
+      private final Receiver<? super To, ReceiverThrowableType> receiver;
+      private final ExecutorService executor;
+      private final CompletionService<To> completionService;
+      private final int queueSize;
+
+      // Items in progress, in the order they were sent
+      private final LinkedList<Future<To>> pending = new LinkedList<Future<To>>();
+
+      private ParallelMapReceiver(Function<? super From, ? extends To> function,
+                                  Receiver<? super To, ReceiverThrowableType> receiver,
+                                  ExecutorService executor,
+                                  int queueSize,
+                                  boolean ordered
+      )
+      {
+         this.function = function;
+         this.receiver = receiver;
+         this.executor = executor;
+         this.completionService = ordered ? null : new ExecutorCompletionService<To>(executor);
+         this.queueSize = queueSize;
+      }
+
+      public void receive(final From item) throws ReceiverThrowableType
+      {
+         Callable<To> task = new Callable<To>()
+         {
+            public To call()
+            {
+               return function.map(item);
+            }
+         };
+         pending.add(completionService == null ? executor.submit(task) : completionService.submit(task));
+
+         // Deliver what is ready, and block if the queue is full
+         Future<To> next;
+         while ((next = nextDone()) != null)
+         {
+            deliver(next);
+         }
+         if (pending.size() >= queueSize)
+         {
+            deliver(nextWaiting());
+         }
+      }
+
+      private void finish() throws ReceiverThrowableType
+      {
+         while (!pending.isEmpty())
+         {
+            deliver(nextWaiting());
+         }
+      }
+
+      private void cancel()
+      {
+         for (Future<To> future : pending)
+         {
+            future.cancel(true);
+         }
+         pending.clear();
+      }
+
+      private Future<To> nextDone()
+      {
+         if (completionService == null)
+         {
+            return !pending.isEmpty() && pending.getFirst().isDone() ? pending.getFirst() : null;
+         } else
+         {
+            return completionService.poll();
+         }
+      }
+
+      private Future<To> nextWaiting()
+      {
+         if (completionService == null)
+         {
+            return pending.getFirst();
+         } else
+         {
+            try
+            {
+               return completionService.take();
+            } catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new IllegalStateException("Interrupted while waiting for transform", e);
+            }
+         }
+      }
+
+      private void deliver(Future<To> future) throws ReceiverThrowableType
+      {
+         To result = result(future);
+         pending.remove(future);
+         receiver.receive(result);
+      }
+
+      private To result(Future<To> future)
+      {
+         try
+         {
+            return future.get();
+         } catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for transform", e);
+         } catch (ExecutionException e)
+         {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+               throw (RuntimeException) cause;
+            } else if (cause instanceof Error)
+            {
+               throw (Error) cause;
+            } else
+            {
+               throw new IllegalStateException("Transform failed", cause);
+            }
+         }
+      }
+   }
+
+   /**
+    * Receiver that groups items into lists and sends each list to the next receiver.
+    */
+   private static class BatchReceiver<T, ReceiverThrowableType extends Throwable>
+           implements Receiver<T, ReceiverThrowableType>
+   {
+      private final int size;
+      private final long timeNanos;
+      private final ScheduledExecutorService timer;
+      private final Receiver<? super List<T>, ReceiverThrowableType> receiver;
+
+      private List<T> batch;
+      private ScheduledFuture<?> timeout;
+      private Throwable failure;
+
+      private BatchReceiver(int size, long timeNanos, ScheduledExecutorService timer, Receiver<? super List<T>, ReceiverThrowableType> receiver)
+      {
+         this.size = size;
+         this.timeNanos = timeNanos;
+         this.timer = timer;
+         this.receiver = receiver;
+      }
+
+      public synchronized void receive(T item) throws ReceiverThrowableType
+      {
+         rethrow();
+         if (batch == null)
+         {
+            final List<T> items = new ArrayList<T>(Math.min(size, 1024));
+            batch = items;
+            if (timer != null)
+            {
+               timeout = timer.schedule(new Runnable()
+               {
+                  public void run()
+                  {
+                     timeout(items);
+                  }
+               }, timeNanos, TimeUnit.NANOSECONDS);
+            }
+         }
+         batch.add(item);
+
+         if (batch.size() >= size)
+         {
+            flush();
+         }
+      }
+
+      private synchronized void finish() throws ReceiverThrowableType
+      {
+         rethrow();
+         flush();
+      }
+
+      private synchronized void timeout(List<T> items)
+      {
+         // The list may have been sent already because it was full
+         if (batch == items && failure == null)
+         {
+            try
+            {
+               flush();
+            } catch (Throwable e)
+            {
+               failure = e;
+            }
+         }
+      }
+
+      private void flush() throws ReceiverThrowableType
+      {
+         if (timeout != null)
+         {
+            timeout.cancel(false);
+            timeout = null;
+         }
+         if (batch != null)
+         {
+            List<T> items = batch;
+            batch = null;
+            receiver.receive(items);
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      private void rethrow() throws ReceiverThrowableType
+      {
+         if (failure instanceof RuntimeException)
+         {
+            throw (RuntimeException) failure;
+         } else if (failure instanceof Error)
+         {
+            throw (Error) failure;
+         } else if (failure != null)
+         {
+            // Only the receiver can throw checked exceptions
+            throw (ReceiverThrowableType) failure;
+         }
+      }
+   }
+
+   /**
+    * Receiver that splits ByteBuffers into records and sends each record to the next receiver.
+    */
+   private static class SplitReceiver<ReceiverThrowableType extends Throwable>
+           implements Receiver<ByteBuffer, ReceiverThrowableType>
+   {
+      private final byte separator;
+      private final Receiver<? super ByteBuffer, ReceiverThrowableType> receiver;
+
+      // Start of a record that did not end in the previous buffer
+      private ByteBuffer carry;
+
+      private SplitReceiver(byte separator, Receiver<? super ByteBuffer, ReceiverThrowableType> receiver)
+      {
+         this.separator = separator;
+         this.receiver = receiver;
+      }
+
+      public void receive(ByteBuffer item) throws ReceiverThrowableType
+      {
+         ByteBuffer buffer = item.duplicate();
+         int start = buffer.position();
+         int limit = buffer.limit();
+         for (int i = start; i < limit; i++)
+         {
+            if (buffer.get(i) == separator)
+            {
+               buffer.limit(i);
+               buffer.position(start);
+               if (carry == null)
+               {
+                  receiver.receive(buffer.slice());
+               } else
+               {
+                  append(buffer);
+                  flush();
+               }
+               buffer.limit(limit);
+               start = i + 1;
+            }
+         }
+
+         if (start < limit)
+         {
+            buffer.position(start);
+            append(buffer);
+         }
+      }
+
+      private void append(ByteBuffer buffer)
+      {
+         if (carry == null)
+         {
+            carry = ByteBuffer.allocate(Math.max(buffer.remaining() * 2, 256));
+         } else if (carry.remaining() < buffer.remaining())
+         {
+            carry.flip();
+            carry = ByteBuffer.allocate((carry.remaining() + buffer.remaining()) * 2).put(carry);
+         }
+         carry.put(buffer);
+      }
+
+      private void flush() throws ReceiverThrowableType
+      {
+         if (carry != null)
+         {
+            ByteBuffer record = carry;
+            carry = null;
+            record.flip();
+            receiver.receive(record);
+         }
+      }
+   }
+
+   private static class TransformThreadFactory
+           implements ThreadFactory
+   {
+      private static final AtomicInteger threadCount = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable)
+      {
+         Thread thread = new Thread(runnable, "qi4j-io-transform-" + threadCount.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+
    /**
     * Count the number of items in the transfer.
     *
@@ -308,7 +879,13 @@ public class Transforms
 
       public String map(ByteBuffer buffer)
       {
-         return new String(buffer.array(), charSet);
+         if (!buffer.hasArray())
+         {
+            // Direct and mapped buffers have no array
+            return charSet.decode(buffer.duplicate()).toString();
+         }
+
+         return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), charSet);
       }
    }
 
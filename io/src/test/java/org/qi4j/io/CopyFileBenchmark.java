@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.io;
+
+import org.qi4j.functional.Function;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the throughput of copying a large file through ByteBuffers with copying it directly
+ * between the file channels. Run with the size of the file in MB as argument, default is 512.
+ */
+public class CopyFileBenchmark
+{
+   private static final int ITERATIONS = 5;
+
+   public static void main(String[] args)
+           throws IOException
+   {
+      int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+
+      File source = File.createTempFile("benchmark", ".bin");
+      File destination = File.createTempFile("benchmark", ".copy");
+      source.deleteOnExit();
+      destination.deleteOnExit();
+
+      RandomAccessFile file = new RandomAccessFile(source, "rw");
+      byte[] block = new byte[1024 * 1024];
+      for (int i = 0; i < sizeMB; i++)
+      {
+         block[i % block.length] = (byte) i;
+         file.write(block);
+      }
+      file.close();
+
+      // Mapping the buffers in between the Input and Output hides the file channel from the Output
+      Function<ByteBuffer, ByteBuffer> buffered = new Function<ByteBuffer, ByteBuffer>()
+      {
+         public ByteBuffer map(ByteBuffer buffer)
+         {
+            return buffer;
+         }
+      };
+
+      for (int i = 0; i < ITERATIONS; i++)
+      {
+         long start = System.nanoTime();
+         Inputs.byteBuffer(source, 64 * 1024).transferTo(Transforms.map(buffered, Outputs.byteBuffer(destination)));
+         report("Buffered", sizeMB, start);
+
+         start = System.nanoTime();
+         Inputs.byteBuffer(source, 64 * 1024).transferTo(Outputs.byteBuffer(destination));
+         report("Channel ", sizeMB, start);
+
+         start = System.nanoTime();
+         Inputs.mapped(source).transferTo(Outputs.mapped(destination));
+         report("Mapped  ", sizeMB, start);
+      }
+   }
+
+   private static void report(String name, int sizeMB, long start)
+   {
+      double seconds = (System.nanoTime() - start) / 1000000000.0;
+      System.out.println(name + ": " + Math.round(sizeMB / seconds) + " MB/s");
+   }
+}
@@ -24,10 +24,17 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
 import java.nio.charset.Charset;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -98,6 +105,37 @@ public class InputOutputTest
       Assert.assertThat(tempFile.length(), CoreMatchers.equalTo(source.length()));
    }
 
+   @Test
+   public void testCopyFileChannel()
+           throws Exception
+   {
+      final File source = getSourceFile();
+      final Pipe pipe = Pipe.open();
+      Thread writer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               Inputs.byteBuffer(source, 1024).transferTo(Outputs.channel(pipe.sink()));
+            } catch (IOException e)
+            {
+               throw new IllegalStateException(e);
+            }
+         }
+      };
+      writer.start();
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      Inputs.byteBuffer(Channels.newInputStream(pipe.source()), 1024).transferTo(Outputs.byteBuffer(received));
+      writer.join();
+
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      Inputs.byteBuffer(new FileInputStream(source), 1024).transferTo(Outputs.byteBuffer(expected));
+      Assert.assertThat(received.size(), CoreMatchers.equalTo((int) source.length()));
+      Assert.assertTrue(Arrays.equals(expected.toByteArray(), received.toByteArray()));
+   }
+
    @Test
    public void testCopyURL()
            throws IOException
@@ -275,6 +313,231 @@ public class InputOutputTest
       Inputs.iterable( objects ).transferTo( Outputs.systemOut());
    }
 
+   @Test
+   public void testParallelMap()
+   {
+      List<Integer> numbers = new ArrayList<Integer>();
+      for (int i = 0; i < 1000; i++)
+      {
+         numbers.add(i);
+      }
+
+      List<Integer> squares = new ArrayList<Integer>();
+      Inputs.iterable(numbers).transferTo(Transforms.parallelMap(4, 16, new Function<Integer, Integer>()
+      {
+         public Integer map(Integer number)
+         {
+            return number * number;
+         }
+      }, Outputs.collection(squares)));
+
+      Assert.assertThat(squares.size(), CoreMatchers.equalTo(1000));
+      for (int i = 0; i < 1000; i++)
+      {
+         Assert.assertThat(squares.get(i), CoreMatchers.equalTo(i * i));
+      }
+   }
+
+   @Test
+   public void testParallelMapUnordered()
+   {
+      List<Integer> numbers = new ArrayList<Integer>();
+      for (int i = 0; i < 1000; i++)
+      {
+         numbers.add(i);
+      }
+
+      Set<Integer> squares = new HashSet<Integer>();
+      Inputs.iterable(numbers).transferTo(Transforms.parallelMapUnordered(4, 16, new Function<Integer, Integer>()
+      {
+         public Integer map(Integer number)
+         {
+            return number * number;
+         }
+      }, Outputs.collection(squares)));
+
+      Assert.assertThat(squares.size(), CoreMatchers.equalTo(1000));
+      Assert.assertTrue(squares.contains(999 * 999));
+   }
+
+   @Test(expected = IOException.class)
+   public void testParallelMapOutputException()
+           throws IOException
+   {
+      text(getSourceFile()).transferTo(Transforms.parallelMap(2, 4, new Transforms.ObjectToString(), writerOutput(new Writer()
+      {
+         @Override
+         public void write(char[] cbuf, int off, int len)
+                 throws IOException
+         {
+            throw new IOException();
+         }
+
+         @Override
+         public void flush()
+                 throws IOException
+         {
+         }
+
+         @Override
+         public void close()
+                 throws IOException
+         {
+         }
+      })));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParallelMapFunctionException()
+   {
+      Inputs.iterable(Arrays.asList("Foo", "Bar", "Xyzzy")).transferTo(Transforms.parallelMap(2, 2, new Function<String, String>()
+      {
+         public String map(String s)
+         {
+            if (s.equals("Bar"))
+            {
+               throw new IllegalArgumentException(s);
+            }
+            return s;
+         }
+      }, Outputs.<String>noop()));
+   }
+
+   @Test
+   public void testBatch()
+   {
+      List<List<String>> batches = new ArrayList<List<String>>();
+      Inputs.iterable(Arrays.asList("A", "B", "C", "D", "E")).transferTo(Transforms.batch(2, Outputs.collection(batches)));
+
+      Assert.assertThat(batches.size(), CoreMatchers.equalTo(3));
+      Assert.assertThat(batches.get(0), CoreMatchers.equalTo(Arrays.asList("A", "B")));
+      Assert.assertThat(batches.get(2), CoreMatchers.equalTo(Arrays.asList("E")));
+   }
+
+   @Test
+   public void testWindow()
+   {
+      final List<Integer> sizes = new ArrayList<Integer>();
+      final CountDownLatch firstBatch = new CountDownLatch(1);
+      final boolean[] sentWhileStalled = new boolean[1];
+      Input<String, RuntimeException> stalledInput = new Input<String, RuntimeException>()
+      {
+         public <ReceiverThrowableType extends Throwable> void transferTo(Output<? super String, ReceiverThrowableType> output)
+                 throws ReceiverThrowableType
+         {
+            output.receiveFrom(new Sender<String, RuntimeException>()
+            {
+               public <ReceiverThrowableType extends Throwable> void sendTo(Receiver<? super String, ReceiverThrowableType> receiver)
+                       throws ReceiverThrowableType
+               {
+                  receiver.receive("A");
+                  // Nothing more is sent until the first list has been sent because of the time limit
+                  try
+                  {
+                     sentWhileStalled[0] = firstBatch.await(10, TimeUnit.SECONDS);
+                  } catch (InterruptedException e)
+                  {
+                     // Ignore
+                  }
+                  receiver.receive("B");
+                  receiver.receive("C");
+               }
+            });
+         }
+      };
+
+      stalledInput.transferTo(Transforms.window(10, TimeUnit.MILLISECONDS, 100, Outputs.withReceiver(new Receiver<List<String>, RuntimeException>()
+      {
+         public void receive(List<String> batch)
+         {
+            sizes.add(batch.size());
+            firstBatch.countDown();
+         }
+      })));
+
+      Assert.assertThat(sentWhileStalled[0], CoreMatchers.equalTo(true));
+      Assert.assertThat(sizes, CoreMatchers.equalTo(Arrays.asList(1, 2)));
+   }
+
+   @Test
+   public void testUnbatch()
+   {
+      List<String> items = new ArrayList<String>();
+      Inputs.iterable(Arrays.asList("A", "B", "C")).transferTo(Transforms.batch(2, Transforms.unbatch(Outputs.collection(items))));
+
+      Assert.assertThat(items, CoreMatchers.equalTo(Arrays.asList("A", "B", "C")));
+   }
+
+   @Test
+   public void testBatchReceiver()
+   {
+      final List<Integer> sizes = new ArrayList<Integer>();
+      Inputs.iterable(Arrays.asList("A", "B", "C")).transferTo(Outputs.withBatchReceiver(2, new Receiver<List<String>, RuntimeException>()
+      {
+         public void receive(List<String> batch)
+         {
+            sizes.add(batch.size());
+         }
+      }));
+
+      Assert.assertThat(sizes, CoreMatchers.equalTo(Arrays.asList(2, 1)));
+   }
+
+   @Test
+   public void testMappedSplit()
+           throws IOException
+   {
+      File source = getSourceFile();
+      List<String> lines = new ArrayList<String>();
+      text(source).transferTo(Outputs.collection(lines));
+
+      List<String> mappedLines = new ArrayList<String>();
+      Inputs.mapped(source).transferTo(Transforms.split((byte) '\n', Transforms.map(new Transforms.ByteBuffer2String(Charset.forName("UTF-8")), Outputs.collection(mappedLines))));
+      Assert.assertThat(mappedLines, CoreMatchers.equalTo(lines));
+
+      // Records that span buffers
+      List<String> splitLines = new ArrayList<String>();
+      Inputs.byteBuffer(source, 16).transferTo(Transforms.split((byte) '\n', Transforms.map(new Transforms.ByteBuffer2String(Charset.forName("UTF-8")), Outputs.collection(splitLines))));
+      Assert.assertThat(splitLines, CoreMatchers.equalTo(lines));
+   }
+
+   @Test
+   public void testMappedRegions()
+           throws IOException
+   {
+      File source = getSourceFile();
+      List<String> lines = new ArrayList<String>();
+      text(source).transferTo(Outputs.collection(lines));
+
+      List<Input<ByteBuffer, IOException>> regions = Inputs.mappedRegions(source, 3, (byte) '\n');
+      Assert.assertThat(regions.size(), CoreMatchers.equalTo(3));
+
+      List<String> regionLines = new ArrayList<String>();
+      for (Input<ByteBuffer, IOException> region : regions)
+      {
+         region.transferTo(Transforms.split((byte) '\n', Transforms.map(new Transforms.ByteBuffer2String(Charset.forName("UTF-8")), Outputs.collection(regionLines))));
+      }
+      Assert.assertThat(regionLines, CoreMatchers.equalTo(lines));
+   }
+
+   @Test
+   public void testCopyFileMapped()
+           throws IOException
+   {
+      File source = getSourceFile();
+      File tempFile = File.createTempFile("test", ".txt");
+      tempFile.deleteOnExit();
+
+      Inputs.mapped(source).transferTo(Outputs.mapped(tempFile));
+
+      List<String> lines = new ArrayList<String>();
+      text(source).transferTo(Outputs.collection(lines));
+      List<String> copiedLines = new ArrayList<String>();
+      text(tempFile).transferTo(Outputs.collection(copiedLines));
+      Assert.assertThat(tempFile.length(), CoreMatchers.equalTo(source.length()));
+      Assert.assertThat(copiedLines, CoreMatchers.equalTo(lines));
+   }
+
     @Test
     public void testOutputstreamInput() throws Throwable
     {
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.dataset.DataSet;
+import org.qi4j.api.dataset.Query;
+import org.qi4j.api.dataset.iterable.IterableDataSet;
+import org.qi4j.api.query.QueryExpressions;
+import org.qi4j.api.query.grammar.ExpressionSpecification;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.functional.Function;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.query.EntityFinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DataSet of the Entities of a type. Constraints that are query expressions are evaluated by the
+ * {@link EntityFinder}, other constraints are evaluated on the Entities as they are loaded. Projections
+ * are lazy, and are evaluated while iterating over the results.
+ */
+public final class EntityDataSet<T>
+    implements DataSet<T>
+{
+    private final UnitOfWork unitOfWork;
+    private final EntityFinder entityFinder;
+    private final Class<T> resultType;
+    private final Specification<Composite> whereClause;
+    private final List<Specification<T>> filters;
+
+    public EntityDataSet( UnitOfWork unitOfWork, EntityFinder entityFinder, Class<T> resultType )
+    {
+        this( unitOfWork, entityFinder, resultType, null, Collections.<Specification<T>>emptyList() );
+    }
+
+    private EntityDataSet( UnitOfWork unitOfWork,
+                           EntityFinder entityFinder,
+                           Class<T> resultType,
+                           Specification<Composite> whereClause,
+                           List<Specification<T>> filters
+    )
+    {
+        this.unitOfWork = unitOfWork;
+        this.entityFinder = entityFinder;
+        this.resultType = resultType;
+        this.whereClause = whereClause;
+        this.filters = filters;
+    }
+
+    @Override
+    public DataSet<T> constrain( Specification<T> selection )
+    {
+        if( isExpression( selection ) )
+        {
+            return new EntityDataSet<T>( unitOfWork, entityFinder, resultType, and( whereClause, selection ), filters );
+        }
+
+        List<Specification<T>> constrained = new ArrayList<Specification<T>>( filters );
+        constrained.add( selection );
+        return new EntityDataSet<T>( unitOfWork, entityFinder, resultType, whereClause, constrained );
+    }
+
+    @Override
+    public <U> DataSet<U> project( Function<T, U> conversion )
+    {
+        return new IterableDataSet<U>( Iterables.map( conversion, newQuery().toIterable() ) );
+    }
+
+    @Override
+    public Query<T> newQuery()
+    {
+        return new EntityDataSetQuery<T>( unitOfWork, entityFinder, resultType, whereClause, filters );
+    }
+
+    /**
+     * @return true if the specification can be evaluated by an EntityFinder
+     */
+    static boolean isExpression( Specification<?> specification )
+    {
+        return specification instanceof ExpressionSpecification;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    static Specification<Composite> and( Specification<Composite> whereClause, Specification<?> expression )
+    {
+        Specification<Composite> specification = (Specification<Composite>) expression;
+        return whereClause == null ? specification : QueryExpressions.and( whereClause, specification );
+    }
+}
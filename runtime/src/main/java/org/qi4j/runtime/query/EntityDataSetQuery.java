@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.dataset.Query;
+import org.qi4j.api.dataset.iterable.IterableQuery;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.QueryException;
+import org.qi4j.api.query.QueryExecutionException;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.unitofwork.NoSuchEntityException;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.functional.Function;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.functional.Specifications;
+import org.qi4j.functional.Visitor;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.spi.query.EntityFinderException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query of an {@link EntityDataSet}. The where clause, order, skip and limit are given to the EntityFinder.
+ * If there are filters that are not query expressions the skip and limit are applied after filtering
+ * the loaded Entities instead. Results are loaded lazily while iterating.
+ */
+final class EntityDataSetQuery<T>
+    implements Query<T>
+{
+    private final UnitOfWork unitOfWork;
+    private final EntityFinder entityFinder;
+    private final Class<T> resultType;
+    private Specification<Composite> whereClause;
+    private final List<Specification<T>> filters;
+    private final List<OrderBy> orderBy = new ArrayList<OrderBy>();
+    private int skip;
+    private Integer limit;
+    private final Map<String, Object> variables = new HashMap<String, Object>();
+
+    EntityDataSetQuery( UnitOfWork unitOfWork,
+                        EntityFinder entityFinder,
+                        Class<T> resultType,
+                        Specification<Composite> whereClause,
+                        List<Specification<T>> filters
+    )
+    {
+        this.unitOfWork = unitOfWork;
+        this.entityFinder = entityFinder;
+        this.resultType = resultType;
+        this.whereClause = whereClause;
+        this.filters = new ArrayList<Specification<T>>( filters );
+    }
+
+    @Override
+    public Query filter( Specification<T> filter )
+    {
+        if( EntityDataSet.isExpression( filter ) )
+        {
+            whereClause = EntityDataSet.and( whereClause, filter );
+        }
+        else
+        {
+            filters.add( filter );
+        }
+        return this;
+    }
+
+    @Override
+    public Query orderBy( Property<?> property, Order order )
+    {
+        orderBy.add( IterableQuery.toOrderBy( property, order ) );
+        return this;
+    }
+
+    @Override
+    public Query skip( int skipNrOfResults )
+    {
+        skip = skipNrOfResults;
+        return this;
+    }
+
+    @Override
+    public Query limit( int maxNrOfResults )
+    {
+        limit = maxNrOfResults;
+        return this;
+    }
+
+    @Override
+    public Query<T> setVariable( String name, Object value )
+    {
+        variables.put( name, value );
+        return this;
+    }
+
+    @Override
+    public Object getVariable( String name )
+    {
+        return variables.get( name );
+    }
+
+    @Override
+    public long count()
+        throws QueryExecutionException
+    {
+        if( !filters.isEmpty() )
+        {
+            return Iterables.count( toIterable() );
+        }
+
+        try
+        {
+            long count = Math.max( 0, entityFinder.countEntities( resultType, whereClause, variables ) - skip );
+            return limit == null ? count : Math.min( count, limit );
+        }
+        catch( EntityFinderException e )
+        {
+            throw new QueryExecutionException( "Finder caused exception", e );
+        }
+    }
+
+    @Override
+    public T first()
+        throws QueryExecutionException
+    {
+        return Iterables.first( results( 1 ) );
+    }
+
+    @Override
+    public T single()
+        throws QueryException
+    {
+        return Iterables.single( results( 2 ) );
+    }
+
+    @Override
+    public <ThrowableType extends Throwable> boolean execute( Visitor<T, ThrowableType> resultVisitor )
+        throws ThrowableType, QueryExecutionException
+    {
+        for( T entity : toIterable() )
+        {
+            if( !resultVisitor.visit( entity ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterable<T> toIterable()
+        throws QueryExecutionException
+    {
+        return results( null );
+    }
+
+    private Iterable<T> results( Integer maxResults )
+    {
+        Integer max = limit == null ? maxResults : ( maxResults == null ? limit : Integer.valueOf( Math.min( limit, maxResults ) ) );
+        if( filters.isEmpty() )
+        {
+            return found( skip > 0 ? skip : null, max );
+        }
+
+        Iterable<T> filtered = found( null, null );
+        for( Specification<T> filter : filters )
+        {
+            filtered = Iterables.filter( filter, filtered );
+        }
+        if( skip > 0 )
+        {
+            filtered = Iterables.skip( skip, filtered );
+        }
+        return max == null ? filtered : Iterables.limit( max, filtered );
+    }
+
+    /**
+     * @return Entities found by the EntityFinder. The finder is called each time the result is iterated.
+     */
+    private Iterable<T> found( final Integer firstResult, final Integer maxResults )
+    {
+        // Later changes to this query do not change results that are iterated later
+        final Specification<Composite> where = whereClause;
+        final OrderBy[] order = orderBy.isEmpty() ? null : orderBy.toArray( new OrderBy[ orderBy.size() ] );
+        final Map<String, Object> values = new HashMap<String, Object>( variables );
+        Iterable<EntityReference> references = new Iterable<EntityReference>()
+        {
+            public Iterator<EntityReference> iterator()
+            {
+                try
+                {
+                    return entityFinder.findEntities( resultType,
+                                                      where,
+                                                      order,
+                                                      firstResult,
+                                                      maxResults,
+                                                      values ).iterator();
+                }
+                catch( EntityFinderException e )
+                {
+                    throw new QueryExecutionException( "Finder caused exception", e );
+                }
+            }
+        };
+
+        return Iterables.filter( Specifications.<T>notNull(), Iterables.map( new Function<EntityReference, T>()
+        {
+            public T map( EntityReference reference )
+            {
+                try
+                {
+                    return unitOfWork.get( resultType, reference.identity() );
+                }
+                catch( NoSuchEntityException e )
+                {
+                    // Index is out of sync - entity has been removed
+                    return null;
+                }
+            }
+        }, references ) );
+    }
+}
@@ -15,16 +15,16 @@
 package org.qi4j.runtime.query;
 
 import org.qi4j.api.composite.Composite;
-import org.qi4j.api.property.Property;
-import org.qi4j.api.query.Query;
 import org.qi4j.api.query.grammar.OrderBy;
 import org.qi4j.api.util.Classes;
 import org.qi4j.functional.Iterables;
 import org.qi4j.functional.Specification;
-import org.qi4j.functional.Specifications;
 import org.qi4j.spi.query.QuerySource;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * JAVADOC
@@ -47,155 +47,44 @@ public class IterableQuerySource
     @Override
     public <T> T find( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-        final Iterator<T> iterator = iterator(resultType, whereClause, orderBySegments, firstResult, maxResults, variables);
-        if( iterator.hasNext() )
-        {
-            return iterator.next();
-        }
-        return null;
+        return Iterables.first( results( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ) );
     }
 
     @Override
     public <T> long count( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-        return list( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ).size();
+        return Iterables.count( results( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ) );
     }
 
     @Override
     public <T> Iterator<T> iterator( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-        return list(resultType, whereClause, orderBySegments, firstResult, maxResults, variables).iterator();
+        return results( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ).iterator();
     }
 
-    private <T> List<T> list(Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables)
+    @Override
+    public <T> String explain( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-        // Ensure it's a list first
-        List<T> list = filter( resultType, whereClause );
-
-        // Order list
-        if( orderBySegments != null )
-        {
-            // Sort it
-            Collections.sort( list, new OrderByComparator(orderBySegments) );
-        }
-
-        // Cut results
-        if( firstResult != null )
-        {
-            if( firstResult > list.size() )
-            {
-                return Collections.emptyList();
-            }
-
-            int toIdx;
-            if( maxResults != null )
-            {
-                toIdx = Math.min( firstResult + maxResults, list.size() );
-            }
-            else
-            {
-                toIdx = list.size();
-            }
-
-            list = list.subList( firstResult, toIdx );
-        }
-        else
-        {
-            int toIdx;
-            if( maxResults != null )
-            {
-                toIdx = Math.min( maxResults, list.size() );
-            }
-            else
-            {
-                toIdx = list.size();
-            }
-
-            list = list.subList( 0, toIdx );
-        }
-
-        return list;
+        return plan( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ).toString();
     }
 
-    private <T> List<T> filter( Class<T> resultType, Specification whereClause )
+    /**
+     * Results are filtered lazily, so find() only reads the iterable until the first match if there is no order.
+     */
+    @SuppressWarnings( "unchecked" )
+    private <T> Iterable<T> results( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-        if (whereClause == null)
+        QueryPlan plan = plan( resultType, whereClause, orderBySegments, firstResult, maxResults, variables );
+        if( plan.isEmpty() )
         {
-            return Iterables.toList( Iterables.filter( Classes.instanceOf( resultType ), iterable ) );
-        } else
-        {
-            return Iterables.toList( Iterables.filter( Specifications.and(Classes.instanceOf( resultType ), whereClause), iterable ) );
+            return Collections.emptyList();
         }
+        return plan.inMemory( Iterables.filter( Classes.instanceOf( resultType ), (Iterable<T>) iterable ) );
     }
 
-    private class OrderByComparator<T extends Composite>
-        implements Comparator<T>
+    private QueryPlan plan( Class<?> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
     {
-
-        private Iterable<OrderBy> orderBySegments;
-
-        private OrderByComparator( Iterable<OrderBy> orderBySegments )
-        {
-            this.orderBySegments = orderBySegments;
-        }
-
-        public int compare( T o1, T o2 )
-        {
-            for( OrderBy orderBySegment : orderBySegments )
-            {
-                try
-                {
-                    final Property prop1 = orderBySegment.getPropertyFunction().map( o1 );
-                    final Property prop2 = orderBySegment.getPropertyFunction().map( o2 );
-                    if( prop1 == null || prop2 == null )
-                    {
-                        if( prop1 == null && prop2 == null )
-                        {
-                            return 0;
-                        }
-                        else if( prop1 != null )
-                        {
-                            return 1;
-                        }
-                        return -1;
-                    }
-                    final Object value1 = prop1.get();
-                    final Object value2 = prop2.get();
-                    if( value1 == null || value2 == null )
-                    {
-                        if( value1 == null && value2 == null )
-                        {
-                            return 0;
-                        }
-                        else if( value1 != null )
-                        {
-                            return 1;
-                        }
-                        return -1;
-                    }
-                    if( value1 instanceof Comparable )
-                    {
-                        int result = ( (Comparable) value1 ).compareTo( value2 );
-                        if( result != 0 )
-                        {
-                            if( orderBySegment.order() == OrderBy.Order.ASCENDING )
-                            {
-                                return result;
-                            }
-                            else
-                            {
-                                return -result;
-                            }
-                        }
-                    }
-                }
-                catch( Exception e )
-                {
-                    return 0;
-                }
-            }
-
-            return 0;
-        }
+        long count = iterable instanceof Collection ? ( (Collection) iterable ).size() : -1;
+        return QueryPlanner.inMemory( count ).plan( resultType, whereClause, orderBySegments, firstResult, maxResults, variables );
     }
-}
\ No newline at end of file
+}
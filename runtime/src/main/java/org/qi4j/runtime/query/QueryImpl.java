@@ -173,4 +173,10 @@ class QueryImpl<T>
     {
         return querySource.iterator(resultType, whereClause, orderBySegments, firstResult, maxResults, variables);
     }
+
+    @Override
+    public String explain()
+    {
+        return querySource.explain(resultType, whereClause, orderBySegments, firstResult, maxResults, variables);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.OrderByComparator;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.functional.Specifications;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plan for executing a query, created by the {@link QueryPlanner}. The where clause is split into the part
+ * that the EntityFinder evaluates and the part that is evaluated on the loaded Entities. Ordering and paging
+ * are done by the EntityFinder if it supports them, and if no part of the where clause has to be evaluated after it,
+ * otherwise they are done in memory.
+ * <p>
+ * The {@link #toString()} of a plan is the description that is returned by {@link org.qi4j.api.query.Query#explain()}.
+ * </p>
+ */
+public final class QueryPlan
+{
+    private final Class<?> resultType;
+    private final Specification<Composite> whereClause;
+    private final Specification<Composite> finderWhereClause;
+    private final Specification<Composite> memoryWhereClause;
+    private final OrderBy[] orderBySegments;
+    private final boolean orderInFinder;
+    private final boolean pagingInFinder;
+    private final Integer firstResult;
+    private final Integer maxResults;
+    private final long estimatedCount;
+
+    QueryPlan( Class<?> resultType,
+               Specification<Composite> whereClause,
+               Specification<Composite> finderWhereClause,
+               Specification<Composite> memoryWhereClause,
+               OrderBy[] orderBySegments,
+               boolean orderInFinder,
+               boolean pagingInFinder,
+               Integer firstResult,
+               Integer maxResults,
+               long estimatedCount
+    )
+    {
+        this.resultType = resultType;
+        this.whereClause = whereClause;
+        this.finderWhereClause = finderWhereClause;
+        this.memoryWhereClause = memoryWhereClause;
+        this.orderBySegments = orderBySegments;
+        this.orderInFinder = orderInFinder;
+        this.pagingInFinder = pagingInFinder;
+        this.firstResult = firstResult;
+        this.maxResults = maxResults;
+        this.estimatedCount = estimatedCount;
+    }
+
+    /**
+     * @return true if the where clause can never be satisfied, or no results are requested, in which case
+     *         the query does not have to be executed
+     */
+    public boolean isEmpty()
+    {
+        return SpecificationNormalizer.isFalse( whereClause ) || ( maxResults != null && maxResults <= 0 );
+    }
+
+    /**
+     * @return the normalized where clause
+     */
+    public Specification<Composite> whereClause()
+    {
+        return whereClause;
+    }
+
+    /**
+     * @return where clause to give to the EntityFinder, or null for all Entities of the result type
+     */
+    public Specification<Composite> finderWhereClause()
+    {
+        return finderWhereClause;
+    }
+
+    /**
+     * @return where clause that is evaluated on the loaded Entities, or null if the EntityFinder evaluates all of it
+     */
+    public Specification<Composite> memoryWhereClause()
+    {
+        return memoryWhereClause;
+    }
+
+    /**
+     * @return order to give to the EntityFinder, or null
+     */
+    public OrderBy[] finderOrderBy()
+    {
+        return orderInFinder && orderBySegments.length > 0 ? orderBySegments : null;
+    }
+
+    public Integer finderFirstResult()
+    {
+        return pagingInFinder ? firstResult : null;
+    }
+
+    public Integer finderMaxResults()
+    {
+        return pagingInFinder ? maxResults : null;
+    }
+
+    /**
+     * @return true if all results have to be read before the first one is returned, because they are sorted in memory
+     */
+    public boolean isOrderedInMemory()
+    {
+        return !orderInFinder && orderBySegments.length > 0;
+    }
+
+    /**
+     * @return true if the result count can be computed from {@link org.qi4j.spi.query.EntityFinder#countEntities}
+     */
+    public boolean isFinderCount()
+    {
+        return memoryWhereClause == null;
+    }
+
+    /**
+     * @return true if the first result is the one returned by {@link org.qi4j.spi.query.EntityFinder#findEntity}
+     */
+    public boolean isFinderFirst()
+    {
+        return memoryWhereClause == null && orderBySegments.length == 0 && first() == 0;
+    }
+
+    /**
+     * Do the part of the query that is not done by the EntityFinder. Items that are null, such as Entities that
+     * have been removed since they were indexed, are skipped. Results are only read eagerly if they have to be sorted.
+     *
+     * @param items results in the order returned by the EntityFinder
+     *
+     * @return results of the query
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    public <T> Iterable<T> inMemory( Iterable<T> items )
+    {
+        Iterable<T> results = Iterables.filter( Specifications.<T>notNull(), items );
+        if( memoryWhereClause != null )
+        {
+            results = Iterables.filter( (Specification) memoryWhereClause, results );
+        }
+        if( isOrderedInMemory() )
+        {
+            List<T> sorted = Iterables.toList( results );
+            Collections.sort( (List) sorted, new OrderByComparator( Arrays.asList( orderBySegments ) ) );
+            results = sorted;
+        }
+        if( !pagingInFinder )
+        {
+            if( first() > 0 )
+            {
+                results = Iterables.skip( first(), results );
+            }
+            if( maxResults != null )
+            {
+                results = Iterables.limit( maxResults, results );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param count number of Entities that match the where clause
+     *
+     * @return number of results after paging
+     */
+    public long page( long count )
+    {
+        long paged = Math.max( 0, count - first() );
+        return maxResults == null ? paged : Math.min( paged, maxResults );
+    }
+
+    /**
+     * @return estimated number of Entities that the EntityFinder returns, or -1 if it is not known
+     */
+    public long estimatedRows()
+    {
+        if( isEmpty() )
+        {
+            return 0;
+        }
+        if( estimatedCount < 0 || !pagingInFinder )
+        {
+            return estimatedCount;
+        }
+        return page( estimatedCount );
+    }
+
+    /**
+     * The cost is the number of Entities read from the EntityFinder, plus n*log2(n) if n Entities are sorted in memory.
+     *
+     * @return estimated cost of the query, or -1 if it is not known
+     */
+    public long estimatedCost()
+    {
+        long rows = estimatedRows();
+        if( rows <= 0 || orderInFinder || orderBySegments.length == 0 )
+        {
+            return rows;
+        }
+        return rows + (long) ( rows * Math.log( rows ) / Math.log( 2 ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder plan = new StringBuilder( "Query for " ).append( resultType.getName() ).append( '\n' );
+        if( isEmpty() )
+        {
+            return plan.append( "  no results, query is not executed\n" ).toString();
+        }
+        plan.append( "  where in finder: " ).append( finderWhereClause == null ? "all" : finderWhereClause ).append( '\n' );
+        plan.append( "  where in memory: " ).append( memoryWhereClause == null ? "none" : memoryWhereClause ).append( '\n' );
+        plan.append( "  order by: " );
+        if( orderBySegments.length == 0 )
+        {
+            plan.append( "none" );
+        }
+        else
+        {
+            plan.append( Arrays.toString( orderBySegments ) ).append( orderInFinder ? " in finder" : " in memory" );
+        }
+        plan.append( '\n' );
+        plan.append( "  paging: " );
+        if( firstResult == null && maxResults == null )
+        {
+            plan.append( "none" );
+        }
+        else
+        {
+            plan.append( "first " ).append( first() ).append( ", max " ).append( maxResults == null ? "all" : maxResults )
+                .append( pagingInFinder ? " in finder" : " in memory" );
+        }
+        plan.append( '\n' );
+        plan.append( "  estimated rows: " ).append( estimate( estimatedRows() ) ).append( '\n' );
+        plan.append( "  estimated cost: " ).append( estimate( estimatedCost() ) ).append( '\n' );
+        return plan.toString();
+    }
+
+    private int first()
+    {
+        return firstResult == null ? 0 : firstResult;
+    }
+
+    private static String estimate( long estimate )
+    {
+        return estimate < 0 ? "unknown" : Long.toString( estimate );
+    }
+}
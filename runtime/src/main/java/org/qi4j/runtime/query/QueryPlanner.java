@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.query.grammar.AndSpecification;
+import org.qi4j.api.query.grammar.BinarySpecification;
+import org.qi4j.api.query.grammar.NotSpecification;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.QuerySpecification;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.spi.query.QueryCapabilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans how a query is executed. The where clause is normalized, see {@link SpecificationNormalizer}, and
+ * then each part of the query is given to the EntityFinder if its {@link QueryCapabilities} support it.
+ * If the where clause is an and expression, the operands that the finder supports are evaluated by the finder
+ * and the others in memory. Otherwise the complete where clause is evaluated either by the finder or in memory.
+ * A {@link QuerySpecification} is always evaluated by the finder.
+ * <p>
+ * A finder that does not implement QueryCapabilities is given the where clause unchanged, and does the ordering
+ * and paging.
+ * </p>
+ */
+public final class QueryPlanner
+{
+    private static final QueryCapabilities ALL = new QueryCapabilities()
+    {
+        public boolean supportsSpecification( Specification<Composite> specification )
+        {
+            return true;
+        }
+
+        public boolean supportsOrderBy( OrderBy orderBy )
+        {
+            return true;
+        }
+
+        public boolean supportsPaging()
+        {
+            return true;
+        }
+
+        public long estimateCount( Class<?> resultType,
+                                   Specification<Composite> whereClause,
+                                   Map<String, Object> variables
+        )
+        {
+            return -1;
+        }
+    };
+
+    private final QueryCapabilities capabilities;
+    private final boolean finder;
+
+    public QueryPlanner( QueryCapabilities capabilities )
+    {
+        this( capabilities, true );
+    }
+
+    private QueryPlanner( QueryCapabilities capabilities, boolean finder )
+    {
+        this.capabilities = capabilities;
+        this.finder = finder;
+    }
+
+    /**
+     * @param entityFinder the EntityFinder that executes the queries
+     *
+     * @return planner that uses the capabilities of the finder, or gives it the whole query if it does not
+     *         implement {@link QueryCapabilities}
+     */
+    public static QueryPlanner forFinder( EntityFinder entityFinder )
+    {
+        return new QueryPlanner( entityFinder instanceof QueryCapabilities ? (QueryCapabilities) entityFinder : ALL );
+    }
+
+    /**
+     * @param count number of items that are queried, or -1 if it is not known
+     *
+     * @return planner that executes all of the query in memory
+     */
+    static QueryPlanner inMemory( final long count )
+    {
+        return new QueryPlanner( new QueryCapabilities()
+        {
+            public boolean supportsSpecification( Specification<Composite> specification )
+            {
+                return false;
+            }
+
+            public boolean supportsOrderBy( OrderBy orderBy )
+            {
+                return false;
+            }
+
+            public boolean supportsPaging()
+            {
+                return false;
+            }
+
+            public long estimateCount( Class<?> resultType,
+                                       Specification<Composite> whereClause,
+                                       Map<String, Object> variables
+            )
+            {
+                return count;
+            }
+        }, false );
+    }
+
+    public QueryPlan plan( Class<?> resultType,
+                           Specification<Composite> whereClause,
+                           Iterable<OrderBy> orderBySegments,
+                           Integer firstResult,
+                           Integer maxResults,
+                           Map<String, Object> variables
+    )
+    {
+        Specification<Composite> normalized = SpecificationNormalizer.normalize( whereClause );
+
+        Specification<Composite> finderWhereClause = null;
+        Specification<Composite> memoryWhereClause = null;
+        if( SpecificationNormalizer.isTrue( normalized ) || SpecificationNormalizer.isFalse( normalized ) )
+        {
+            // Nothing to evaluate
+        }
+        else if( capabilities == ALL )
+        {
+            finderWhereClause = whereClause;
+        }
+        else if( supports( normalized ) )
+        {
+            finderWhereClause = normalized;
+        }
+        else if( normalized instanceof AndSpecification )
+        {
+            List<Specification<Composite>> finderOperands = new ArrayList<Specification<Composite>>();
+            List<Specification<Composite>> memoryOperands = new ArrayList<Specification<Composite>>();
+            for( Specification<Composite> operand : ( (AndSpecification) normalized ).getOperands() )
+            {
+                ( supports( operand ) ? finderOperands : memoryOperands ).add( operand );
+            }
+            finderWhereClause = and( finderOperands );
+            memoryWhereClause = and( memoryOperands );
+        }
+        else
+        {
+            memoryWhereClause = normalized;
+        }
+
+        OrderBy[] order = orderBySegments == null ? new OrderBy[ 0 ] : Iterables.toArray( OrderBy.class, orderBySegments );
+        boolean orderInFinder = true;
+        for( OrderBy orderBy : order )
+        {
+            orderInFinder &= capabilities.supportsOrderBy( orderBy );
+        }
+        // Paging in the finder would skip results before they are filtered or sorted in memory
+        boolean pagingInFinder = orderInFinder && memoryWhereClause == null && capabilities.supportsPaging();
+
+        Map<String, Object> values = variables == null ? Collections.<String, Object>emptyMap() : variables;
+        return new QueryPlan( resultType,
+                              normalized,
+                              finderWhereClause,
+                              memoryWhereClause,
+                              order,
+                              orderInFinder,
+                              pagingInFinder,
+                              firstResult,
+                              maxResults,
+                              SpecificationNormalizer.isFalse( normalized ) ? 0 : capabilities.estimateCount( resultType, finderWhereClause, values ) );
+    }
+
+    private boolean supports( Specification<Composite> specification )
+    {
+        if( specification instanceof BinarySpecification )
+        {
+            for( Specification<Composite> operand : ( (BinarySpecification) specification ).getOperands() )
+            {
+                if( !supports( operand ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if( specification instanceof NotSpecification )
+        {
+            return supports( ( (NotSpecification) specification ).getOperand() );
+        }
+        // Native queries can only be evaluated by the finder
+        return ( finder && specification instanceof QuerySpecification ) || capabilities.supportsSpecification( specification );
+    }
+
+    private static Specification<Composite> and( List<Specification<Composite>> operands )
+    {
+        if( operands.isEmpty() )
+        {
+            return null;
+        }
+        return operands.size() == 1 ? operands.get( 0 ) : new AndSpecification( operands );
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.query.grammar.AndSpecification;
+import org.qi4j.api.query.grammar.AssociationNotNullSpecification;
+import org.qi4j.api.query.grammar.AssociationNullSpecification;
+import org.qi4j.api.query.grammar.BinarySpecification;
+import org.qi4j.api.query.grammar.NotSpecification;
+import org.qi4j.api.query.grammar.OrSpecification;
+import org.qi4j.api.query.grammar.PropertyNotNullSpecification;
+import org.qi4j.api.query.grammar.PropertyNullSpecification;
+import org.qi4j.functional.Specification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rewrites where clauses into a normal form that is simpler to plan and to execute:
+ * <ul>
+ * <li>nested and and or expressions are flattened, and expressions with a single operand are replaced by the operand</li>
+ * <li>not expressions are pushed down to the leaves, and double negations are removed</li>
+ * <li>constants are folded. An and without operands is always true, and an or without operands is always false</li>
+ * </ul>
+ * Negated null checks are turned into not-null checks and vice versa. Other negated comparisons are kept as
+ * they are, because a comparison with a missing value is false both with and without negation of the operator.
+ */
+final class SpecificationNormalizer
+{
+    static final Specification<Composite> TRUE = new AndSpecification( Collections.<Specification<Composite>>emptyList() );
+    static final Specification<Composite> FALSE = new OrSpecification( Collections.<Specification<Composite>>emptyList() );
+
+    private SpecificationNormalizer()
+    {
+    }
+
+    /**
+     * @param specification where clause, or null for no where clause
+     *
+     * @return the normalized where clause, which is {@link #TRUE} if there is no where clause
+     */
+    static Specification<Composite> normalize( Specification<Composite> specification )
+    {
+        if( specification == null )
+        {
+            return TRUE;
+        }
+        else if( specification instanceof AndSpecification )
+        {
+            List<Specification<Composite>> operands = new ArrayList<Specification<Composite>>();
+            for( Specification<Composite> operand : ( (AndSpecification) specification ).getOperands() )
+            {
+                Specification<Composite> normalized = normalize( operand );
+                if( isFalse( normalized ) )
+                {
+                    return FALSE;
+                }
+                add( operands, normalized, AndSpecification.class );
+            }
+            return operands.size() == 1 ? operands.get( 0 ) : new AndSpecification( operands );
+        }
+        else if( specification instanceof OrSpecification )
+        {
+            List<Specification<Composite>> operands = new ArrayList<Specification<Composite>>();
+            for( Specification<Composite> operand : ( (OrSpecification) specification ).getOperands() )
+            {
+                Specification<Composite> normalized = normalize( operand );
+                if( isTrue( normalized ) )
+                {
+                    return TRUE;
+                }
+                add( operands, normalized, OrSpecification.class );
+            }
+            return operands.size() == 1 ? operands.get( 0 ) : new OrSpecification( operands );
+        }
+        else if( specification instanceof NotSpecification )
+        {
+            return negate( ( (NotSpecification) specification ).getOperand() );
+        }
+        return specification;
+    }
+
+    static boolean isTrue( Specification<Composite> specification )
+    {
+        return specification instanceof AndSpecification && isEmpty( (AndSpecification) specification );
+    }
+
+    static boolean isFalse( Specification<Composite> specification )
+    {
+        return specification instanceof OrSpecification && isEmpty( (OrSpecification) specification );
+    }
+
+    /**
+     * @return normalized negation of the specification
+     */
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static Specification<Composite> negate( Specification<Composite> specification )
+    {
+        if( specification instanceof NotSpecification )
+        {
+            return normalize( ( (NotSpecification) specification ).getOperand() );
+        }
+        else if( specification instanceof AndSpecification )
+        {
+            // not( a and b ) == not a or not b
+            return normalize( new OrSpecification( negated( (BinarySpecification) specification ) ) );
+        }
+        else if( specification instanceof OrSpecification )
+        {
+            // not( a or b ) == not a and not b
+            return normalize( new AndSpecification( negated( (BinarySpecification) specification ) ) );
+        }
+        else if( specification instanceof PropertyNullSpecification )
+        {
+            return new PropertyNotNullSpecification( ( (PropertyNullSpecification) specification ).getProperty() );
+        }
+        else if( specification instanceof PropertyNotNullSpecification )
+        {
+            return new PropertyNullSpecification( ( (PropertyNotNullSpecification) specification ).getProperty() );
+        }
+        else if( specification instanceof AssociationNullSpecification )
+        {
+            return new AssociationNotNullSpecification( ( (AssociationNullSpecification) specification ).getAssociation() );
+        }
+        else if( specification instanceof AssociationNotNullSpecification )
+        {
+            return new AssociationNullSpecification( ( (AssociationNotNullSpecification) specification ).getAssociation() );
+        }
+        return new NotSpecification( specification );
+    }
+
+    private static List<Specification<Composite>> negated( BinarySpecification specification )
+    {
+        List<Specification<Composite>> negated = new ArrayList<Specification<Composite>>();
+        for( Specification<Composite> operand : specification.getOperands() )
+        {
+            negated.add( new NotSpecification( operand ) );
+        }
+        return negated;
+    }
+
+    /**
+     * Add a normalized operand to an and or or expression, and flatten it if it is the same kind of expression.
+     */
+    private static void add( List<Specification<Composite>> operands,
+                             Specification<Composite> operand,
+                             Class<? extends BinarySpecification> type
+    )
+    {
+        if( type.isInstance( operand ) )
+        {
+            for( Specification<Composite> nested : ( (BinarySpecification) operand ).getOperands() )
+            {
+                operands.add( nested );
+            }
+        }
+        else
+        {
+            operands.add( operand );
+        }
+    }
+
+    private static boolean isEmpty( BinarySpecification specification )
+    {
+        return !specification.getOperands().iterator().hasNext();
+    }
+}
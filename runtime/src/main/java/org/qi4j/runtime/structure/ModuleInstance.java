@@ -43,7 +43,9 @@ import org.qi4j.api.structure.Module;
 import org.qi4j.api.unitofwork.UnitOfWork;
 import org.qi4j.api.unitofwork.UnitOfWorkException;
 import org.qi4j.api.unitofwork.UnitOfWorkFactory;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
 import org.qi4j.api.usecase.Usecase;
+import org.qi4j.api.usecase.UsecaseBuilder;
 import org.qi4j.api.util.Classes;
 import org.qi4j.api.util.NullArgumentException;
 import org.qi4j.api.value.*;
@@ -82,6 +84,10 @@ import static org.qi4j.functional.Iterables.*;
 public class ModuleInstance
         implements Module, Activatable
 {
+    private static final Usecase READ_ONLY_USECASE = UsecaseBuilder.buildUsecase( "Read-only" )
+        .with( UnitOfWorkOptions.READ_ONLY )
+        .newUsecase();
+
     private final ModuleModel moduleModel;
     private final LayerInstance layerInstance;
     private final TransientsModel transients;
@@ -728,6 +734,11 @@ public class ModuleInstance
         return new ModuleUnitOfWork( ModuleInstance.this, new UnitOfWorkInstance( usecase, currentTime ) );
     }
 
+    public UnitOfWork newReadOnlyUnitOfWork()
+    {
+        return newUnitOfWork( READ_ONLY_USECASE );
+    }
+
     @Override
     public boolean isUnitOfWorkActive()
     {
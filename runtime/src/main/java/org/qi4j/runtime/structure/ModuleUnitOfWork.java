@@ -19,16 +19,24 @@ import org.qi4j.api.common.QualifiedName;
 import org.qi4j.api.composite.Composite;
 import org.qi4j.api.composite.NoSuchCompositeException;
 import org.qi4j.api.entity.*;
+import org.qi4j.api.dataset.DataSet;
+import org.qi4j.api.query.MissingIndexingSystemException;
+import org.qi4j.api.query.NotQueryableException;
 import org.qi4j.api.query.Query;
 import org.qi4j.api.query.QueryBuilder;
 import org.qi4j.api.query.QueryExecutionException;
 import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.service.ServiceReference;
 import org.qi4j.api.unitofwork.*;
 import org.qi4j.api.usecase.Usecase;
+import org.qi4j.functional.Function;
 import org.qi4j.functional.Iterables;
 import org.qi4j.functional.Specification;
 import org.qi4j.runtime.entity.EntityInstance;
 import org.qi4j.runtime.entity.EntityModel;
+import org.qi4j.runtime.query.EntityDataSet;
+import org.qi4j.runtime.query.QueryPlan;
+import org.qi4j.runtime.query.QueryPlanner;
 import org.qi4j.runtime.unitofwork.EntityBuilderInstance;
 import org.qi4j.runtime.unitofwork.UnitOfWorkInstance;
 import org.qi4j.spi.entity.EntityState;
@@ -37,6 +45,7 @@ import org.qi4j.spi.entitystore.EntityStore;
 import org.qi4j.spi.query.EntityFinder;
 import org.qi4j.spi.query.EntityFinderException;
 import org.qi4j.spi.query.QueryBuilderSPI;
+import org.qi4j.spi.query.QueryCache;
 import org.qi4j.spi.query.QuerySource;
 
 import java.util.Collections;
@@ -49,7 +58,7 @@ import static org.qi4j.api.entity.EntityReference.parseEntityReference;
  * JAVADOC
  */
 public class ModuleUnitOfWork
-    implements UnitOfWork
+    implements UnitOfWork, UnitOfWorkGauges
 {
     private static final QualifiedName IDENTITY_STATE_NAME;
 
@@ -113,6 +122,23 @@ public class ModuleUnitOfWork
         return queryBuilderSPI.newQuery( new UoWQuerySource(this) );
     }
 
+    @Override
+    public <T> DataSet<T> newDataSet( Class<T> type )
+    {
+        NotQueryableException.throwIfNotQueryable( type );
+
+        final EntityFinder entityFinder;
+        try
+        {
+            entityFinder = module().findService( EntityFinder.class ).get();
+        }
+        catch( IllegalArgumentException e )
+        {
+            throw new MissingIndexingSystemException();
+        }
+        return new EntityDataSet<T>( this, entityFinder, type );
+    }
+
     public <T> T newEntity( Class<T> type )
         throws EntityTypeNotFoundException, LifecycleException
     {
@@ -122,6 +148,8 @@ public class ModuleUnitOfWork
     public <T> T newEntity( Class<T> type, String identity )
         throws EntityTypeNotFoundException, LifecycleException
     {
+        uow.checkWritable();
+
         ModelModule<EntityModel> model = Iterables.first( moduleInstance.findEntityModels( type ));
 
         if( model == null )
@@ -165,6 +193,8 @@ public class ModuleUnitOfWork
     public <T> EntityBuilder<T> newEntityBuilder( Class<T> type, String identity )
         throws EntityTypeNotFoundException
     {
+        uow.checkWritable();
+
         Iterable<ModelModule<EntityModel>> models = moduleInstance.findEntityModels( type );
 
         ModelModule<EntityModel> model = Iterables.first( models );
@@ -222,6 +252,7 @@ public class ModuleUnitOfWork
         throws LifecycleException
     {
         uow.checkOpen();
+        uow.checkWritable();
 
         EntityComposite entityComposite = (EntityComposite) entity;
 
@@ -248,6 +279,11 @@ public class ModuleUnitOfWork
         uow.complete();
     }
 
+    public UnitOfWorkCompletion completeAsync()
+    {
+        return uow.completeAsync();
+    }
+
     public void discard()
     {
         uow.discard();
@@ -263,6 +299,11 @@ public class ModuleUnitOfWork
         return uow.isPaused();
     }
 
+    public boolean isReadOnly()
+    {
+        return uow.isReadOnly();
+    }
+
     public void pause()
     {
         uow.pause();
@@ -273,6 +314,26 @@ public class ModuleUnitOfWork
         uow.resume();
     }
 
+    public int cachedEntityCount()
+    {
+        return uow.cachedEntityCount();
+    }
+
+    public long evictedEntityCount()
+    {
+        return uow.evictedEntityCount();
+    }
+
+    public int cachedStateCount()
+    {
+        return uow.cachedStateCount();
+    }
+
+    public long evictedStateCount()
+    {
+        return uow.evictedStateCount();
+    }
+
     public void addUnitOfWorkCallback( UnitOfWorkCallback callback )
     {
         uow.addUnitOfWorkCallback( callback );
@@ -331,14 +392,34 @@ public class ModuleUnitOfWork
             this.moduleUnitOfWork = moduleUnitOfWork;
         }
 
+        private EntityFinder entityFinder()
+        {
+            return moduleUnitOfWork.module().findService( EntityFinder.class ).get();
+        }
+
+        private EntityFinder cachingFinder( EntityFinder entityFinder )
+        {
+            ServiceReference<QueryCache> queryCache = Iterables.first( moduleUnitOfWork.module().findServices( QueryCache.class ) );
+            return queryCache == null ? entityFinder : queryCache.get().cachingFinder( entityFinder );
+        }
+
         @Override
         public <T> T find( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
         {
-            final EntityFinder entityFinder = moduleUnitOfWork.module().findService( EntityFinder.class ).get();
+            final EntityFinder entityFinder = entityFinder();
+            QueryPlan plan = QueryPlanner.forFinder( entityFinder ).plan( resultType, whereClause, orderBySegments, firstResult, 1, variables );
+            if( plan.isEmpty() || ( maxResults != null && maxResults <= 0 ) )
+            {
+                return null;
+            }
+            if( !plan.isFinderFirst() )
+            {
+                return Iterables.first( results( resultType, entityFinder, plan, variables ) );
+            }
 
             try
             {
-                final EntityReference foundEntity = entityFinder.findEntity( resultType, whereClause, variables == null ? Collections.<String, Object>emptyMap() : variables );
+                final EntityReference foundEntity = cachingFinder( entityFinder ).findEntity( resultType, plan.finderWhereClause(), variables( variables ) );
                 if( foundEntity != null )
                 {
                     try
@@ -362,65 +443,97 @@ public class ModuleUnitOfWork
         @Override
         public <T> long count( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
         {
-            final EntityFinder entityFinder = moduleUnitOfWork.module().findService( EntityFinder.class ).get();
+            final EntityFinder entityFinder = entityFinder();
+            // The order does not change the number of results
+            QueryPlan plan = QueryPlanner.forFinder( entityFinder ).plan( resultType, whereClause, null, firstResult, maxResults, variables );
+            if( plan.isEmpty() )
+            {
+                return 0;
+            }
+            if( !plan.isFinderCount() )
+            {
+                return Iterables.count( results( resultType, entityFinder, plan, variables ) );
+            }
 
             try
             {
-                return entityFinder.countEntities( resultType, whereClause, variables == null ? Collections.<String, Object>emptyMap() : variables );
+                return plan.page( cachingFinder( entityFinder ).countEntities( resultType, plan.finderWhereClause(), variables( variables ) ) );
             }
             catch( EntityFinderException e )
             {
-                e.printStackTrace();
-                return 0;
+                throw new QueryExecutionException( "Finder caused exception", e );
             }
         }
 
         @Override
         public <T> Iterator<T> iterator( final Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
         {
-            final EntityFinder entityFinder = moduleUnitOfWork.module().findService( EntityFinder.class ).get();
+            final EntityFinder entityFinder = entityFinder();
+            QueryPlan plan = QueryPlanner.forFinder( entityFinder ).plan( resultType, whereClause, orderBySegments, firstResult, maxResults, variables );
+            if( plan.isEmpty() )
+            {
+                return Collections.<T>emptyList().iterator();
+            }
+            return results( resultType, entityFinder, plan, variables ).iterator();
+        }
+
+        @Override
+        public <T> String explain( Class<T> resultType, Specification<Composite> whereClause, Iterable<OrderBy> orderBySegments, Integer firstResult, Integer maxResults, Map<String, Object> variables )
+        {
+            return QueryPlanner.forFinder( entityFinder() ).plan( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ).toString();
+        }
 
+        private <T> Iterable<T> results( final Class<T> resultType, EntityFinder entityFinder, QueryPlan plan, Map<String, Object> variables )
+        {
+            final Iterable<EntityReference> foundEntities;
             try
             {
-                final Iterator<EntityReference> foundEntities = entityFinder.findEntities( resultType,
-                                                                                           whereClause,
-                                                                                           Iterables.toArray( OrderBy.class, orderBySegments),
-                                                                                           firstResult,
-                                                                                           maxResults,
-                                                                                           variables == null ? Collections.<String, Object>emptyMap() : variables)
-                    .iterator();
-
-                return new Iterator<T>()
+                foundEntities = cachingFinder( entityFinder ).findEntities( resultType,
+                                                                            plan.finderWhereClause(),
+                                                                            plan.finderOrderBy(),
+                                                                            plan.finderFirstResult(),
+                                                                            plan.finderMaxResults(),
+                                                                            variables( variables ) );
+            }
+            catch( EntityFinderException e )
+            {
+                throw new QueryExecutionException( "Query '" + toString() + "' could not be executed", e );
+            }
+
+            UnitOfWorkOptions options = uow.options();
+            final int batchSize = options == null ? 0 : options.getQueryBatchSize();
+            if( batchSize > 0 && !plan.isOrderedInMemory() )
+            {
+                // Stream results, unless they have to be sorted in memory anyway
+                return plan.inMemory( new Iterable<T>()
                 {
-                    public boolean hasNext()
+                    public Iterator<T> iterator()
                     {
-                        return foundEntities.hasNext();
+                        return new StreamingEntityIterator<T>( moduleUnitOfWork, resultType, foundEntities.iterator(), batchSize );
                     }
+                } );
+            }
 
-                    public T next()
+            return plan.inMemory( Iterables.map( new Function<EntityReference, T>()
+            {
+                public T map( EntityReference foundEntity )
+                {
+                    try
                     {
-                        final EntityReference foundEntity = foundEntities.next();
-                        try
-                        {
-                            return moduleUnitOfWork.get( resultType, foundEntity.identity() );
-                        }
-                        catch( NoSuchEntityException e )
-                        {
-                            // Index is out of sync - entity has been removed
-                            return null;
-                        }
+                        return moduleUnitOfWork.get( resultType, foundEntity.identity() );
                     }
-
-                    public void remove()
+                    catch( NoSuchEntityException e )
                     {
-                        throw new UnsupportedOperationException();
+                        // Index is out of sync - entity has been removed
+                        return null;
                     }
-                };
-            }
-            catch( EntityFinderException e )
-            {
-                throw new QueryExecutionException( "Query '" + toString() + "' could not be executed", e );
-            }
+                }
+            }, foundEntities ) );
+        }
+
+        private Map<String, Object> variables( Map<String, Object> variables )
+        {
+            return variables == null ? Collections.<String, Object>emptyMap() : variables;
         }
     }
 }
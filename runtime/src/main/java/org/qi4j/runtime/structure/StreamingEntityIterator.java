@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.structure;
+
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.unitofwork.NoSuchEntityException;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the entities of query results that loads them in batches, and clears the entities that it
+ * loaded out of the UnitOfWork when the iteration has moved past them. Entities that were already loaded
+ * before the iteration, or that have been modified, are kept.
+ */
+final class StreamingEntityIterator<T>
+    implements Iterator<T>
+{
+    private final ModuleUnitOfWork moduleUnitOfWork;
+    private final Class<T> resultType;
+    private final Iterator<EntityReference> references;
+    private final int batchSize;
+    private final LinkedList<Loaded<T>> batch = new LinkedList<Loaded<T>>();
+    private Loaded<T> current;
+
+    StreamingEntityIterator( ModuleUnitOfWork moduleUnitOfWork,
+                             Class<T> resultType,
+                             Iterator<EntityReference> references,
+                             int batchSize
+    )
+    {
+        this.moduleUnitOfWork = moduleUnitOfWork;
+        this.resultType = resultType;
+        this.references = references;
+        this.batchSize = batchSize;
+    }
+
+    public boolean hasNext()
+    {
+        if( batch.isEmpty() )
+        {
+            loadBatch();
+            if( batch.isEmpty() )
+            {
+                // The iteration is done
+                releaseCurrent();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public T next()
+    {
+        if( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        releaseCurrent();
+        current = batch.removeFirst();
+        return current.entity;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    private void loadBatch()
+    {
+        while( batch.size() < batchSize && references.hasNext() )
+        {
+            EntityReference reference = references.next();
+            boolean releasable = !moduleUnitOfWork.instance().isCached( reference );
+            try
+            {
+                batch.add( new Loaded<T>( reference, moduleUnitOfWork.get( resultType, reference.identity() ), releasable ) );
+            }
+            catch( NoSuchEntityException e )
+            {
+                // Index is out of sync - entity has been removed
+            }
+        }
+    }
+
+    private void releaseCurrent()
+    {
+        if( current != null && current.releasable )
+        {
+            moduleUnitOfWork.instance().release( current.reference );
+        }
+        current = null;
+    }
+
+    private static class Loaded<T>
+    {
+        private final EntityReference reference;
+        private final T entity;
+        private final boolean releasable;
+
+        private Loaded( EntityReference reference, T entity, boolean releasable )
+        {
+            this.reference = reference;
+            this.entity = entity;
+            this.releasable = releasable;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.qi4j.api.common.QualifiedName;
+import org.qi4j.api.entity.EntityDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.unitofwork.ReadOnlyUnitOfWorkException;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+import org.qi4j.spi.entity.ManyAssociationState;
+
+import java.util.Iterator;
+
+/**
+ * EntityState of entities in a read-only UnitOfWork. Any attempt to change the state
+ * throws ReadOnlyUnitOfWorkException before the underlying state is touched.
+ */
+final class ReadOnlyEntityState
+    implements EntityState
+{
+    private final EntityState state;
+
+    ReadOnlyEntityState( EntityState state )
+    {
+        this.state = state;
+    }
+
+    public EntityReference identity()
+    {
+        return state.identity();
+    }
+
+    public String version()
+    {
+        return state.version();
+    }
+
+    public long lastModified()
+    {
+        return state.lastModified();
+    }
+
+    public void remove()
+    {
+        throw readOnly();
+    }
+
+    public EntityStatus status()
+    {
+        return state.status();
+    }
+
+    public boolean isAssignableTo( Class<?> type )
+    {
+        return state.isAssignableTo( type );
+    }
+
+    public EntityDescriptor entityDescriptor()
+    {
+        return state.entityDescriptor();
+    }
+
+    public Object getProperty( QualifiedName stateName )
+    {
+        return state.getProperty( stateName );
+    }
+
+    public void setProperty( QualifiedName stateName, Object json )
+    {
+        throw readOnly();
+    }
+
+    public EntityReference getAssociation( QualifiedName stateName )
+    {
+        return state.getAssociation( stateName );
+    }
+
+    public void setAssociation( QualifiedName stateName, EntityReference newEntity )
+    {
+        throw readOnly();
+    }
+
+    public ManyAssociationState getManyAssociation( QualifiedName stateName )
+    {
+        final ManyAssociationState manyAssociationState = state.getManyAssociation( stateName );
+        return new ManyAssociationState()
+        {
+            public int count()
+            {
+                return manyAssociationState.count();
+            }
+
+            public boolean contains( EntityReference entityReference )
+            {
+                return manyAssociationState.contains( entityReference );
+            }
+
+            public boolean add( int index, EntityReference entityReference )
+            {
+                throw readOnly();
+            }
+
+            public boolean remove( EntityReference entityReference )
+            {
+                throw readOnly();
+            }
+
+            public EntityReference get( int index )
+            {
+                return manyAssociationState.get( index );
+            }
+
+            public Iterator<EntityReference> iterator()
+            {
+                return manyAssociationState.iterator();
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return state.toString();
+    }
+
+    private ReadOnlyUnitOfWorkException readOnly()
+    {
+        return new ReadOnlyUnitOfWorkException( "Entity " + state.identity() + " cannot be changed in a read-only unit of work" );
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.qi4j.api.unitofwork.UnitOfWorkCompletion;
+import org.qi4j.api.unitofwork.UnitOfWorkCompletionException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Latch based implementation of UnitOfWorkCompletion.
+ */
+final class UnitOfWorkCompletionHandle
+    implements UnitOfWorkCompletion
+{
+    private final CountDownLatch done = new CountDownLatch( 1 );
+    private volatile UnitOfWorkCompletionException failure;
+
+    void completed()
+    {
+        done.countDown();
+    }
+
+    void failed( UnitOfWorkCompletionException e )
+    {
+        failure = e;
+        done.countDown();
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    public void await()
+        throws UnitOfWorkCompletionException, InterruptedException
+    {
+        done.await();
+        checkFailure();
+    }
+
+    public void await( long timeout, TimeUnit unit )
+        throws UnitOfWorkCompletionException, InterruptedException, TimeoutException
+    {
+        if( !done.await( timeout, unit ) )
+        {
+            throw new TimeoutException( "UnitOfWork did not complete within " + timeout + " " + unit );
+        }
+        checkFailure();
+    }
+
+    private void checkFailure()
+        throws UnitOfWorkCompletionException
+    {
+        if( failure != null )
+        {
+            throw failure;
+        }
+    }
+}
@@ -33,7 +33,14 @@ import org.qi4j.spi.entity.EntityState;
 import org.qi4j.spi.entity.EntityStatus;
 import org.qi4j.spi.entitystore.*;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import static org.qi4j.api.unitofwork.UnitOfWorkCallback.UnitOfWorkStatus.COMPLETED;
 import static org.qi4j.api.unitofwork.UnitOfWorkCallback.UnitOfWorkStatus.DISCARDED;
@@ -42,6 +49,8 @@ public final class UnitOfWorkInstance
 {
     private static final ThreadLocal<Stack<UnitOfWorkInstance>> current = new ThreadLocal<Stack<UnitOfWorkInstance>>();
 
+    private static Executor defaultCompletionExecutor;
+
     public static Stack<UnitOfWorkInstance> getCurrent()
     {
         Stack<UnitOfWorkInstance> stack = current.get();
@@ -62,6 +71,17 @@ public final class UnitOfWorkInstance
 
     private boolean paused;
 
+    private final boolean readOnly;
+
+    /**
+     * Loaded entities that have not been modified, in least recently used order, if their number is bounded.
+     */
+    private final int maxCleanEntities;
+    private final LinkedHashMap<EntityReference, EntityInstance> cleanInstances;
+    private final Map<EntityReference, EvictedInstance> evictedInstances;
+    private final ReferenceQueue<EntityInstance> evictedQueue;
+    private long evictions;
+
     /**
      * Lazy query builder factory.
      */
@@ -80,6 +100,12 @@ public final class UnitOfWorkInstance
         getCurrent().push( this );
         paused = false;
         this.usecase = usecase;
+        UnitOfWorkOptions unitOfWorkOptions = usecase.metaInfo( UnitOfWorkOptions.class );
+        readOnly = unitOfWorkOptions != null && unitOfWorkOptions.isReadOnly();
+        maxCleanEntities = unitOfWorkOptions == null ? 0 : unitOfWorkOptions.getMaxCleanEntities();
+        cleanInstances = new LinkedHashMap<EntityReference, EntityInstance>( 16, 0.75f, true );
+        evictedInstances = new HashMap<EntityReference, EvictedInstance>();
+        evictedQueue = new ReferenceQueue<EntityInstance>();
     }
 
     public long currentTime()
@@ -109,6 +135,11 @@ public final class UnitOfWorkInstance
 
         EntityInstance entityInstance = instanceCache.get( identity );
         if( entityInstance == null )
+        {
+            // Entities that have been cleared out are still used if they have not been garbage collected
+            entityInstance = evictedInstance( identity );
+        }
+        if( entityInstance == null )
         {   // Not yet in cache
 
             // Check if this is a root UoW, or if no parent UoW knows about this entity
@@ -148,6 +179,11 @@ public final class UnitOfWorkInstance
                 }
             }
 
+            if( readOnly )
+            {
+                entityState = new ReadOnlyEntityState( entityState );
+            }
+
             // Create instance
             entityInstance = new EntityInstance( uow, module, model, entityState );
 
@@ -161,6 +197,7 @@ public final class UnitOfWorkInstance
                 throw new NoSuchEntityException( identity );
             }
         }
+        cacheClean( identity, entityInstance );
 
         return entityInstance.<T>proxy();
     }
@@ -180,6 +217,15 @@ public final class UnitOfWorkInstance
         return metaInfo;
     }
 
+    /**
+     * @return options from the MetaInfo of this UnitOfWork, or else of its Usecase, or null if there are none
+     */
+    public UnitOfWorkOptions options()
+    {
+        UnitOfWorkOptions unitOfWorkOptions = metaInfo().get( UnitOfWorkOptions.class );
+        return unitOfWorkOptions == null ? usecase().metaInfo( UnitOfWorkOptions.class ) : unitOfWorkOptions;
+    }
+
     public void pause()
     {
         if( !paused )
@@ -187,9 +233,7 @@ public final class UnitOfWorkInstance
             paused = true;
             getCurrent().pop();
 
-            UnitOfWorkOptions unitOfWorkOptions = metaInfo().get(UnitOfWorkOptions.class);
-            if ( unitOfWorkOptions == null)
-                unitOfWorkOptions = usecase().metaInfo( UnitOfWorkOptions.class );
+            UnitOfWorkOptions unitOfWorkOptions = options();
 
             if (unitOfWorkOptions != null)
             {
@@ -263,6 +307,112 @@ public final class UnitOfWorkInstance
         callbacks = currentCallbacks;
     }
 
+    public UnitOfWorkCompletion completeAsync()
+    {
+        checkOpen();
+
+        final UnitOfWorkCompletionHandle handle = new UnitOfWorkCompletionHandle();
+
+        // Copy list so that it cannot be modified during completion
+        final List<UnitOfWorkCallback> currentCallbacks = callbacks == null ? null : new ArrayList<UnitOfWorkCallback>( callbacks );
+
+        // Check callbacks and capture the changes on the calling thread
+        final List<StateCommitter> committers;
+        try
+        {
+            notifyBeforeCompletion( currentCallbacks );
+            committers = applyChanges();
+        }
+        catch( UnitOfWorkCompletionException e )
+        {
+            // UoW is left open, as with complete()
+            handle.failed( e );
+            return handle;
+        }
+
+        close();
+        callbacks = currentCallbacks;
+
+        Runnable commit = new Runnable()
+        {
+            public void run()
+            {
+                int committed = 0;
+                try
+                {
+                    for( StateCommitter committer : committers )
+                    {
+                        committer.commit();
+                        committed++;
+                    }
+                }
+                catch( Exception e )
+                {
+                    for( StateCommitter committer : committers.subList( committed, committers.size() ) )
+                    {
+                        committer.cancel();
+                    }
+                    for( EntityStoreUnitOfWork entityStoreUnitOfWork : storeUnitOfWork.values() )
+                    {
+                        entityStoreUnitOfWork.discard();
+                    }
+
+                    notifyAfterCompletion( currentCallbacks, DISCARDED );
+                    handle.failed( new UnitOfWorkCompletionException( e ) );
+                    return;
+                }
+
+                notifyAfterCompletion( currentCallbacks, COMPLETED );
+                handle.completed();
+            }
+        };
+
+        try
+        {
+            completionExecutor().execute( commit );
+        }
+        catch( RejectedExecutionException e )
+        {
+            // Changes have been captured already, so commit them on this thread instead
+            commit.run();
+        }
+
+        return handle;
+    }
+
+    private Executor completionExecutor()
+    {
+        Executor executor = metaInfo().get( Executor.class );
+        if( executor == null )
+        {
+            executor = usecase.metaInfo( Executor.class );
+        }
+        if( executor == null )
+        {
+            executor = defaultCompletionExecutor();
+        }
+        return executor;
+    }
+
+    private static synchronized Executor defaultCompletionExecutor()
+    {
+        if( defaultCompletionExecutor == null )
+        {
+            defaultCompletionExecutor = Executors.newCachedThreadPool( new ThreadFactory()
+            {
+                private int count;
+
+                public synchronized Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "qi4j-uow-completion-" + ( ++count ) );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+        return defaultCompletionExecutor;
+    }
+
     public void discard()
     {
         if( !isOpen() )
@@ -328,6 +478,16 @@ public final class UnitOfWorkInstance
         throws UnitOfWorkCompletionException
     {
         List<StateCommitter> committers = new ArrayList<StateCommitter>();
+        if( readOnly )
+        {
+            // Nothing can have changed, so just release the EntityStore UnitOfWorks
+            for( EntityStoreUnitOfWork entityStoreUnitOfWork : storeUnitOfWork.values() )
+            {
+                entityStoreUnitOfWork.discard();
+            }
+            return committers;
+        }
+
         for( EntityStoreUnitOfWork entityStoreUnitOfWork : storeUnitOfWork.values() )
         {
             try
@@ -374,6 +534,8 @@ public final class UnitOfWorkInstance
     private void notifyBeforeCompletion( List<UnitOfWorkCallback> callbacks )
         throws UnitOfWorkCompletionException
     {
+        cacheModifiedEvictedInstances();
+
         // Notify explicitly registered callbacks
         if( callbacks != null )
         {
@@ -457,14 +619,181 @@ public final class UnitOfWorkInstance
         return paused;
     }
 
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    public void checkWritable()
+    {
+        if( readOnly )
+        {
+            throw new ReadOnlyUnitOfWorkException( "Unit of work is read-only" );
+        }
+    }
+
     @Override
     public String toString()
     {
         return "UnitOfWork " + hashCode() + "(" + usecase + "): entities:" + instanceCache.size();
     }
 
+    public boolean isCached( EntityReference entityReference )
+    {
+        return instanceCache.containsKey( entityReference );
+    }
+
+    /**
+     * Clear out an entity that has been loaded but not modified. Modified entities are kept. The entity is still
+     * used if it is asked for again before it has been garbage collected, and completing this UnitOfWork
+     * includes it if it has been modified after it was cleared out.
+     */
+    public void release( EntityReference entityReference )
+    {
+        EntityInstance entityInstance = instanceCache.get( entityReference );
+        if( entityInstance != null && entityInstance.status() == EntityStatus.LOADED )
+        {
+            cleanInstances.remove( entityReference );
+            evict( entityReference, entityInstance );
+        }
+    }
+
     public void remove( EntityReference entityReference )
     {
         instanceCache.remove( entityReference );
+        cleanInstances.remove( entityReference );
+        evictedInstances.remove( entityReference );
+    }
+
+    /**
+     * @return number of entities in the cache of this UnitOfWork
+     */
+    public int cachedEntityCount()
+    {
+        return instanceCache.size();
+    }
+
+    /**
+     * @return number of entities that have been cleared out of the cache because they were not modified
+     */
+    public long evictedEntityCount()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return number of states that the EntityStore UnitOfWorks strongly reference
+     */
+    public int cachedStateCount()
+    {
+        int count = 0;
+        for( EntityStoreUnitOfWork entityStoreUnitOfWork : storeUnitOfWork.values() )
+        {
+            if( entityStoreUnitOfWork instanceof EntityStoreUnitOfWorkGauges )
+            {
+                count += ( (EntityStoreUnitOfWorkGauges) entityStoreUnitOfWork ).stateCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of loaded states that the EntityStore UnitOfWorks have evicted
+     */
+    public long evictedStateCount()
+    {
+        long count = 0;
+        for( EntityStoreUnitOfWork entityStoreUnitOfWork : storeUnitOfWork.values() )
+        {
+            if( entityStoreUnitOfWork instanceof EntityStoreUnitOfWorkGauges )
+            {
+                count += ( (EntityStoreUnitOfWorkGauges) entityStoreUnitOfWork ).evictedStateCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Keep track of the least recently used entities that have not been modified, and clear out the ones that are
+     * more than the max clean entities.
+     */
+    private void cacheClean( EntityReference identity, EntityInstance entityInstance )
+    {
+        if( maxCleanEntities == 0 || entityInstance.status() != EntityStatus.LOADED )
+        {
+            return;
+        }
+
+        cleanInstances.put( identity, entityInstance );
+        Iterator<Map.Entry<EntityReference, EntityInstance>> eldest = cleanInstances.entrySet().iterator();
+        while( cleanInstances.size() > maxCleanEntities )
+        {
+            Map.Entry<EntityReference, EntityInstance> entry = eldest.next();
+            eldest.remove();
+            // Entities that have been modified since they were loaded are kept
+            if( entry.getValue().status() == EntityStatus.LOADED && instanceCache.get( entry.getKey() ) == entry.getValue() )
+            {
+                evict( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    private void evict( EntityReference identity, EntityInstance entityInstance )
+    {
+        Reference<? extends EntityInstance> collected;
+        while( ( collected = evictedQueue.poll() ) != null )
+        {
+            EvictedInstance evictedInstance = (EvictedInstance) collected;
+            if( evictedInstances.get( evictedInstance.identity ) == evictedInstance )
+            {
+                evictedInstances.remove( evictedInstance.identity );
+            }
+        }
+
+        instanceCache.remove( identity );
+        evictedInstances.put( identity, new EvictedInstance( identity, entityInstance, evictedQueue ) );
+        evictions++;
+    }
+
+    private EntityInstance evictedInstance( EntityReference identity )
+    {
+        EvictedInstance evictedInstance = evictedInstances.remove( identity );
+        EntityInstance entityInstance = evictedInstance == null ? null : evictedInstance.get();
+        if( entityInstance != null )
+        {
+            instanceCache.put( identity, entityInstance );
+        }
+        return entityInstance;
+    }
+
+    /**
+     * Entities that have been cleared out of the cache, but are still in use, may be modified later.
+     */
+    private void cacheModifiedEvictedInstances()
+    {
+        for( EvictedInstance evictedInstance : new ArrayList<EvictedInstance>( evictedInstances.values() ) )
+        {
+            EntityInstance entityInstance = evictedInstance.get();
+            if( entityInstance != null && entityInstance.status() != EntityStatus.LOADED )
+            {
+                evictedInstances.remove( evictedInstance.identity );
+                instanceCache.put( evictedInstance.identity, entityInstance );
+            }
+        }
+    }
+
+    private static class EvictedInstance
+        extends WeakReference<EntityInstance>
+    {
+        private final EntityReference identity;
+
+        private EvictedInstance( EntityReference identity,
+                                 EntityInstance entityInstance,
+                                 ReferenceQueue<EntityInstance> queue
+        )
+        {
+            super( entityInstance, queue );
+            this.identity = identity;
+        }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.index.memory;
+
+import org.junit.Test;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityBuilder;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.test.indexing.AbstractEntityFinderTest;
+import org.qi4j.test.indexing.model.Domain;
+import org.qi4j.test.indexing.model.Nameable;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.qi4j.api.query.QueryExpressions.eq;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+import static org.qi4j.test.indexing.NameableAssert.assertNames;
+
+public class MemoryEntityFinderTest
+    extends AbstractEntityFinderTest
+{
+    @Override
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        super.assemble( module );
+        module.services( MemoryEntityFinderService.class );
+    }
+
+    @Test
+    public void givenChangedEntityWhenFindingThenIndexHasTheNewState()
+        throws Exception
+    {
+        EntityFinder finder = module.findService( EntityFinder.class ).get();
+        Nameable nameable = templateFor( Nameable.class );
+        Specification<Composite> games = eq( nameable.name(), "Games" );
+        Specification<Composite> gaming = eq( nameable.name(), "Gaming" );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Domain.class, "Gaming" ).name().set( "Games" );
+        uow.complete();
+
+        assertNames( finder.findEntities( Domain.class, games, null, null, null, Collections.<String, Object>emptyMap() ), "Gaming" );
+        assertEquals( 0, finder.countEntities( Domain.class, gaming, Collections.<String, Object>emptyMap() ) );
+
+        uow = module.newUnitOfWork();
+        uow.remove( uow.get( Domain.class, "Gaming" ) );
+        uow.complete();
+
+        assertEquals( 0, finder.countEntities( Domain.class, games, Collections.<String, Object>emptyMap() ) );
+    }
+
+    @Test
+    public void givenUnitOfWorkThatFailsToCommitWhenFindingThenIndexDoesNotHaveItsChanges()
+        throws Exception
+    {
+        EntityFinder finder = module.findService( EntityFinder.class ).get();
+        Nameable nameable = templateFor( Nameable.class );
+
+        UnitOfWork first = module.newUnitOfWork();
+        newDomain( first, "First" );
+        first.pause();
+
+        UnitOfWork second = module.newUnitOfWork();
+        newDomain( second, "Second" );
+        second.pause();
+
+        first.resume();
+        first.complete();
+        second.resume();
+        try
+        {
+            // The entity already exists, so this fails when the changes are committed to the store
+            second.complete();
+            fail( "Second UnitOfWork should not be completed" );
+        }
+        catch( Exception e )
+        {
+            second.discard();
+        }
+
+        assertEquals( 1, finder.countEntities( Domain.class, eq( nameable.name(), "First" ), Collections.<String, Object>emptyMap() ) );
+        assertEquals( 0, finder.countEntities( Domain.class, eq( nameable.name(), "Second" ), Collections.<String, Object>emptyMap() ) );
+    }
+
+    private void newDomain( UnitOfWork uow, String name )
+    {
+        EntityBuilder<Domain> builder = uow.newEntityBuilder( Domain.class, "Clash" );
+        builder.instance().name().set( name );
+        builder.instance().description().set( name );
+        builder.newInstance();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.dataset.DataSet;
+import org.qi4j.api.dataset.Query;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Function;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.qi4j.api.query.QueryExpressions.eq;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+
+public class EntityDataSetTest
+    extends AbstractQi4jTest
+{
+    private static final List<Call> calls = new ArrayList<Call>();
+
+    private static final Specification<Item> LONG_NAME = new Specification<Item>()
+    {
+        public boolean satisfiedBy( Item item )
+        {
+            return item.name().get().length() > 3;
+        }
+    };
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( RecordingEntityFinderService.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        for( String name : new String[]{ "Foo", "Bar", "Xyzzy", "Quux" } )
+        {
+            uow.newEntity( Item.class, name ).name().set( name );
+        }
+        uow.complete();
+        calls.clear();
+    }
+
+    @Test
+    public void givenExpressionConstraintWhenQueryingThenConstraintIsGivenToFinder()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            DataSet<Item> items = uow.newDataSet( Item.class )
+                .constrain( (Specification) eq( templateFor( Item.class ).name(), "Foo" ) );
+            Query<Item> query = items.newQuery();
+            query.orderBy( templateFor( Item.class ).name(), Query.Order.DESCENDING ).skip( 1 ).limit( 2 );
+
+            assertEquals( 2, Iterables.count( query.toIterable() ) );
+
+            Call call = calls.get( 0 );
+            assertNotNull( call.whereClause );
+            assertEquals( OrderBy.Order.DESCENDING, call.orderBy[ 0 ].order() );
+            assertEquals( Integer.valueOf( 1 ), call.firstResult );
+            assertEquals( Integer.valueOf( 2 ), call.maxResults );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenOtherConstraintWhenQueryingThenConstraintIsEvaluatedOnEntities()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Query<Item> query = uow.newDataSet( Item.class ).constrain( LONG_NAME ).newQuery();
+            query.skip( 1 );
+
+            assertEquals( "Quux", query.single().name().get() );
+            assertEquals( 1, query.count() );
+
+            // Skip and limit can not be given to the finder, as it does not know the constraint
+            Call call = calls.get( 0 );
+            assertNull( call.whereClause );
+            assertNull( call.firstResult );
+            assertNull( call.maxResults );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenProjectionWhenCreatedThenNothingIsFoundUntilIterated()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            DataSet<String> names = uow.newDataSet( Item.class ).project( new Function<Item, String>()
+            {
+                public String map( Item item )
+                {
+                    return item.name().get();
+                }
+            } );
+            assertEquals( 0, calls.size() );
+
+            assertEquals( Arrays.asList( "Foo", "Bar", "Xyzzy", "Quux" ), Iterables.toList( names.newQuery().toIterable() ) );
+            assertEquals( 1, calls.size() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+
+    @Mixins( RecordingEntityFinderMixin.class )
+    public interface RecordingEntityFinderService
+        extends EntityFinder, ServiceComposite
+    {
+    }
+
+    /**
+     * Finder that returns all items, and records what it was asked for.
+     */
+    public static class RecordingEntityFinderMixin
+        implements EntityFinder
+    {
+        public Iterable<EntityReference> findEntities( Class<?> resultType,
+                                                       Specification<Composite> whereClause,
+                                                       OrderBy[] orderBySegments,
+                                                       Integer firstResult,
+                                                       Integer maxResults,
+                                                       Map<String, Object> variables
+        )
+        {
+            calls.add( new Call( whereClause, orderBySegments, firstResult, maxResults ) );
+            List<EntityReference> references = new ArrayList<EntityReference>();
+            for( String identity : new String[]{ "Foo", "Bar", "Xyzzy", "Quux" } )
+            {
+                references.add( new EntityReference( identity ) );
+            }
+            int from = firstResult == null ? 0 : firstResult;
+            int to = maxResults == null ? references.size() : Math.min( references.size(), from + maxResults );
+            return references.subList( from, to );
+        }
+
+        public EntityReference findEntity( Class<?> resultType,
+                                           Specification<Composite> whereClause,
+                                           Map<String, Object> variables
+        )
+        {
+            return Iterables.first( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+
+        public long countEntities( Class<?> resultType,
+                                   Specification<Composite> whereClause,
+                                   Map<String, Object> variables
+        )
+        {
+            return Iterables.count( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+    }
+
+    private static class Call
+    {
+        private final Specification<Composite> whereClause;
+        private final OrderBy[] orderBy;
+        private final Integer firstResult;
+        private final Integer maxResults;
+
+        private Call( Specification<Composite> whereClause, OrderBy[] orderBy, Integer firstResult, Integer maxResults )
+        {
+            this.whereClause = whereClause;
+            this.orderBy = orderBy;
+            this.firstResult = firstResult;
+            this.maxResults = maxResults;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.Query;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.QuerySpecification;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.spi.query.EntityFinderException;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NativeQueryTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( NamesFinderService.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        for( String name : new String[]{ "Alpha", "Bravo", "Charlie" } )
+        {
+            uow.newEntity( Item.class, name ).name().set( name );
+        }
+        uow.complete();
+    }
+
+    @Test
+    public void givenFinderWithoutCapabilitiesWhenQueryingNativelyThenFinderEvaluatesTheQuery()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class )
+                                                  .where( new QuerySpecification( "names", "Charlie,Alpha" ) ) );
+
+            List<String> names = new ArrayList<String>();
+            for( Item item : query )
+            {
+                names.add( item.name().get() );
+            }
+            assertEquals( "[Charlie, Alpha]", names.toString() );
+            assertEquals( 2, query.count() );
+            assertEquals( "Charlie", query.find().name().get() );
+            assertTrue( query.explain(), query.explain().contains( "where in memory: none" ) );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+
+    @Mixins( NamesFinderMixin.class )
+    public interface NamesFinderService
+        extends EntityFinder, ServiceComposite
+    {
+    }
+
+    /**
+     * Finder for the "names" query language, where a query is a comma separated list of identities.
+     */
+    public static class NamesFinderMixin
+        implements EntityFinder
+    {
+        public Iterable<EntityReference> findEntities( Class<?> resultType,
+                                                       @Optional Specification<Composite> whereClause,
+                                                       @Optional OrderBy[] orderBySegments,
+                                                       @Optional Integer firstResult,
+                                                       @Optional Integer maxResults,
+                                                       Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            if( !QuerySpecification.isQueryLanguage( "names", whereClause ) )
+            {
+                return Collections.emptyList();
+            }
+
+            List<EntityReference> references = new ArrayList<EntityReference>();
+            for( String identity : ( (QuerySpecification) whereClause ).getQuery().split( "," ) )
+            {
+                references.add( EntityReference.parseEntityReference( identity ) );
+            }
+            return references;
+        }
+
+        public EntityReference findEntity( Class<?> resultType,
+                                           @Optional Specification<Composite> whereClause,
+                                           Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            return Iterables.first( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+
+        public long countEntities( Class<?> resultType,
+                                   @Optional Specification<Composite> whereClause,
+                                   Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            return Iterables.count( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+    }
+}
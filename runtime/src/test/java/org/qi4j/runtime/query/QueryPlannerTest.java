@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.query;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.Query;
+import org.qi4j.api.query.grammar.AndSpecification;
+import org.qi4j.api.query.grammar.OrSpecification;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.OrderByComparator;
+import org.qi4j.api.query.grammar.PropertyNotNullSpecification;
+import org.qi4j.api.query.grammar.PropertyNullSpecification;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.index.memory.MemoryEntityFinderService;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.qi4j.api.query.QueryExpressions.and;
+import static org.qi4j.api.query.QueryExpressions.eq;
+import static org.qi4j.api.query.QueryExpressions.ge;
+import static org.qi4j.api.query.QueryExpressions.isNotNull;
+import static org.qi4j.api.query.QueryExpressions.isNull;
+import static org.qi4j.api.query.QueryExpressions.not;
+import static org.qi4j.api.query.QueryExpressions.or;
+import static org.qi4j.api.query.QueryExpressions.orderBy;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+
+public class QueryPlannerTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( MemoryEntityFinderService.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        for( String name : new String[]{ "Charlie", "Alpha", "Echo", "Bravo", "Delta" } )
+        {
+            uow.newEntity( Item.class, name ).name().set( name );
+        }
+        uow.complete();
+    }
+
+    @Test
+    public void givenNestedExpressionsWhenNormalizingThenTheyAreFlattenedAndNegationsArePushedDown()
+    {
+        Item template = templateFor( Item.class );
+        Specification<Composite> a = eq( template.name(), "Alpha" );
+        Specification<Composite> b = eq( template.name(), "Bravo" );
+        Specification<Composite> c = eq( template.name(), "Charlie" );
+
+        Specification<Composite> flattened = SpecificationNormalizer.normalize( and( a, and( b, c ) ) );
+        assertEquals( 3, Iterables.count( ( (AndSpecification) flattened ).getOperands() ) );
+
+        assertTrue( SpecificationNormalizer.normalize( not( not( a ) ) ) == a );
+
+        Specification<Composite> pushed = SpecificationNormalizer.normalize( not( or( isNull( template.name() ), isNotNull( template.name() ) ) ) );
+        List<Specification<Composite>> operands = Iterables.toList( ( (AndSpecification) pushed ).getOperands() );
+        assertTrue( operands.get( 0 ) instanceof PropertyNotNullSpecification );
+        assertTrue( operands.get( 1 ) instanceof PropertyNullSpecification );
+
+        Specification<Composite> negated = SpecificationNormalizer.normalize( not( and( a, b ) ) );
+        assertTrue( negated instanceof OrSpecification );
+    }
+
+    @Test
+    public void givenConstantOperandsWhenNormalizingThenTheyAreFolded()
+    {
+        Specification<Composite> a = eq( templateFor( Item.class ).name(), "Alpha" );
+
+        assertTrue( SpecificationNormalizer.normalize( and( a, SpecificationNormalizer.TRUE ) ) == a );
+        assertTrue( SpecificationNormalizer.isFalse( SpecificationNormalizer.normalize( and( a, SpecificationNormalizer.FALSE ) ) ) );
+        assertTrue( SpecificationNormalizer.isTrue( SpecificationNormalizer.normalize( or( a, not( SpecificationNormalizer.FALSE ) ) ) ) );
+        assertTrue( SpecificationNormalizer.isTrue( SpecificationNormalizer.normalize( null ) ) );
+    }
+
+    @Test
+    public void givenOrderAndPagingWhenQueryingThenFinderDoesThemAndCountIsPaged()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Item template = templateFor( Item.class );
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class ).where( isNotNull( template.name() ) ) );
+            query.orderBy( orderBy( template.name() ) ).firstResult( 1 ).maxResults( 3 );
+
+            assertEquals( "[Bravo, Charlie, Delta]", names( query ).toString() );
+            assertEquals( "Bravo", query.find().name().get() );
+            assertEquals( 3, query.count() );
+            assertTrue( query.explain(), query.explain().contains( "in finder" ) );
+            assertTrue( query.explain(), query.explain().contains( "estimated rows: 3" ) );
+
+            query.firstResult( 4 );
+            assertEquals( 1, query.count() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenNonGrammarSpecificationWhenQueryingThenItIsEvaluatedInMemory()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Item template = templateFor( Item.class );
+            Specification<Composite> shortName = new Specification<Composite>()
+            {
+                public boolean satisfiedBy( Composite item )
+                {
+                    return ( (Item) item ).name().get().length() == 5;
+                }
+            };
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class )
+                                                  .where( and( ge( template.name(), "Bravo" ), shortName ) ) );
+            query.orderBy( orderBy( template.name(), OrderBy.Order.DESCENDING ) ).maxResults( 2 );
+
+            assertEquals( "[Delta, Bravo]", names( query ).toString() );
+            assertEquals( 2, query.count() );
+            assertEquals( "Delta", query.find().name().get() );
+            assertTrue( query.explain(), query.explain().contains( "paging: first 0, max 2 in memory" ) );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenWhereClauseThatIsAlwaysFalseWhenQueryingThenNothingIsFound()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Item template = templateFor( Item.class );
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class )
+                                                  .where( and( isNotNull( template.name() ), not( or( isNull( template.name() ), SpecificationNormalizer.TRUE ) ) ) ) );
+
+            assertEquals( 0, query.count() );
+            assertNull( query.find() );
+            assertTrue( query.explain(), query.explain().contains( "no results" ) );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenMissingValueWhenOrderingDescendingThenFinderAndComparatorOrderItLast()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.newEntity( Item.class, "Nameless" );
+        uow.complete();
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            OrderBy descending = orderBy( templateFor( Item.class ).name(), OrderBy.Order.DESCENDING );
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class ) ).orderBy( descending );
+            assertEquals( "[Echo, Delta, Charlie, Bravo, Alpha, null]", names( query ).toString() );
+
+            List<Item> found = Iterables.toList( query );
+            List<Item> sorted = new ArrayList<Item>( found );
+            Collections.reverse( sorted );
+            Collections.sort( sorted, new OrderByComparator<Item>( Collections.singletonList( descending ) ) );
+            assertEquals( found, sorted );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    private List<String> names( Query<Item> query )
+    {
+        List<String> names = new ArrayList<String>();
+        for( Item item : query )
+        {
+            names.add( item.name().get() );
+        }
+        return names;
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.junit.Test;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.api.unitofwork.UnitOfWorkGauges;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
+import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.runtime.structure.ModuleUnitOfWork;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedUnitOfWorkTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Counter.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        for( int i = 0; i < 10; i++ )
+        {
+            uow.newEntity( Counter.class, "counter" + i ).count().set( i );
+        }
+        uow.complete();
+    }
+
+    @Test
+    public void givenMaxCleanEntitiesWhenLoadingMoreThenLeastRecentlyUsedAreEvicted()
+    {
+        UnitOfWork uow = newBoundedUnitOfWork();
+        try
+        {
+            UnitOfWorkGauges gauges = (UnitOfWorkGauges) uow;
+            for( int i = 0; i < 10; i++ )
+            {
+                uow.get( Counter.class, "counter" + i );
+                // Keep using the first one
+                uow.get( Counter.class, "counter0" );
+            }
+
+            assertEquals( 3, gauges.cachedEntityCount() );
+            assertEquals( 7, gauges.evictedEntityCount() );
+            assertTrue( ( (ModuleUnitOfWork) uow ).instance().isCached( EntityReference.parseEntityReference( "counter0" ) ) );
+
+            // The entity is cached, so the store only loaded each state once, and keeps the last loaded ones
+            assertEquals( 3, gauges.cachedStateCount() );
+            assertEquals( 7, gauges.evictedStateCount() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenModifiedEntityWhenLoadingMoreThanMaxThenItIsNotEvicted()
+        throws Exception
+    {
+        UnitOfWork uow = newBoundedUnitOfWork();
+        UnitOfWorkInstance instance = ( (ModuleUnitOfWork) uow ).instance();
+        uow.get( Counter.class, "counter0" ).count().set( 100 );
+        for( int i = 1; i < 10; i++ )
+        {
+            uow.get( Counter.class, "counter" + i );
+        }
+        assertTrue( instance.isCached( EntityReference.parseEntityReference( "counter0" ) ) );
+        uow.complete();
+
+        assertEquals( Integer.valueOf( 100 ), count( "counter0" ) );
+    }
+
+    @Test
+    public void givenEvictedEntityStillInUseWhenModifiedThenChangeIsCompleted()
+        throws Exception
+    {
+        UnitOfWork uow = newBoundedUnitOfWork();
+        Counter first = uow.get( Counter.class, "counter0" );
+        for( int i = 1; i < 10; i++ )
+        {
+            uow.get( Counter.class, "counter" + i );
+        }
+        assertTrue( !( (ModuleUnitOfWork) uow ).instance().isCached( EntityReference.parseEntityReference( "counter0" ) ) );
+
+        first.count().set( 100 );
+        assertSame( first, uow.get( Counter.class, "counter0" ) );
+
+        // Not asked for again after eviction
+        Counter second = uow.get( Counter.class, "counter1" );
+        for( int i = 2; i < 10; i++ )
+        {
+            uow.get( Counter.class, "counter" + i );
+        }
+        second.count().set( 101 );
+        uow.complete();
+
+        assertEquals( Integer.valueOf( 100 ), count( "counter0" ) );
+        assertEquals( Integer.valueOf( 101 ), count( "counter1" ) );
+    }
+
+    private UnitOfWork newBoundedUnitOfWork()
+    {
+        return module.newUnitOfWork( UsecaseBuilder.buildUsecase( "batch" )
+                                         .with( new UnitOfWorkOptions( false, false, 0, 3 ) )
+                                         .newUsecase() );
+    }
+
+    private Integer count( String identity )
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            return uow.get( Counter.class, identity ).count().get();
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Counter
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qi4j.api.association.ManyAssociation;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.ReadOnlyUnitOfWorkException;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
+import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import static org.junit.Assert.*;
+
+public class ReadOnlyUnitOfWorkTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Counter.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Before
+    public void createCounter()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        Counter counter = uow.newEntity( Counter.class, "counter" );
+        counter.count().set( 3 );
+        counter.children().add( counter );
+        uow.complete();
+    }
+
+    @Test
+    public void givenReadOnlyUnitOfWorkWhenReadingThenStateIsAvailable()
+        throws Exception
+    {
+        UnitOfWork uow = module.newReadOnlyUnitOfWork();
+        assertTrue( uow.isReadOnly() );
+        Counter counter = uow.get( Counter.class, "counter" );
+        assertEquals( Integer.valueOf( 3 ), counter.count().get() );
+        assertEquals( counter, counter.children().get( 0 ) );
+        uow.complete();
+    }
+
+    @Test
+    public void givenReadOnlyUsecaseWhenSettingPropertyThenFail()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork( UsecaseBuilder.buildUsecase( "report" )
+                                                   .with( UnitOfWorkOptions.READ_ONLY )
+                                                   .newUsecase() );
+        try
+        {
+            uow.get( Counter.class, "counter" ).count().set( 4 );
+            fail( "Should not be possible to change entities" );
+        }
+        catch( ReadOnlyUnitOfWorkException e )
+        {
+            // Ok
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenReadOnlyUnitOfWorkWhenChangingManyAssociationThenFail()
+        throws Exception
+    {
+        UnitOfWork uow = module.newReadOnlyUnitOfWork();
+        try
+        {
+            Counter counter = uow.get( Counter.class, "counter" );
+            counter.children().remove( counter );
+            fail( "Should not be possible to change entities" );
+        }
+        catch( ReadOnlyUnitOfWorkException e )
+        {
+            // Ok
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenReadOnlyUnitOfWorkWhenCreatingOrRemovingEntityThenFail()
+        throws Exception
+    {
+        UnitOfWork uow = module.newReadOnlyUnitOfWork();
+        try
+        {
+            try
+            {
+                uow.newEntity( Counter.class );
+                fail( "Should not be possible to create entities" );
+            }
+            catch( ReadOnlyUnitOfWorkException e )
+            {
+                // Ok
+            }
+
+            try
+            {
+                uow.remove( uow.get( Counter.class, "counter" ) );
+                fail( "Should not be possible to remove entities" );
+            }
+            catch( ReadOnlyUnitOfWorkException e )
+            {
+                // Ok
+            }
+        }
+        finally
+        {
+            uow.discard();
+        }
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( Integer.valueOf( 3 ), uow.get( Counter.class, "counter" ).count().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Counter
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+
+        ManyAssociation<Counter> children();
+    }
+}
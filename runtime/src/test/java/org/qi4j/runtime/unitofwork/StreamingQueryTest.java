@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.junit.Test;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.Query;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
+import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.index.memory.MemoryEntityFinderService;
+import org.qi4j.runtime.structure.ModuleUnitOfWork;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.qi4j.api.query.QueryExpressions.ge;
+import static org.qi4j.api.query.QueryExpressions.orderBy;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+
+public class StreamingQueryTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Counter.class );
+        module.services( MemoryEntityFinderService.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        for( int i = 0; i < 10; i++ )
+        {
+            uow.newEntity( Counter.class, "counter" + i ).count().set( i );
+        }
+        uow.complete();
+    }
+
+    @Test
+    public void givenQueryBatchSizeWhenIteratingThenPassedEntitiesAreReleased()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork( UsecaseBuilder.buildUsecase( "export" )
+                                                   .with( new UnitOfWorkOptions( false, false, 3 ) )
+                                                   .newUsecase() );
+        UnitOfWorkInstance instance = ( (ModuleUnitOfWork) uow ).instance();
+        uow.get( Counter.class, "counter1" );
+
+        Counter template = templateFor( Counter.class );
+        Query<Counter> query = uow.newQuery( module.newQueryBuilder( Counter.class ).where( ge( template.count(), 0 ) ) );
+        query.orderBy( orderBy( template.count() ) );
+        int sum = 0;
+        for( Counter counter : query )
+        {
+            int index = counter.count().get();
+            sum += index;
+            if( index == 5 )
+            {
+                counter.count().set( 50 );
+            }
+            // Passed entities are not kept, except the ones that were already loaded or are modified
+            for( int i = 0; i < index; i++ )
+            {
+                boolean kept = i == 1 || i == 5;
+                assertEquals( "counter" + i, kept, instance.isCached( EntityReference.parseEntityReference( "counter" + i ) ) );
+            }
+        }
+        assertEquals( 45, sum );
+        assertFalse( instance.isCached( EntityReference.parseEntityReference( "counter9" ) ) );
+        assertTrue( instance.isCached( EntityReference.parseEntityReference( "counter5" ) ) );
+        uow.complete();
+
+        uow = module.newUnitOfWork();
+        assertEquals( Integer.valueOf( 50 ), uow.get( Counter.class, "counter5" ).count().get() );
+        uow.discard();
+    }
+
+    @Test
+    public void givenNoQueryBatchSizeWhenIteratingThenEntitiesAreKept()
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            UnitOfWorkInstance instance = ( (ModuleUnitOfWork) uow ).instance();
+            for( Counter counter : uow.newQuery( module.newQueryBuilder( Counter.class ) ) )
+            {
+                assertTrue( instance.isCached( EntityReference.parseEntityReference( counter.identity().get() ) ) );
+            }
+            assertEquals( 10, uow.newQuery( module.newQueryBuilder( Counter.class ) ).count() );
+            for( int i = 0; i < 10; i++ )
+            {
+                assertTrue( instance.isCached( EntityReference.parseEntityReference( "counter" + i ) ) );
+            }
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Counter
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+    }
+}
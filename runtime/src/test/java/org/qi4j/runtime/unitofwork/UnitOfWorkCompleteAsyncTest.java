@@ -0,0 +1,285 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.runtime.unitofwork;
+
+import org.junit.Test;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.entity.EntityBuilder;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.structure.Module;
+import org.qi4j.api.unitofwork.ConcurrentEntityModificationException;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.api.unitofwork.UnitOfWorkCallback;
+import org.qi4j.api.unitofwork.UnitOfWorkCompletion;
+import org.qi4j.api.unitofwork.UnitOfWorkCompletionException;
+import org.qi4j.api.usecase.Usecase;
+import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.io.Input;
+import org.qi4j.runtime.structure.ModuleUnitOfWork;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entitystore.EntityStore;
+import org.qi4j.spi.entitystore.EntityStoreException;
+import org.qi4j.spi.entitystore.EntityStoreUnitOfWork;
+import org.qi4j.spi.entitystore.StateCommitter;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UnitOfWorkCompleteAsyncTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Counter.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Test
+    public void givenNewEntityWhenCompleteAsyncThenEntityIsStoredAndCallbackNotified()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        EntityBuilder<Counter> builder = uow.newEntityBuilder( Counter.class, "123" );
+        builder.instance().count().set( 1 );
+        builder.newInstance();
+
+        final UnitOfWorkCallback.UnitOfWorkStatus[] status = new UnitOfWorkCallback.UnitOfWorkStatus[1];
+        uow.addUnitOfWorkCallback( new UnitOfWorkCallback()
+        {
+            public void beforeCompletion()
+                throws UnitOfWorkCompletionException
+            {
+            }
+
+            public void afterCompletion( UnitOfWorkStatus unitOfWorkStatus )
+            {
+                status[ 0 ] = unitOfWorkStatus;
+            }
+        } );
+
+        UnitOfWorkCompletion completion = uow.completeAsync();
+        assertFalse( uow.isOpen() );
+        assertFalse( module.isUnitOfWorkActive() );
+
+        completion.await( 10, TimeUnit.SECONDS );
+        assertTrue( completion.isDone() );
+        assertEquals( UnitOfWorkCallback.UnitOfWorkStatus.COMPLETED, status[ 0 ] );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( Integer.valueOf( 1 ), uow.get( Counter.class, "123" ).count().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenExecutorInUsecaseWhenCompleteAsyncThenExecutorIsUsed()
+        throws Exception
+    {
+        final int[] executions = new int[1];
+        Executor executor = new Executor()
+        {
+            public void execute( Runnable command )
+            {
+                executions[ 0 ]++;
+                command.run();
+            }
+        };
+
+        UnitOfWork uow = module.newUnitOfWork( UsecaseBuilder.buildUsecase( "async" ).with( executor ).newUsecase() );
+        uow.newEntity( Counter.class );
+        UnitOfWorkCompletion completion = uow.completeAsync();
+
+        assertTrue( completion.isDone() );
+        completion.await();
+        assertEquals( 1, executions[ 0 ] );
+    }
+
+    @Test
+    public void givenConcurrentModificationWhenCompleteAsyncThenHandleReportsItAndUnitOfWorkStaysOpen()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.newEntity( Counter.class, "123" );
+        uow.complete();
+
+        UnitOfWork uow1 = module.newUnitOfWork();
+        uow1.get( Counter.class, "123" ).count().set( 1 );
+        uow1.pause();
+
+        UnitOfWork uow2 = module.newUnitOfWork();
+        uow2.get( Counter.class, "123" ).count().set( 2 );
+        uow2.complete();
+
+        uow1.resume();
+        UnitOfWorkCompletion completion = uow1.completeAsync();
+        try
+        {
+            completion.await();
+            fail( "Should have thrown ConcurrentEntityModificationException" );
+        }
+        catch( ConcurrentEntityModificationException e )
+        {
+            // Expected
+        }
+        assertTrue( uow1.isOpen() );
+        uow1.discard();
+    }
+
+    @Test
+    public void givenStoreThatFailsToCommitWhenCompleteAsyncThenUncommittedStoresAreCancelled()
+        throws Exception
+    {
+        Executor executor = new Executor()
+        {
+            public void execute( Runnable command )
+            {
+                command.run();
+            }
+        };
+        UnitOfWork uow = module.newUnitOfWork( UsecaseBuilder.buildUsecase( "async" ).with( executor ).newUsecase() );
+
+        List<String> events = new ArrayList<String>();
+        UnitOfWorkInstance instance = ( (ModuleUnitOfWork) uow ).instance();
+        instance.getEntityStoreUnitOfWork( new RecordingEntityStore( "first", false, events ), module );
+        instance.getEntityStoreUnitOfWork( new RecordingEntityStore( "failing", true, events ), module );
+        instance.getEntityStoreUnitOfWork( new RecordingEntityStore( "second", false, events ), module );
+
+        final UnitOfWorkCallback.UnitOfWorkStatus[] status = new UnitOfWorkCallback.UnitOfWorkStatus[1];
+        uow.addUnitOfWorkCallback( new UnitOfWorkCallback()
+        {
+            public void beforeCompletion()
+                throws UnitOfWorkCompletionException
+            {
+            }
+
+            public void afterCompletion( UnitOfWorkStatus unitOfWorkStatus )
+            {
+                status[ 0 ] = unitOfWorkStatus;
+            }
+        } );
+
+        UnitOfWorkCompletion completion = uow.completeAsync();
+        try
+        {
+            completion.await();
+            fail( "Should have thrown UnitOfWorkCompletionException" );
+        }
+        catch( UnitOfWorkCompletionException e )
+        {
+            assertTrue( e.getCause() instanceof EntityStoreException );
+        }
+        assertEquals( UnitOfWorkCallback.UnitOfWorkStatus.DISCARDED, status[ 0 ] );
+
+        // The store that failed is cancelled, and the others are either committed before it or cancelled
+        assertTrue( events.toString(), events.contains( "failing cancelled" ) );
+        assertFalse( events.toString(), events.contains( "failing committed" ) );
+        for( String store : new String[]{ "first", "second" } )
+        {
+            assertTrue( events.toString(), events.contains( store + " committed" ) != events.contains( store + " cancelled" ) );
+        }
+    }
+
+    private static class RecordingEntityStore
+        implements EntityStore
+    {
+        private final String name;
+        private final boolean failCommit;
+        private final List<String> events;
+
+        private RecordingEntityStore( String name, boolean failCommit, List<String> events )
+        {
+            this.name = name;
+            this.failCommit = failCommit;
+            this.events = events;
+        }
+
+        public EntityStoreUnitOfWork newUnitOfWork( Usecase usecase, Module module, final long currentTime )
+        {
+            return new EntityStoreUnitOfWork()
+            {
+                public String identity()
+                {
+                    return name;
+                }
+
+                public long currentTime()
+                {
+                    return currentTime;
+                }
+
+                public EntityState newEntityState( EntityReference anIdentity, EntityDescriptor entityDescriptor )
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                public EntityState getEntityState( EntityReference anIdentity )
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                public StateCommitter applyChanges()
+                {
+                    return new StateCommitter()
+                    {
+                        public void commit()
+                        {
+                            if( failCommit )
+                            {
+                                throw new EntityStoreException( "Could not commit to " + name );
+                            }
+                            events.add( name + " committed" );
+                        }
+
+                        public void cancel()
+                        {
+                            events.add( name + " cancelled" );
+                        }
+                    };
+                }
+
+                public void discard()
+                {
+                }
+            };
+        }
+
+        public Input<EntityState, EntityStoreException> entityStates( Module module )
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public interface Counter
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+    }
+}
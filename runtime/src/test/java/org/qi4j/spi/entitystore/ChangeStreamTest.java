@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChangeStreamTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        File logFile;
+        try
+        {
+            logFile = File.createTempFile( "changes", ".log" );
+            logFile.deleteOnExit();
+        }
+        catch( IOException e )
+        {
+            throw new AssemblyException( e );
+        }
+
+        module.entities( Item.class );
+        module.services( MemoryEntityStoreService.class );
+        module.services( UuidIdentityGeneratorService.class );
+        // Small buffer without waiting, so that subscribers have to catch up from the log
+        module.services( ChangeStreamService.class ).setMetaInfo( new ChangeStreamOptions( 4, 0, logFile ) );
+    }
+
+    @Test
+    public void givenSubscriberWhenCommittingThenChangesAreDeliveredInOrder()
+        throws Exception
+    {
+        ChangeStream stream = module.findService( ChangeStream.class ).get();
+        CollectingListener listener = new CollectingListener();
+        ChangeSubscription subscription = stream.subscribe( stream.headOffset(), 3, listener );
+
+        createItems( "item", 10 );
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, "item3" ).name().set( "Foo" );
+        uow.remove( uow.get( Item.class, "item4" ) );
+        uow.complete();
+
+        List<StateChange> changes = listener.await( 12 );
+        subscription.close();
+
+        for( int i = 0; i < changes.size(); i++ )
+        {
+            assertEquals( i, changes.get( i ).offset() );
+        }
+        assertEquals( "item0", changes.get( 0 ).identity() );
+        assertEquals( EntityStatus.NEW, changes.get( 0 ).status() );
+        assertEquals( Item.class.getName(), changes.get( 0 ).entityType() );
+        List<String> updates = new ArrayList<String>();
+        for( StateChange change : changes.subList( 10, 12 ) )
+        {
+            updates.add( change.status() + ":" + change.identity() );
+        }
+        assertEquals( true, updates.contains( "UPDATED:item3" ) );
+        assertEquals( true, updates.contains( "REMOVED:item4" ) );
+        assertEquals( 12, subscription.offset() );
+
+        // Changes have the version and modification time that the states got when they were committed
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertCommittedState( changes.get( 0 ), spi.getEntityState( uow.get( Item.class, "item0" ) ) );
+            for( StateChange change : changes.subList( 10, 12 ) )
+            {
+                if( change.identity().equals( "item3" ) )
+                {
+                    assertCommittedState( change, spi.getEntityState( uow.get( Item.class, "item3" ) ) );
+                }
+            }
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenClosedSubscriptionWhenResumingFromOffsetThenOnlyLaterChangesAreDelivered()
+        throws Exception
+    {
+        ChangeStream stream = module.findService( ChangeStream.class ).get();
+        CollectingListener listener = new CollectingListener();
+        ChangeSubscription subscription = stream.subscribe( stream.headOffset(), 10, listener );
+        createItems( "first", 3 );
+        listener.await( 3 );
+        subscription.close();
+        long offset = subscription.offset();
+        assertEquals( 3, offset );
+
+        createItems( "second", 3 );
+
+        listener = new CollectingListener();
+        subscription = stream.subscribe( offset, 10, listener );
+        List<StateChange> changes = listener.await( 3 );
+        subscription.close();
+
+        assertEquals( 3, changes.get( 0 ).offset() );
+        assertEquals( "second0", changes.get( 0 ).identity() );
+        assertEquals( "second2", changes.get( 2 ).identity() );
+    }
+
+    @Test
+    public void givenChangesOverwrittenInMemoryWhenSubscribingThenChangesAreReadFromLog()
+        throws Exception
+    {
+        ChangeStream stream = module.findService( ChangeStream.class ).get();
+        createItems( "item", 20 );
+        assertEquals( 20, stream.headOffset() );
+
+        CollectingListener listener = new CollectingListener();
+        ChangeSubscription subscription = stream.subscribe( 2, 5, listener );
+        List<StateChange> changes = listener.await( 18 );
+        subscription.close();
+
+        for( int i = 0; i < changes.size(); i++ )
+        {
+            assertEquals( i + 2, changes.get( i ).offset() );
+            assertEquals( "item" + ( i + 2 ), changes.get( i ).identity() );
+        }
+    }
+
+    private static void assertCommittedState( StateChange change, EntityState state )
+    {
+        assertEquals( state.version(), change.version() );
+        assertEquals( state.lastModified(), change.lastModified() );
+    }
+
+    private void createItems( String prefix, int count )
+        throws Exception
+    {
+        for( int i = 0; i < count; i++ )
+        {
+            UnitOfWork uow = module.newUnitOfWork();
+            uow.newEntity( Item.class, prefix + i );
+            uow.complete();
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+
+    private static class CollectingListener
+        implements ChangeStreamListener
+    {
+        private final List<StateChange> changes = new ArrayList<StateChange>();
+
+        public synchronized void notifyChanges( List<StateChange> batch )
+        {
+            changes.addAll( batch );
+            notifyAll();
+        }
+
+        public synchronized List<StateChange> await( int count )
+            throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while( changes.size() < count && System.currentTimeMillis() < deadline )
+            {
+                wait( 100 );
+            }
+            assertEquals( count, changes.size() );
+            return new ArrayList<StateChange>( changes );
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.io.Output;
+import org.qi4j.io.Receiver;
+import org.qi4j.io.Sender;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionedEntityStoreTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( MemoryEntityStoreService.class );
+        module.services( UuidIdentityGeneratorService.class );
+    }
+
+    @Before
+    public void createItems()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        for( int i = 0; i < 100; i++ )
+        {
+            uow.newEntity( Item.class, "item-" + i );
+        }
+        uow.complete();
+    }
+
+    @Test
+    public void givenPartitionsWhenTransferredConcurrentlyThenAllEntitiesAreScannedOnce()
+        throws Throwable
+    {
+        List<EntityStatePartition> partitions = store().entityStates( module, 4, null );
+        assertEquals( 4, partitions.size() );
+
+        final List<String> identities = Collections.synchronizedList( new ArrayList<String>() );
+        final List<Throwable> failures = Collections.synchronizedList( new ArrayList<Throwable>() );
+        List<Thread> threads = new ArrayList<Thread>();
+        for( final EntityStatePartition partition : partitions )
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        partition.transferTo( new IdentityOutput( identities, -1 ) );
+                    }
+                    catch( Throwable e )
+                    {
+                        failures.add( e );
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertTrue( failures.toString(), failures.isEmpty() );
+        assertEquals( 100, identities.size() );
+        assertEquals( 100, new HashSet<String>( identities ).size() );
+    }
+
+    @Test
+    public void givenInterruptedScanWhenResumedFromCheckpointThenRemainingEntitiesAreScanned()
+    {
+        List<String> identities = new ArrayList<String>();
+        List<EntityStatePartition> partitions = store().entityStates( module, 3, null );
+        for( EntityStatePartition partition : partitions )
+        {
+            try
+            {
+                partition.transferTo( new IdentityOutput( identities, 10 ) );
+                fail( "Scan should be interrupted" );
+            }
+            catch( IllegalStateException e )
+            {
+                // Expected
+            }
+        }
+        assertEquals( 30, identities.size() );
+
+        String checkpoint = EntityStatePartition.checkpoint( partitions );
+        for( EntityStatePartition partition : store().entityStates( module, 3, checkpoint ) )
+        {
+            partition.transferTo( new IdentityOutput( identities, -1 ) );
+        }
+
+        assertEquals( 100, identities.size() );
+        Set<String> unique = new HashSet<String>( identities );
+        assertEquals( 100, unique.size() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void givenCheckpointWhenPartitionsDifferThenFail()
+    {
+        List<EntityStatePartition> partitions = store().entityStates( module, 3, null );
+        store().entityStates( module, 4, EntityStatePartition.checkpoint( partitions ) );
+    }
+
+    private PartitionedEntityStore store()
+    {
+        return module.findService( PartitionedEntityStore.class ).get();
+    }
+
+    private static class IdentityOutput
+        implements Output<EntityState, RuntimeException>
+    {
+        private final List<String> identities;
+        private final int limit;
+
+        private IdentityOutput( List<String> identities, int limit )
+        {
+            this.identities = identities;
+            this.limit = limit;
+        }
+
+        public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends EntityState, SenderThrowableType> sender )
+            throws RuntimeException, SenderThrowableType
+        {
+            sender.sendTo( new Receiver<EntityState, RuntimeException>()
+            {
+                private int count;
+
+                public void receive( EntityState item )
+                {
+                    if( count++ == limit )
+                    {
+                        throw new IllegalStateException( "Scan interrupted" );
+                    }
+                    identities.add( item.identity().identity() );
+                }
+            } );
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.NoSuchEntityException;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.io.Input;
+import org.qi4j.io.Inputs;
+import org.qi4j.io.Outputs;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BackupFileTest
+    extends AbstractQi4jTest
+{
+    private File file;
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( MemoryEntityStoreService.class );
+        module.services( UuidIdentityGeneratorService.class );
+    }
+
+    @Before
+    public void createItems()
+        throws Exception
+    {
+        file = File.createTempFile( "backup", ".bin" );
+        file.deleteOnExit();
+
+        UnitOfWork uow = module.newUnitOfWork();
+        for( int i = 0; i < 100; i++ )
+        {
+            uow.newEntity( Item.class, identity( i ) ).name().set( "Item " + i );
+        }
+        uow.complete();
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void givenBackupWhenRestoringAllThenChangesAreReverted()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, identity( 1 ) ).name().set( "Changed" );
+        uow.remove( uow.get( Item.class, identity( 2 ) ) );
+        uow.newEntity( Item.class, "new" );
+        uow.complete();
+
+        BackupFile.input( file ).transferTo( store().restoreRecords() );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( "Item 1", uow.get( Item.class, identity( 1 ) ).name().get() );
+            assertEquals( "Item 2", uow.get( Item.class, identity( 2 ) ).name().get() );
+            assertNotFound( uow, "new" );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenBackupWhenRestoringRangeThenOnlyRangeIsRestored()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, identity( 10 ) ).name().set( "Changed" );
+        uow.get( Item.class, identity( 50 ) ).name().set( "Changed" );
+        uow.complete();
+
+        BackupFile.input( file, identity( 0 ), identity( 20 ) )
+            .transferTo( store().restoreRecords( identity( 0 ), identity( 20 ) ) );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( "Item 10", uow.get( Item.class, identity( 10 ) ).name().get() );
+            assertEquals( "Changed", uow.get( Item.class, identity( 50 ) ).name().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenBackupWhenReadingBlocksThenAllRecordsAreRead()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+
+        List<Input<BackupRecord, IOException>> blocks = BackupFile.blocks( file, null, null );
+        assertTrue( blocks.size() > 1 );
+
+        List<BackupRecord> records = new ArrayList<BackupRecord>();
+        Inputs.combine( blocks ).transferTo( Outputs.collection( records ) );
+        assertEquals( 100, records.size() );
+
+        List<BackupRecord> range = new ArrayList<BackupRecord>();
+        List<Input<BackupRecord, IOException>> rangeBlocks = BackupFile.blocks( file, identity( 40 ), identity( 45 ) );
+        assertTrue( rangeBlocks.size() <= 2 );
+        Inputs.combine( rangeBlocks ).transferTo( Outputs.collection( range ) );
+        assertEquals( 5, range.size() );
+    }
+
+    @Test
+    public void givenIncrementalBackupWhenRestoringChainThenLatestStateIsRestored()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+        Thread.sleep( 10 );
+        long watermark = System.currentTimeMillis();
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, identity( 1 ) ).name().set( "Changed" );
+        uow.remove( uow.get( Item.class, identity( 2 ) ) );
+        uow.newEntity( Item.class, "new" );
+        uow.complete();
+
+        File incremental = File.createTempFile( "incremental", ".bin" );
+        incremental.deleteOnExit();
+        try
+        {
+            store().backupRecords( watermark ).transferTo( BackupFile.output( incremental ) );
+
+            List<BackupRecord> records = new ArrayList<BackupRecord>();
+            BackupFile.input( incremental ).transferTo( Outputs.collection( records ) );
+            assertEquals( 3, records.size() );
+
+            uow = module.newUnitOfWork();
+            uow.get( Item.class, identity( 3 ) ).name().set( "Changed after backup" );
+            uow.complete();
+
+            BackupFile.chain( file, incremental ).transferTo( store().restoreRecords() );
+
+            uow = module.newUnitOfWork();
+            try
+            {
+                assertEquals( "Changed", uow.get( Item.class, identity( 1 ) ).name().get() );
+                assertNotFound( uow, identity( 2 ) );
+                assertEquals( "Item 3", uow.get( Item.class, identity( 3 ) ).name().get() );
+                uow.get( Item.class, "new" );
+            }
+            finally
+            {
+                uow.discard();
+            }
+
+            BackupFile.input( file ).transferTo( store().restoreRecords() );
+            BackupFile.input( incremental ).transferTo( store().applyRecords() );
+
+            uow = module.newUnitOfWork();
+            try
+            {
+                assertEquals( "Changed", uow.get( Item.class, identity( 1 ) ).name().get() );
+                assertNotFound( uow, identity( 2 ) );
+                uow.get( Item.class, "new" );
+            }
+            finally
+            {
+                uow.discard();
+            }
+        }
+        finally
+        {
+            incremental.delete();
+        }
+    }
+
+    @Test
+    public void givenUnitOfWorkStartedBeforeBackupWhenCompletedAfterThenItIsInIncrementalBackup()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, identity( 1 ) ).name().set( "Changed" );
+
+        Thread.sleep( 10 );
+        long watermark = System.currentTimeMillis();
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+        uow.complete();
+
+        List<BackupRecord> records = new ArrayList<BackupRecord>();
+        store().backupRecords( watermark ).transferTo( Outputs.collection( records ) );
+        assertEquals( 1, records.size() );
+        assertEquals( identity( 1 ), records.get( 0 ).identity() );
+    }
+
+    @Test
+    public void givenPrunedRemovalsWhenBackingUpIncrementallyThenTheyAreNotIncluded()
+        throws Exception
+    {
+        Thread.sleep( 10 );
+        long watermark = System.currentTimeMillis();
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.remove( uow.get( Item.class, identity( 2 ) ) );
+        uow.complete();
+
+        List<BackupRecord> records = new ArrayList<BackupRecord>();
+        store().backupRecords( watermark ).transferTo( Outputs.collection( records ) );
+        assertEquals( 1, records.size() );
+        assertTrue( records.get( 0 ).isRemoved() );
+
+        Thread.sleep( 10 );
+        store().pruneRemovals( System.currentTimeMillis() );
+        records.clear();
+        store().backupRecords( watermark ).transferTo( Outputs.collection( records ) );
+        assertEquals( 0, records.size() );
+    }
+
+    @Test
+    public void givenBackupWhenBulkRestoringThenChangesAreReverted()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, identity( 1 ) ).name().set( "Changed" );
+        uow.remove( uow.get( Item.class, identity( 2 ) ) );
+        uow.newEntity( Item.class, "new" );
+        uow.complete();
+
+        BackupFile.input( file ).transferTo( store().bulkRestore( 4 ) );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            for( int i = 0; i < 100; i++ )
+            {
+                assertEquals( "Item " + i, uow.get( Item.class, identity( i ) ).name().get() );
+            }
+            assertNotFound( uow, "new" );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenFailingPartitionWhenBulkRestoringThenLoadIsAborted()
+        throws Exception
+    {
+        final AtomicBoolean aborted = new AtomicBoolean();
+        BulkLoader loader = new BulkLoader()
+        {
+            public void load( int partition, List<BackupRecord> records )
+                throws IOException
+            {
+                if( partition == 1 )
+                {
+                    throw new IOException( "Partition failed" );
+                }
+            }
+
+            public void commit()
+            {
+                fail( "Failed load should not be committed" );
+            }
+
+            public void abort()
+            {
+                aborted.set( true );
+            }
+        };
+
+        try
+        {
+            store().backupRecords().transferTo( BulkRestore.output( loader, 4, 10 ) );
+            fail( "Restore should fail" );
+        }
+        catch( IOException e )
+        {
+            assertEquals( "Partition failed", e.getMessage() );
+        }
+        assertTrue( aborted.get() );
+    }
+
+    @Test
+    public void givenCorruptBackupWhenReadingThenFail()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file ) );
+
+        RandomAccessFile corrupt = new RandomAccessFile( file, "rw" );
+        corrupt.seek( file.length() / 2 );
+        int value = corrupt.read();
+        corrupt.seek( file.length() / 2 );
+        corrupt.write( value ^ 0xFF );
+        corrupt.close();
+
+        try
+        {
+            BackupFile.input( file ).transferTo( Outputs.collection( new ArrayList<BackupRecord>() ) );
+            fail( "Corrupt backup should not be read" );
+        }
+        catch( IOException e )
+        {
+            // Expected
+        }
+    }
+
+    @Test( timeout = 10000 )
+    public void givenTruncatedBackupWhenReadingRangeThenFail()
+        throws Exception
+    {
+        store().backupRecords().transferTo( BackupFile.output( file, 1024 ) );
+
+        RandomAccessFile truncated = new RandomAccessFile( file, "rw" );
+        truncated.setLength( file.length() / 2 );
+        truncated.close();
+
+        try
+        {
+            BackupFile.input( file, identity( 99 ), null ).transferTo( Outputs.collection( new ArrayList<BackupRecord>() ) );
+            fail( "Truncated backup should not be read" );
+        }
+        catch( IOException e )
+        {
+            // Expected
+        }
+    }
+
+    private RecordBackupRestore store()
+    {
+        return module.findService( RecordBackupRestore.class ).get();
+    }
+
+    private static String identity( int i )
+    {
+        return String.format( "item-%03d", i );
+    }
+
+    private static void assertNotFound( UnitOfWork uow, String identity )
+    {
+        try
+        {
+            uow.get( Item.class, identity );
+            fail( "Entity " + identity + " should not exist" );
+        }
+        catch( NoSuchEntityException e )
+        {
+            // Expected
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+}
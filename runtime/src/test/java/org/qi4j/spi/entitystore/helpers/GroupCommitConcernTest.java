@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.junit.Test;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.concern.Concerns;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.entitystore.memory.MemoryMapEntityStoreMixin;
+import org.qi4j.spi.entitystore.ConcurrentModificationCheckConcern;
+import org.qi4j.spi.entitystore.StateChangeNotificationConcern;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroupCommitConcernTest
+    extends AbstractQi4jTest
+{
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Counter.class );
+        module.services( GroupCommitMemoryEntityStoreService.class ).setMetaInfo( new GroupCommitOptions( 10, 20 ) );
+        module.services( UuidIdentityGeneratorService.class );
+    }
+
+    @Test
+    public void givenConcurrentUnitOfWorksWhenCompletingThenAllChangesAreStored()
+        throws Exception
+    {
+        final int threadCount = 20;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for( int i = 0; i < threadCount; i++ )
+        {
+            final String identity = "counter" + i;
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        UnitOfWork uow = module.newUnitOfWork();
+                        uow.newEntity( Counter.class, identity );
+                        uow.complete();
+                    }
+                    catch( Exception e )
+                    {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, failures.get() );
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            for( int i = 0; i < threadCount; i++ )
+            {
+                assertEquals( Integer.valueOf( 0 ), uow.get( Counter.class, "counter" + i ).count().get() );
+            }
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenConflictingUnitOfWorksWhenCompletingThenOnlyOneFails()
+        throws Exception
+    {
+        final int threadCount = 4;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for( int i = 0; i < threadCount; i++ )
+        {
+            // Two UnitOfWorks create "duplicate", the others create unique entities
+            final String identity = i < 2 ? "duplicate" : "unique" + i;
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        UnitOfWork uow = module.newUnitOfWork();
+                        uow.newEntity( Counter.class, identity );
+                        uow.complete();
+                    }
+                    catch( Exception e )
+                    {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 1, failures.get() );
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            uow.get( Counter.class, "duplicate" );
+            uow.get( Counter.class, "unique2" );
+            uow.get( Counter.class, "unique3" );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Concerns( { GroupCommitConcern.class, StateChangeNotificationConcern.class, ConcurrentModificationCheckConcern.class } )
+    @Mixins( { JSONMapEntityStoreMixin.class, MemoryMapEntityStoreMixin.class } )
+    public interface GroupCommitMemoryEntityStoreService
+        extends MemoryEntityStoreService
+    {
+    }
+
+    public interface Counter
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+    }
+}
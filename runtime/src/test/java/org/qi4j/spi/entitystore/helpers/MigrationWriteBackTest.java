@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.json.JSONTokener;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.entitystore.memory.MemoryMapEntityStoreMixin;
+import org.qi4j.functional.Function;
+import org.qi4j.io.Inputs;
+import org.qi4j.io.Outputs;
+import org.qi4j.io.Transforms;
+import org.qi4j.spi.entitystore.backup.BackupRecord;
+import org.qi4j.spi.entitystore.backup.RecordBackupRestore;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class MigrationWriteBackTest
+    extends AbstractQi4jTest
+{
+    private static final AtomicInteger compiled = new AtomicInteger();
+    private static final AtomicInteger migrated = new AtomicInteger();
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( MemoryEntityStoreService.class ).setMetaInfo( MigrationOptions.WRITE_BACK );
+        module.services( UuidIdentityGeneratorService.class );
+        module.services( RenamingMigrationService.class );
+    }
+
+    @Test
+    public void givenStatesOfOldVersionWhenReadThenChainIsCompiledOnceAndStatesAreWrittenBack()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.newEntity( Item.class, "item1" );
+        uow.newEntity( Item.class, "item2" );
+        uow.complete();
+
+        // Make the stored states look like they were written by an older version
+        RecordBackupRestore store = module.findService( RecordBackupRestore.class ).get();
+        List<BackupRecord> records = new ArrayList<BackupRecord>();
+        store.backupRecords().transferTo( Transforms.map( new Function<BackupRecord, BackupRecord>()
+        {
+            public BackupRecord map( BackupRecord record )
+            {
+                try
+                {
+                    JSONObject state = new JSONObject( record.state() );
+                    state.put( MapEntityStore.JSONKeys.application_version.name(), "old" );
+                    state.getJSONObject( "properties" ).put( "oldName", "Foo" );
+                    return new BackupRecord( record.identity(), state.toString() );
+                }
+                catch( JSONException e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        }, Outputs.collection( records ) ) );
+        Inputs.iterable( records ).transferTo( store.restoreRecords() );
+        compiled.set( 0 );
+        migrated.set( 0 );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( "Foo", uow.get( Item.class, "item1" ).name().get() );
+            assertEquals( "Foo", uow.get( Item.class, "item2" ).name().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+        assertEquals( 1, compiled.get() );
+        assertEquals( 2, migrated.get() );
+
+        // Wait for the migrated states to be written
+        long timeout = System.currentTimeMillis() + 5000;
+        while( oldStates( store ) > 0 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0, oldStates( store ) );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( "Foo", uow.get( Item.class, "item1" ).name().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+        assertEquals( 2, migrated.get() );
+    }
+
+    @Test
+    public void givenChangedStateWhenUpdatingIfVersionThenChangeIsNotOverwritten()
+        throws Exception
+    {
+        MemoryMapEntityStoreMixin store = new MemoryMapEntityStoreMixin();
+        EntityReference reference = new EntityReference( "item" );
+        write( store, reference, null, "{\"version\":\"1\",\"name\":\"Stored\"}" );
+
+        // A commit changes the state after it was migrated
+        write( store, reference, "1", "{\"version\":\"2\",\"name\":\"Committed\"}" );
+        write( store, reference, "1", "{\"version\":\"1\",\"name\":\"Migrated\"}" );
+
+        assertEquals( "Committed", new JSONObject( new JSONTokener( store.get( reference ) ) ).getString( "name" ) );
+    }
+
+    private void write( MemoryMapEntityStoreMixin store,
+                        final EntityReference reference,
+                        final String version,
+                        final String state
+    )
+        throws IOException
+    {
+        store.applyChanges( new MapEntityStore.MapChanges()
+        {
+            public void visitMap( MapEntityStore.MapChanger changer )
+                throws IOException
+            {
+                Writer writer = version == null
+                                ? changer.newEntity( reference, null )
+                                : ( (MapEntityStore.ConditionalMapChanger) changer ).updateEntityIfVersion( reference, null, version );
+                writer.write( state );
+                writer.close();
+            }
+        } );
+    }
+
+    private int oldStates( RecordBackupRestore store )
+        throws Exception
+    {
+        List<BackupRecord> records = new ArrayList<BackupRecord>();
+        store.backupRecords().transferTo( Outputs.collection( records ) );
+        int old = 0;
+        for( BackupRecord record : records )
+        {
+            if( new JSONObject( record.state() ).getString( "application_version" ).equals( "old" ) )
+            {
+                old++;
+            }
+        }
+        return old;
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+    }
+
+    @Mixins( RenamingMigrationMixin.class )
+    public interface RenamingMigrationService
+        extends CompilingMigration, ServiceComposite
+    {
+    }
+
+    public static class RenamingMigrationMixin
+        implements CompilingMigration
+    {
+        public MigrationChain compile( String fromVersion, String toVersion )
+        {
+            compiled.incrementAndGet();
+            return new MigrationChain()
+            {
+                public boolean migrate( JSONObject state, StateStore stateStore )
+                    throws JSONException
+                {
+                    migrated.incrementAndGet();
+                    JSONObject properties = state.getJSONObject( "properties" );
+                    properties.put( "name", properties.remove( "oldName" ) );
+                    return true;
+                }
+            };
+        }
+
+        public boolean migrate( JSONObject state, String toVersion, StateStore stateStore )
+        {
+            throw new UnsupportedOperationException( "Migration should be compiled" );
+        }
+    }
+}
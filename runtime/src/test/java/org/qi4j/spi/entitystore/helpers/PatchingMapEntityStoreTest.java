@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.qi4j.api.association.ManyAssociation;
+import org.qi4j.api.common.UseDefaults;
+import org.qi4j.api.concern.Concerns;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.io.Input;
+import org.qi4j.io.Output;
+import org.qi4j.io.Receiver;
+import org.qi4j.io.Sender;
+import org.qi4j.spi.entitystore.ConcurrentModificationCheckConcern;
+import org.qi4j.spi.entitystore.EntityNotFoundException;
+import org.qi4j.spi.entitystore.EntityStateVersions;
+import org.qi4j.spi.entitystore.EntityStore;
+import org.qi4j.spi.entitystore.EntityStoreException;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PatchingMapEntityStoreTest
+    extends AbstractQi4jTest
+{
+    private static final List<JSONObject> patches = new ArrayList<JSONObject>();
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( PatchingEntityStoreService.class );
+        module.services( UuidIdentityGeneratorService.class );
+    }
+
+    @Test
+    public void givenItemWithManyChildrenWhenCountIsChangedThenOnlyCountIsWritten()
+        throws Exception
+    {
+        patches.clear();
+
+        UnitOfWork uow = module.newUnitOfWork();
+        Item item = uow.newEntity( Item.class, "parent" );
+        for( int i = 0; i < 50; i++ )
+        {
+            item.children().add( uow.newEntity( Item.class ) );
+        }
+        uow.complete();
+
+        assertEquals( 0, patches.size() );
+
+        uow = module.newUnitOfWork();
+        uow.get( Item.class, "parent" ).count().set( 42 );
+        uow.complete();
+
+        assertEquals( 1, patches.size() );
+        JSONObject patch = patches.get( 0 );
+        assertEquals( 1, patch.getJSONObject( "properties" ).length() );
+        assertEquals( 42, patch.getJSONObject( "properties" ).getInt( "count" ) );
+        assertEquals( 0, patch.getJSONObject( "associations" ).length() );
+        assertEquals( 0, patch.getJSONObject( "manyassociations" ).length() );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            item = uow.get( Item.class, "parent" );
+            assertEquals( Integer.valueOf( 42 ), item.count().get() );
+            assertEquals( 50, item.children().count() );
+            assertFalse( item.children().get( 0 ).identity().get().equals( "" ) );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @UseDefaults
+        Property<Integer> count();
+
+        ManyAssociation<Item> children();
+    }
+
+    @Concerns( ConcurrentModificationCheckConcern.class )
+    @Mixins( { JSONMapEntityStoreMixin.class, PatchingMapEntityStoreMixin.class } )
+    public interface PatchingEntityStoreService
+        extends EntityStore, EntityStateVersions, ServiceComposite
+    {
+    }
+
+    public static class PatchingMapEntityStoreMixin
+        implements MapEntityStore
+    {
+        private final Map<EntityReference, String> store = new HashMap<EntityReference, String>();
+
+        public Reader get( EntityReference entityReference )
+            throws EntityStoreException
+        {
+            String state = store.get( entityReference );
+            if( state == null )
+            {
+                throw new EntityNotFoundException( entityReference );
+            }
+            return new StringReader( state );
+        }
+
+        public Input<Reader, IOException> entityStates()
+        {
+            return new Input<Reader, IOException>()
+            {
+                public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super Reader, ReceiverThrowableType> output )
+                    throws IOException, ReceiverThrowableType
+                {
+                    output.receiveFrom( new Sender<Reader, IOException>()
+                    {
+                        public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super Reader, ReceiverThrowableType> receiver )
+                            throws ReceiverThrowableType, IOException
+                        {
+                            for( String state : store.values() )
+                            {
+                                receiver.receive( new StringReader( state ) );
+                            }
+                        }
+                    } );
+                }
+            };
+        }
+
+        public synchronized void applyChanges( MapChanges changes )
+            throws IOException
+        {
+            changes.visitMap( new PatchingMapChanger()
+            {
+                public Writer patchEntity( final EntityReference ref, EntityDescriptor entityDescriptor )
+                {
+                    return new StringWriter()
+                    {
+                        @Override
+                        public void close()
+                            throws IOException
+                        {
+                            try
+                            {
+                                JSONObject patch = new JSONObject( toString() );
+                                patches.add( patch );
+                                JSONObject state = new JSONObject( store.get( ref ) );
+                                state.put( "version", patch.get( "version" ) );
+                                state.put( "modified", patch.get( "modified" ) );
+                                for( String section : new String[]{ "properties", "associations", "manyassociations" } )
+                                {
+                                    JSONObject changed = patch.getJSONObject( section );
+                                    Iterator keys = changed.keys();
+                                    while( keys.hasNext() )
+                                    {
+                                        String key = (String) keys.next();
+                                        state.getJSONObject( section ).put( key, changed.get( key ) );
+                                    }
+                                }
+                                store.put( ref, state.toString() );
+                            }
+                            catch( JSONException e )
+                            {
+                                throw new IOException( e );
+                            }
+                        }
+                    };
+                }
+
+                public Writer newEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+                {
+                    return updateEntity( ref, entityDescriptor );
+                }
+
+                public Writer updateEntity( final EntityReference ref, EntityDescriptor entityDescriptor )
+                {
+                    return new StringWriter()
+                    {
+                        @Override
+                        public void close()
+                            throws IOException
+                        {
+                            store.put( ref, toString() );
+                        }
+                    };
+                }
+
+                public void removeEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+                    throws EntityNotFoundException
+                {
+                    store.remove( ref );
+                }
+            } );
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qi4j.api.association.ManyAssociation;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.api.usecase.Usecase;
+import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.entitystore.memory.MemoryEntityStoreService;
+import org.qi4j.entitystore.memory.MemoryMapEntityStoreMixin;
+import org.qi4j.spi.entitystore.EntityNotFoundException;
+import org.qi4j.spi.uuid.UuidIdentityGeneratorService;
+import org.qi4j.test.AbstractQi4jTest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SkipUnchangedWritesTest
+    extends AbstractQi4jTest
+{
+    private static final AtomicInteger updates = new AtomicInteger();
+
+    private final Usecase skipUnchanged = UsecaseBuilder.buildUsecase( "sync" )
+        .with( WriteOptions.SKIP_UNCHANGED )
+        .newUsecase();
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class );
+        module.services( CountingMemoryEntityStoreService.class );
+        module.services( UuidIdentityGeneratorService.class );
+    }
+
+    @Before
+    public void createItem()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        Item item = uow.newEntity( Item.class, "item" );
+        item.name().set( "Foo" );
+        item.related().add( uow.newEntity( Item.class, "related" ) );
+        uow.complete();
+        updates.set( 0 );
+    }
+
+    @Test
+    public void givenSkipUnchangedWhenSettingSameValueThenNothingIsWritten()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork( skipUnchanged );
+        uow.get( Item.class, "item" ).name().set( "Foo" );
+        uow.complete();
+
+        assertEquals( 0, updates.get() );
+    }
+
+    @Test
+    public void givenSkipUnchangedWhenChangingAndRevertingManyAssociationThenNothingIsWritten()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork( skipUnchanged );
+        Item item = uow.get( Item.class, "item" );
+        Item related = uow.get( Item.class, "related" );
+        item.related().remove( related );
+        item.related().add( related );
+        uow.complete();
+
+        assertEquals( 0, updates.get() );
+    }
+
+    @Test
+    public void givenSkipUnchangedWhenSettingNewValueThenEntityIsWritten()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork( skipUnchanged );
+        uow.get( Item.class, "item" ).name().set( "Bar" );
+        uow.complete();
+
+        assertEquals( 1, updates.get() );
+
+        uow = module.newUnitOfWork();
+        try
+        {
+            assertEquals( "Bar", uow.get( Item.class, "item" ).name().get() );
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    @Test
+    public void givenDefaultOptionsWhenSettingSameValueThenEntityIsWritten()
+        throws Exception
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.get( Item.class, "item" ).name().set( "Foo" );
+        uow.complete();
+
+        assertEquals( 1, updates.get() );
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+
+        ManyAssociation<Item> related();
+    }
+
+    @Mixins( { JSONMapEntityStoreMixin.class, CountingMemoryMapEntityStoreMixin.class } )
+    public interface CountingMemoryEntityStoreService
+        extends MemoryEntityStoreService
+    {
+    }
+
+    public static class CountingMemoryMapEntityStoreMixin
+        extends MemoryMapEntityStoreMixin
+    {
+        @Override
+        public void applyChanges( final MapChanges changes )
+            throws IOException
+        {
+            super.applyChanges( new MapChanges()
+            {
+                public void visitMap( final MapChanger changer )
+                    throws IOException
+                {
+                    changes.visitMap( new MapChanger()
+                    {
+                        public Writer newEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+                            throws IOException
+                        {
+                            return changer.newEntity( ref, entityDescriptor );
+                        }
+
+                        public Writer updateEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+                            throws IOException
+                        {
+                            updates.incrementAndGet();
+                            return changer.updateEntity( ref, entityDescriptor );
+                        }
+
+                        public void removeEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+                            throws EntityNotFoundException
+                        {
+                            changer.removeEntity( ref, entityDescriptor );
+                        }
+                    } );
+                }
+            } );
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+import org.junit.Test;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityComposite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.injection.scope.Structure;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.property.Property;
+import org.qi4j.api.query.Query;
+import org.qi4j.api.query.QueryBuilder;
+import org.qi4j.api.query.QueryExecutionException;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.api.structure.Module;
+import org.qi4j.api.unitofwork.UnitOfWork;
+import org.qi4j.bootstrap.AssemblyException;
+import org.qi4j.bootstrap.ModuleAssembly;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entitystore.StateChangeListener;
+import org.qi4j.test.AbstractQi4jTest;
+import org.qi4j.test.EntityTestAssembler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.qi4j.api.query.QueryExpressions.and;
+import static org.qi4j.api.query.QueryExpressions.eq;
+import static org.qi4j.api.query.QueryExpressions.isNotNull;
+import static org.qi4j.api.query.QueryExpressions.lt;
+import static org.qi4j.api.query.QueryExpressions.templateFor;
+import static org.qi4j.api.query.QueryExpressions.variable;
+
+public class QueryCacheTest
+    extends AbstractQi4jTest
+{
+    private static final AtomicInteger finderCalls = new AtomicInteger();
+    private static volatile Specification<Composite> queryDuringCommit;
+
+    public void assemble( ModuleAssembly module )
+        throws AssemblyException
+    {
+        module.entities( Item.class, Other.class );
+        module.services( CountingEntityFinderService.class );
+        module.services( QueryCacheService.class ).setMetaInfo( new QueryCacheOptions( 2, 0 ) );
+        module.services( QueryingListenerService.class );
+        new EntityTestAssembler().assemble( module );
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.newEntity( Item.class, "Foo" ).name().set( "Foo" );
+        uow.newEntity( Item.class, "Bar" ).name().set( "Bar" );
+        uow.complete();
+        module.findService( QueryCache.class ).get().clear();
+        finderCalls.set( 0 );
+    }
+
+    @Test
+    public void givenSameQueryWhenRunTwiceThenSecondResultIsCached()
+    {
+        QueryCache cache = module.findService( QueryCache.class ).get();
+        Item template = templateFor( Item.class );
+
+        assertEquals( 2, count( and( isNotNull( template.name() ), eq( template.name(), "Foo" ) ) ) );
+        // Operands in a different order are the same query
+        assertEquals( 2, count( and( eq( template.name(), "Foo" ), isNotNull( template.name() ) ) ) );
+        assertEquals( 2, names( eq( template.name(), "Foo" ) ).size() );
+        assertEquals( 2, names( eq( template.name(), "Foo" ) ).size() );
+
+        assertEquals( 2, finderCalls.get() );
+        assertEquals( 2, cache.hits() );
+        assertEquals( 2, cache.misses() );
+        assertEquals( 2, cache.size() );
+    }
+
+    @Test
+    public void givenDifferentVariableValuesWhenQueryingThenResultsAreCachedSeparately()
+    {
+        Property name = templateFor( Item.class ).name();
+        Specification<Composite> where = eq( name, variable( "name" ) );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            QueryBuilder<Item> builder = module.newQueryBuilder( Item.class ).where( where );
+            uow.newQuery( builder ).setVariable( "name", "Foo" ).count();
+            uow.newQuery( builder ).setVariable( "name", "Bar" ).count();
+            uow.newQuery( builder ).setVariable( "name", "Foo" ).count();
+        }
+        finally
+        {
+            uow.discard();
+        }
+
+        assertEquals( 2, finderCalls.get() );
+    }
+
+    @Test
+    public void givenCachedResultWhenEntityOfResultTypeChangesThenResultIsInvalidated()
+        throws Exception
+    {
+        QueryCache cache = module.findService( QueryCache.class ).get();
+        Specification<Composite> where = isNotNull( templateFor( Item.class ).name() );
+        count( where );
+
+        UnitOfWork uow = module.newUnitOfWork();
+        uow.newEntity( Other.class );
+        uow.complete();
+        count( where );
+        assertEquals( 1, finderCalls.get() );
+
+        uow = module.newUnitOfWork();
+        uow.get( Item.class, "Foo" ).name().set( "Xyzzy" );
+        uow.complete();
+        count( where );
+        assertEquals( 2, finderCalls.get() );
+        assertEquals( 1, cache.invalidations() );
+    }
+
+    @Test
+    public void givenValuesWithSameStringWhenQueryingThenResultsAreCachedSeparately()
+    {
+        Item template = templateFor( Item.class );
+        // Date.toString() only has second precision
+        long now = System.currentTimeMillis() / 1000 * 1000;
+
+        count( lt( template.created(), new Date( now ) ) );
+        count( lt( template.created(), new Date( now + 1 ) ) );
+        count( lt( template.created(), new Date( now ) ) );
+
+        assertEquals( 2, finderCalls.get() );
+    }
+
+    @Test
+    public void givenQueryDuringCommitWhenCommittedThenResultIsNotKept()
+        throws Exception
+    {
+        Specification<Composite> where = isNotNull( templateFor( Item.class ).name() );
+        queryDuringCommit = where;
+        try
+        {
+            UnitOfWork uow = module.newUnitOfWork();
+            uow.get( Item.class, "Foo" ).name().set( "Xyzzy" );
+            uow.complete();
+        }
+        finally
+        {
+            queryDuringCommit = null;
+        }
+        assertEquals( 1, finderCalls.get() );
+
+        count( where );
+        assertEquals( 2, finderCalls.get() );
+    }
+
+    @Test
+    public void givenFullCacheWhenAddingResultThenLeastRecentlyUsedIsEvicted()
+    {
+        QueryCache cache = module.findService( QueryCache.class ).get();
+        Item template = templateFor( Item.class );
+
+        count( eq( template.name(), "Foo" ) );
+        count( eq( template.name(), "Bar" ) );
+        count( eq( template.name(), "Foo" ) );
+        count( eq( template.name(), "Xyzzy" ) );
+        count( eq( template.name(), "Foo" ) );
+        count( eq( template.name(), "Bar" ) );
+
+        assertEquals( 4, finderCalls.get() );
+        assertEquals( 2, cache.evictions() );
+    }
+
+    @Test
+    public void givenFailingFinderWhenCountingThenExceptionIsThrown()
+    {
+        try
+        {
+            count( eq( templateFor( Item.class ).name(), "fail" ) );
+            fail( "Expected QueryExecutionException" );
+        }
+        catch( QueryExecutionException e )
+        {
+            assertEquals( EntityFinderException.class, e.getCause().getClass() );
+        }
+    }
+
+    private long count( Specification<Composite> where )
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            return uow.newQuery( module.newQueryBuilder( Item.class ).where( where ) ).count();
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    private List<String> names( Specification<Composite> where )
+    {
+        UnitOfWork uow = module.newUnitOfWork();
+        try
+        {
+            Query<Item> query = uow.newQuery( module.newQueryBuilder( Item.class ).where( where ) );
+            List<String> names = new ArrayList<String>();
+            for( Item item : query )
+            {
+                names.add( item.name().get() );
+            }
+            return names;
+        }
+        finally
+        {
+            uow.discard();
+        }
+    }
+
+    public interface Item
+        extends EntityComposite
+    {
+        @Optional
+        Property<String> name();
+
+        @Optional
+        Property<Date> created();
+    }
+
+    public interface Other
+        extends EntityComposite
+    {
+    }
+
+    @Mixins( QueryingListenerMixin.class )
+    public interface QueryingListenerService
+        extends StateChangeListener, ServiceComposite
+    {
+    }
+
+    /**
+     * Listener that runs a query while a UnitOfWork is being committed.
+     */
+    public static class QueryingListenerMixin
+        implements StateChangeListener
+    {
+        @Structure
+        Module module;
+
+        public void notifyChanges( Iterable<EntityState> changedStates )
+        {
+            Specification<Composite> where = queryDuringCommit;
+            if( where != null )
+            {
+                UnitOfWork uow = module.newUnitOfWork();
+                try
+                {
+                    uow.newQuery( module.newQueryBuilder( Item.class ).where( where ) ).count();
+                }
+                finally
+                {
+                    uow.discard();
+                }
+            }
+        }
+    }
+
+    @Mixins( CountingEntityFinderMixin.class )
+    public interface CountingEntityFinderService
+        extends EntityFinder, ServiceComposite
+    {
+    }
+
+    /**
+     * Finder that returns both items, counts how often it is called, and fails for the name "fail".
+     */
+    public static class CountingEntityFinderMixin
+        implements EntityFinder
+    {
+        public Iterable<EntityReference> findEntities( Class<?> resultType,
+                                                       Specification<Composite> whereClause,
+                                                       OrderBy[] orderBySegments,
+                                                       Integer firstResult,
+                                                       Integer maxResults,
+                                                       Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            finderCalls.incrementAndGet();
+            if( String.valueOf( whereClause ).contains( "fail" ) )
+            {
+                throw new EntityFinderException( "Failed" );
+            }
+            List<EntityReference> references = new ArrayList<EntityReference>();
+            references.add( new EntityReference( "Foo" ) );
+            references.add( new EntityReference( "Bar" ) );
+            return references;
+        }
+
+        public EntityReference findEntity( Class<?> resultType,
+                                           Specification<Composite> whereClause,
+                                           Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            return Iterables.first( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+
+        public long countEntities( Class<?> resultType,
+                                   Specification<Composite> whereClause,
+                                   Map<String, Object> variables
+        )
+            throws EntityFinderException
+        {
+            return Iterables.count( findEntities( resultType, whereClause, null, null, null, variables ) );
+        }
+    }
+}
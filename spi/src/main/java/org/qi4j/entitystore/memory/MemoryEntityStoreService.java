@@ -18,6 +18,7 @@ import org.qi4j.api.concern.Concerns;
 import org.qi4j.api.mixin.Mixins;
 import org.qi4j.api.service.ServiceComposite;
 import org.qi4j.spi.entitystore.*;
+import org.qi4j.spi.entitystore.backup.RecordBackupRestore;
 import org.qi4j.spi.entitystore.helpers.JSONMapEntityStoreMixin;
 import org.qi4j.spi.entitystore.helpers.StateStore;
 
@@ -28,6 +29,6 @@ import org.qi4j.spi.entitystore.helpers.StateStore;
 @Concerns( { StateChangeNotificationConcern.class, ConcurrentModificationCheckConcern.class } )
 @Mixins( { JSONMapEntityStoreMixin.class, MemoryMapEntityStoreMixin.class } )
 public interface MemoryEntityStoreService
-    extends EntityStore, EntityStateVersions, BackupRestore, StateStore, ServiceComposite
+    extends EntityStore, PartitionedEntityStore, EntityStateVersions, RecordBackupRestore, StateStore, ServiceComposite
 {
 }
@@ -9,27 +9,46 @@ import org.qi4j.io.Input;
 import org.qi4j.io.Output;
 import org.qi4j.io.Receiver;
 import org.qi4j.io.Sender;
-import org.qi4j.spi.entitystore.BackupRestore;
 import org.qi4j.spi.entitystore.EntityAlreadyExistsException;
 import org.qi4j.spi.entitystore.EntityNotFoundException;
+import org.qi4j.spi.entitystore.EntityStatePartition;
 import org.qi4j.spi.entitystore.EntityStoreException;
+import org.qi4j.spi.entitystore.backup.BackupRecord;
+import org.qi4j.spi.entitystore.backup.BulkLoader;
+import org.qi4j.spi.entitystore.backup.BulkRestore;
+import org.qi4j.spi.entitystore.backup.RecordBackupRestore;
 import org.qi4j.spi.entitystore.helpers.MapEntityStore;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * In-memory implementation of MapEntityStore.
+ * In-memory implementation of MapEntityStore. States can be read while they are changed. All changes are made
+ * while holding the lock on the store, so that each of them is atomic.
  */
 public class MemoryMapEntityStoreMixin
-    implements MapEntityStore, BackupRestore
+    implements MapEntityStore, RecordBackupRestore
 {
+    // Read without the lock, and changed only while holding it
     private final Map<EntityReference, String> store;
 
+    // When entities were last stored or removed, for incremental backups. Entities that are not in the store
+    // have been removed. Times are taken under the store lock, and never go backwards.
+    private final Map<EntityReference, Long> changed;
+    private long lastChangeTime;
+
     public MemoryMapEntityStoreMixin()
     {
-        store = new HashMap<EntityReference, String>();
+        store = new ConcurrentHashMap<EntityReference, String>();
+        changed = new HashMap<EntityReference, Long>();
     }
 
     public boolean contains( EntityReference entityReference, EntityDescriptor descriptor )
@@ -53,13 +72,55 @@ public class MemoryMapEntityStoreMixin
     public void applyChanges( MapEntityStore.MapChanges changes )
         throws IOException
     {
-        changes.visitMap( new MemoryMapChanger() );
+        synchronized( store )
+        {
+            // Changes are applied only if all of them could be visited, so that each call is atomic
+            MemoryMapChanger changer = new MemoryMapChanger();
+            changes.visitMap( changer );
+            changer.apply();
+        }
     }
 
     public Input<Reader, IOException> entityStates()
     {
-        return new Input<Reader, IOException>()
+        return new PartitionedEntityStates()
         {
+            public Input<Reader, IOException> partition( final int partition, final int partitions, final String afterIdentity )
+            {
+                return new Input<Reader, IOException>()
+                {
+                    public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super Reader, ReceiverThrowableType> output )
+                        throws IOException, ReceiverThrowableType
+                    {
+                        final SortedMap<String, String> states = new TreeMap<String, String>();
+                        synchronized( store )
+                        {
+                            for( Map.Entry<EntityReference, String> state : store.entrySet() )
+                            {
+                                String identity = state.getKey().identity();
+                                if( EntityStatePartition.partitionOf( identity, partitions ) == partition
+                                    && ( afterIdentity == null || identity.compareTo( afterIdentity ) > 0 ) )
+                                {
+                                    states.put( identity, state.getValue() );
+                                }
+                            }
+                        }
+
+                        output.receiveFrom( new Sender<Reader, IOException>()
+                        {
+                            public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super Reader, ReceiverThrowableType> receiver )
+                                throws ReceiverThrowableType, IOException
+                            {
+                                for( String state : states.values() )
+                                {
+                                    receiver.receive( new StringReader( state ) );
+                                }
+                            }
+                        } );
+                    }
+                };
+            }
+
            @Override
            public <ReceiverThrowableType extends Throwable> void transferTo(Output<? super Reader, ReceiverThrowableType> output) throws IOException, ReceiverThrowableType
            {
@@ -107,8 +168,8 @@ public class MemoryMapEntityStoreMixin
            @Override
            public <SenderThrowableType extends Throwable> void receiveFrom(Sender<? extends String, SenderThrowableType> sender) throws IOException, SenderThrowableType
            {
-                store.clear();
-
+                // States are collected first, so that the store is replaced at once
+                final Map<EntityReference, String> restored = new HashMap<EntityReference, String>();
                 try
                 {
                     sender.sendTo( new Receiver<String, IOException>()
@@ -121,7 +182,7 @@ public class MemoryMapEntityStoreMixin
                                 JSONTokener tokener = new JSONTokener( item );
                                 JSONObject entity = (JSONObject) tokener.nextValue();
                                 String id = entity.getString( JSONKeys.identity.name() );
-                                store.put( new EntityReference( id ), item );
+                                restored.put( new EntityReference( id ), item );
                             }
                             catch( JSONException e )
                             {
@@ -132,16 +193,244 @@ public class MemoryMapEntityStoreMixin
                 }
                 catch( IOException e )
                 {
-                    store.clear();
+                    // As before, a failed restore leaves the store empty
+                    restored.clear();
                     throw e;
                 }
+                finally
+                {
+                    synchronized( store )
+                    {
+                        store.clear();
+                        store.putAll( restored );
+
+                        // Entities are not known to be the same as before, so the next incremental backup includes all
+                        long time = changeTime();
+                        for( Map.Entry<EntityReference, Long> change : changed.entrySet() )
+                        {
+                            change.setValue( time );
+                        }
+                        for( EntityReference reference : store.keySet() )
+                        {
+                            changed.put( reference, time );
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    public Input<BackupRecord, IOException> backupRecords()
+    {
+        return new Input<BackupRecord, IOException>()
+        {
+            public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super BackupRecord, ReceiverThrowableType> output )
+                throws IOException, ReceiverThrowableType
+            {
+                // Records are sent in identity order, so that each block of a backup file covers a narrow range
+                final SortedMap<String, String> states = new TreeMap<String, String>();
+                synchronized( store )
+                {
+                    for( Map.Entry<EntityReference, String> state : store.entrySet() )
+                    {
+                        states.put( state.getKey().identity(), state.getValue() );
+                    }
+                }
+
+                output.receiveFrom( new Sender<BackupRecord, IOException>()
+                {
+                    public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super BackupRecord, ReceiverThrowableType> receiver )
+                        throws ReceiverThrowableType, IOException
+                    {
+                        for( Map.Entry<String, String> state : states.entrySet() )
+                        {
+                            receiver.receive( new BackupRecord( state.getKey(), state.getValue() ) );
+                        }
+                    }
+                } );
+            }
+        };
+    }
+
+    public Input<BackupRecord, IOException> backupRecords( final long since )
+    {
+        return new Input<BackupRecord, IOException>()
+        {
+            public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super BackupRecord, ReceiverThrowableType> output )
+                throws IOException, ReceiverThrowableType
+            {
+                // Removed entities have null states
+                final SortedMap<String, String> states = new TreeMap<String, String>();
+                synchronized( store )
+                {
+                    for( Map.Entry<EntityReference, Long> change : changed.entrySet() )
+                    {
+                        if( change.getValue() >= since )
+                        {
+                            states.put( change.getKey().identity(), store.get( change.getKey() ) );
+                        }
+                    }
+                }
+
+                output.receiveFrom( new Sender<BackupRecord, IOException>()
+                {
+                    public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super BackupRecord, ReceiverThrowableType> receiver )
+                        throws ReceiverThrowableType, IOException
+                    {
+                        for( Map.Entry<String, String> state : states.entrySet() )
+                        {
+                            receiver.receive( state.getValue() == null
+                                              ? BackupRecord.removed( state.getKey() )
+                                              : new BackupRecord( state.getKey(), state.getValue() ) );
+                        }
+                    }
+                } );
+            }
+        };
+    }
+
+    public Output<BackupRecord, IOException> restoreRecords()
+    {
+        return restoreRecords( null, null );
+    }
+
+    public Output<BackupRecord, IOException> restoreRecords( final String fromIdentity, final String toIdentity )
+    {
+        return new Output<BackupRecord, IOException>()
+        {
+            public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends BackupRecord, SenderThrowableType> sender )
+                throws IOException, SenderThrowableType
+            {
+                // Records are collected first, so that the store is not changed if the restore fails
+                final Map<EntityReference, String> restored = new HashMap<EntityReference, String>();
+                sender.sendTo( new Receiver<BackupRecord, IOException>()
+                {
+                    public void receive( BackupRecord item )
+                    {
+                        if( !BackupRecord.isInRange( item.identity(), fromIdentity, toIdentity ) )
+                        {
+                            return;
+                        }
+
+                        if( item.isRemoved() )
+                        {
+                            restored.remove( new EntityReference( item.identity() ) );
+                        }
+                        else
+                        {
+                            restored.put( new EntityReference( item.identity() ), item.state() );
+                        }
+                    }
+                } );
+
+                synchronized( store )
+                {
+                    long time = changeTime();
+                    Iterator<EntityReference> references = store.keySet().iterator();
+                    while( references.hasNext() )
+                    {
+                        EntityReference reference = references.next();
+                        if( BackupRecord.isInRange( reference.identity(), fromIdentity, toIdentity ) )
+                        {
+                            references.remove();
+                            changed.put( reference, time );
+                        }
+                    }
+                    for( EntityReference reference : restored.keySet() )
+                    {
+                        changed.put( reference, time );
+                    }
+                    store.putAll( restored );
+                }
+            }
+        };
+    }
+
+    public Output<BackupRecord, IOException> applyRecords()
+    {
+        return new Output<BackupRecord, IOException>()
+        {
+            public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends BackupRecord, SenderThrowableType> sender )
+                throws IOException, SenderThrowableType
+            {
+                // Records are collected first, so that the store is not changed if the restore fails
+                final Map<EntityReference, String> changes = new LinkedHashMap<EntityReference, String>();
+                sender.sendTo( new Receiver<BackupRecord, IOException>()
+                {
+                    public void receive( BackupRecord item )
+                    {
+                        changes.put( new EntityReference( item.identity() ), item.state() );
+                    }
+                } );
+
+                synchronized( store )
+                {
+                    long time = changeTime();
+                    for( Map.Entry<EntityReference, String> change : changes.entrySet() )
+                    {
+                        if( change.getValue() == null )
+                        {
+                            store.remove( change.getKey() );
+                        }
+                        else
+                        {
+                            store.put( change.getKey(), change.getValue() );
+                        }
+                        changed.put( change.getKey(), time );
+                    }
+                }
             }
         };
     }
 
+    public Output<BackupRecord, IOException> bulkRestore( int partitions )
+    {
+        return BulkRestore.output( new MemoryBulkLoader( partitions ), partitions, BulkRestore.DEFAULT_BATCH_SIZE );
+    }
+
+    public void pruneRemovals( long before )
+    {
+        synchronized( store )
+        {
+            Iterator<Map.Entry<EntityReference, Long>> changes = changed.entrySet().iterator();
+            while( changes.hasNext() )
+            {
+                Map.Entry<EntityReference, Long> change = changes.next();
+                if( change.getValue() < before && !store.containsKey( change.getKey() ) )
+                {
+                    changes.remove();
+                }
+            }
+        }
+    }
+
+    private static String version( String state )
+        throws IOException
+    {
+        try
+        {
+            JSONObject entity = (JSONObject) new JSONTokener( state ).nextValue();
+            return entity.optString( JSONKeys.version.name() );
+        }
+        catch( JSONException e )
+        {
+            throw new IOException( e );
+        }
+    }
+
+    // Must be called with the store lock held
+    private long changeTime()
+    {
+        lastChangeTime = Math.max( System.currentTimeMillis(), lastChangeTime );
+        return lastChangeTime;
+    }
+
     private class MemoryMapChanger
-        implements MapChanger
+        implements ConditionalMapChanger
     {
+        // Changed states, where null means removed
+        private final Map<EntityReference, String> changes = new LinkedHashMap<EntityReference, String>();
+
         public Writer newEntity( final EntityReference ref, EntityDescriptor descriptor )
         {
             return new StringWriter( 1000 )
@@ -151,12 +440,11 @@ public class MemoryMapEntityStoreMixin
                     throws IOException
                 {
                     super.close();
-                    String old = store.put( ref, toString() );
-                    if( old != null )
+                    if( exists( ref ) )
                     {
-                        store.put( ref, old );
                         throw new EntityAlreadyExistsException( ref );
                     }
+                    changes.put( ref, toString() );
                 }
             };
         }
@@ -171,12 +459,30 @@ public class MemoryMapEntityStoreMixin
                     throws IOException
                 {
                     super.close();
-                    String old = store.put( ref, toString() );
-                    if( old == null )
+                    if( !exists( ref ) )
                     {
-                        store.remove( ref );
                         throw new EntityNotFoundException( ref );
                     }
+                    changes.put( ref, toString() );
+                }
+            };
+        }
+
+        public Writer updateEntityIfVersion( final EntityReference ref, EntityDescriptor descriptor, final String version )
+        {
+            return new StringWriter( 1000 )
+            {
+                @Override
+                public void close()
+                    throws IOException
+                {
+                    super.close();
+                    // The store lock is held while the changes are visited, so nothing can change the state meanwhile
+                    String current = changes.containsKey( ref ) ? changes.get( ref ) : store.get( ref );
+                    if( current != null && version.equals( version( current ) ) )
+                    {
+                        changes.put( ref, toString() );
+                    }
                 }
             };
         }
@@ -184,13 +490,96 @@ public class MemoryMapEntityStoreMixin
         public void removeEntity( EntityReference ref, EntityDescriptor descriptor )
             throws EntityNotFoundException
         {
-            String state = store.remove( ref );
             // Ignore if the entity didn't already exist, as that can happen if it is both created and removed
             // within the same UnitOfWork.
-//            if( state == null )
-//            {
-//                throw new EntityNotFoundException( ref );
-//            }
+            changes.put( ref, null );
+        }
+
+        private boolean exists( EntityReference ref )
+        {
+            if( changes.containsKey( ref ) )
+            {
+                return changes.get( ref ) != null;
+            }
+            return store.containsKey( ref );
+        }
+
+        private void apply()
+        {
+            long time = changeTime();
+            for( Map.Entry<EntityReference, String> change : changes.entrySet() )
+            {
+                if( change.getValue() == null )
+                {
+                    if( store.remove( change.getKey() ) != null )
+                    {
+                        changed.put( change.getKey(), time );
+                    }
+                }
+                else
+                {
+                    store.put( change.getKey(), change.getValue() );
+                    changed.put( change.getKey(), time );
+                }
+            }
+        }
+    }
+
+    private class MemoryBulkLoader
+        implements BulkLoader
+    {
+        // Each partition is only used by one thread, and the maps are read after the loading threads are done
+        private final List<Map<EntityReference, String>> partitions;
+
+        private MemoryBulkLoader( int partitions )
+        {
+            this.partitions = new ArrayList<Map<EntityReference, String>>( partitions );
+            for( int i = 0; i < partitions; i++ )
+            {
+                this.partitions.add( new HashMap<EntityReference, String>() );
+            }
+        }
+
+        public void load( int partition, List<BackupRecord> records )
+        {
+            Map<EntityReference, String> states = partitions.get( partition );
+            for( BackupRecord record : records )
+            {
+                if( record.isRemoved() )
+                {
+                    states.remove( new EntityReference( record.identity() ) );
+                }
+                else
+                {
+                    states.put( new EntityReference( record.identity() ), record.state() );
+                }
+            }
+        }
+
+        public void commit()
+        {
+            synchronized( store )
+            {
+                long time = changeTime();
+                for( EntityReference reference : store.keySet() )
+                {
+                    changed.put( reference, time );
+                }
+                store.clear();
+                for( Map<EntityReference, String> states : partitions )
+                {
+                    for( EntityReference reference : states.keySet() )
+                    {
+                        changed.put( reference, time );
+                    }
+                    store.putAll( states );
+                }
+            }
+        }
+
+        public void abort()
+        {
+            partitions.clear();
         }
     }
-}
\ No newline at end of file
+}
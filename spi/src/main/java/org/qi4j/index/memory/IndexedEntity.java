@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.index.memory;
+
+import org.qi4j.api.association.AssociationDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.entity.Identity;
+import org.qi4j.api.property.PropertyDescriptor;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.ManyAssociationState;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the queryable state of an entity. Properties and associations are keyed by their accessors,
+ * which are the same as the accessors in query expressions.
+ */
+final class IndexedEntity
+{
+    private static final Method IDENTITY;
+
+    static
+    {
+        try
+        {
+            IDENTITY = Identity.class.getMethod( "identity" );
+        }
+        catch( NoSuchMethodException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private final EntityReference reference;
+    private final Class<?> type;
+    private final Map<AccessibleObject, Object> properties = new HashMap<AccessibleObject, Object>();
+    private final Map<AccessibleObject, EntityReference> associations = new HashMap<AccessibleObject, EntityReference>();
+    private final Map<AccessibleObject, List<EntityReference>> manyAssociations = new HashMap<AccessibleObject, List<EntityReference>>();
+
+    IndexedEntity( EntityState state )
+    {
+        reference = state.identity();
+        type = state.entityDescriptor().type();
+
+        for( PropertyDescriptor property : state.entityDescriptor().state().properties() )
+        {
+            if( property.queryable() && !property.accessor().equals( IDENTITY ) )
+            {
+                properties.put( property.accessor(), state.getProperty( property.qualifiedName() ) );
+            }
+        }
+        for( AssociationDescriptor association : state.entityDescriptor().state().associations() )
+        {
+            if( association.queryable() )
+            {
+                associations.put( association.accessor(), state.getAssociation( association.qualifiedName() ) );
+            }
+        }
+        for( AssociationDescriptor association : state.entityDescriptor().state().manyAssociations() )
+        {
+            if( association.queryable() )
+            {
+                List<EntityReference> references = new ArrayList<EntityReference>();
+                ManyAssociationState manyAssociation = state.getManyAssociation( association.qualifiedName() );
+                for( EntityReference entityReference : manyAssociation )
+                {
+                    references.add( entityReference );
+                }
+                manyAssociations.put( association.accessor(), references );
+            }
+        }
+    }
+
+    EntityReference reference()
+    {
+        return reference;
+    }
+
+    String identity()
+    {
+        return reference.identity();
+    }
+
+    Class<?> type()
+    {
+        return type;
+    }
+
+    Map<AccessibleObject, Object> properties()
+    {
+        return properties;
+    }
+
+    Map<AccessibleObject, EntityReference> associations()
+    {
+        return associations;
+    }
+
+    Map<AccessibleObject, List<EntityReference>> manyAssociations()
+    {
+        return manyAssociations;
+    }
+
+    static boolean isIdentity( AccessibleObject accessor )
+    {
+        return IDENTITY.equals( accessor );
+    }
+
+    Object property( AccessibleObject accessor )
+    {
+        return isIdentity( accessor ) ? reference.identity() : properties.get( accessor );
+    }
+
+    EntityReference association( AccessibleObject accessor )
+    {
+        return associations.get( accessor );
+    }
+
+    List<EntityReference> manyAssociation( AccessibleObject accessor )
+    {
+        List<EntityReference> references = manyAssociations.get( accessor );
+        return references == null ? Collections.<EntityReference>emptyList() : references;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.index.memory;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.injection.scope.Service;
+import org.qi4j.api.injection.scope.Structure;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.service.Activatable;
+import org.qi4j.api.structure.Module;
+import org.qi4j.functional.Specification;
+import org.qi4j.io.Outputs;
+import org.qi4j.io.Receiver;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+import org.qi4j.spi.entitystore.EntityStore;
+import org.qi4j.spi.entitystore.StateCommitListener;
+import org.qi4j.spi.query.EntityFinder;
+import org.qi4j.spi.query.EntityFinderException;
+import org.qi4j.spi.query.IndexExporter;
+import org.qi4j.spi.query.QueryCapabilities;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EntityFinder that keeps the queryable state of all entities in memory, and answers queries
+ * with hash and sorted secondary indexes. The index is built from the EntityStore on activation,
+ * and then kept up to date with the changes that the EntityStore notifies after they have been committed.
+ */
+public class MemoryEntityFinderMixin
+    implements EntityFinder, QueryCapabilities, IndexExporter, StateCommitListener, Activatable
+{
+    @Structure
+    private Module module;
+
+    @Optional
+    @Service
+    private EntityStore entityStore;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MemoryIndex index = new MemoryIndex();
+
+    public void activate()
+        throws Exception
+    {
+        if( entityStore == null )
+        {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try
+        {
+            entityStore.entityStates( module ).transferTo( Outputs.withReceiver( new Receiver<EntityState, RuntimeException>()
+            {
+                public void receive( EntityState state )
+                {
+                    index.add( new IndexedEntity( state ) );
+                }
+            } ) );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void passivate()
+        throws Exception
+    {
+    }
+
+    public void notifyCommitted( Iterable<EntityState> committedStates )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            for( EntityState changedState : committedStates )
+            {
+                if( changedState.status() == EntityStatus.NEW || changedState.status() == EntityStatus.UPDATED )
+                {
+                    index.add( new IndexedEntity( changedState ) );
+                }
+                else if( changedState.status() == EntityStatus.REMOVED )
+                {
+                    index.remove( changedState.identity().identity() );
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Iterable<EntityReference> findEntities( Class<?> resultType,
+                                                   @Optional Specification<Composite> whereClause,
+                                                   @Optional OrderBy[] orderBySegments,
+                                                   @Optional Integer firstResult,
+                                                   @Optional Integer maxResults,
+                                                   Map<String, Object> variables
+    )
+        throws EntityFinderException
+    {
+        int first = firstResult == null ? 0 : firstResult;
+        int max = maxResults == null ? Integer.MAX_VALUE : maxResults;
+
+        lock.readLock().lock();
+        try
+        {
+            List<IndexedEntity> found;
+            NavigableMap<Object, Set<String>> sortedIndex = orderBySegments == null || orderBySegments.length != 1
+                                                            ? null
+                                                            : index.sortedIndex( orderBySegments[ 0 ] );
+            if( sortedIndex != null )
+            {
+                found = findInOrder( resultType, whereClause, orderBySegments[ 0 ], sortedIndex, variables );
+            }
+            else
+            {
+                found = find( resultType, whereClause, variables, Integer.MAX_VALUE );
+                if( orderBySegments != null && orderBySegments.length > 0 )
+                {
+                    Collections.sort( found, index.comparator( orderBySegments ) );
+                }
+            }
+
+            List<EntityReference> references = new ArrayList<EntityReference>();
+            for( int i = first; i < found.size() && references.size() < max; i++ )
+            {
+                references.add( found.get( i ).reference() );
+            }
+            return references;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public EntityReference findEntity( Class<?> resultType,
+                                       @Optional Specification<Composite> whereClause,
+                                       Map<String, Object> variables
+    )
+        throws EntityFinderException
+    {
+        lock.readLock().lock();
+        try
+        {
+            List<IndexedEntity> found = find( resultType, whereClause, variables, 1 );
+            return found.isEmpty() ? null : found.get( 0 ).reference();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long countEntities( Class<?> resultType,
+                               @Optional Specification<Composite> whereClause,
+                               Map<String, Object> variables
+    )
+        throws EntityFinderException
+    {
+        lock.readLock().lock();
+        try
+        {
+            return find( resultType, whereClause, variables, Integer.MAX_VALUE ).size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean supportsSpecification( Specification<Composite> specification )
+    {
+        return MemoryIndex.supports( specification );
+    }
+
+    public boolean supportsOrderBy( OrderBy orderBy )
+    {
+        return true;
+    }
+
+    public boolean supportsPaging()
+    {
+        return true;
+    }
+
+    public long estimateCount( Class<?> resultType,
+                               @Optional Specification<Composite> whereClause,
+                               Map<String, Object> variables
+    )
+    {
+        lock.readLock().lock();
+        try
+        {
+            // Entities that the indexes can not rule out
+            long count = index.ofType( resultType ).size();
+            Set<String> candidates = index.candidates( whereClause, variables );
+            return candidates == null ? count : Math.min( count, candidates.size() );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void exportReadableToStream( PrintStream out )
+        throws IOException, UnsupportedOperationException
+    {
+        lock.readLock().lock();
+        try
+        {
+            for( IndexedEntity entity : sortedEntities() )
+            {
+                out.println( entity.identity() + " (" + entity.type().getName() + ")" );
+                for( Map.Entry<AccessibleObject, Object> property : entity.properties().entrySet() )
+                {
+                    out.println( "  " + name( property.getKey() ) + " = " + property.getValue() );
+                }
+                for( Map.Entry<AccessibleObject, EntityReference> association : entity.associations().entrySet() )
+                {
+                    out.println( "  " + name( association.getKey() ) + " -> " + association.getValue() );
+                }
+                for( Map.Entry<AccessibleObject, List<EntityReference>> manyAssociation : entity.manyAssociations().entrySet() )
+                {
+                    out.println( "  " + name( manyAssociation.getKey() ) + " -> " + manyAssociation.getValue() );
+                }
+            }
+            out.println( index.size() + " entities, " + index.hashIndexes().size() + " hash indexes, "
+                         + index.sortedIndexes().size() + " sorted indexes" );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void exportFormalToWriter( PrintWriter out )
+        throws IOException, UnsupportedOperationException
+    {
+        lock.readLock().lock();
+        try
+        {
+            JSONWriter json = new JSONWriter( out ).array();
+            for( IndexedEntity entity : sortedEntities() )
+            {
+                json.object()
+                    .key( "identity" ).value( entity.identity() )
+                    .key( "type" ).value( entity.type().getName() );
+
+                json.key( "properties" ).object();
+                for( Map.Entry<AccessibleObject, Object> property : entity.properties().entrySet() )
+                {
+                    json.key( name( property.getKey() ) ).value( property.getValue() == null ? null : property.getValue().toString() );
+                }
+                json.endObject();
+
+                json.key( "associations" ).object();
+                for( Map.Entry<AccessibleObject, EntityReference> association : entity.associations().entrySet() )
+                {
+                    json.key( name( association.getKey() ) ).value( association.getValue() == null ? null : association.getValue().identity() );
+                }
+                json.endObject();
+
+                json.key( "manyassociations" ).object();
+                for( Map.Entry<AccessibleObject, List<EntityReference>> manyAssociation : entity.manyAssociations().entrySet() )
+                {
+                    json.key( name( manyAssociation.getKey() ) ).array();
+                    for( EntityReference reference : manyAssociation.getValue() )
+                    {
+                        json.value( reference.identity() );
+                    }
+                    json.endArray();
+                }
+                json.endObject();
+
+                json.endObject();
+            }
+            json.endArray();
+            out.flush();
+        }
+        catch( JSONException e )
+        {
+            throw new IOException( e );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<IndexedEntity> find( Class<?> resultType,
+                                      Specification<Composite> whereClause,
+                                      Map<String, Object> variables,
+                                      int limit
+    )
+        throws EntityFinderException
+    {
+        Set<String> ofType = index.ofType( resultType );
+        Set<String> candidates = index.candidates( whereClause, variables );
+
+        // Iterate the smaller set, and check membership in the other
+        Set<String> iterated = candidates == null || ofType.size() <= candidates.size() ? ofType : candidates;
+        Set<String> other = iterated == ofType ? candidates : ofType;
+
+        List<IndexedEntity> found = new ArrayList<IndexedEntity>();
+        for( String identity : iterated )
+        {
+            if( found.size() >= limit )
+            {
+                break;
+            }
+            if( other != null && !other.contains( identity ) )
+            {
+                continue;
+            }
+            IndexedEntity entity = index.get( identity );
+            if( matches( entity, whereClause, variables ) )
+            {
+                found.add( entity );
+            }
+        }
+        return found;
+    }
+
+    private List<IndexedEntity> findInOrder( Class<?> resultType,
+                                             Specification<Composite> whereClause,
+                                             OrderBy orderBy,
+                                             NavigableMap<Object, Set<String>> sortedIndex,
+                                             Map<String, Object> variables
+    )
+        throws EntityFinderException
+    {
+        Map<String, IndexedEntity> matched = new HashMap<String, IndexedEntity>();
+        for( IndexedEntity entity : find( resultType, whereClause, variables, Integer.MAX_VALUE ) )
+        {
+            matched.put( entity.identity(), entity );
+        }
+
+        // The sorted index is already in order, so nothing has to be sorted
+        List<IndexedEntity> ordered = new ArrayList<IndexedEntity>( matched.size() );
+        for( Set<String> identities : sortedIndex.values() )
+        {
+            for( String identity : identities )
+            {
+                IndexedEntity entity = matched.remove( identity );
+                if( entity != null )
+                {
+                    ordered.add( entity );
+                }
+            }
+        }
+
+        // Entities without a value are not in the sorted index, and are ordered as the smallest values,
+        // as OrderByComparator does
+        if( orderBy.order() == OrderBy.Order.DESCENDING )
+        {
+            ordered.addAll( matched.values() );
+            return ordered;
+        }
+        List<IndexedEntity> missing = new ArrayList<IndexedEntity>( matched.values() );
+        missing.addAll( ordered );
+        return missing;
+    }
+
+    private boolean matches( IndexedEntity entity, Specification<Composite> whereClause, Map<String, Object> variables )
+        throws EntityFinderException
+    {
+        try
+        {
+            return index.matches( entity, whereClause, variables );
+        }
+        catch( IllegalArgumentException e )
+        {
+            throw new EntityFinderException( e );
+        }
+    }
+
+    private List<IndexedEntity> sortedEntities()
+    {
+        List<IndexedEntity> entities = new ArrayList<IndexedEntity>( index.entities() );
+        Collections.sort( entities, new Comparator<IndexedEntity>()
+        {
+            public int compare( IndexedEntity first, IndexedEntity second )
+            {
+                return first.identity().compareTo( second.identity() );
+            }
+        } );
+        return entities;
+    }
+
+    private static String name( AccessibleObject accessor )
+    {
+        return ( (Member) accessor ).getName();
+    }
+}
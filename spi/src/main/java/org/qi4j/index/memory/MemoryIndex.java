@@ -0,0 +1,838 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.index.memory;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.composite.CompositeInstance;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.query.grammar.AndSpecification;
+import org.qi4j.api.query.grammar.AssociationFunction;
+import org.qi4j.api.query.grammar.AssociationNotNullSpecification;
+import org.qi4j.api.query.grammar.AssociationNullSpecification;
+import org.qi4j.api.query.grammar.ComparisonSpecification;
+import org.qi4j.api.query.grammar.ContainsAllSpecification;
+import org.qi4j.api.query.grammar.ContainsSpecification;
+import org.qi4j.api.query.grammar.EqSpecification;
+import org.qi4j.api.query.grammar.GeSpecification;
+import org.qi4j.api.query.grammar.GtSpecification;
+import org.qi4j.api.query.grammar.LeSpecification;
+import org.qi4j.api.query.grammar.LtSpecification;
+import org.qi4j.api.query.grammar.ManyAssociationContainsSpecification;
+import org.qi4j.api.query.grammar.ManyAssociationFunction;
+import org.qi4j.api.query.grammar.MatchesSpecification;
+import org.qi4j.api.query.grammar.NeSpecification;
+import org.qi4j.api.query.grammar.NotSpecification;
+import org.qi4j.api.query.grammar.OrSpecification;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.OrderByComparator;
+import org.qi4j.api.query.grammar.PropertyFunction;
+import org.qi4j.api.query.grammar.PropertyNotNullSpecification;
+import org.qi4j.api.query.grammar.PropertyNullSpecification;
+import org.qi4j.api.query.grammar.Variable;
+import org.qi4j.functional.Specification;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Entities and their secondary indexes. Properties with values of simple types have a hash index,
+ * and if the values are comparable also a sorted index. Associations and many-associations have
+ * reverse indexes from referenced to referencing entities.
+ * <p>
+ * Indexes are only used to find candidates for a query. Each candidate is then checked against the
+ * complete where clause, so queries that can not use an index are answered by a scan.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+final class MemoryIndex
+{
+    private final Map<String, IndexedEntity> entities = new HashMap<String, IndexedEntity>();
+    private final Map<Class<?>, Set<String>> types = new HashMap<Class<?>, Set<String>>();
+    private final Map<AccessibleObject, Map<Object, Set<String>>> hashIndexes = new HashMap<AccessibleObject, Map<Object, Set<String>>>();
+    private final Map<AccessibleObject, NavigableMap<Object, Set<String>>> sortedIndexes = new HashMap<AccessibleObject, NavigableMap<Object, Set<String>>>();
+    private final Map<AccessibleObject, Class<?>> sortedTypes = new HashMap<AccessibleObject, Class<?>>();
+    private final Set<AccessibleObject> unsorted = new HashSet<AccessibleObject>();
+    private final Map<AccessibleObject, Map<String, Set<String>>> associationIndexes = new HashMap<AccessibleObject, Map<String, Set<String>>>();
+    private final Map<AccessibleObject, Map<String, Set<String>>> manyAssociationIndexes = new HashMap<AccessibleObject, Map<String, Set<String>>>();
+
+    int size()
+    {
+        return entities.size();
+    }
+
+    Collection<IndexedEntity> entities()
+    {
+        return entities.values();
+    }
+
+    IndexedEntity get( String identity )
+    {
+        return entities.get( identity );
+    }
+
+    Map<AccessibleObject, Map<Object, Set<String>>> hashIndexes()
+    {
+        return hashIndexes;
+    }
+
+    Map<AccessibleObject, NavigableMap<Object, Set<String>>> sortedIndexes()
+    {
+        return sortedIndexes;
+    }
+
+    void add( IndexedEntity entity )
+    {
+        remove( entity.identity() );
+
+        String identity = entity.identity();
+        entities.put( identity, entity );
+        add( types, entity.type(), identity );
+
+        for( Map.Entry<AccessibleObject, Object> property : entity.properties().entrySet() )
+        {
+            Object value = property.getValue();
+            if( isSimple( value ) )
+            {
+                add( hashIndex( property.getKey() ), value, identity );
+                if( value instanceof Comparable && !unsorted.contains( property.getKey() ) )
+                {
+                    NavigableMap<Object, Set<String>> sortedIndex = sortedIndexes.get( property.getKey() );
+                    if( sortedIndex == null )
+                    {
+                        sortedIndex = new ConcurrentSkipListMap<Object, Set<String>>();
+                        sortedIndexes.put( property.getKey(), sortedIndex );
+                        sortedTypes.put( property.getKey(), keyType( value ) );
+                    }
+
+                    if( sortedTypes.get( property.getKey() ).equals( keyType( value ) ) )
+                    {
+                        add( sortedIndex, value, identity );
+                    }
+                    else
+                    {
+                        // Values of different types can not be sorted together
+                        sortedIndexes.remove( property.getKey() );
+                        sortedTypes.remove( property.getKey() );
+                        unsorted.add( property.getKey() );
+                    }
+                }
+            }
+        }
+
+        for( Map.Entry<AccessibleObject, EntityReference> association : entity.associations().entrySet() )
+        {
+            if( association.getValue() != null )
+            {
+                add( referenceIndex( associationIndexes, association.getKey() ), association.getValue().identity(), identity );
+            }
+        }
+
+        for( Map.Entry<AccessibleObject, List<EntityReference>> manyAssociation : entity.manyAssociations().entrySet() )
+        {
+            Map<String, Set<String>> index = referenceIndex( manyAssociationIndexes, manyAssociation.getKey() );
+            for( EntityReference reference : manyAssociation.getValue() )
+            {
+                add( index, reference.identity(), identity );
+            }
+        }
+    }
+
+    void remove( String identity )
+    {
+        IndexedEntity entity = entities.remove( identity );
+        if( entity == null )
+        {
+            return;
+        }
+
+        remove( types, entity.type(), identity );
+
+        for( Map.Entry<AccessibleObject, Object> property : entity.properties().entrySet() )
+        {
+            Object value = property.getValue();
+            if( isSimple( value ) )
+            {
+                remove( hashIndexes.get( property.getKey() ), value, identity );
+                NavigableMap<Object, Set<String>> sortedIndex = sortedIndexes.get( property.getKey() );
+                if( sortedIndex != null && sortedTypes.get( property.getKey() ).equals( keyType( value ) ) )
+                {
+                    remove( sortedIndex, value, identity );
+                }
+            }
+        }
+
+        for( Map.Entry<AccessibleObject, EntityReference> association : entity.associations().entrySet() )
+        {
+            if( association.getValue() != null )
+            {
+                remove( associationIndexes.get( association.getKey() ), association.getValue().identity(), identity );
+            }
+        }
+
+        for( Map.Entry<AccessibleObject, List<EntityReference>> manyAssociation : entity.manyAssociations().entrySet() )
+        {
+            Map<String, Set<String>> index = manyAssociationIndexes.get( manyAssociation.getKey() );
+            for( EntityReference reference : manyAssociation.getValue() )
+            {
+                remove( index, reference.identity(), identity );
+            }
+        }
+    }
+
+    /**
+     * @return identities of all entities that can be assigned to the given type
+     */
+    Set<String> ofType( Class<?> type )
+    {
+        Set<String> identities = null;
+        boolean copied = false;
+        for( Map.Entry<Class<?>, Set<String>> entry : types.entrySet() )
+        {
+            if( type.isAssignableFrom( entry.getKey() ) )
+            {
+                if( identities == null )
+                {
+                    identities = entry.getValue();
+                }
+                else
+                {
+                    if( !copied )
+                    {
+                        identities = new HashSet<String>( identities );
+                        copied = true;
+                    }
+                    identities.addAll( entry.getValue() );
+                }
+            }
+        }
+        return identities == null ? Collections.<String>emptySet() : identities;
+    }
+
+    /**
+     * Use the indexes to find the entities that may match a where clause.
+     *
+     * @return identities of the entities that may match, or null if the indexes can not be used
+     */
+    Set<String> candidates( Specification<Composite> whereClause, Map<String, Object> variables )
+    {
+        if( whereClause instanceof AndSpecification )
+        {
+            Set<String> candidates = null;
+            for( Specification<Composite> operand : ( (AndSpecification) whereClause ).getOperands() )
+            {
+                Set<String> operandCandidates = candidates( operand, variables );
+                if( operandCandidates != null )
+                {
+                    candidates = candidates == null ? operandCandidates : intersection( candidates, operandCandidates );
+                }
+            }
+            return candidates;
+        }
+        else if( whereClause instanceof OrSpecification )
+        {
+            Set<String> candidates = new HashSet<String>();
+            for( Specification<Composite> operand : ( (OrSpecification) whereClause ).getOperands() )
+            {
+                Set<String> operandCandidates = candidates( operand, variables );
+                if( operandCandidates == null )
+                {
+                    return null;
+                }
+                candidates.addAll( operandCandidates );
+            }
+            return candidates;
+        }
+        else if( whereClause instanceof EqSpecification )
+        {
+            EqSpecification<?> eq = (EqSpecification<?>) whereClause;
+            PropertyFunction<?> property = eq.getProperty();
+            Object value = resolve( eq.getValue(), variables );
+            if( isRoot( property ) && isSimple( value ) )
+            {
+                return lookup( hashIndexes.get( property.getAccessor() ), value );
+            }
+            else if( isAssociationIdentity( property ) && value != null )
+            {
+                // eq( association, entity ) compares the identity of the referenced entity
+                return lookup( associationIndexes.get( property.getTraversedAssociation().getAccessor() ), value.toString() );
+            }
+            return null;
+        }
+        else if( whereClause instanceof GtSpecification || whereClause instanceof GeSpecification
+                 || whereClause instanceof LtSpecification || whereClause instanceof LeSpecification )
+        {
+            ComparisonSpecification<?> comparison = (ComparisonSpecification<?>) whereClause;
+            PropertyFunction<?> property = comparison.getProperty();
+            Object value = resolve( comparison.getValue(), variables );
+            NavigableMap<Object, Set<String>> sortedIndex = sortedIndexes.get( property.getAccessor() );
+            if( !isRoot( property ) || sortedIndex == null || !isSimple( value )
+                || !sortedTypes.get( property.getAccessor() ).equals( keyType( value ) ) )
+            {
+                return null;
+            }
+
+            NavigableMap<Object, Set<String>> range;
+            if( whereClause instanceof GtSpecification || whereClause instanceof GeSpecification )
+            {
+                range = sortedIndex.tailMap( value, whereClause instanceof GeSpecification );
+            }
+            else
+            {
+                range = sortedIndex.headMap( value, whereClause instanceof LeSpecification );
+            }
+            Set<String> candidates = new HashSet<String>();
+            for( Set<String> identities : range.values() )
+            {
+                candidates.addAll( identities );
+            }
+            return candidates;
+        }
+        else if( whereClause instanceof ManyAssociationContainsSpecification )
+        {
+            ManyAssociationContainsSpecification<?> contains = (ManyAssociationContainsSpecification<?>) whereClause;
+            ManyAssociationFunction<?> manyAssociation = contains.getManyAssociationFunction();
+            EntityReference reference = reference( resolve( contains.getValue(), variables ) );
+            if( isRoot( manyAssociation ) && reference != null )
+            {
+                return lookup( manyAssociationIndexes.get( manyAssociation.getAccessor() ), reference.identity() );
+            }
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if {@link #matches} can evaluate the specification
+     */
+    static boolean supports( Specification<Composite> specification )
+    {
+        return specification instanceof AndSpecification
+               || specification instanceof OrSpecification
+               || specification instanceof NotSpecification
+               || specification instanceof ComparisonSpecification
+               || specification instanceof PropertyNullSpecification
+               || specification instanceof PropertyNotNullSpecification
+               || specification instanceof AssociationNullSpecification
+               || specification instanceof AssociationNotNullSpecification
+               || specification instanceof MatchesSpecification
+               || specification instanceof ContainsSpecification
+               || specification instanceof ContainsAllSpecification
+               || specification instanceof ManyAssociationContainsSpecification;
+    }
+
+    /**
+     * Check an entity against a where clause.
+     *
+     * @throws IllegalArgumentException if the where clause contains specifications that are not part of the query grammar
+     */
+    boolean matches( IndexedEntity entity, Specification<Composite> whereClause, Map<String, Object> variables )
+    {
+        if( whereClause == null )
+        {
+            return true;
+        }
+        else if( whereClause instanceof AndSpecification )
+        {
+            for( Specification<Composite> operand : ( (AndSpecification) whereClause ).getOperands() )
+            {
+                if( !matches( entity, operand, variables ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if( whereClause instanceof OrSpecification )
+        {
+            for( Specification<Composite> operand : ( (OrSpecification) whereClause ).getOperands() )
+            {
+                if( matches( entity, operand, variables ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( whereClause instanceof NotSpecification )
+        {
+            return !matches( entity, ( (NotSpecification) whereClause ).getOperand(), variables );
+        }
+        else if( whereClause instanceof ComparisonSpecification )
+        {
+            ComparisonSpecification<?> comparison = (ComparisonSpecification<?>) whereClause;
+            Object bound = resolve( comparison.getValue(), variables );
+            for( Object value : values( entity, comparison.getProperty() ) )
+            {
+                if( compare( comparison, value, bound ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( whereClause instanceof PropertyNullSpecification )
+        {
+            return !hasValue( values( entity, ( (PropertyNullSpecification<?>) whereClause ).getProperty() ) );
+        }
+        else if( whereClause instanceof PropertyNotNullSpecification )
+        {
+            return hasValue( values( entity, ( (PropertyNotNullSpecification<?>) whereClause ).getProperty() ) );
+        }
+        else if( whereClause instanceof AssociationNullSpecification )
+        {
+            return references( entity, ( (AssociationNullSpecification<?>) whereClause ).getAssociation() ).isEmpty();
+        }
+        else if( whereClause instanceof AssociationNotNullSpecification )
+        {
+            return !references( entity, ( (AssociationNotNullSpecification<?>) whereClause ).getAssociation() ).isEmpty();
+        }
+        else if( whereClause instanceof MatchesSpecification )
+        {
+            MatchesSpecification matches = (MatchesSpecification) whereClause;
+            String regexp = (String) resolve( matches.getRegexp(), variables );
+            for( Object value : values( entity, matches.getProperty() ) )
+            {
+                if( value != null && value.toString().matches( regexp ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( whereClause instanceof ContainsSpecification )
+        {
+            ContainsSpecification<?> contains = (ContainsSpecification<?>) whereClause;
+            Object value = resolve( contains.getValue(), variables );
+            for( Object collection : values( entity, contains.getCollectionProperty() ) )
+            {
+                if( collection instanceof Collection && ( (Collection) collection ).contains( value ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( whereClause instanceof ContainsAllSpecification )
+        {
+            ContainsAllSpecification<?> containsAll = (ContainsAllSpecification<?>) whereClause;
+            List<Object> values = new ArrayList<Object>();
+            for( Object value : containsAll.getValueCollection() )
+            {
+                values.add( resolve( value, variables ) );
+            }
+            for( Object collection : values( entity, containsAll.getCollectionProperty() ) )
+            {
+                if( collection instanceof Collection && ( (Collection) collection ).containsAll( values ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( whereClause instanceof ManyAssociationContainsSpecification )
+        {
+            ManyAssociationContainsSpecification<?> contains = (ManyAssociationContainsSpecification<?>) whereClause;
+            EntityReference reference = reference( resolve( contains.getValue(), variables ) );
+            return reference != null && manyReferences( entity, contains.getManyAssociationFunction() ).contains( reference );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Specification '" + whereClause + "' is not supported" );
+        }
+    }
+
+    /**
+     * @return comparator that orders entities according to the given order segments, in the same way as
+     *         {@link OrderByComparator}
+     */
+    Comparator<IndexedEntity> comparator( final OrderBy[] orderBySegments )
+    {
+        return new Comparator<IndexedEntity>()
+        {
+            public int compare( IndexedEntity first, IndexedEntity second )
+            {
+                for( OrderBy orderBy : orderBySegments )
+                {
+                    int result = OrderByComparator.compareValues( first( values( first, orderBy.getPropertyFunction() ) ),
+                                                                  first( values( second, orderBy.getPropertyFunction() ) ) );
+                    if( result != 0 )
+                    {
+                        return orderBy.order() == OrderBy.Order.DESCENDING ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * @return the sorted index that can be used to order by the given segment, or null if there is none
+     */
+    NavigableMap<Object, Set<String>> sortedIndex( OrderBy orderBy )
+    {
+        PropertyFunction<?> property = orderBy.getPropertyFunction();
+        if( !isRoot( property ) )
+        {
+            return null;
+        }
+        NavigableMap<Object, Set<String>> sortedIndex = sortedIndexes.get( property.getAccessor() );
+        if( sortedIndex == null )
+        {
+            return null;
+        }
+        return orderBy.order() == OrderBy.Order.DESCENDING ? sortedIndex.descendingMap() : sortedIndex;
+    }
+
+    private List<Object> values( IndexedEntity entity, PropertyFunction<?> property )
+    {
+        List<Object> values = new ArrayList<Object>();
+        if( property.getTraversedProperty() != null )
+        {
+            for( Object value : values( entity, property.getTraversedProperty() ) )
+            {
+                if( value != null )
+                {
+                    values.add( valueProperty( value, property.getAccessor() ) );
+                }
+            }
+        }
+        else if( property.getTraversedAssociation() != null )
+        {
+            if( isAssociationIdentity( property ) )
+            {
+                // The referenced entity does not have to be indexed to know its identity
+                for( EntityReference reference : references( entity, property.getTraversedAssociation() ) )
+                {
+                    values.add( reference.identity() );
+                }
+            }
+            else
+            {
+                for( IndexedEntity associated : resolve( references( entity, property.getTraversedAssociation() ) ) )
+                {
+                    values.add( associated.property( property.getAccessor() ) );
+                }
+            }
+        }
+        else if( property.getTraversedManyAssociation() != null )
+        {
+            for( IndexedEntity associated : resolve( manyReferences( entity, property.getTraversedManyAssociation() ) ) )
+            {
+                values.add( associated.property( property.getAccessor() ) );
+            }
+        }
+        else
+        {
+            values.add( entity.property( property.getAccessor() ) );
+        }
+        return values;
+    }
+
+    private List<EntityReference> references( IndexedEntity entity, AssociationFunction<?> association )
+    {
+        List<EntityReference> references = new ArrayList<EntityReference>();
+        for( IndexedEntity source : sources( entity, association.getTraversedAssociation(), association.getTraversedManyAssociation() ) )
+        {
+            EntityReference reference = source.association( association.getAccessor() );
+            if( reference != null )
+            {
+                references.add( reference );
+            }
+        }
+        return references;
+    }
+
+    private List<EntityReference> manyReferences( IndexedEntity entity, ManyAssociationFunction<?> manyAssociation )
+    {
+        List<EntityReference> references = new ArrayList<EntityReference>();
+        for( IndexedEntity source : sources( entity, manyAssociation.getTraversedAssociation(), manyAssociation.getTraversedManyAssociation() ) )
+        {
+            references.addAll( source.manyAssociation( manyAssociation.getAccessor() ) );
+        }
+        return references;
+    }
+
+    private List<IndexedEntity> sources( IndexedEntity entity,
+                                         AssociationFunction<?> traversedAssociation,
+                                         ManyAssociationFunction<?> traversedManyAssociation
+    )
+    {
+        if( traversedAssociation != null )
+        {
+            return resolve( references( entity, traversedAssociation ) );
+        }
+        else if( traversedManyAssociation != null )
+        {
+            return resolve( manyReferences( entity, traversedManyAssociation ) );
+        }
+        else
+        {
+            return Collections.singletonList( entity );
+        }
+    }
+
+    private List<IndexedEntity> resolve( List<EntityReference> references )
+    {
+        List<IndexedEntity> resolved = new ArrayList<IndexedEntity>( references.size() );
+        for( EntityReference reference : references )
+        {
+            IndexedEntity entity = entities.get( reference.identity() );
+            if( entity != null )
+            {
+                resolved.add( entity );
+            }
+        }
+        return resolved;
+    }
+
+    private static Object valueProperty( Object value, AccessibleObject accessor )
+    {
+        try
+        {
+            CompositeInstance handler = (CompositeInstance) Proxy.getInvocationHandler( value );
+            return handler.state().propertyFor( accessor ).get();
+        }
+        catch( IllegalArgumentException e )
+        {
+            // Not a value, or a value without this property
+            return null;
+        }
+    }
+
+    private static boolean compare( ComparisonSpecification<?> comparison, Object value, Object bound )
+    {
+        if( value == null || bound == null )
+        {
+            return false;
+        }
+
+        if( comparison instanceof EqSpecification )
+        {
+            return value.equals( bound );
+        }
+        else if( comparison instanceof NeSpecification )
+        {
+            return !value.equals( bound );
+        }
+
+        if( value.getClass() == bound.getClass() && bound == comparison.getValue() )
+        {
+            if( comparison.getLongSpecification() != null )
+            {
+                return comparison.getLongSpecification().satisfiedBy( ( (Number) value ).longValue() );
+            }
+            if( comparison.getDoubleSpecification() != null )
+            {
+                return comparison.getDoubleSpecification().satisfiedBy( ( (Number) value ).doubleValue() );
+            }
+        }
+
+        int result;
+        try
+        {
+            result = ( (Comparable) value ).compareTo( bound );
+        }
+        catch( ClassCastException e )
+        {
+            return false;
+        }
+
+        if( comparison instanceof GtSpecification )
+        {
+            return result > 0;
+        }
+        else if( comparison instanceof GeSpecification )
+        {
+            return result >= 0;
+        }
+        else if( comparison instanceof LtSpecification )
+        {
+            return result < 0;
+        }
+        else if( comparison instanceof LeSpecification )
+        {
+            return result <= 0;
+        }
+        throw new IllegalArgumentException( "Comparison '" + comparison + "' is not supported" );
+    }
+
+    private static Object first( List<Object> values )
+    {
+        return values.isEmpty() ? null : values.get( 0 );
+    }
+
+    private static boolean hasValue( List<Object> values )
+    {
+        for( Object value : values )
+        {
+            if( value != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object resolve( Object value, Map<String, Object> variables )
+    {
+        if( value instanceof Variable )
+        {
+            return variables == null ? null : variables.get( ( (Variable) value ).getName() );
+        }
+        return value;
+    }
+
+    private static EntityReference reference( Object value )
+    {
+        if( value == null )
+        {
+            return null;
+        }
+        else if( value instanceof EntityReference )
+        {
+            return (EntityReference) value;
+        }
+        else if( value instanceof String )
+        {
+            return EntityReference.parseEntityReference( (String) value );
+        }
+        return EntityReference.getEntityReference( value );
+    }
+
+    private static boolean isRoot( PropertyFunction<?> property )
+    {
+        return property.getTraversedProperty() == null
+               && property.getTraversedAssociation() == null
+               && property.getTraversedManyAssociation() == null;
+    }
+
+    private static boolean isRoot( ManyAssociationFunction<?> manyAssociation )
+    {
+        return manyAssociation.getTraversedAssociation() == null && manyAssociation.getTraversedManyAssociation() == null;
+    }
+
+    private static boolean isAssociationIdentity( PropertyFunction<?> property )
+    {
+        AssociationFunction<?> association = property.getTraversedAssociation();
+        return association != null
+               && association.getTraversedAssociation() == null
+               && association.getTraversedManyAssociation() == null
+               && IndexedEntity.isIdentity( property.getAccessor() );
+    }
+
+    private static boolean isSimple( Object value )
+    {
+        return value instanceof String
+               || value instanceof Number
+               || value instanceof Boolean
+               || value instanceof Character
+               || value instanceof Enum
+               || value instanceof Date;
+    }
+
+    private static Class<?> keyType( Object value )
+    {
+        return value instanceof Enum ? ( (Enum) value ).getDeclaringClass() : value.getClass();
+    }
+
+    private static Set<String> intersection( Set<String> first, Set<String> second )
+    {
+        Set<String> smaller = first.size() <= second.size() ? first : second;
+        Set<String> larger = smaller == first ? second : first;
+        Set<String> intersection = new HashSet<String>();
+        for( String identity : smaller )
+        {
+            if( larger.contains( identity ) )
+            {
+                intersection.add( identity );
+            }
+        }
+        return intersection;
+    }
+
+    private static <K> Set<String> lookup( Map<K, Set<String>> index, K key )
+    {
+        if( index == null )
+        {
+            return Collections.emptySet();
+        }
+        Set<String> identities = index.get( key );
+        return identities == null ? Collections.<String>emptySet() : identities;
+    }
+
+    private Map<Object, Set<String>> hashIndex( AccessibleObject accessor )
+    {
+        Map<Object, Set<String>> index = hashIndexes.get( accessor );
+        if( index == null )
+        {
+            index = new HashMap<Object, Set<String>>();
+            hashIndexes.put( accessor, index );
+        }
+        return index;
+    }
+
+    private static Map<String, Set<String>> referenceIndex( Map<AccessibleObject, Map<String, Set<String>>> indexes,
+                                                            AccessibleObject accessor
+    )
+    {
+        Map<String, Set<String>> index = indexes.get( accessor );
+        if( index == null )
+        {
+            index = new HashMap<String, Set<String>>();
+            indexes.put( accessor, index );
+        }
+        return index;
+    }
+
+    private static <K> void add( Map<K, Set<String>> index, K key, String identity )
+    {
+        Set<String> identities = index.get( key );
+        if( identities == null )
+        {
+            identities = new HashSet<String>();
+            index.put( key, identities );
+        }
+        identities.add( identity );
+    }
+
+    private static <K> void remove( Map<K, Set<String>> index, K key, String identity )
+    {
+        if( index == null )
+        {
+            return;
+        }
+        Set<String> identities = index.get( key );
+        if( identities != null )
+        {
+            identities.remove( identity );
+            if( identities.isEmpty() )
+            {
+                index.remove( key );
+            }
+        }
+    }
+}
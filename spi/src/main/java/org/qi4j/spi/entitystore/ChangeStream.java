@@ -0,0 +1,540 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.qi4j.api.injection.scope.Uses;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.service.Activatable;
+import org.qi4j.api.service.ServiceDescriptor;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Change data capture for an EntityStore. {@link StateChangeNotificationConcern} records the changes of
+ * each UnitOfWork after it has been committed, and subscribers get them in commit order and in batches,
+ * each on its own thread.
+ * <p>
+ * Changes are kept in a bounded ring buffer, and optionally appended to a log file by a background thread, so
+ * committers never do file I/O. When the buffer is full the oldest changes are overwritten, unless a block
+ * timeout is set in {@link ChangeStreamOptions}, in which case committers first wait for the slowest subscriber.
+ * A subscriber that falls behind the buffer catches up from the log.
+ * </p>
+ */
+@Mixins( ChangeStream.ChangeStreamMixin.class )
+public interface ChangeStream
+{
+    /**
+     * Record the changed states of a committed UnitOfWork. States that were only loaded are ignored.
+     *
+     * @param version      the version that the changed states got, which is the identity of the UnitOfWork
+     * @param lastModified the time that the changed states got, which is the current time of the UnitOfWork
+     * @param states       the states of the UnitOfWork
+     */
+    void record( String version, long lastModified, Iterable<EntityState> states );
+
+    /**
+     * @return offset that the next recorded change will get
+     */
+    long headOffset();
+
+    /**
+     * Start delivery of changes to a listener.
+     *
+     * @param fromOffset offset of the first change to deliver, such as a previous {@link ChangeSubscription#offset()},
+     *                   or {@link #headOffset()} to only get new changes
+     * @param maxBatch   maximum number of changes per call to the listener
+     * @param listener   the listener
+     *
+     * @return the subscription
+     */
+    ChangeSubscription subscribe( long fromOffset, int maxBatch, ChangeStreamListener listener );
+
+    class ChangeStreamMixin
+        implements ChangeStream, Activatable
+    {
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        @Uses
+        private ServiceDescriptor descriptor;
+
+        private final Object lock = new Object();
+        private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+        private ChangeStreamOptions options;
+        private StateChange[] buffer;
+        private long first;
+        private long next;
+        private long logged;
+        private List<StateChange> unlogged = new ArrayList<StateChange>();
+        private boolean stopping;
+        private Thread logWriter;
+        private Writer log;
+        private Logger logger;
+
+        public void activate()
+            throws Exception
+        {
+            logger = LoggerFactory.getLogger( descriptor.identity() );
+            ChangeStreamOptions options = descriptor.metaInfo( ChangeStreamOptions.class );
+            this.options = options == null ? ChangeStreamOptions.DEFAULT : options;
+            buffer = new StateChange[ this.options.capacity() ];
+
+            File logFile = this.options.logFile();
+            if( logFile != null )
+            {
+                // Continue numbering after the last logged change
+                if( logFile.exists() )
+                {
+                    BufferedReader reader = openLog( logFile );
+                    try
+                    {
+                        String line;
+                        while( ( line = reader.readLine() ) != null )
+                        {
+                            if( line.length() > 0 )
+                            {
+                                next = StateChange.fromJSON( line ).offset() + 1;
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+                }
+                log = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( logFile, true ), "UTF-8" ) );
+                logWriter = new Thread( new LogWriter(), "qi4j-change-log-" + threadCount.incrementAndGet() );
+                logWriter.setDaemon( true );
+                logWriter.start();
+            }
+            first = next;
+            logged = next;
+        }
+
+        public void passivate()
+            throws Exception
+        {
+            List<Subscription> active;
+            synchronized( lock )
+            {
+                active = new ArrayList<Subscription>( subscriptions );
+            }
+            for( Subscription subscription : active )
+            {
+                subscription.close();
+            }
+            if( logWriter != null )
+            {
+                // Let the writer log the remaining changes before closing the log
+                synchronized( lock )
+                {
+                    stopping = true;
+                    lock.notifyAll();
+                }
+                logWriter.join();
+                logWriter = null;
+                log.close();
+                log = null;
+            }
+        }
+
+        public void record( String version, long lastModified, Iterable<EntityState> states )
+        {
+            synchronized( lock )
+            {
+                boolean interrupted = false;
+                for( EntityState state : states )
+                {
+                    if( state.status().equals( EntityStatus.LOADED ) )
+                    {
+                        continue;
+                    }
+
+                    // Optional back-pressure: wait for the slowest subscriber before overwriting changes it has not seen
+                    long deadline = System.currentTimeMillis() + options.blockTimeout();
+                    long remaining = options.blockTimeout();
+                    while( !interrupted && remaining > 0 && next - slowestOffset() >= buffer.length )
+                    {
+                        try
+                        {
+                            lock.wait( remaining );
+                        }
+                        catch( InterruptedException e )
+                        {
+                            // The UnitOfWork is committed already, so the change is recorded anyway
+                            interrupted = true;
+                        }
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+
+                    StateChange change = new StateChange( next,
+                                                          state.identity().identity(),
+                                                          state.status(),
+                                                          state.entityDescriptor().type().getName(),
+                                                          version,
+                                                          lastModified );
+                    buffer[ (int) ( next % buffer.length ) ] = change;
+                    next++;
+                    first = Math.max( first, next - buffer.length );
+                    if( logWriter != null )
+                    {
+                        unlogged.add( change );
+                    }
+                }
+                // Wakes up subscribers and the log writer
+                lock.notifyAll();
+
+                if( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public long headOffset()
+        {
+            synchronized( lock )
+            {
+                return next;
+            }
+        }
+
+        public ChangeSubscription subscribe( long fromOffset, int maxBatch, ChangeStreamListener listener )
+        {
+            if( maxBatch < 1 )
+            {
+                throw new IllegalArgumentException( "Batch size must be at least 1" );
+            }
+            synchronized( lock )
+            {
+                if( fromOffset < 0 || fromOffset > next )
+                {
+                    throw new IllegalArgumentException( "Offset " + fromOffset + " is not in the stream, head is " + next );
+                }
+                Subscription subscription = new Subscription( fromOffset, maxBatch, listener );
+                subscriptions.add( subscription );
+                subscription.thread.start();
+                return subscription;
+            }
+        }
+
+        private long slowestOffset()
+        {
+            long slowest = next;
+            for( Subscription subscription : subscriptions )
+            {
+                // Subscribers that are behind the buffer already read from the log, so waiting for them does not help
+                if( subscription.offset >= first )
+                {
+                    slowest = Math.min( slowest, subscription.offset );
+                }
+            }
+            return slowest;
+        }
+
+        private void appendToLog( StateChange change )
+        {
+            if( log == null )
+            {
+                return;
+            }
+            try
+            {
+                log.write( change.toJSON() );
+                log.write( '\n' );
+            }
+            catch( IOException e )
+            {
+                logger.warn( "Could not write change " + change + " to log", e );
+            }
+        }
+
+        private void flushLog()
+        {
+            if( log == null )
+            {
+                return;
+            }
+            try
+            {
+                log.flush();
+            }
+            catch( IOException e )
+            {
+                logger.warn( "Could not flush change log", e );
+            }
+        }
+
+        private static BufferedReader openLog( File logFile )
+            throws IOException
+        {
+            return new BufferedReader( new InputStreamReader( new FileInputStream( logFile ), "UTF-8" ) );
+        }
+
+        /**
+         * Appends recorded changes to the log, so that committers do not wait for the file.
+         */
+        private class LogWriter
+            implements Runnable
+        {
+            public void run()
+            {
+                while( true )
+                {
+                    List<StateChange> changes;
+                    synchronized( lock )
+                    {
+                        while( unlogged.isEmpty() && !stopping )
+                        {
+                            try
+                            {
+                                lock.wait();
+                            }
+                            catch( InterruptedException e )
+                            {
+                                return;
+                            }
+                        }
+                        if( unlogged.isEmpty() )
+                        {
+                            return;
+                        }
+                        changes = unlogged;
+                        unlogged = new ArrayList<StateChange>();
+                    }
+
+                    for( StateChange change : changes )
+                    {
+                        appendToLog( change );
+                    }
+                    flushLog();
+
+                    synchronized( lock )
+                    {
+                        logged = changes.get( changes.size() - 1 ).offset() + 1;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        private class Subscription
+            implements ChangeSubscription, Runnable
+        {
+            private final int maxBatch;
+            private final ChangeStreamListener listener;
+            private final Thread thread;
+            private volatile long offset;
+            private volatile boolean closed;
+            private BufferedReader catchUp;
+
+            private Subscription( long offset, int maxBatch, ChangeStreamListener listener )
+            {
+                this.offset = offset;
+                this.maxBatch = maxBatch;
+                this.listener = listener;
+                thread = new Thread( this, "qi4j-change-stream-" + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+            }
+
+            public long offset()
+            {
+                return offset;
+            }
+
+            public void close()
+            {
+                synchronized( lock )
+                {
+                    closed = true;
+                    subscriptions.remove( this );
+                    lock.notifyAll();
+                }
+                if( Thread.currentThread() != thread )
+                {
+                    try
+                    {
+                        thread.join();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            public void run()
+            {
+                try
+                {
+                    while( !closed )
+                    {
+                        List<StateChange> batch = nextBatch();
+                        if( batch == null )
+                        {
+                            break;
+                        }
+                        deliver( batch );
+                    }
+                }
+                catch( InterruptedException e )
+                {
+                    // Closed
+                }
+                finally
+                {
+                    closeCatchUp();
+                    synchronized( lock )
+                    {
+                        closed = true;
+                        subscriptions.remove( this );
+                        lock.notifyAll();
+                    }
+                }
+            }
+
+            private List<StateChange> nextBatch()
+                throws InterruptedException
+            {
+                synchronized( lock )
+                {
+                    // Changes that have been overwritten in memory can only be read once they have been logged
+                    while( !closed && ( offset >= next || ( offset < first && offset >= logged && logWriter != null ) ) )
+                    {
+                        lock.wait();
+                    }
+                    if( closed )
+                    {
+                        return null;
+                    }
+                    if( offset >= first )
+                    {
+                        closeCatchUp();
+                        List<StateChange> batch = new ArrayList<StateChange>();
+                        for( long i = offset; i < next && batch.size() < maxBatch; i++ )
+                        {
+                            batch.add( buffer[ (int) ( i % buffer.length ) ] );
+                        }
+                        return batch;
+                    }
+                }
+
+                // The changes have been overwritten in memory
+                return readLog();
+            }
+
+            private List<StateChange> readLog()
+            {
+                File logFile = options.logFile();
+                if( logFile == null )
+                {
+                    logger.warn( "Changes from offset " + offset + " are no longer available, closing subscription" );
+                    return null;
+                }
+                long end;
+                synchronized( lock )
+                {
+                    end = logged;
+                }
+                try
+                {
+                    if( catchUp == null )
+                    {
+                        catchUp = openLog( logFile );
+                    }
+                    List<StateChange> batch = new ArrayList<StateChange>();
+                    // Only read up to the changes that have been flushed, as the last line may not be complete
+                    long wanted = offset;
+                    String line;
+                    while( batch.size() < maxBatch && wanted < end && ( line = catchUp.readLine() ) != null )
+                    {
+                        if( line.length() == 0 )
+                        {
+                            continue;
+                        }
+                        StateChange change = StateChange.fromJSON( line );
+                        if( change.offset() >= offset )
+                        {
+                            batch.add( change );
+                            wanted = change.offset() + 1;
+                        }
+                    }
+                    if( batch.isEmpty() || batch.get( 0 ).offset() != offset )
+                    {
+                        logger.warn( "Changes from offset " + offset + " are not in the log, closing subscription" );
+                        return null;
+                    }
+                    return batch;
+                }
+                catch( IOException e )
+                {
+                    logger.warn( "Could not read change log, closing subscription", e );
+                    return null;
+                }
+            }
+
+            private void deliver( List<StateChange> batch )
+                throws InterruptedException
+            {
+                while( !closed )
+                {
+                    try
+                    {
+                        listener.notifyChanges( batch );
+                        synchronized( lock )
+                        {
+                            offset = batch.get( batch.size() - 1 ).offset() + 1;
+                            lock.notifyAll();
+                        }
+                        return;
+                    }
+                    catch( RuntimeException e )
+                    {
+                        logger.warn( "Listener failed on changes from offset " + offset + ", retrying", e );
+                        Thread.sleep( 100 );
+                    }
+                }
+            }
+
+            private void closeCatchUp()
+            {
+                if( catchUp != null )
+                {
+                    try
+                    {
+                        catchUp.close();
+                    }
+                    catch( IOException e )
+                    {
+                        // Ignore
+                    }
+                    catchUp = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import java.util.List;
+
+/**
+ * Consumer of a {@link ChangeStream}. Changes are delivered in commit order on a thread owned by
+ * the subscription, so a slow listener does not delay the committing UnitOfWork.
+ */
+public interface ChangeStreamListener
+{
+    /**
+     * Receive the next batch of changes. If this throws an exception the same batch is delivered again.
+     *
+     * @param changes committed changes, ordered by offset
+     */
+    void notifyChanges( List<StateChange> changes );
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import java.io.File;
+
+/**
+ * Set an instance of this as MetaInfo on a {@link ChangeStreamService} to tune how changes are kept.
+ * <p>
+ * Options: <br/>
+ * "capacity": number of changes kept in memory<br/>
+ * "blockTimeout": maximum number of milliseconds a committer waits for the slowest subscriber when the
+ * buffer is full. After that the oldest changes are overwritten, and a subscriber that has not seen them
+ * has to read them from the log. The committer holds up the commits of other UnitOfWorks while it waits,
+ * so the default is 0, which never waits.<br/>
+ * "logFile": optional append-only log of all changes, written by a background thread. Without it, changes that have been overwritten
+ * in memory are lost, and subscriptions that need them are closed.
+ * </p>
+ */
+public final class ChangeStreamOptions
+{
+    public static final ChangeStreamOptions DEFAULT = new ChangeStreamOptions( 8192, 0, null );
+
+    private final int capacity;
+    private final long blockTimeout;
+    private final File logFile;
+
+    public ChangeStreamOptions( int capacity, long blockTimeout, File logFile )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "Capacity must be at least 1" );
+        }
+        if( blockTimeout < 0 )
+        {
+            throw new IllegalArgumentException( "Timeout may not be negative" );
+        }
+        this.capacity = capacity;
+        this.blockTimeout = blockTimeout;
+        this.logFile = logFile;
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public long blockTimeout()
+    {
+        return blockTimeout;
+    }
+
+    public File logFile()
+    {
+        return logFile;
+    }
+}
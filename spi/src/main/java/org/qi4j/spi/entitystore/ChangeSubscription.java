@@ -0,0 +1,29 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+/**
+ * Handle of a {@link ChangeStreamListener} that has subscribed to a {@link ChangeStream}.
+ */
+public interface ChangeSubscription
+{
+    /**
+     * @return offset of the next change to be delivered. Store this to resume from after a restart.
+     */
+    long offset();
+
+    /**
+     * Stop delivery. A batch that is being delivered is completed first.
+     */
+    void close();
+}
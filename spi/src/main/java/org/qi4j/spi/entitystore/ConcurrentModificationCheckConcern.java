@@ -21,12 +21,10 @@ import org.qi4j.api.entity.EntityReference;
 import org.qi4j.api.injection.scope.Structure;
 import org.qi4j.api.injection.scope.This;
 import org.qi4j.api.structure.Module;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
 import org.qi4j.api.usecase.Usecase;
 import org.qi4j.spi.entity.EntityState;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Concern that helps EntityStores do concurrent modification checks.
  * <p/>
@@ -35,6 +33,9 @@ import java.util.List;
  * not have to go down to the underlying store to get the current version.
  * Whenever there is a concurrent modification the store will most likely
  * have to check with the underlying store what the current version is.
+ * <p/>
+ * If {@link UnitOfWorkOptions#getMaxCleanEntities()} is set, then loaded state that has been
+ * evicted without being changed is not checked, but its version is still forgotten.
  */
 public abstract class ConcurrentModificationCheckConcern
     extends ConcernOf<EntityStore>
@@ -48,28 +49,39 @@ public abstract class ConcurrentModificationCheckConcern
     public EntityStoreUnitOfWork newUnitOfWork( Usecase usecase, Module module, long currentTime )
     {
         final EntityStoreUnitOfWork uow = next.newUnitOfWork( usecase, module, currentTime );
-        return new ConcurrentCheckingEntityStoreUnitOfWork( uow, api.dereference( versions ), module, currentTime );
+
+        // A read-only UnitOfWork cannot cause concurrent modifications
+        UnitOfWorkOptions options = usecase.metaInfo( UnitOfWorkOptions.class );
+        if( options != null && options.isReadOnly() )
+        {
+            return uow;
+        }
+
+        int maxCleanStates = options == null ? 0 : options.getMaxCleanEntities();
+        return new ConcurrentCheckingEntityStoreUnitOfWork( uow, api.dereference( versions ), module, currentTime, maxCleanStates );
     }
 
     private class ConcurrentCheckingEntityStoreUnitOfWork
-        implements EntityStoreUnitOfWork
+        implements EntityStoreUnitOfWork, EntityStoreUnitOfWorkGauges
     {
         private final EntityStoreUnitOfWork uow;
         private EntityStateVersions versions;
         private Module module;
         private long currentTime;
 
-        private List<EntityState> loaded = new ArrayList<EntityState>();
+        private LoadedEntityStates loaded;
 
         public ConcurrentCheckingEntityStoreUnitOfWork( EntityStoreUnitOfWork uow,
                                                         EntityStateVersions versions,
                                                         Module module,
-                                                        long currentTime )
+                                                        long currentTime,
+                                                        int maxCleanStates )
         {
             this.uow = uow;
             this.versions = versions;
             this.module = module;
             this.currentTime = currentTime;
+            this.loaded = new LoadedEntityStates( maxCleanStates );
         }
 
         public String identity()
@@ -101,13 +113,13 @@ public abstract class ConcurrentModificationCheckConcern
                 public void commit()
                 {
                     committer.commit();
-                    versions.forgetVersions( loaded );
+                    forgetVersions();
                 }
 
                 public void cancel()
                 {
                     committer.cancel();
-                    versions.forgetVersions( loaded );
+                    forgetVersions();
                 }
             };
         }
@@ -120,16 +132,41 @@ public abstract class ConcurrentModificationCheckConcern
             }
             finally
             {
-                versions.forgetVersions( loaded );
+                forgetVersions();
             }
         }
 
+        public int stateCount()
+        {
+            if( uow instanceof EntityStoreUnitOfWorkGauges )
+            {
+                return ( (EntityStoreUnitOfWorkGauges) uow ).stateCount();
+            }
+            return loaded.size();
+        }
+
+        public long evictedStateCount()
+        {
+            if( uow instanceof EntityStoreUnitOfWorkGauges )
+            {
+                return ( (EntityStoreUnitOfWorkGauges) uow ).evictedStateCount();
+            }
+            return loaded.evictions();
+        }
+
+        private void forgetVersions()
+        {
+            versions.forgetVersions( loaded );
+            // Iterating does not give the evicted states that have been collected
+            versions.forgetVersionsOf( loaded.evictedIdentities() );
+        }
+
         public EntityState getEntityState( EntityReference anIdentity )
             throws EntityStoreException, EntityNotFoundException
         {
             EntityState entityState = uow.getEntityState( anIdentity );
             versions.rememberVersion( entityState.identity(), entityState.version() );
-            loaded.add( entityState );
+            loaded.addLoaded( entityState );
             return entityState;
         }
     }
@@ -17,23 +17,29 @@ package org.qi4j.spi.entitystore;
 import org.qi4j.api.entity.EntityDescriptor;
 import org.qi4j.api.entity.EntityReference;
 import org.qi4j.api.structure.Module;
+import org.qi4j.api.unitofwork.UnitOfWorkOptions;
 import org.qi4j.api.usecase.Usecase;
 import org.qi4j.spi.entity.EntityState;
 
-import java.util.LinkedList;
-
 /**
- * JAVADOC
+ * EntityStoreUnitOfWork that remembers all created and loaded states, and gives them to the EntityStore when
+ * changes are applied.
+ * <p>
+ * If {@link UnitOfWorkOptions#getMaxCleanEntities()} is set in the Usecase, then only that many loaded states are
+ * remembered, and the least recently loaded ones are only weakly referenced if they have not been changed. A state
+ * that is still used by an entity is not garbage collected, so changes that are made to it later are still applied.
+ * </p>
  */
 public final class DefaultEntityStoreUnitOfWork
-    implements EntityStoreUnitOfWork
+    implements EntityStoreUnitOfWork, EntityStoreUnitOfWorkGauges
 {
     private EntityStoreSPI entityStoreSPI;
     private String identity;
     private Module module;
-    private LinkedList<EntityState> states = new LinkedList<EntityState>();
+    private LoadedEntityStates states;
     private Usecase usecase;
     private long currentTime;
+    private boolean readOnly;
 
     public DefaultEntityStoreUnitOfWork( EntityStoreSPI entityStoreSPI,
                                          String identity,
@@ -46,6 +52,9 @@ public final class DefaultEntityStoreUnitOfWork
         this.module = module;
         this.usecase = usecase;
         this.currentTime = currentTime;
+        UnitOfWorkOptions options = usecase.metaInfo( UnitOfWorkOptions.class );
+        this.readOnly = options != null && options.isReadOnly();
+        this.states = new LoadedEntityStates( options == null ? 0 : options.getMaxCleanEntities() );
     }
 
     public String identity()
@@ -74,7 +83,7 @@ public final class DefaultEntityStoreUnitOfWork
         throws EntityStoreException
     {
         EntityState state = entityStoreSPI.newEntityState( this, anIdentity, descriptor );
-        states.add( state );
+        states.addNew( state );
         return state;
     }
 
@@ -82,7 +91,11 @@ public final class DefaultEntityStoreUnitOfWork
         throws EntityStoreException, EntityNotFoundException
     {
         EntityState entityState = entityStoreSPI.getEntityState( this, anIdentity );
-        states.add( entityState );
+        if( !readOnly )
+        {
+            // Nothing can change in a read-only UnitOfWork, so there is no need to remember what was loaded
+            states.addLoaded( entityState );
+        }
         return entityState;
     }
 
@@ -92,6 +105,16 @@ public final class DefaultEntityStoreUnitOfWork
         return entityStoreSPI.applyChanges( this, states );
     }
 
+    public int stateCount()
+    {
+        return states.size();
+    }
+
+    public long evictedStateCount()
+    {
+        return states.evictions();
+    }
+
     public void discard()
     {
     }
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.qi4j.io.Input;
+import org.qi4j.io.Output;
+import org.qi4j.io.Receiver;
+import org.qi4j.io.Sender;
+import org.qi4j.spi.entity.EntityState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One partition of a scan of the entity states in a store, see {@link PartitionedEntityStore}.
+ * The entities of a partition are those whose identity hash is mapped to the partition by
+ * {@link #partitionOf(String, int)}, and they are sent in order of identity. The partition remembers
+ * the identity of the last entity that the receiver has accepted, which is used for checkpoints.
+ */
+public final class EntityStatePartition
+    implements Input<EntityState, EntityStoreException>
+{
+    private final int partition;
+    private final Input<EntityState, EntityStoreException> states;
+    private volatile String lastIdentity;
+
+    public EntityStatePartition( int partition, String lastIdentity, Input<EntityState, EntityStoreException> states )
+    {
+        this.partition = partition;
+        this.lastIdentity = lastIdentity;
+        this.states = states;
+    }
+
+    public int partition()
+    {
+        return partition;
+    }
+
+    /**
+     * @return the identity of the last entity accepted by a receiver, or null if none has been accepted
+     */
+    public String lastIdentity()
+    {
+        return lastIdentity;
+    }
+
+    public <ReceiverThrowableType extends Throwable> void transferTo( final Output<? super EntityState, ReceiverThrowableType> output )
+        throws EntityStoreException, ReceiverThrowableType
+    {
+        states.transferTo( new Output<EntityState, ReceiverThrowableType>()
+        {
+            public <SenderThrowableType extends Throwable> void receiveFrom( final Sender<? extends EntityState, SenderThrowableType> sender )
+                throws ReceiverThrowableType, SenderThrowableType
+            {
+                output.receiveFrom( new Sender<EntityState, SenderThrowableType>()
+                {
+                    public <ReceiverThrowableType extends Throwable> void sendTo( final Receiver<? super EntityState, ReceiverThrowableType> receiver )
+                        throws ReceiverThrowableType, SenderThrowableType
+                    {
+                        sender.sendTo( new Receiver<EntityState, ReceiverThrowableType>()
+                        {
+                            public void receive( EntityState item )
+                                throws ReceiverThrowableType
+                            {
+                                receiver.receive( item );
+                                lastIdentity = item.identity().identity();
+                            }
+                        } );
+                    }
+                } );
+            }
+        } );
+    }
+
+    /**
+     * Get the partition of an entity.
+     *
+     * @param identity   the identity of the entity
+     * @param partitions the number of partitions
+     *
+     * @return the partition, from 0 to partitions - 1
+     */
+    public static int partitionOf( String identity, int partitions )
+    {
+        return ( identity.hashCode() & Integer.MAX_VALUE ) % partitions;
+    }
+
+    /**
+     * Create a checkpoint of the progress of a scan. A scan that is resumed from the checkpoint
+     * sends the entities after the last accepted entity of each partition.
+     *
+     * @param partitions all the partitions of the scan
+     *
+     * @return checkpoint token
+     */
+    public static String checkpoint( Iterable<EntityStatePartition> partitions )
+    {
+        JSONArray checkpoint = new JSONArray();
+        for( EntityStatePartition partition : partitions )
+        {
+            String identity = partition.lastIdentity();
+            checkpoint.put( identity == null ? JSONObject.NULL : identity );
+        }
+        return checkpoint.toString();
+    }
+
+    /**
+     * Parse a checkpoint.
+     *
+     * @param checkpoint checkpoint token from {@link #checkpoint(Iterable)}
+     * @param partitions the number of partitions of the scan
+     *
+     * @return the identity of the last accepted entity of each partition, or null for partitions without accepted entities
+     *
+     * @throws IllegalArgumentException if the checkpoint is not for the given number of partitions
+     */
+    public static List<String> parseCheckpoint( String checkpoint, int partitions )
+    {
+        try
+        {
+            JSONArray identities = new JSONArray( checkpoint );
+            if( identities.length() != partitions )
+            {
+                throw new IllegalArgumentException( "Checkpoint is for " + identities.length() + " partitions, not " + partitions );
+            }
+
+            List<String> lastIdentities = new ArrayList<String>( partitions );
+            for( int i = 0; i < partitions; i++ )
+            {
+                lastIdentities.add( identities.isNull( i ) ? null : identities.getString( i ) );
+            }
+            return lastIdentities;
+        }
+        catch( JSONException e )
+        {
+            throw new IllegalArgumentException( "Invalid checkpoint: " + checkpoint, e );
+        }
+    }
+}
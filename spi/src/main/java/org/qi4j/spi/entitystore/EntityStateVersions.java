@@ -35,6 +35,8 @@ public interface EntityStateVersions
 {
     void forgetVersions( Iterable<EntityState> states );
 
+    void forgetVersionsOf( Iterable<EntityReference> identities );
+
     void rememberVersion( EntityReference identity, String version );
 
     void checkForConcurrentModification( Iterable<EntityState> loaded, Module module, long currentTime )
@@ -56,6 +58,14 @@ public interface EntityStateVersions
             }
         }
 
+        public synchronized void forgetVersionsOf( Iterable<EntityReference> identities )
+        {
+            for( EntityReference identity : identities )
+            {
+                versions.remove( identity );
+            }
+        }
+
         public synchronized void rememberVersion( EntityReference identity, String version )
         {
             versions.put( identity, version );
@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+/**
+ * Implemented by EntityStoreUnitOfWorks that can report how many states they keep. Wrappers of an
+ * EntityStoreUnitOfWork should delegate to the wrapped one, so that the runtime can include the counts in
+ * {@link org.qi4j.api.unitofwork.UnitOfWorkGauges}.
+ */
+public interface EntityStoreUnitOfWorkGauges
+{
+    /**
+     * @return number of states that are strongly referenced by the UnitOfWork
+     */
+    int stateCount();
+
+    /**
+     * @return number of loaded states that have been evicted because there were more than the max clean entities
+     */
+    long evictedStateCount();
+}
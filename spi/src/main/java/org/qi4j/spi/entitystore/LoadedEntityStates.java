@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * States that an EntityStoreUnitOfWork has created or loaded. If the number of clean states is bounded, then
+ * the least recently used states beyond the bound are only weakly referenced if they have not been changed.
+ * A state is used when it is loaded. The UnitOfWork caches the entities it has loaded, so a state is only
+ * loaded again after the UnitOfWork has cleared out its entity. Iterating gives all states that are strongly
+ * referenced, and the evicted ones that are still in use and have been changed.
+ */
+final class LoadedEntityStates
+    implements Iterable<EntityState>
+{
+    private final int maxCleanStates;
+    private final LinkedList<EntityState> states = new LinkedList<EntityState>();
+    private final LinkedHashMap<EntityReference, EntityState> cleanStates = new LinkedHashMap<EntityReference, EntityState>( 16, 0.75f, true );
+    private final Map<EntityReference, EvictedState> evictedStates = new HashMap<EntityReference, EvictedState>();
+    private final ReferenceQueue<EntityState> evictedQueue = new ReferenceQueue<EntityState>();
+    private final Set<EntityReference> evictedIdentities = new HashSet<EntityReference>();
+    private long evictions;
+
+    /**
+     * @param maxCleanStates max number of clean states to reference strongly, or 0 for no bound
+     */
+    LoadedEntityStates( int maxCleanStates )
+    {
+        this.maxCleanStates = maxCleanStates;
+    }
+
+    void addNew( EntityState entityState )
+    {
+        states.add( entityState );
+    }
+
+    void addLoaded( EntityState entityState )
+    {
+        if( maxCleanStates > 0 )
+        {
+            EntityReference identity = entityState.identity();
+            keepChanged( cleanStates.put( identity, entityState ), entityState );
+            EvictedState evictedState = evictedStates.remove( identity );
+            if( evictedState != null )
+            {
+                keepChanged( evictedState.get(), entityState );
+            }
+            evict();
+        }
+        else
+        {
+            states.add( entityState );
+        }
+    }
+
+    public Iterator<EntityState> iterator()
+    {
+        if( maxCleanStates == 0 )
+        {
+            return states.iterator();
+        }
+
+        List<EntityState> loaded = new LinkedList<EntityState>( states );
+        loaded.addAll( cleanStates.values() );
+        for( EvictedState evictedState : evictedStates.values() )
+        {
+            EntityState entityState = evictedState.get();
+            if( entityState != null && entityState.status() != EntityStatus.LOADED )
+            {
+                loaded.add( entityState );
+            }
+        }
+        return loaded.iterator();
+    }
+
+    /**
+     * @return number of states that are strongly referenced
+     */
+    int size()
+    {
+        return states.size() + cleanStates.size();
+    }
+
+    /**
+     * @return number of clean states that have been evicted
+     */
+    long evictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return identities of all clean states that have been evicted, including the ones that iterating does not give
+     */
+    Iterable<EntityReference> evictedIdentities()
+    {
+        return evictedIdentities;
+    }
+
+    /**
+     * Keep a state that has been replaced by a newly loaded one, if it has been changed.
+     */
+    private void keepChanged( EntityState replaced, EntityState entityState )
+    {
+        if( replaced != null && replaced != entityState && replaced.status() != EntityStatus.LOADED )
+        {
+            states.add( replaced );
+        }
+    }
+
+    private void evict()
+    {
+        Reference<? extends EntityState> collected;
+        while( ( collected = evictedQueue.poll() ) != null )
+        {
+            EvictedState evictedState = (EvictedState) collected;
+            if( evictedStates.get( evictedState.identity ) == evictedState )
+            {
+                evictedStates.remove( evictedState.identity );
+            }
+        }
+
+        Iterator<Map.Entry<EntityReference, EntityState>> eldest = cleanStates.entrySet().iterator();
+        while( cleanStates.size() > maxCleanStates )
+        {
+            Map.Entry<EntityReference, EntityState> entry = eldest.next();
+            eldest.remove();
+            EntityState entityState = entry.getValue();
+            if( entityState.status() == EntityStatus.LOADED )
+            {
+                evictedStates.put( entry.getKey(), new EvictedState( entry.getKey(), entityState, evictedQueue ) );
+                evictedIdentities.add( entry.getKey() );
+                evictions++;
+            }
+            else
+            {
+                // Changed states are always kept
+                states.add( entityState );
+            }
+        }
+    }
+
+    private static final class EvictedState
+        extends WeakReference<EntityState>
+    {
+        private final EntityReference identity;
+
+        private EvictedState( EntityReference identity, EntityState entityState, ReferenceQueue<EntityState> queue )
+        {
+            super( entityState, queue );
+            this.identity = identity;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.structure.Module;
+
+import java.util.List;
+
+/**
+ * EntityStores that can scan their entities in partitions, which can be transferred concurrently,
+ * for reindexing and migration of large stores. The progress of a scan is kept in a checkpoint,
+ * from which an interrupted scan can be resumed. See {@link EntityStatePartition}.
+ */
+public interface PartitionedEntityStore
+{
+    /**
+     * Get Inputs for the entity states in the store, split into partitions. The store may return fewer
+     * partitions than requested if it can not split its entities.
+     *
+     * @param module     the module to use for the entity descriptors
+     * @param partitions the number of partitions
+     * @param checkpoint a checkpoint from a previous scan with the same number of partitions, to resume that scan,
+     *                   or null to scan all entities. See {@link EntityStatePartition#checkpoint(Iterable)}.
+     *
+     * @return the partitions
+     *
+     * @throws IllegalArgumentException if the checkpoint is not valid for the partitions, or the store can not resume scans
+     */
+    List<EntityStatePartition> entityStates( Module module, int partitions, @Optional String checkpoint );
+}
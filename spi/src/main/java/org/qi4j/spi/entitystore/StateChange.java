@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.qi4j.spi.entity.EntityStatus;
+
+/**
+ * Snapshot of one committed entity change, as recorded by a {@link ChangeStream}. The offset is the
+ * position of the change in the stream, and is used by consumers to resume delivery.
+ */
+public final class StateChange
+{
+    private final long offset;
+    private final String identity;
+    private final EntityStatus status;
+    private final String entityType;
+    private final String version;
+    private final long lastModified;
+
+    public StateChange( long offset,
+                        String identity,
+                        EntityStatus status,
+                        String entityType,
+                        String version,
+                        long lastModified
+    )
+    {
+        this.offset = offset;
+        this.identity = identity;
+        this.status = status;
+        this.entityType = entityType;
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+    public long offset()
+    {
+        return offset;
+    }
+
+    public String identity()
+    {
+        return identity;
+    }
+
+    /**
+     * @return NEW, UPDATED or REMOVED
+     */
+    public EntityStatus status()
+    {
+        return status;
+    }
+
+    public String entityType()
+    {
+        return entityType;
+    }
+
+    public String version()
+    {
+        return version;
+    }
+
+    public long lastModified()
+    {
+        return lastModified;
+    }
+
+    String toJSON()
+    {
+        try
+        {
+            return new JSONObject()
+                .put( "offset", offset )
+                .put( "identity", identity )
+                .put( "status", status.name() )
+                .put( "type", entityType )
+                .put( "version", version )
+                .put( "modified", lastModified )
+                .toString();
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( e );
+        }
+    }
+
+    static StateChange fromJSON( String line )
+    {
+        try
+        {
+            JSONObject json = new JSONObject( line );
+            return new StateChange( json.getLong( "offset" ),
+                                    json.getString( "identity" ),
+                                    EntityStatus.valueOf( json.getString( "status" ) ),
+                                    json.getString( "type" ),
+                                    json.optString( "version", null ),
+                                    json.getLong( "modified" ) );
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( "Could not read change from log:" + line, e );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return offset + ":" + status + ":" + identity + "(" + version + ")";
+    }
+}
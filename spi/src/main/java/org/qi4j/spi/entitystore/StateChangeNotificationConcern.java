@@ -19,7 +19,9 @@ import org.qi4j.api.injection.scope.Service;
 import org.qi4j.spi.entity.EntityState;
 
 /**
- * JAVADOC
+ * Notifies {@link StateChangeListener} services of the changes of a UnitOfWork before they are committed,
+ * and records them in the {@link ChangeStream} services and notifies {@link StateCommitListener} services
+ * after they have been committed.
  */
 public abstract class StateChangeNotificationConcern
     extends ConcernOf<EntityStoreSPI>
@@ -28,6 +30,12 @@ public abstract class StateChangeNotificationConcern
     @Service
     Iterable<StateChangeListener> listeners;
 
+    @Service
+    Iterable<ChangeStream> changeStreams;
+
+    @Service
+    Iterable<StateCommitListener> commitListeners;
+
     public StateCommitter applyChanges( final EntityStoreUnitOfWork unitofwork,
                                         final Iterable<EntityState> state
     )
@@ -42,6 +50,14 @@ public abstract class StateChangeNotificationConcern
                     listener.notifyChanges( state );
                 }
                 committer.commit();
+                for( ChangeStream changeStream : changeStreams )
+                {
+                    changeStream.record( unitofwork.identity(), unitofwork.currentTime(), state );
+                }
+                for( StateCommitListener commitListener : commitListeners )
+                {
+                    commitListener.notifyCommitted( state );
+                }
             }
 
             public void cancel()
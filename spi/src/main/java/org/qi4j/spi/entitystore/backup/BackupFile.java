@@ -0,0 +1,557 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import org.qi4j.io.Input;
+import org.qi4j.io.Inputs;
+import org.qi4j.io.Output;
+import org.qi4j.io.Receiver;
+import org.qi4j.io.Sender;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary backup files, made of compressed blocks of {@link BackupRecord}s.
+ * <p/>
+ * The file starts with a magic header. Each block has a header with the compressed and uncompressed
+ * length of the block, a CRC32 checksum of the uncompressed data, the number of records and the lowest
+ * and highest identity in the block. Each record in a block is the identity and the state, as
+ * length-prefixed UTF-8, where removed entities have no state. After the last block there is an index
+ * of the block offsets and a trailer.
+ * <p/>
+ * Blocks can be read in parallel with {@link #blocks(File, String, String)}, and blocks that
+ * don't contain identities in a requested range are skipped without being decompressed. This works
+ * best if the records are written in identity order, so that each block covers a narrow range.
+ */
+public final class BackupFile
+{
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final byte[] MAGIC = { 'Q', 'I', '4', 'J', 'B', 'A', 'K', '1' };
+    private static final int END_OF_BLOCKS = -1;
+    private static final int NULL_LENGTH = -1;
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private BackupFile()
+    {
+    }
+
+    /**
+     * Write records to a backup file with the default block size.
+     *
+     * @param file
+     *
+     * @return
+     */
+    public static Output<BackupRecord, IOException> output( File file )
+    {
+        return output( file, DEFAULT_BLOCK_SIZE );
+    }
+
+    /**
+     * Write records to a backup file. The file is first written to a temporary file, which replaces
+     * the file when all records have been written. If the writing or sending of data fails the
+     * temporary file is deleted.
+     *
+     * @param file
+     * @param blockSize uncompressed size of the blocks. Larger blocks compress better, and smaller blocks
+     *                  make partial reads faster.
+     *
+     * @return
+     */
+    public static Output<BackupRecord, IOException> output( final File file, final int blockSize )
+    {
+        return new Output<BackupRecord, IOException>()
+        {
+            public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends BackupRecord, SenderThrowableType> sender )
+                throws IOException, SenderThrowableType
+            {
+                File tmpFile = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+                final BlockWriter writer = new BlockWriter( new FileOutputStream( tmpFile ), blockSize );
+
+                try
+                {
+                    sender.sendTo( new Receiver<BackupRecord, IOException>()
+                    {
+                        public void receive( BackupRecord item )
+                            throws IOException
+                        {
+                            writer.write( item );
+                        }
+                    } );
+                    writer.close();
+
+                    // Replace file with temporary file
+                    if( !file.exists() || file.delete() )
+                    {
+                        if( !tmpFile.renameTo( file ) )
+                        {
+                            throw new IOException( "Could not rename " + tmpFile + " to " + file );
+                        }
+                    }
+                }
+                catch( IOException e )
+                {
+                    // We failed writing - close and delete
+                    writer.abort();
+                    tmpFile.delete();
+                    throw e;
+                }
+                catch( Throwable senderThrowableType )
+                {
+                    // We failed writing - close and delete
+                    writer.abort();
+                    tmpFile.delete();
+
+                    throw (SenderThrowableType) senderThrowableType;
+                }
+            }
+        };
+    }
+
+    /**
+     * Read all records in a backup file.
+     *
+     * @param file
+     *
+     * @return
+     */
+    public static Input<BackupRecord, IOException> input( File file )
+    {
+        return input( file, null, null );
+    }
+
+    /**
+     * Read the records in a backup file whose identities are in the given range. Blocks without
+     * identities in the range are skipped.
+     *
+     * @param file
+     * @param fromIdentity first identity in the range, inclusive, or null for no lower bound
+     * @param toIdentity   last identity in the range, exclusive, or null for no upper bound
+     *
+     * @return
+     */
+    public static Input<BackupRecord, IOException> input( final File file,
+                                                          final String fromIdentity,
+                                                          final String toIdentity
+    )
+    {
+        return new Input<BackupRecord, IOException>()
+        {
+            public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super BackupRecord, ReceiverThrowableType> output )
+                throws IOException, ReceiverThrowableType
+            {
+                final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+                try
+                {
+                    readMagic( in, file );
+                    output.receiveFrom( new Sender<BackupRecord, IOException>()
+                    {
+                        public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super BackupRecord, ReceiverThrowableType> receiver )
+                            throws ReceiverThrowableType, IOException
+                        {
+                            boolean more;
+                            do
+                            {
+                                more = readBlock( in, file, fromIdentity, toIdentity, receiver );
+                            }
+                            while( more );
+                        }
+                    } );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Read a full backup followed by incremental backups, in the order they were made. Restoring the
+     * records with {@link RecordBackupRestore#restoreRecords()} gives the state of the store when the
+     * last incremental backup was made.
+     *
+     * @param full         file with a full backup
+     * @param incrementals files with incremental backups, see {@link RecordBackupRestore#backupRecords(long)}
+     *
+     * @return
+     */
+    public static Input<BackupRecord, IOException> chain( File full, File... incrementals )
+    {
+        List<Input<BackupRecord, IOException>> inputs = new ArrayList<Input<BackupRecord, IOException>>();
+        inputs.add( input( full ) );
+        for( File incremental : incrementals )
+        {
+            inputs.add( input( incremental ) );
+        }
+        return Inputs.combine( inputs );
+    }
+
+    /**
+     * Get Inputs for the blocks in a backup file that have records with identities in the given
+     * range. The Inputs may be used by different threads, to read the backup in parallel.
+     *
+     * @param file
+     * @param fromIdentity first identity in the range, inclusive, or null for no lower bound
+     * @param toIdentity   last identity in the range, exclusive, or null for no upper bound
+     *
+     * @return Inputs for the blocks, in the order of the file
+     *
+     * @throws IOException if the file could not be read, or is not a complete backup file
+     */
+    public static List<Input<BackupRecord, IOException>> blocks( final File file,
+                                                                 final String fromIdentity,
+                                                                 final String toIdentity
+    )
+        throws IOException
+    {
+        List<Input<BackupRecord, IOException>> blocks = new ArrayList<Input<BackupRecord, IOException>>();
+
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try
+        {
+            readMagic( in, file );
+
+            // Trailer is the offset of the index, followed by the magic
+            in.seek( in.length() - 8 - MAGIC.length );
+            long indexOffset = in.readLong();
+            readMagic( in, file );
+
+            in.seek( indexOffset );
+            long[] offsets = new long[ in.readInt() ];
+            for( int i = 0; i < offsets.length; i++ )
+            {
+                offsets[ i ] = in.readLong();
+            }
+
+            for( final long offset : offsets )
+            {
+                in.seek( offset );
+                BlockHeader header = new BlockHeader( in );
+                if( header.overlaps( fromIdentity, toIdentity ) )
+                {
+                    blocks.add( new Input<BackupRecord, IOException>()
+                    {
+                        public <ReceiverThrowableType extends Throwable> void transferTo( Output<? super BackupRecord, ReceiverThrowableType> output )
+                            throws IOException, ReceiverThrowableType
+                        {
+                            FileInputStream stream = new FileInputStream( file );
+                            stream.getChannel().position( offset );
+                            final DataInputStream blockIn = new DataInputStream( new BufferedInputStream( stream ) );
+
+                            try
+                            {
+                                output.receiveFrom( new Sender<BackupRecord, IOException>()
+                                {
+                                    public <ReceiverThrowableType extends Throwable> void sendTo( Receiver<? super BackupRecord, ReceiverThrowableType> receiver )
+                                        throws ReceiverThrowableType, IOException
+                                    {
+                                        readBlock( blockIn, file, fromIdentity, toIdentity, receiver );
+                                    }
+                                } );
+                            }
+                            finally
+                            {
+                                blockIn.close();
+                            }
+                        }
+                    } );
+                }
+            }
+        }
+        catch( EOFException e )
+        {
+            throw new IOException( "Incomplete backup file " + file, e );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return blocks;
+    }
+
+    private static void readMagic( DataInput in, File file )
+        throws IOException
+    {
+        byte[] magic = new byte[ MAGIC.length ];
+        in.readFully( magic );
+        if( !Arrays.equals( magic, MAGIC ) )
+        {
+            throw new IOException( file + " is not a backup file" );
+        }
+    }
+
+    private static <ReceiverThrowableType extends Throwable> boolean readBlock( DataInputStream in,
+                                                                                File file,
+                                                                                String fromIdentity,
+                                                                                String toIdentity,
+                                                                                Receiver<? super BackupRecord, ReceiverThrowableType> receiver
+    )
+        throws IOException, ReceiverThrowableType
+    {
+        BlockHeader header = new BlockHeader( in );
+        if( header.compressedLength == END_OF_BLOCKS )
+        {
+            return false;
+        }
+
+        if( !header.overlaps( fromIdentity, toIdentity ) )
+        {
+            int skip = header.compressedLength;
+            while( skip > 0 )
+            {
+                int skipped = in.skipBytes( skip );
+                if( skipped == 0 )
+                {
+                    throw new EOFException( "Incomplete backup file " + file );
+                }
+                skip -= skipped;
+            }
+            return true;
+        }
+
+        byte[] compressed = new byte[ header.compressedLength ];
+        in.readFully( compressed );
+
+        byte[] data = new byte[ header.length ];
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput( compressed );
+            if( inflater.inflate( data ) != data.length || !inflater.finished() )
+            {
+                throw new IOException( "Corrupt block in backup file " + file );
+            }
+        }
+        catch( DataFormatException e )
+        {
+            throw new IOException( "Corrupt block in backup file " + file, e );
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update( data );
+        if( checksum.getValue() != header.checksum )
+        {
+            throw new IOException( "Checksum mismatch in backup file " + file );
+        }
+
+        DataInputStream records = new DataInputStream( new ByteArrayInputStream( data ) );
+        for( int i = 0; i < header.records; i++ )
+        {
+            String identity = readString( records );
+            if( BackupRecord.isInRange( identity, fromIdentity, toIdentity ) )
+            {
+                receiver.receive( new BackupRecord( identity, readString( records ) ) );
+            }
+            else
+            {
+                records.skipBytes( Math.max( records.readInt(), 0 ) );
+            }
+        }
+        return true;
+    }
+
+    private static String readString( DataInput in )
+        throws IOException
+    {
+        int length = in.readInt();
+        if( length == NULL_LENGTH )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[ length ];
+        in.readFully( bytes );
+        return new String( bytes, UTF8 );
+    }
+
+    private static void writeString( DataOutput out, String value )
+        throws IOException
+    {
+        if( value == null )
+        {
+            // State of removed entities
+            out.writeInt( NULL_LENGTH );
+            return;
+        }
+
+        byte[] bytes = value.getBytes( UTF8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static class BlockHeader
+    {
+        private final int compressedLength;
+        private int length;
+        private long checksum;
+        private int records;
+        private String lowestIdentity;
+        private String highestIdentity;
+
+        private BlockHeader( DataInput in )
+            throws IOException
+        {
+            compressedLength = in.readInt();
+            if( compressedLength != END_OF_BLOCKS )
+            {
+                length = in.readInt();
+                checksum = in.readLong();
+                records = in.readInt();
+                lowestIdentity = in.readUTF();
+                highestIdentity = in.readUTF();
+            }
+        }
+
+        private boolean overlaps( String fromIdentity, String toIdentity )
+        {
+            return ( toIdentity == null || lowestIdentity.compareTo( toIdentity ) < 0 )
+                   && ( fromIdentity == null || highestIdentity.compareTo( fromIdentity ) >= 0 );
+        }
+    }
+
+    private static class BlockWriter
+    {
+        private final DataOutputStream out;
+        private final int blockSize;
+        private final List<Long> offsets = new ArrayList<Long>();
+        private long position;
+
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final DataOutputStream blockOut = new DataOutputStream( block );
+        private int records;
+        private String lowestIdentity;
+        private String highestIdentity;
+
+        private BlockWriter( OutputStream out, int blockSize )
+            throws IOException
+        {
+            this.out = new DataOutputStream( new BufferedOutputStream( out ) );
+            this.blockSize = blockSize;
+            this.out.write( MAGIC );
+            position = MAGIC.length;
+        }
+
+        private void write( BackupRecord record )
+            throws IOException
+        {
+            String identity = record.identity();
+            writeString( blockOut, identity );
+            writeString( blockOut, record.state() );
+
+            records++;
+            if( lowestIdentity == null || identity.compareTo( lowestIdentity ) < 0 )
+            {
+                lowestIdentity = identity;
+            }
+            if( highestIdentity == null || identity.compareTo( highestIdentity ) > 0 )
+            {
+                highestIdentity = identity;
+            }
+
+            if( block.size() >= blockSize )
+            {
+                writeBlock();
+            }
+        }
+
+        private void writeBlock()
+            throws IOException
+        {
+            byte[] data = block.toByteArray();
+
+            CRC32 checksum = new CRC32();
+            checksum.update( data );
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream( data.length / 2 + 64 );
+            Deflater deflater = new Deflater();
+            try
+            {
+                deflater.setInput( data );
+                deflater.finish();
+                byte[] buffer = new byte[ 8192 ];
+                while( !deflater.finished() )
+                {
+                    compressed.write( buffer, 0, deflater.deflate( buffer ) );
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerOut = new DataOutputStream( header );
+            headerOut.writeInt( compressed.size() );
+            headerOut.writeInt( data.length );
+            headerOut.writeLong( checksum.getValue() );
+            headerOut.writeInt( records );
+            headerOut.writeUTF( lowestIdentity );
+            headerOut.writeUTF( highestIdentity );
+
+            offsets.add( position );
+            header.writeTo( out );
+            compressed.writeTo( out );
+            position += header.size() + compressed.size();
+
+            block.reset();
+            records = 0;
+            lowestIdentity = null;
+            highestIdentity = null;
+        }
+
+        private void close()
+            throws IOException
+        {
+            if( records > 0 )
+            {
+                writeBlock();
+            }
+            out.writeInt( END_OF_BLOCKS );
+            position += 4;
+
+            // Index of block offsets
+            out.writeInt( offsets.size() );
+            for( Long offset : offsets )
+            {
+                out.writeLong( offset );
+            }
+
+            // Trailer
+            out.writeLong( position );
+            out.write( MAGIC );
+            out.close();
+        }
+
+        private void abort()
+            throws IOException
+        {
+            out.close();
+        }
+    }
+}
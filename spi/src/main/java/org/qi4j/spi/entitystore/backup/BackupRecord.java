@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.qi4j.functional.Function;
+import org.qi4j.spi.entitystore.EntityStoreException;
+import org.qi4j.spi.entitystore.helpers.MapEntityStore;
+
+/**
+ * The serialized state of one entity in a backup, together with the identity of the entity,
+ * so that the state does not have to be parsed to find out which entity it belongs to. In incremental
+ * backups, entities that have been removed have records without state.
+ */
+public final class BackupRecord
+{
+    private final String identity;
+    private final String state;
+
+    /**
+     * Create a record for a removed entity, which is used in incremental backups.
+     *
+     * @param identity identity of the removed entity
+     *
+     * @return record without state
+     */
+    public static BackupRecord removed( String identity )
+    {
+        return new BackupRecord( identity, null );
+    }
+
+    public BackupRecord( String identity, String state )
+    {
+        this.identity = identity;
+        this.state = state;
+    }
+
+    public String identity()
+    {
+        return identity;
+    }
+
+    /**
+     * @return the state of the entity, or null if the entity was removed
+     */
+    public String state()
+    {
+        return state;
+    }
+
+    public boolean isRemoved()
+    {
+        return state == null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return identity;
+    }
+
+    /**
+     * Check if an identity is in a range of identities. Identities are compared as Strings.
+     *
+     * @param identity
+     * @param fromIdentity first identity in the range, inclusive, or null for no lower bound
+     * @param toIdentity   last identity in the range, exclusive, or null for no upper bound
+     *
+     * @return true if the identity is in the range
+     */
+    public static boolean isInRange( String identity, String fromIdentity, String toIdentity )
+    {
+        return ( fromIdentity == null || identity.compareTo( fromIdentity ) >= 0 )
+               && ( toIdentity == null || identity.compareTo( toIdentity ) < 0 );
+    }
+
+    /**
+     * Function that creates records from the JSON states of {@link org.qi4j.spi.entitystore.BackupRestore#backup()}.
+     *
+     * @return function that parses the identity from the state
+     */
+    public static Function<String, BackupRecord> fromState()
+    {
+        return new Function<String, BackupRecord>()
+        {
+            public BackupRecord map( String state )
+            {
+                try
+                {
+                    JSONObject entity = (JSONObject) new JSONTokener( state ).nextValue();
+                    return new BackupRecord( entity.getString( MapEntityStore.JSONKeys.identity.name() ), state );
+                }
+                catch( JSONException e )
+                {
+                    throw new EntityStoreException( e );
+                }
+            }
+        };
+    }
+
+    /**
+     * Function that gets the states of records, for {@link org.qi4j.spi.entitystore.BackupRestore#restore()}.
+     * Records of removed entities have no state, so incremental backups can not be restored this way.
+     *
+     * @return function that gets the state of records
+     */
+    public static Function<BackupRecord, String> toState()
+    {
+        return new Function<BackupRecord, String>()
+        {
+            public String map( BackupRecord record )
+            {
+                return record.state();
+            }
+        };
+    }
+}
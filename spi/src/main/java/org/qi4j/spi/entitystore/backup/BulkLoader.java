@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Loader of records into an EntityStore, used by {@link BulkRestore}. The records are split into
+ * partitions by identity, and the partitions are loaded concurrently. Loaders don't have to check
+ * if entities exist or send change notifications, as the loaded records replace the whole content of the
+ * store when the load is committed.
+ */
+public interface BulkLoader
+{
+    /**
+     * Load a batch of records. Each partition is only loaded by one thread at a time, but different
+     * partitions are loaded concurrently.
+     *
+     * @param partition the partition of the records
+     * @param records   the records to load
+     *
+     * @throws IOException if the records could not be loaded
+     */
+    void load( int partition, List<BackupRecord> records )
+        throws IOException;
+
+    /**
+     * Make all the loaded records visible, replacing the previous content of the store. This is
+     * called once, after all partitions have been loaded.
+     *
+     * @throws IOException if the records could not be committed
+     */
+    void commit()
+        throws IOException;
+
+    /**
+     * Discard the loaded records. The previous content of the store is kept.
+     */
+    void abort();
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import org.qi4j.io.Output;
+import org.qi4j.io.Receiver;
+import org.qi4j.io.Sender;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Restore of backups with a {@link BulkLoader}. The records are split into partitions by the hash of
+ * their identity, and each partition is loaded by its own thread. When all records have been loaded the
+ * load is committed, which is the only point where the restored records become visible.
+ */
+public final class BulkRestore
+{
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // Number of batches that may wait for each partition, before the sender is blocked
+    private static final int QUEUED_BATCHES = 4;
+
+    private static final List<BackupRecord> END = Collections.emptyList();
+
+    private BulkRestore()
+    {
+    }
+
+    /**
+     * Restore records with a BulkLoader. If the transfer fails the load is aborted.
+     *
+     * @param loader     the loader for the store to restore
+     * @param partitions number of partitions, which is the number of threads used to load records
+     * @param batchSize  number of records that are loaded at a time
+     *
+     * @return
+     */
+    public static Output<BackupRecord, IOException> output( final BulkLoader loader,
+                                                            final int partitions,
+                                                            final int batchSize
+    )
+    {
+        if( partitions < 1 || batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Partitions and batch size must be at least 1" );
+        }
+
+        return new Output<BackupRecord, IOException>()
+        {
+            public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends BackupRecord, SenderThrowableType> sender )
+                throws IOException, SenderThrowableType
+            {
+                ExecutorService executor = Executors.newFixedThreadPool( partitions, new BulkRestoreThreadFactory() );
+                boolean committed = false;
+                try
+                {
+                    final List<BlockingQueue<List<BackupRecord>>> queues = new ArrayList<BlockingQueue<List<BackupRecord>>>();
+                    final List<Future<?>> loads = new ArrayList<Future<?>>();
+                    for( int i = 0; i < partitions; i++ )
+                    {
+                        BlockingQueue<List<BackupRecord>> queue = new ArrayBlockingQueue<List<BackupRecord>>( QUEUED_BATCHES );
+                        queues.add( queue );
+                        loads.add( executor.submit( new PartitionLoad( loader, i, queue ) ) );
+                    }
+
+                    final List<List<BackupRecord>> batches = new ArrayList<List<BackupRecord>>();
+                    for( int i = 0; i < partitions; i++ )
+                    {
+                        batches.add( new ArrayList<BackupRecord>( batchSize ) );
+                    }
+
+                    sender.sendTo( new Receiver<BackupRecord, IOException>()
+                    {
+                        public void receive( BackupRecord item )
+                            throws IOException
+                        {
+                            int partition = ( item.identity().hashCode() & Integer.MAX_VALUE ) % partitions;
+                            List<BackupRecord> batch = batches.get( partition );
+                            batch.add( item );
+                            if( batch.size() >= batchSize )
+                            {
+                                put( queues.get( partition ), batch, loads.get( partition ) );
+                                batches.set( partition, new ArrayList<BackupRecord>( batchSize ) );
+                            }
+                        }
+                    } );
+
+                    for( int i = 0; i < partitions; i++ )
+                    {
+                        List<BackupRecord> batch = batches.get( i );
+                        if( !batch.isEmpty() )
+                        {
+                            put( queues.get( i ), batch, loads.get( i ) );
+                        }
+                        put( queues.get( i ), END, loads.get( i ) );
+                    }
+
+                    // Barrier - all partitions must be loaded before the load is committed
+                    for( Future<?> load : loads )
+                    {
+                        await( load );
+                    }
+
+                    loader.commit();
+                    committed = true;
+                }
+                finally
+                {
+                    executor.shutdownNow();
+                    if( !committed )
+                    {
+                        loader.abort();
+                    }
+                }
+            }
+        };
+    }
+
+    // Wait for the partition to accept the batch, unless it has failed
+    private static void put( BlockingQueue<List<BackupRecord>> queue, List<BackupRecord> batch, Future<?> load )
+        throws IOException
+    {
+        try
+        {
+            while( !queue.offer( batch, 100, TimeUnit.MILLISECONDS ) )
+            {
+                if( load.isDone() )
+                {
+                    await( load );
+                }
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Restore was interrupted", e );
+        }
+    }
+
+    private static void await( Future<?> load )
+        throws IOException
+    {
+        try
+        {
+            load.get();
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Restore was interrupted", e );
+        }
+        catch( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            else if( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IOException( "Could not load partition", cause );
+        }
+    }
+
+    private static class PartitionLoad
+        implements Callable<Object>
+    {
+        private final BulkLoader loader;
+        private final int partition;
+        private final BlockingQueue<List<BackupRecord>> queue;
+
+        private PartitionLoad( BulkLoader loader, int partition, BlockingQueue<List<BackupRecord>> queue )
+        {
+            this.loader = loader;
+            this.partition = partition;
+            this.queue = queue;
+        }
+
+        public Object call()
+            throws Exception
+        {
+            List<BackupRecord> batch;
+            while( ( batch = queue.take() ) != END )
+            {
+                loader.load( partition, batch );
+            }
+            return null;
+        }
+    }
+
+    private static class BulkRestoreThreadFactory
+        implements ThreadFactory
+    {
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "qi4j-bulk-restore-" + threadCount.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
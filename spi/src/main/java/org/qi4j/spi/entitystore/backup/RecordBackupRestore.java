@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.backup;
+
+import org.qi4j.api.common.Optional;
+import org.qi4j.io.Input;
+import org.qi4j.io.Output;
+import org.qi4j.spi.entitystore.BackupRestore;
+
+import java.io.IOException;
+
+/**
+ * Backups and restores of EntityStores that know the identity of each state, so that
+ * states don't have to be parsed. Use with {@link BackupFile} to write and read backups.
+ */
+public interface RecordBackupRestore
+    extends BackupRestore
+{
+    /**
+     * Input that allows data from the entity store to be backed up. Records should be in identity order,
+     * so that identity ranges can be read from a {@link BackupFile} without reading all blocks.
+     *
+     * @return
+     */
+    Input<BackupRecord, IOException> backupRecords();
+
+    /**
+     * Input for an incremental backup, with the entities that have been created, updated or removed
+     * since the given time. Removed entities have records without state. Changes are stamped with the time
+     * when they were committed to the store, so use the time when the previous backup was started, and no
+     * changes are missed.
+     *
+     * @param since time in milliseconds, as from System.currentTimeMillis()
+     *
+     * @return
+     */
+    Input<BackupRecord, IOException> backupRecords( long since );
+
+    /**
+     * Forget entities that were removed before the given time, so that they are not in incremental
+     * backups any more. Use the time when the oldest full backup that is kept was started.
+     *
+     * @param before time in milliseconds, as from System.currentTimeMillis()
+     */
+    void pruneRemovals( long before );
+
+    /**
+     * Output that allows all data to be restored from a backup. Entities that are not in the backup are removed.
+     * The backup may be a full backup followed by incremental backups, see {@link BackupFile#chain(java.io.File, java.io.File...)}.
+     */
+    Output<BackupRecord, IOException> restoreRecords();
+
+    /**
+     * Output that allows the entities with identities in the given range to be restored from a backup.
+     * Entities in the range that are not in the backup are removed, and entities outside the range are not changed.
+     *
+     * @param fromIdentity first identity in the range, inclusive, or null for no lower bound
+     * @param toIdentity   last identity in the range, exclusive, or null for no upper bound
+     */
+    Output<BackupRecord, IOException> restoreRecords( @Optional String fromIdentity, @Optional String toIdentity );
+
+    /**
+     * Output that applies an incremental backup to the current data. Entities that are not in the backup
+     * are not changed.
+     */
+    Output<BackupRecord, IOException> applyRecords();
+
+    /**
+     * Output that restores all data from a backup in bulk-load mode. The records are loaded concurrently
+     * in the given number of partitions, without existence checks, and replace the content of the store
+     * when all records have been loaded. See {@link BulkRestore}.
+     *
+     * @param partitions number of partitions that are loaded concurrently
+     */
+    Output<BackupRecord, IOException> bulkRestore( int partitions );
+}
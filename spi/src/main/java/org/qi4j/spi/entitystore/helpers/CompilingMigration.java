@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+/**
+ * Migration that can compile the rules between two application versions into a {@link MigrationChain}.
+ * The MapEntityStore helpers compile each pair of versions once and keep the chain, instead of finding
+ * the rules again for every entity that is read.
+ * <p>
+ * This is opt-in: a Migration service that does not implement this interface is called for every state that
+ * is read, as before.
+ * </p>
+ */
+public interface CompilingMigration
+    extends Migration
+{
+    /**
+     * Compile the rules for migrating states from one application version to another.
+     *
+     * @param fromVersion the application version of stored states
+     * @param toVersion   the current application version
+     *
+     * @return the chain of rules, or null if there are no rules between the versions
+     */
+    MigrationChain compile( String fromVersion, String toVersion );
+}
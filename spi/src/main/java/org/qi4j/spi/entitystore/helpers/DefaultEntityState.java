@@ -16,6 +16,7 @@
  */
 package org.qi4j.spi.entitystore.helpers;
 
+import org.json.JSONObject;
 import org.qi4j.api.common.QualifiedName;
 import org.qi4j.api.entity.EntityComposite;
 import org.qi4j.api.entity.EntityDescriptor;
@@ -49,6 +50,9 @@ public final class DefaultEntityState
     protected final Map<QualifiedName, EntityReference> associations;
     protected final Map<QualifiedName, List<EntityReference>> manyAssociations;
 
+    private EntityStateChanges changes;
+    private JSONObject originalState;
+
     public DefaultEntityState( DefaultEntityStoreUnitOfWork unitOfWork,
                                EntityReference identity,
                                EntityDescriptor entityDescriptor
@@ -84,6 +88,7 @@ public final class DefaultEntityState
         this.properties = properties;
         this.associations = associations;
         this.manyAssociations = manyAssociations;
+        this.changes = status == EntityStatus.LOADED ? new EntityStateChanges() : null;
     }
 
     // EntityState implementation
@@ -111,6 +116,10 @@ public final class DefaultEntityState
     public void setProperty( QualifiedName stateName, Object newValue )
     {
         properties.put( stateName, newValue );
+        if( changes != null )
+        {
+            changes.propertyChanged( stateName );
+        }
         markUpdated();
     }
 
@@ -122,6 +131,10 @@ public final class DefaultEntityState
     public void setAssociation( QualifiedName stateName, EntityReference newEntity )
     {
         associations.put( stateName, newEntity );
+        if( changes != null )
+        {
+            changes.associationChanged( stateName );
+        }
         markUpdated();
     }
 
@@ -133,7 +146,7 @@ public final class DefaultEntityState
             manyAssociationState = new ArrayList<EntityReference>();
             manyAssociations.put( stateName, manyAssociationState );
         }
-        return new DefaultManyAssociationState( this, manyAssociationState );
+        return new DefaultManyAssociationState( this, stateName, manyAssociationState );
     }
 
     public void copyTo( DefaultEntityState entityState )
@@ -162,6 +175,10 @@ public final class DefaultEntityState
         // Set version and timestamp
         entityState.version = version;
         entityState.lastModified = lastModified;
+
+        // Everything has been replaced, so the state has to be written in full
+        entityState.changes = null;
+        entityState.originalState = null;
     }
 
     public void remove()
@@ -208,6 +225,16 @@ public final class DefaultEntityState
                manyAssociations.size() + " many-associations)";
     }
 
+    /**
+     * Get the changes that have been made since this state was loaded.
+     *
+     * @return the changes, or null if this state has to be written in full
+     */
+    public EntityStateChanges changes()
+    {
+        return changes;
+    }
+
     public void markUpdated()
     {
         if( status == EntityStatus.LOADED )
@@ -215,4 +242,28 @@ public final class DefaultEntityState
             status = EntityStatus.UPDATED;
         }
     }
+
+    /**
+     * Set the stored state that {@link MapEntityStoreMixin} compares with before writing an updated entity.
+     *
+     * @param originalState the state as it was stored, or null if it is not kept
+     */
+    void originalState( JSONObject originalState )
+    {
+        this.originalState = originalState;
+    }
+
+    JSONObject originalState()
+    {
+        return originalState;
+    }
+
+    void manyAssociationChanged( QualifiedName stateName )
+    {
+        if( changes != null )
+        {
+            changes.manyAssociationChanged( stateName );
+        }
+        markUpdated();
+    }
 }
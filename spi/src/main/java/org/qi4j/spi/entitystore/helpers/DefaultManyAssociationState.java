@@ -14,6 +14,7 @@
 
 package org.qi4j.spi.entitystore.helpers;
 
+import org.qi4j.api.common.QualifiedName;
 import org.qi4j.api.entity.EntityReference;
 import org.qi4j.spi.entity.ManyAssociationState;
 
@@ -27,11 +28,16 @@ public final class DefaultManyAssociationState
     implements ManyAssociationState
 {
     private DefaultEntityState entityState;
+    private QualifiedName stateName;
     private List<EntityReference> references;
 
-    public DefaultManyAssociationState( DefaultEntityState entityState, List<EntityReference> references )
+    public DefaultManyAssociationState( DefaultEntityState entityState,
+                                        QualifiedName stateName,
+                                        List<EntityReference> references
+    )
     {
         this.entityState = entityState;
+        this.stateName = stateName;
         this.references = references;
     }
 
@@ -53,14 +59,14 @@ public final class DefaultManyAssociationState
         }
 
         references.add( i, entityReference );
-        entityState.markUpdated();
+        entityState.manyAssociationChanged( stateName );
         return true;
     }
 
     public boolean remove( EntityReference entity )
     {
         boolean removed = references.remove( entity );
-        entityState.markUpdated();
+        entityState.manyAssociationChanged( stateName );
         return removed;
     }
 
@@ -91,7 +97,7 @@ public final class DefaultManyAssociationState
             public void remove()
             {
                 iter.remove();
-                entityState.markUpdated();
+                entityState.manyAssociationChanged( stateName );
             }
         };
     }
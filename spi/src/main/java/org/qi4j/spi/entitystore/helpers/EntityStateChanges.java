@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.qi4j.api.common.QualifiedName;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Names of the properties, associations and many-associations that have been changed
+ * in a loaded EntityState. Used to write only the changed parts of an updated entity.
+ */
+public final class EntityStateChanges
+{
+    private final Set<QualifiedName> properties = new LinkedHashSet<QualifiedName>();
+    private final Set<QualifiedName> associations = new LinkedHashSet<QualifiedName>();
+    private final Set<QualifiedName> manyAssociations = new LinkedHashSet<QualifiedName>();
+
+    void propertyChanged( QualifiedName name )
+    {
+        properties.add( name );
+    }
+
+    void associationChanged( QualifiedName name )
+    {
+        associations.add( name );
+    }
+
+    void manyAssociationChanged( QualifiedName name )
+    {
+        manyAssociations.add( name );
+    }
+
+    public Set<QualifiedName> properties()
+    {
+        return Collections.unmodifiableSet( properties );
+    }
+
+    public Set<QualifiedName> associations()
+    {
+        return Collections.unmodifiableSet( associations );
+    }
+
+    public Set<QualifiedName> manyAssociations()
+    {
+        return Collections.unmodifiableSet( manyAssociations );
+    }
+
+    public boolean isEmpty()
+    {
+        return properties.isEmpty() && associations.isEmpty() && manyAssociations.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "properties:" + properties + ", associations:" + associations + ", manyassociations:" + manyAssociations;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.qi4j.api.concern.ConcernOf;
+import org.qi4j.api.injection.scope.This;
+
+import java.io.IOException;
+
+/**
+ * Concern that groups the changes of concurrently committing UnitOfWorks into a single call
+ * to {@link MapEntityStore#applyChanges(MapEntityStore.MapChanges)}.
+ * <p>
+ * Add it to a service that uses a MapEntityStore mixin, such as:
+ * </p>
+ * <pre>
+ * &#64;Concerns( { GroupCommitConcern.class, StateChangeNotificationConcern.class, ConcurrentModificationCheckConcern.class } )
+ * </pre>
+ * <p>
+ * Batching is tuned with {@link GroupCommitOptions} set as MetaInfo on the service. The underlying
+ * MapEntityStore is assumed to apply each call atomically. If a batch fails, then the changes in it are
+ * applied again one by one, so that each committer gets the outcome of its own changes only.
+ * </p>
+ */
+public abstract class GroupCommitConcern
+    extends ConcernOf<MapEntityStore>
+    implements MapEntityStore
+{
+    @This
+    private GroupCommitQueue queue;
+
+    public void applyChanges( MapChanges changes )
+        throws IOException
+    {
+        queue.commit( changes, next );
+    }
+}
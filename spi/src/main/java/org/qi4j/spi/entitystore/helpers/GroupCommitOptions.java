@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+/**
+ * Set an instance of this as MetaInfo on a MapEntityStore service that uses {@link GroupCommitConcern}
+ * to tune how changes are grouped.
+ * <p>
+ * Options: <br/>
+ * "maxBatchSize": maximum number of MapChanges that are applied in one call to the underlying store<br/>
+ * "maxDelay": maximum number of milliseconds to wait for more committers before applying a batch. With 0
+ * only changes that arrive while a previous batch is being applied are grouped, which adds no latency.
+ * </p>
+ */
+public final class GroupCommitOptions
+{
+    public static final GroupCommitOptions DEFAULT = new GroupCommitOptions( 100, 0 );
+
+    private final int maxBatchSize;
+    private final long maxDelay;
+
+    public GroupCommitOptions( int maxBatchSize, long maxDelay )
+    {
+        if( maxBatchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Batch size must be at least 1" );
+        }
+        if( maxDelay < 0 )
+        {
+            throw new IllegalArgumentException( "Delay may not be negative" );
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+    }
+
+    public int maxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    public long maxDelay()
+    {
+        return maxDelay;
+    }
+}
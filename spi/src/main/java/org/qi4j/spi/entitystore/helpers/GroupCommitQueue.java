@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.qi4j.api.injection.scope.Uses;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.service.ServiceDescriptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Queue of pending MapChanges used by {@link GroupCommitConcern}.
+ * <p>
+ * There is no background thread. The first committer that finds no batch in progress becomes the
+ * leader: it collects the queued changes, applies them to the store in one call, and then wakes up
+ * all committers whose changes were part of the batch.
+ * </p>
+ */
+@Mixins( GroupCommitQueue.GroupCommitQueueMixin.class )
+public interface GroupCommitQueue
+{
+    /**
+     * Apply the given changes together with the changes of other concurrent committers. This blocks
+     * until the changes have been applied.
+     *
+     * @param changes the changes of one committer
+     * @param store   the store to apply the batch to
+     *
+     * @throws IOException if the changes of this committer could not be applied
+     */
+    void commit( MapEntityStore.MapChanges changes, MapEntityStore store )
+        throws IOException;
+
+    class GroupCommitQueueMixin
+        implements GroupCommitQueue
+    {
+        @Uses
+        private ServiceDescriptor descriptor;
+
+        private final Object lock = new Object();
+        private final LinkedList<PendingChanges> queue = new LinkedList<PendingChanges>();
+        private boolean committing;
+
+        public void commit( MapEntityStore.MapChanges changes, MapEntityStore store )
+            throws IOException
+        {
+            GroupCommitOptions options = options();
+            PendingChanges pending = new PendingChanges( changes );
+            boolean interrupted = false;
+
+            synchronized( lock )
+            {
+                queue.add( pending );
+                lock.notifyAll();
+            }
+
+            try
+            {
+                while( true )
+                {
+                    List<PendingChanges> batch;
+                    synchronized( lock )
+                    {
+                        while( !pending.done && committing )
+                        {
+                            try
+                            {
+                                lock.wait();
+                            }
+                            catch( InterruptedException e )
+                            {
+                                // The changes are queued already, so we have to wait for them
+                                interrupted = true;
+                            }
+                        }
+
+                        if( pending.done )
+                        {
+                            break;
+                        }
+
+                        // Become leader for the next batch
+                        committing = true;
+                        if( options.maxDelay() > 0 )
+                        {
+                            long deadline = System.currentTimeMillis() + options.maxDelay();
+                            long remaining = options.maxDelay();
+                            while( queue.size() < options.maxBatchSize() && remaining > 0 )
+                            {
+                                try
+                                {
+                                    lock.wait( remaining );
+                                }
+                                catch( InterruptedException e )
+                                {
+                                    interrupted = true;
+                                    break;
+                                }
+                                remaining = deadline - System.currentTimeMillis();
+                            }
+                        }
+
+                        batch = new ArrayList<PendingChanges>();
+                        while( !queue.isEmpty() && batch.size() < options.maxBatchSize() )
+                        {
+                            batch.add( queue.removeFirst() );
+                        }
+                    }
+
+                    try
+                    {
+                        applyBatch( batch, store );
+                    }
+                    finally
+                    {
+                        synchronized( lock )
+                        {
+                            for( PendingChanges pendingChanges : batch )
+                            {
+                                pendingChanges.done = true;
+                            }
+                            committing = false;
+                            lock.notifyAll();
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                if( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            pending.rethrow();
+        }
+
+        private void applyBatch( final List<PendingChanges> batch, MapEntityStore store )
+        {
+            if( batch.size() == 1 )
+            {
+                batch.get( 0 ).applyTo( store );
+                return;
+            }
+
+            try
+            {
+                store.applyChanges( new MapEntityStore.MapChanges()
+                {
+                    public void visitMap( MapEntityStore.MapChanger changer )
+                        throws IOException
+                    {
+                        for( PendingChanges pendingChanges : batch )
+                        {
+                            pendingChanges.changes.visitMap( changer );
+                        }
+                    }
+                } );
+            }
+            catch( Throwable e )
+            {
+                // Find out which of the changes caused the failure
+                for( PendingChanges pendingChanges : batch )
+                {
+                    pendingChanges.applyTo( store );
+                }
+            }
+        }
+
+        private GroupCommitOptions options()
+        {
+            GroupCommitOptions options = descriptor.metaInfo( GroupCommitOptions.class );
+            return options == null ? GroupCommitOptions.DEFAULT : options;
+        }
+
+        private static final class PendingChanges
+        {
+            private final MapEntityStore.MapChanges changes;
+            private boolean done;
+            private Throwable failure;
+
+            private PendingChanges( MapEntityStore.MapChanges changes )
+            {
+                this.changes = changes;
+            }
+
+            private void applyTo( MapEntityStore store )
+            {
+                try
+                {
+                    store.applyChanges( changes );
+                }
+                catch( Throwable e )
+                {
+                    failure = e;
+                }
+            }
+
+            private void rethrow()
+                throws IOException
+            {
+                if( failure instanceof IOException )
+                {
+                    throw (IOException) failure;
+                }
+                else if( failure instanceof RuntimeException )
+                {
+                    throw (RuntimeException) failure;
+                }
+                else if( failure instanceof Error )
+                {
+                    throw (Error) failure;
+                }
+                else if( failure != null )
+                {
+                    throw (IOException) new IOException( "Could not apply changes" ).initCause( failure );
+                }
+            }
+        }
+    }
+}
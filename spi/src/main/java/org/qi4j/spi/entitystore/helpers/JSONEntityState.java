@@ -64,6 +64,10 @@ public final class JSONEntityState
     private final EntityDescriptor entityDescriptor;
     protected JSONObject state;
 
+    private EntityStateChanges changes;
+    private boolean stateCloned;
+    private JSONObject originalState;
+
     public JSONEntityState( DefaultEntityStoreUnitOfWork unitOfWork,
                             EntityReference identity,
                             EntityDescriptor entityDescriptor,
@@ -94,6 +98,11 @@ public final class JSONEntityState
         this.status = status;
         this.entityDescriptor = entityDescriptor;
         this.state = state;
+        this.changes = status == EntityStatus.LOADED ? new EntityStateChanges() : null;
+
+        // Loaded state may be shared with the cache, so it is cloned before the first change
+        this.stateCloned = status == EntityStatus.NEW;
+        this.originalState = status == EntityStatus.LOADED ? state : null;
     }
 
     // EntityState implementation
@@ -161,6 +170,10 @@ public final class JSONEntityState
             }
             cloneStateIfGlobalStateLoaded();
             state.getJSONObject( JSON_KEY_PROPERTIES ).put( stateName.name(), jsonValue );
+            if( changes != null )
+            {
+                changes.propertyChanged( stateName );
+            }
             markUpdated();
         }
         catch( JSONException e )
@@ -171,13 +184,25 @@ public final class JSONEntityState
 
     private JSONObject cloneJSON( JSONObject jsonObject )
         throws JSONException
+    {
+        return new JSONObject( jsonObject, namesOf( jsonObject ) );
+    }
+
+    private String[] namesOf( JSONObject jsonObject )
     {
         String[] names = JSONObject.getNames( jsonObject );
-        if( names == null )
+        return names == null ? EMPTY_NAMES : names;
+    }
+
+    private JSONArray cloneJSON( JSONArray jsonArray )
+        throws JSONException
+    {
+        JSONArray clone = new JSONArray();
+        for( int i = 0; i < jsonArray.length(); i++ )
         {
-            names = EMPTY_NAMES;
+            clone.put( jsonArray.get( i ) );
         }
-        return new JSONObject( jsonObject, names );
+        return clone;
     }
 
     public EntityReference getAssociation( QualifiedName stateName )
@@ -207,6 +232,10 @@ public final class JSONEntityState
             cloneStateIfGlobalStateLoaded();
             state.getJSONObject( JSON_KEY_ASSOCIATIONS )
                 .put( stateName.name(), newEntity == null ? null : newEntity.identity() );
+            if( changes != null )
+            {
+                changes.associationChanged( stateName );
+            }
             markUpdated();
         }
         catch( JSONException e )
@@ -217,21 +246,7 @@ public final class JSONEntityState
 
     public ManyAssociationState getManyAssociation( QualifiedName stateName )
     {
-        try
-        {
-            JSONObject manyAssociations = state.getJSONObject( JSON_KEY_MANYASSOCIATIONS );
-            JSONArray jsonValues = manyAssociations.optJSONArray( stateName.name() );
-            if( jsonValues == null )
-            {
-                jsonValues = new JSONArray();
-                manyAssociations.put( stateName.name(), jsonValues );
-            }
-            return new JSONManyAssociationState( this, jsonValues );
-        }
-        catch( JSONException e )
-        {
-            throw new EntityStoreException( e );
-        }
+        return new JSONManyAssociationState( this, stateName );
     }
 
     public void remove()
@@ -266,6 +281,16 @@ public final class JSONEntityState
         return identity + "(" + state + ")";
     }
 
+    /**
+     * Get the changes that have been made since this state was loaded.
+     *
+     * @return the changes, or null if this state has to be written in full
+     */
+    public EntityStateChanges changes()
+    {
+        return changes;
+    }
+
     public void markUpdated()
     {
         if( status == EntityStatus.LOADED )
@@ -274,14 +299,56 @@ public final class JSONEntityState
         }
     }
 
-    boolean isStateNotCloned()
+    void manyAssociationChanged( QualifiedName stateName )
+    {
+        if( changes != null )
+        {
+            changes.manyAssociationChanged( stateName );
+        }
+        markUpdated();
+    }
+
+    JSONArray manyAssociationReferences( QualifiedName stateName )
+    {
+        try
+        {
+            JSONObject manyAssociations = state.getJSONObject( JSON_KEY_MANYASSOCIATIONS );
+            JSONArray jsonValues = manyAssociations.optJSONArray( stateName.name() );
+            if( jsonValues == null )
+            {
+                jsonValues = new JSONArray();
+                manyAssociations.put( stateName.name(), jsonValues );
+            }
+            return jsonValues;
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( e );
+        }
+    }
+
+    /**
+     * Set the state to compare with in {@link #isUnchanged()}. Used for states that were changed
+     * by migration when they were loaded.
+     *
+     * @param originalState the state as it was stored
+     */
+    void originalState( JSONObject originalState )
     {
-        return status == EntityStatus.LOADED;
+        this.originalState = originalState;
+    }
+
+    /**
+     * @return true if the state has the same content as when it was loaded
+     */
+    boolean isUnchanged()
+    {
+        return originalState != null && JSONStateSnapshot.isSameContent( originalState, state );
     }
 
     void cloneStateIfGlobalStateLoaded()
     {
-        if( isStateNotCloned() )
+        if( stateCloned )
         {
             return;
         }
@@ -291,11 +358,16 @@ public final class JSONEntityState
             JSONObject newProperties = cloneJSON( state.getJSONObject( JSON_KEY_PROPERTIES ) );
             JSONObject newAssoc = cloneJSON( state.getJSONObject( JSON_KEY_ASSOCIATIONS ) );
             JSONObject newManyAssoc = cloneJSON( state.getJSONObject( JSON_KEY_MANYASSOCIATIONS ) );
+            for( String name : namesOf( newManyAssoc ) )
+            {
+                newManyAssoc.put( name, cloneJSON( newManyAssoc.getJSONArray( name ) ) );
+            }
             JSONObject stateClone = new JSONObject( state, CLONE_NAMES );
             stateClone.put( JSON_KEY_PROPERTIES, newProperties );
             stateClone.put( JSON_KEY_ASSOCIATIONS, newAssoc );
             stateClone.put( JSON_KEY_MANYASSOCIATIONS, newManyAssoc );
             state = stateClone;
+            stateCloned = true;
         }
         catch( JSONException e )
         {
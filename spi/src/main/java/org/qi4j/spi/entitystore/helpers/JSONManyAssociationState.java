@@ -16,6 +16,7 @@ package org.qi4j.spi.entitystore.helpers;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.qi4j.api.common.QualifiedName;
 import org.qi4j.api.entity.EntityReference;
 import org.qi4j.spi.entity.ManyAssociationState;
 import org.qi4j.spi.entitystore.EntityStoreException;
@@ -30,23 +31,24 @@ public final class JSONManyAssociationState
     implements ManyAssociationState
 {
     private JSONEntityState entityState;
-    private JSONArray references;
+    private QualifiedName stateName;
 
-    public JSONManyAssociationState( JSONEntityState entityState, JSONArray references )
+    public JSONManyAssociationState( JSONEntityState entityState, QualifiedName stateName )
     {
         this.entityState = entityState;
-        this.references = references;
+        this.stateName = stateName;
     }
 
     public int count()
     {
-        return references.length();
+        return references().length();
     }
 
     public boolean contains( EntityReference entityReference )
     {
         try
         {
+            JSONArray references = references();
             for( int i = 0; i < references.length(); i++ )
             {
                 if( references.get( i ).equals( entityReference.identity() ) )
@@ -71,8 +73,8 @@ public final class JSONManyAssociationState
                 return false;
             }
             entityState.cloneStateIfGlobalStateLoaded();
-            references.insert( idx, entityReference.identity() );
-            entityState.markUpdated();
+            references().insert( idx, entityReference.identity() );
+            entityState.manyAssociationChanged( stateName );
             return true;
         }
         catch( JSONException e )
@@ -85,13 +87,14 @@ public final class JSONManyAssociationState
     {
         try
         {
+            JSONArray references = references();
             for( int i = 0; i < references.length(); i++ )
             {
                 if( references.get( i ).equals( entityReference.identity() ) )
                 {
                     entityState.cloneStateIfGlobalStateLoaded();
-                    references.remove( i );
-                    entityState.markUpdated();
+                    references().remove( i );
+                    entityState.manyAssociationChanged( stateName );
                     return true;
                 }
             }
@@ -107,7 +110,7 @@ public final class JSONManyAssociationState
     {
         try
         {
-            return new EntityReference( references.getString( i ) );
+            return new EntityReference( references().getString( i ) );
         }
         catch( JSONException e )
         {
@@ -123,14 +126,14 @@ public final class JSONManyAssociationState
 
             public boolean hasNext()
             {
-                return idx < references.length();
+                return idx < references().length();
             }
 
             public EntityReference next()
             {
                 try
                 {
-                    EntityReference ref = new EntityReference( references.getString( idx ) );
+                    EntityReference ref = new EntityReference( references().getString( idx ) );
                     idx++;
                     return ref;
                 }
@@ -146,4 +149,10 @@ public final class JSONManyAssociationState
             }
         };
     }
-}
\ No newline at end of file
+
+    private JSONArray references()
+    {
+        // The array is replaced when the entity state is cloned, so always look it up
+        return entityState.manyAssociationReferences( stateName );
+    }
+}
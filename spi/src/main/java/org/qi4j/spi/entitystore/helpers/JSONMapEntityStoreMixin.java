@@ -5,6 +5,7 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.qi4j.api.cache.CacheOptions;
 import org.qi4j.api.common.Optional;
+import org.qi4j.api.common.QualifiedName;
 import org.qi4j.api.entity.EntityDescriptor;
 import org.qi4j.api.entity.EntityReference;
 import org.qi4j.api.injection.scope.Service;
@@ -33,8 +34,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of EntityStore that works with an implementation of MapEntityStore. Implement
@@ -42,7 +45,7 @@ import java.util.UUID;
  * See {@link org.qi4j.entitystore.memory.MemoryMapEntityStoreMixin} for reference.
  */
 public class JSONMapEntityStoreMixin
-        implements EntityStore, EntityStoreSPI, StateStore, Activatable
+        implements EntityStore, EntityStoreSPI, PartitionedEntityStore, StateStore, Activatable
 {
     @This
     private MapEntityStore mapEntityStore;
@@ -56,6 +59,8 @@ public class JSONMapEntityStoreMixin
     @Optional
     @Service
     private Migration migration;
+    private final MigrationChains migrationChains = new MigrationChains();
+    private MigrationWriteBack migrationWriteBack;
 
     @Uses
     private ServiceDescriptor descriptor;
@@ -66,7 +71,7 @@ public class JSONMapEntityStoreMixin
     private Cache<CacheState> cache;
 
     protected String uuid;
-    private int count;
+    private final AtomicInteger count = new AtomicInteger();
 
     private Logger logger;
 
@@ -87,11 +92,19 @@ public class JSONMapEntityStoreMixin
         {
             cache = new NullCache<CacheState>();
         }
+
+        migrationWriteBack = MigrationWriteBack.start( mapEntityStore, migration, descriptor, logger );
     }
 
     public void passivate()
             throws Exception
     {
+        if( migrationWriteBack != null )
+        {
+            migrationWriteBack.stop();
+            migrationWriteBack = null;
+        }
+
         if( caching != null )
         {
             caching.returnCache( cache );
@@ -129,7 +142,7 @@ public class JSONMapEntityStoreMixin
         }
     }
 
-    public synchronized EntityState getEntityState( EntityStoreUnitOfWork unitOfWork, EntityReference identity )
+    public EntityState getEntityState( EntityStoreUnitOfWork unitOfWork, EntityReference identity )
     {
         EntityState state = fetchCachedState( identity, (DefaultEntityStoreUnitOfWork) unitOfWork );
         if( state != null )
@@ -139,6 +152,11 @@ public class JSONMapEntityStoreMixin
         // Get state
         Reader in = mapEntityStore.get( identity );
         JSONEntityState loadedState = readEntityState( (DefaultEntityStoreUnitOfWork) unitOfWork, in );
+        if( loadedState.status() == EntityStatus.UPDATED && migrationWriteBack != null && migrationWriteBack.isWriting() )
+        {
+            // Write the migrated state in the background, so that it is only migrated once
+            migrationWriteBack.add( identity, loadedState.entityDescriptor(), loadedState.version(), loadedState.state().toString() );
+        }
         if( doCacheOnRead( (DefaultEntityStoreUnitOfWork) unitOfWork ) )
         {
             cache.put( identity.identity(), new CacheState(loadedState.state()) );
@@ -167,6 +185,7 @@ public class JSONMapEntityStoreMixin
                             {
                                 options = CacheOptions.ALWAYS;
                             }
+                            WriteOptions writeOptions = writeOptions( uow );
 
                             for( EntityState entityState : state )
                             {
@@ -183,10 +202,25 @@ public class JSONMapEntityStoreMixin
                                     }
                                 } else if( state.status().equals( EntityStatus.UPDATED ) )
                                 {
-                                    Writer writer = changer.updateEntity( state.identity(),
-                                            state.entityDescriptor() );
-                                    writeEntityState( state, writer, unitOfWork.identity(), unitOfWork.currentTime() );
-                                    writer.close();
+                                    if( writeOptions.skipUnchanged() && state.isUnchanged() )
+                                    {
+                                        continue;
+                                    }
+
+                                    EntityStateChanges changes = state.changes();
+                                    if( changes != null && changer instanceof MapEntityStore.PatchingMapChanger )
+                                    {
+                                        Writer writer = ( (MapEntityStore.PatchingMapChanger) changer ).patchEntity( state.identity(),
+                                                state.entityDescriptor() );
+                                        writeEntityStatePatch( state, changes, writer, unitOfWork.identity(), unitOfWork.currentTime() );
+                                        writer.close();
+                                    } else
+                                    {
+                                        Writer writer = changer.updateEntity( state.identity(),
+                                                state.entityDescriptor() );
+                                        writeEntityState( state, writer, unitOfWork.identity(), unitOfWork.currentTime() );
+                                        writer.close();
+                                    }
                                     if( options.cacheOnWrite() )
                                     {
                                         cache.put( state.identity().identity(), new CacheState(state.state()) );
@@ -212,6 +246,39 @@ public class JSONMapEntityStoreMixin
     }
 
     public Input<EntityState, EntityStoreException> entityStates( final Module module )
+    {
+        return entityStates( module, mapEntityStore.entityStates() );
+    }
+
+    // PartitionedEntityStore
+
+    public List<EntityStatePartition> entityStates( Module module, int partitions, String checkpoint )
+    {
+        Input<Reader, IOException> states = mapEntityStore.entityStates();
+        if( !( states instanceof MapEntityStore.PartitionedEntityStates ) )
+        {
+            if( checkpoint != null )
+            {
+                throw new IllegalArgumentException( "Entity store " + descriptor.identity() + " can not resume scans" );
+            }
+            return Collections.singletonList( new EntityStatePartition( 0, null, entityStates( module, states ) ) );
+        }
+
+        List<String> lastIdentities = checkpoint == null ? null : EntityStatePartition.parseCheckpoint( checkpoint, partitions );
+        MapEntityStore.PartitionedEntityStates partitionedStates = (MapEntityStore.PartitionedEntityStates) states;
+        List<EntityStatePartition> entityStatePartitions = new ArrayList<EntityStatePartition>( partitions );
+        for( int i = 0; i < partitions; i++ )
+        {
+            String lastIdentity = lastIdentities == null ? null : lastIdentities.get( i );
+            Input<Reader, IOException> partitionStates = partitionedStates.partition( i, partitions, lastIdentity );
+            entityStatePartitions.add( new EntityStatePartition( i, lastIdentity, entityStates( module, partitionStates ) ) );
+        }
+        return entityStatePartitions;
+    }
+
+    private Input<EntityState, EntityStoreException> entityStates( final Module module,
+                                                                   final Input<Reader, IOException> states
+    )
     {
         return new Input<EntityState, EntityStoreException>()
         {
@@ -235,7 +302,7 @@ public class JSONMapEntityStoreMixin
 
                         try
                         {
-                            mapEntityStore.entityStates().transferTo( new Output<Reader, ReceiverThrowableType>()
+                            states.transferTo( new Output<Reader, ReceiverThrowableType>()
                             {
                                 @Override
                                 public <SenderThrowableType extends Throwable> void receiveFrom( Sender<? extends Reader, SenderThrowableType> sender ) throws ReceiverThrowableType, SenderThrowableType
@@ -305,7 +372,7 @@ public class JSONMapEntityStoreMixin
 
     protected String newUnitOfWorkId()
     {
-        return uuid + Integer.toHexString( count++ );
+        return uuid + Integer.toHexString( count.getAndIncrement() );
     }
 
     protected void writeEntityState( JSONEntityState state, Writer writer, String identity, long lastModified )
@@ -323,6 +390,46 @@ public class JSONMapEntityStoreMixin
         }
     }
 
+    protected void writeEntityStatePatch( JSONEntityState state,
+                                          EntityStateChanges changes,
+                                          Writer writer,
+                                          String identity,
+                                          long lastModified
+    )
+            throws EntityStoreException
+    {
+        try
+        {
+            JSONObject jsonState = state.state();
+            JSONObject patch = new JSONObject();
+            patch.put( JSONEntityState.JSON_KEY_IDENTITY, state.identity().identity() );
+            patch.put( JSONEntityState.JSON_KEY_VERSION, identity );
+            patch.put( JSONEntityState.JSON_KEY_MODIFIED, lastModified );
+            patch.put( JSONEntityState.JSON_KEY_PROPERTIES,
+                    patchOf( jsonState.getJSONObject( JSONEntityState.JSON_KEY_PROPERTIES ), changes.properties() ) );
+            patch.put( JSONEntityState.JSON_KEY_ASSOCIATIONS,
+                    patchOf( jsonState.getJSONObject( JSONEntityState.JSON_KEY_ASSOCIATIONS ), changes.associations() ) );
+            patch.put( JSONEntityState.JSON_KEY_MANYASSOCIATIONS,
+                    patchOf( jsonState.getJSONObject( JSONEntityState.JSON_KEY_MANYASSOCIATIONS ), changes.manyAssociations() ) );
+            writer.append( patch.toString() );
+        } catch( Exception e )
+        {
+            throw new EntityStoreException( "Could not store EntityState", e );
+        }
+    }
+
+    private JSONObject patchOf( JSONObject values, Iterable<QualifiedName> changed )
+            throws JSONException
+    {
+        JSONObject patch = new JSONObject();
+        for( QualifiedName name : changed )
+        {
+            Object value = values.opt( name.name() );
+            patch.put( name.name(), value == null ? JSONObject.NULL : value );
+        }
+        return patch;
+    }
+
     protected JSONEntityState readEntityState( DefaultEntityStoreUnitOfWork unitOfWork, Reader entityState )
             throws EntityStoreException
     {
@@ -331,6 +438,7 @@ public class JSONMapEntityStoreMixin
             Module module = unitOfWork.module();
             JSONObject jsonObject = new JSONObject( new JSONTokener( entityState ) );
             EntityStatus status = EntityStatus.LOADED;
+            JSONObject originalState = null;
 
             String version = jsonObject.getString( "version" );
             long modified = jsonObject.getLong( "modified" );
@@ -341,9 +449,14 @@ public class JSONMapEntityStoreMixin
                     "0.0" );
             if( !currentAppVersion.equals( application.version() ) )
             {
+                if( writeOptions( unitOfWork ).skipUnchanged() )
+                {
+                    originalState = JSONStateSnapshot.copyOf( jsonObject );
+                }
+
                 if( migration != null )
                 {
-                    migration.migrate( jsonObject, application.version(), this );
+                    migrationChains.migrate( migration, jsonObject, currentAppVersion, application.version(), this );
                 } else
                 {
                     // Do nothing - set version to be correct
@@ -366,7 +479,7 @@ public class JSONMapEntityStoreMixin
                 throw new EntityTypeNotFoundException( type );
             }
 
-            return new JSONEntityState( unitOfWork,
+            JSONEntityState state = new JSONEntityState( unitOfWork,
                     version,
                     modified,
                     EntityReference.parseEntityReference( identity ),
@@ -374,6 +487,11 @@ public class JSONMapEntityStoreMixin
                     entityDescriptor,
                     jsonObject
             );
+            if( originalState != null )
+            {
+                state.originalState( originalState );
+            }
+            return state;
         } catch( JSONException e )
         {
             throw new EntityStoreException( e );
@@ -406,7 +524,13 @@ public class JSONMapEntityStoreMixin
             {
                 String type = data.getString( "type" );
                 EntityDescriptor entityDescriptor = unitOfWork.module().entityDescriptor( type );
-                return new JSONEntityState( unitOfWork, identity, entityDescriptor, data );
+                return new JSONEntityState( unitOfWork,
+                        data.getString( "version" ),
+                        data.getLong( "modified" ),
+                        identity,
+                        EntityStatus.LOADED,
+                        entityDescriptor,
+                        data );
             } catch( JSONException e )
             {
                 // Should not be able to happen, unless internal error in the cache system.
@@ -422,6 +546,12 @@ public class JSONMapEntityStoreMixin
         return cacheOptions == null || cacheOptions.cacheOnRead();
     }
 
+    private WriteOptions writeOptions( DefaultEntityStoreUnitOfWork unitOfWork )
+    {
+        WriteOptions writeOptions = unitOfWork.usecase().metaInfo( WriteOptions.class );
+        return writeOptions == null ? WriteOptions.ALWAYS : writeOptions;
+    }
+
     private static class CacheState
             implements Externalizable
     {
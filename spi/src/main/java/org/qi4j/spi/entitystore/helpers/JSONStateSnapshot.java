@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.qi4j.spi.entitystore.EntityStoreException;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Comparison of stored JSON entity states, used to find out if an updated entity actually has to be written.
+ * The version, modification time and application version are not part of the comparison.
+ */
+final class JSONStateSnapshot
+{
+    private JSONStateSnapshot()
+    {
+    }
+
+    static JSONObject copyOf( JSONObject state )
+    {
+        try
+        {
+            return new JSONObject( state.toString() );
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( e );
+        }
+    }
+
+    static boolean isSameContent( JSONObject original, JSONObject current )
+    {
+        return isEqual( original.opt( JSONEntityState.JSON_KEY_TYPE ), current.opt( JSONEntityState.JSON_KEY_TYPE ) )
+               && isEqual( original.opt( JSONEntityState.JSON_KEY_PROPERTIES ),
+                           current.opt( JSONEntityState.JSON_KEY_PROPERTIES ) )
+               && isEqual( original.opt( JSONEntityState.JSON_KEY_ASSOCIATIONS ),
+                           current.opt( JSONEntityState.JSON_KEY_ASSOCIATIONS ) )
+               && isSameManyAssociations( original.optJSONObject( JSONEntityState.JSON_KEY_MANYASSOCIATIONS ),
+                                          current.optJSONObject( JSONEntityState.JSON_KEY_MANYASSOCIATIONS ) );
+    }
+
+    private static boolean isSameManyAssociations( JSONObject original, JSONObject current )
+    {
+        if( original == null || current == null )
+        {
+            return original == current;
+        }
+
+        // A missing many-association is the same as an empty one
+        for( String name : names( original, current ) )
+        {
+            JSONArray originalReferences = original.optJSONArray( name );
+            JSONArray currentReferences = current.optJSONArray( name );
+            if( !isEqual( originalReferences == null ? new JSONArray() : originalReferences,
+                          currentReferences == null ? new JSONArray() : currentReferences ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEqual( Object original, Object current )
+    {
+        // A missing value is the same as null
+        original = original == null ? JSONObject.NULL : original;
+        current = current == null ? JSONObject.NULL : current;
+
+        if( original instanceof JSONObject && current instanceof JSONObject )
+        {
+            JSONObject originalObject = (JSONObject) original;
+            JSONObject currentObject = (JSONObject) current;
+            for( String name : names( originalObject, currentObject ) )
+            {
+                if( !isEqual( originalObject.opt( name ), currentObject.opt( name ) ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if( original instanceof JSONArray && current instanceof JSONArray )
+        {
+            JSONArray originalArray = (JSONArray) original;
+            JSONArray currentArray = (JSONArray) current;
+            if( originalArray.length() != currentArray.length() )
+            {
+                return false;
+            }
+            for( int i = 0; i < originalArray.length(); i++ )
+            {
+                if( !isEqual( originalArray.opt( i ), currentArray.opt( i ) ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if( original instanceof Number && current instanceof Number )
+        {
+            // Parsed and serialized numbers may have different types
+            try
+            {
+                return JSONObject.numberToString( (Number) original )
+                    .equals( JSONObject.numberToString( (Number) current ) );
+            }
+            catch( JSONException e )
+            {
+                return false;
+            }
+        }
+        else
+        {
+            return original.equals( current );
+        }
+    }
+
+    private static Set<String> names( JSONObject first, JSONObject second )
+    {
+        Set<String> names = new HashSet<String>();
+        for( Iterator keys = first.keys(); keys.hasNext(); )
+        {
+            names.add( (String) keys.next() );
+        }
+        for( Iterator keys = second.keys(); keys.hasNext(); )
+        {
+            names.add( (String) keys.next() );
+        }
+        return names;
+    }
+}
@@ -68,4 +68,78 @@ public interface MapEntityStore
         void removeEntity( EntityReference ref, EntityDescriptor entityDescriptor )
             throws EntityNotFoundException;
     }
+
+    /**
+     * Optional extension of the Input returned by {@link MapEntityStore#entityStates()}, for stores that can
+     * read their entities in partitions. This is used by {@link JSONMapEntityStoreMixin} to implement
+     * {@link org.qi4j.spi.entitystore.PartitionedEntityStore}.
+     */
+    interface PartitionedEntityStates
+        extends Input<Reader, IOException>
+    {
+        /**
+         * Get an Input for the entities in one partition, as given by
+         * {@link org.qi4j.spi.entitystore.EntityStatePartition#partitionOf(String, int)}. The entities
+         * must be sent in order of identity, so that a scan can be resumed.
+         *
+         * @param partition     the partition
+         * @param partitions    the number of partitions
+         * @param afterIdentity only send entities whose identity is after this one, or null to send all
+         *
+         * @return Input of the entities in the partition
+         */
+        Input<Reader, IOException> partition( int partition, int partitions, String afterIdentity );
+    }
+
+    /**
+     * Optional extension of MapChanger for stores that can update parts of a stored entity.
+     * If the MapChanger passed to {@link MapChanges#visitMap(MapChanger)} implements this, then
+     * updated entities whose changes are known are written with {@link #patchEntity} instead
+     * of {@link MapChanger#updateEntity}.
+     */
+    interface PatchingMapChanger
+        extends MapChanger
+    {
+        /**
+         * Get a Writer for a patch of an existing entity. The patch is a JSON object with the same
+         * layout as a full state, but the "properties", "associations" and "manyassociations" objects
+         * only contain the entries that have changed. The store must replace those entries, and the
+         * "version" and "modified" values, in the stored state.
+         *
+         * @param ref              the entity to patch
+         * @param entityDescriptor the descriptor of the entity
+         *
+         * @return a Writer for the patch, which must be closed to apply it
+         *
+         * @throws IOException if the patch could not be started
+         */
+        Writer patchEntity( EntityReference ref, EntityDescriptor entityDescriptor )
+            throws IOException;
+    }
+
+    /**
+     * Optional extension of MapChanger for stores that can update an entity only if it has not been changed.
+     * Migrated states are only written back by {@link JSONMapEntityStoreMixin} and {@link MapEntityStoreMixin}
+     * if the MapChanger of the store implements this.
+     */
+    interface ConditionalMapChanger
+        extends MapChanger
+    {
+        /**
+         * Get a Writer for a new state of an existing entity, that is only written if the stored state has
+         * the given version. The store must check the version atomically with the changes of concurrent calls
+         * to {@link MapEntityStore#applyChanges(MapChanges)}. If the entity has been changed or removed the
+         * new state is ignored.
+         *
+         * @param ref              the entity to update
+         * @param entityDescriptor the descriptor of the entity
+         * @param version          the version that the stored state must have
+         *
+         * @return a Writer for the state, which must be closed to apply it
+         *
+         * @throws IOException if the update could not be started
+         */
+        Writer updateEntityIfVersion( EntityReference ref, EntityDescriptor entityDescriptor, String version )
+            throws IOException;
+    }
 }
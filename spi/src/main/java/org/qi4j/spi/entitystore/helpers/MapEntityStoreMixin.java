@@ -21,10 +21,13 @@ import org.qi4j.api.structure.Module;
 import org.qi4j.api.unitofwork.EntityTypeNotFoundException;
 import org.qi4j.api.usecase.Usecase;
 import org.qi4j.api.usecase.UsecaseBuilder;
+import org.qi4j.functional.Function;
 import org.qi4j.io.Input;
 import org.qi4j.io.Output;
+import org.qi4j.io.Outputs;
 import org.qi4j.io.Receiver;
 import org.qi4j.io.Sender;
+import org.qi4j.io.Transforms;
 import org.qi4j.spi.entity.EntityState;
 import org.qi4j.spi.entity.EntityStatus;
 import org.qi4j.spi.entitystore.*;
@@ -33,8 +36,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of EntityStore that works with an implementation of MapEntityStore. Implement
@@ -42,7 +47,7 @@ import java.util.*;
  * See {@link org.qi4j.entitystore.memory.MemoryMapEntityStoreMixin} for reference.
  */
 public class MapEntityStoreMixin
-    implements EntityStore, EntityStoreSPI, StateStore, Activatable
+    implements EntityStore, EntityStoreSPI, PartitionedEntityStore, StateStore, Activatable
 {
     @This
     private MapEntityStore mapEntityStore;
@@ -56,12 +61,14 @@ public class MapEntityStoreMixin
     @Optional
     @Service
     private Migration migration;
+    private final MigrationChains migrationChains = new MigrationChains();
+    private MigrationWriteBack migrationWriteBack;
 
     @Uses
     private ServiceDescriptor descriptor;
 
     protected String uuid;
-    private int count;
+    private final AtomicInteger count = new AtomicInteger();
 
     private Logger logger;
 
@@ -71,11 +78,18 @@ public class MapEntityStoreMixin
         uuid = UUID.randomUUID().toString() + "-";
 
         logger = LoggerFactory.getLogger( descriptor.identity() );
+
+        migrationWriteBack = MigrationWriteBack.start( mapEntityStore, migration, descriptor, logger );
     }
 
     public void passivate()
         throws Exception
     {
+        if( migrationWriteBack != null )
+        {
+            migrationWriteBack.stop();
+            migrationWriteBack = null;
+        }
     }
 
     // EntityStore
@@ -94,11 +108,20 @@ public class MapEntityStoreMixin
         return new DefaultEntityState( (DefaultEntityStoreUnitOfWork) unitOfWork, identity, entityDescriptor );
     }
 
-    public synchronized EntityState getEntityState( EntityStoreUnitOfWork unitofwork, EntityReference identity )
+    public EntityState getEntityState( EntityStoreUnitOfWork unitofwork, EntityReference identity )
     {
         DefaultEntityStoreUnitOfWork unitOfWork = (DefaultEntityStoreUnitOfWork) unitofwork;
         Reader in = mapEntityStore.get( identity );
-        return readEntityState( unitOfWork, in );
+        EntityState state = readEntityState( unitOfWork, in );
+        if( state.status() == EntityStatus.UPDATED && migrationWriteBack != null && migrationWriteBack.isWriting() )
+        {
+            // Write the migrated state in the background, so that it is only migrated once
+            DefaultEntityState migratedState = (DefaultEntityState) state;
+            StringWriter writer = new StringWriter();
+            writeEntityState( migratedState, writer, migratedState.version(), migratedState.lastModified() );
+            migrationWriteBack.add( identity, migratedState.entityDescriptor(), migratedState.version(), writer.toString() );
+        }
+        return state;
     }
 
     public StateCommitter applyChanges( final EntityStoreUnitOfWork unitofwork, final Iterable<EntityState> state
@@ -116,6 +139,7 @@ public class MapEntityStoreMixin
                         public void visitMap( MapEntityStore.MapChanger changer )
                             throws IOException
                         {
+                            WriteOptions writeOptions = writeOptions( (DefaultEntityStoreUnitOfWork) unitofwork );
                             for( EntityState entityState : state )
                             {
                                 DefaultEntityState state = (DefaultEntityState) entityState;
@@ -128,10 +152,26 @@ public class MapEntityStoreMixin
                                 }
                                 else if( state.status().equals( EntityStatus.UPDATED ) )
                                 {
-                                    Writer writer = changer.updateEntity( state.identity(),
-                                                                          state.entityDescriptor() );
-                                    writeEntityState( state, writer, unitofwork.identity(), unitofwork.currentTime() );
-                                    writer.close();
+                                    if( writeOptions.skipUnchanged() && isUnchanged( state ) )
+                                    {
+                                        continue;
+                                    }
+
+                                    EntityStateChanges changes = state.changes();
+                                    if( changes != null && changer instanceof MapEntityStore.PatchingMapChanger )
+                                    {
+                                        Writer writer = ( (MapEntityStore.PatchingMapChanger) changer ).patchEntity( state.identity(),
+                                                                                                                     state.entityDescriptor() );
+                                        writeEntityStatePatch( state, changes, writer, unitofwork.identity(), unitofwork.currentTime() );
+                                        writer.close();
+                                    }
+                                    else
+                                    {
+                                        Writer writer = changer.updateEntity( state.identity(),
+                                                                              state.entityDescriptor() );
+                                        writeEntityState( state, writer, unitofwork.identity(), unitofwork.currentTime() );
+                                        writer.close();
+                                    }
                                 }
                                 else if( state.status().equals( EntityStatus.REMOVED ) )
                                 {
@@ -154,6 +194,39 @@ public class MapEntityStoreMixin
     }
 
     public Input<EntityState, EntityStoreException> entityStates( final Module module )
+    {
+        return entityStates( module, mapEntityStore.entityStates() );
+    }
+
+    // PartitionedEntityStore
+
+    public List<EntityStatePartition> entityStates( Module module, int partitions, String checkpoint )
+    {
+        Input<Reader, IOException> states = mapEntityStore.entityStates();
+        if( !( states instanceof MapEntityStore.PartitionedEntityStates ) )
+        {
+            if( checkpoint != null )
+            {
+                throw new IllegalArgumentException( "Entity store " + descriptor.identity() + " can not resume scans" );
+            }
+            return Collections.singletonList( new EntityStatePartition( 0, null, entityStates( module, states ) ) );
+        }
+
+        List<String> lastIdentities = checkpoint == null ? null : EntityStatePartition.parseCheckpoint( checkpoint, partitions );
+        MapEntityStore.PartitionedEntityStates partitionedStates = (MapEntityStore.PartitionedEntityStates) states;
+        List<EntityStatePartition> entityStatePartitions = new ArrayList<EntityStatePartition>( partitions );
+        for( int i = 0; i < partitions; i++ )
+        {
+            String lastIdentity = lastIdentities == null ? null : lastIdentities.get( i );
+            Input<Reader, IOException> partitionStates = partitionedStates.partition( i, partitions, lastIdentity );
+            entityStatePartitions.add( new EntityStatePartition( i, lastIdentity, entityStates( module, partitionStates ) ) );
+        }
+        return entityStatePartitions;
+    }
+
+    private Input<EntityState, EntityStoreException> entityStates( final Module module,
+                                                                   final Input<Reader, IOException> states
+    )
     {
         return new Input<EntityState, EntityStoreException>()
         {
@@ -173,42 +246,41 @@ public class MapEntityStoreMixin
                         final DefaultEntityStoreUnitOfWork uow =
                             new DefaultEntityStoreUnitOfWork( entityStoreSpi, newUnitOfWorkId(), module, usecase, System.currentTimeMillis() );
 
-                        final List<EntityState> migrated = new ArrayList<EntityState>();
-
-                        try
+                        // Entities are read 100 at a time, and the migrated ones are synched back for each batch
+                        Output<EntityState, ReceiverThrowableType> batches = Transforms.batch( 100, Outputs.withReceiver( new Receiver<List<EntityState>, ReceiverThrowableType>()
                         {
-                            mapEntityStore.entityStates().transferTo( new Output<Reader, ReceiverThrowableType>()
+                            public void receive( List<EntityState> entities )
+                                throws ReceiverThrowableType
                             {
-                               @Override
-                               public <SenderThrowableType extends Throwable> void receiveFrom(Sender<? extends Reader, SenderThrowableType> sender) throws ReceiverThrowableType, SenderThrowableType
-                               {
-                                    sender.sendTo( new Receiver<Reader, ReceiverThrowableType>()
-                                    {
-                                        public void receive( Reader item )
-                                            throws ReceiverThrowableType
-                                        {
-                                            final EntityState entity = readEntityState( uow, item );
-                                            if( entity.status() == EntityStatus.UPDATED )
-                                            {
-                                                migrated.add( entity );
-
-                                                // Synch back 100 at a time
-                                                if( migrated.size() > 100 )
-                                                {
-                                                    synchMigratedEntities( migrated );
-                                                }
-                                            }
-                                            receiver.receive( entity );
-                                        }
-                                    } );
-
-                                    // Synch any remaining migrated entities
-                                    if( !migrated.isEmpty() )
+                                List<EntityState> migrated = new ArrayList<EntityState>();
+                                for( EntityState entity : entities )
+                                {
+                                    if( entity.status() == EntityStatus.UPDATED )
                                     {
-                                        synchMigratedEntities( migrated );
+                                        migrated.add( entity );
                                     }
                                 }
-                            } );
+                                if( !migrated.isEmpty() )
+                                {
+                                    synchMigratedEntities( migrated );
+                                }
+
+                                for( EntityState entity : entities )
+                                {
+                                    receiver.receive( entity );
+                                }
+                            }
+                        } ) );
+
+                        try
+                        {
+                            states.transferTo( Transforms.map( new Function<Reader, EntityState>()
+                            {
+                                public EntityState map( Reader item )
+                                {
+                                    return readEntityState( uow, item );
+                                }
+                            }, batches ) );
                         }
                         catch( IOException e )
                         {
@@ -239,7 +311,6 @@ public class MapEntityStoreMixin
                     }
                 }
             } );
-            migratedEntities.clear();
         }
         catch( IOException e )
         {
@@ -249,7 +320,7 @@ public class MapEntityStoreMixin
 
     protected String newUnitOfWorkId()
     {
-        return uuid + Integer.toHexString( count++ );
+        return uuid + Integer.toHexString( count.getAndIncrement() );
     }
 
     protected void writeEntityState( DefaultEntityState state, Writer writer, String identity, long lastModified )
@@ -302,6 +373,96 @@ public class MapEntityStoreMixin
         }
     }
 
+    protected void writeEntityStatePatch( DefaultEntityState state,
+                                          EntityStateChanges changes,
+                                          Writer writer,
+                                          String identity,
+                                          long lastModified
+    )
+        throws EntityStoreException
+    {
+        try
+        {
+            JSONWriter json = new JSONWriter( writer );
+            JSONWriter properties = json.object().
+                key( "identity" ).value( state.identity().identity() ).
+                key( "version" ).value( identity ).
+                key( "modified" ).value( lastModified ).
+                key( "properties" ).object();
+            EntityDescriptor entityType = state.entityDescriptor();
+            JSONWriterSerializer serializer = new JSONWriterSerializer( json );
+            for( QualifiedName changedProperty : changes.properties() )
+            {
+                PropertyDescriptor persistentProperty = entityType.state().getPropertyByQualifiedName( changedProperty );
+                Object value = state.properties().get( changedProperty );
+                json.key( changedProperty.name() );
+                serializer.serialize( value, persistentProperty.valueType() );
+            }
+
+            JSONWriter associations = properties.endObject().key( "associations" ).object();
+            for( QualifiedName changedAssociation : changes.associations() )
+            {
+                EntityReference value = state.associations().get( changedAssociation );
+                associations.key( changedAssociation.name() ).
+                    value( value != null ? value.identity() : null );
+            }
+
+            JSONWriter manyAssociations = associations.endObject().key( "manyassociations" ).object();
+            for( QualifiedName changedManyAssociation : changes.manyAssociations() )
+            {
+                JSONWriter assocs = manyAssociations.key( changedManyAssociation.name() ).array();
+                List<EntityReference> references = state.manyAssociations().get( changedManyAssociation );
+                if( references != null )
+                {
+                    for( EntityReference entityReference : references )
+                    {
+                        assocs.value( entityReference.identity() );
+                    }
+                }
+                assocs.endArray();
+            }
+            manyAssociations.endObject().endObject();
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( "Could not store EntityState", e );
+        }
+    }
+
+    /**
+     * Check if an updated state has the same content as when it was loaded, by writing it
+     * and comparing the result with the stored state.
+     *
+     * @param state the updated state
+     *
+     * @return true if the state does not have to be written
+     */
+    protected boolean isUnchanged( DefaultEntityState state )
+    {
+        JSONObject originalState = state.originalState();
+        if( originalState == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            StringWriter writer = new StringWriter();
+            writeEntityState( state, writer, state.version(), state.lastModified() );
+            return JSONStateSnapshot.isSameContent( originalState, new JSONObject( writer.toString() ) );
+        }
+        catch( JSONException e )
+        {
+            throw new EntityStoreException( e );
+        }
+    }
+
+    private WriteOptions writeOptions( DefaultEntityStoreUnitOfWork unitOfWork )
+    {
+        WriteOptions writeOptions = unitOfWork.usecase().metaInfo( WriteOptions.class );
+        return writeOptions == null ? WriteOptions.ALWAYS : writeOptions;
+    }
+
     protected EntityState readEntityState( DefaultEntityStoreUnitOfWork unitOfWork, Reader entityState )
         throws EntityStoreException
     {
@@ -311,6 +472,7 @@ public class MapEntityStoreMixin
             JSONDeserializer deserializer = new JSONDeserializer( module );
             JSONObject jsonObject = new JSONObject( new JSONTokener( entityState ) );
             EntityStatus status = EntityStatus.LOADED;
+            JSONObject originalState = writeOptions( unitOfWork ).skipUnchanged() ? jsonObject : null;
 
             String version = jsonObject.getString( "version" );
             long modified = jsonObject.getLong( "modified" );
@@ -321,9 +483,14 @@ public class MapEntityStoreMixin
                                                              "0.0" );
             if( !currentAppVersion.equals( application.version() ) )
             {
+                if( originalState != null )
+                {
+                    originalState = JSONStateSnapshot.copyOf( jsonObject );
+                }
+
                 if( migration != null )
                 {
-                    migration.migrate( jsonObject, application.version(), this );
+                    migrationChains.migrate( migration, jsonObject, currentAppVersion, application.version(), this );
                 }
                 else
                 {
@@ -418,16 +585,18 @@ public class MapEntityStoreMixin
                 }
             }
 
-            return new DefaultEntityState( unitOfWork,
-                                           version,
-                                           modified,
-                                           EntityReference.parseEntityReference( identity ),
-                                           status,
-                                           entityDescriptor,
-                                           properties,
-                                           associations,
-                                           manyAssociations
+            DefaultEntityState state = new DefaultEntityState( unitOfWork,
+                                                               version,
+                                                               modified,
+                                                               EntityReference.parseEntityReference( identity ),
+                                                               status,
+                                                               entityDescriptor,
+                                                               properties,
+                                                               associations,
+                                                               manyAssociations
             );
+            state.originalState( originalState );
+            return state;
         }
         catch( JSONException e )
         {
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The migration rules from one application version to another, as compiled by a {@link CompilingMigration}.
+ */
+public interface MigrationChain
+{
+    /**
+     * Migrate a state. The application version of the state is set by the caller.
+     *
+     * @param state      the stored state of an entity
+     * @param stateStore store that rules can use to read other states
+     *
+     * @return true if the state was changed
+     *
+     * @throws JSONException if the state could not be migrated
+     */
+    boolean migrate( JSONObject state, StateStore stateStore )
+        throws JSONException;
+}
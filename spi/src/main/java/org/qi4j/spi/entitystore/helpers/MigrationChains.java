@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the migration chains of a {@link CompilingMigration}, for each pair of application versions.
+ * Other Migrations are called for every state, as their rules may depend on the state, so nothing is cached
+ * for them. No Migration in core implements CompilingMigration, so the cache is only used if the Migration
+ * service of the application does.
+ */
+final class MigrationChains
+{
+    // Marker for version pairs without rules
+    private static final MigrationChain NO_RULES = new MigrationChain()
+    {
+        public boolean migrate( JSONObject state, StateStore stateStore )
+        {
+            return false;
+        }
+    };
+
+    private final ConcurrentMap<String, MigrationChain> chains = new ConcurrentHashMap<String, MigrationChain>();
+
+    void migrate( Migration migration, JSONObject state, String fromVersion, String toVersion, StateStore stateStore )
+        throws JSONException
+    {
+        if( !( migration instanceof CompilingMigration ) )
+        {
+            migration.migrate( state, toVersion, stateStore );
+            return;
+        }
+
+        String key = fromVersion + "->" + toVersion;
+        MigrationChain chain = chains.get( key );
+        if( chain == null )
+        {
+            chain = ( (CompilingMigration) migration ).compile( fromVersion, toVersion );
+            chain = chain == null ? NO_RULES : chain;
+            MigrationChain existing = chains.putIfAbsent( key, chain );
+            chain = existing == null ? chain : existing;
+        }
+
+        chain.migrate( state, stateStore );
+        state.put( MapEntityStore.JSONKeys.application_version.name(), toVersion );
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+/**
+ * Set an instance of this as MetaInfo on a MapEntityStore service to tune how states that are migrated
+ * when they are read are written back to the store. By default they are not written back.
+ * <p>
+ * Options: <br/>
+ * "writeBack": if true, migrated states are written back by a background thread, so that they don't have to be
+ * migrated again the next time they are read. This requires a Migration service, and a store whose MapChanger is a
+ * {@link MapEntityStore.ConditionalMapChanger}.<br/>
+ * "queueSize": maximum number of migrated states waiting to be written. States that don't fit are migrated again
+ * the next time they are read.<br/>
+ * "batchSize": maximum number of states that are written in one call to the store
+ * </p>
+ */
+public final class MigrationOptions
+{
+    public static final MigrationOptions DEFAULT = new MigrationOptions( false, 1, 1 );
+    public static final MigrationOptions NO_WRITE_BACK = DEFAULT;
+    public static final MigrationOptions WRITE_BACK = new MigrationOptions( true, 10000, 100 );
+
+    private final boolean writeBack;
+    private final int queueSize;
+    private final int batchSize;
+
+    public MigrationOptions( boolean writeBack, int queueSize, int batchSize )
+    {
+        if( queueSize < 1 || batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "Queue size and batch size must be at least 1" );
+        }
+        this.writeBack = writeBack;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+    }
+
+    public boolean writeBack()
+    {
+        return writeBack;
+    }
+
+    public int queueSize()
+    {
+        return queueSize;
+    }
+
+    public int batchSize()
+    {
+        return batchSize;
+    }
+}
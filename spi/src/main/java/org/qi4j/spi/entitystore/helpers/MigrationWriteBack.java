@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+import org.qi4j.api.entity.EntityDescriptor;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.service.ServiceDescriptor;
+import org.qi4j.spi.entitystore.helpers.MapEntityStore.ConditionalMapChanger;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer of states that were migrated when they were read. A state is only written if
+ * the stored state still has the version that was migrated, so that newer changes are not overwritten.
+ * This is checked by the store, see {@link ConditionalMapChanger}. If the store can't check it, nothing is written.
+ */
+final class MigrationWriteBack
+    implements Runnable
+{
+    private final MapEntityStore mapEntityStore;
+    private final MigrationOptions options;
+    private final Logger logger;
+    private final BlockingQueue<MigratedState> queue;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean supported = true;
+
+    MigrationWriteBack( MapEntityStore mapEntityStore, MigrationOptions options, String name, Logger logger )
+    {
+        this.mapEntityStore = mapEntityStore;
+        this.options = options;
+        this.logger = logger;
+        queue = new LinkedBlockingQueue<MigratedState>( options.queueSize() );
+        thread = new Thread( this, "qi4j-migration-" + name );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Start writing back migrated states for a MapEntityStore service, if its {@link MigrationOptions} ask for it.
+     *
+     * @return the writer, or null if migrated states are not written back
+     */
+    static MigrationWriteBack start( MapEntityStore mapEntityStore,
+                                     Migration migration,
+                                     ServiceDescriptor descriptor,
+                                     Logger logger
+    )
+    {
+        MigrationOptions options = descriptor.metaInfo( MigrationOptions.class );
+        if( migration == null || options == null || !options.writeBack() )
+        {
+            return null;
+        }
+        return new MigrationWriteBack( mapEntityStore, options, descriptor.identity(), logger );
+    }
+
+    /**
+     * @return true if a migrated state would be queued now, so that it is only serialized when it can be written
+     */
+    boolean isWriting()
+    {
+        return supported && queue.remainingCapacity() > 0;
+    }
+
+    /**
+     * Queue a migrated state to be written. If the queue is full the state is not written.
+     */
+    void add( EntityReference identity, EntityDescriptor descriptor, String version, String state )
+    {
+        if( supported )
+        {
+            queue.offer( new MigratedState( identity, descriptor, version, state ) );
+        }
+    }
+
+    /**
+     * Write the queued states and stop the background thread.
+     */
+    void stop()
+        throws InterruptedException
+    {
+        running = false;
+        thread.join();
+    }
+
+    public void run()
+    {
+        List<MigratedState> batch = new ArrayList<MigratedState>( options.batchSize() );
+        while( running || !queue.isEmpty() )
+        {
+            try
+            {
+                MigratedState state = queue.poll( 100, TimeUnit.MILLISECONDS );
+                if( state == null )
+                {
+                    continue;
+                }
+                batch.add( state );
+                queue.drainTo( batch, options.batchSize() - 1 );
+                write( batch );
+            }
+            catch( InterruptedException e )
+            {
+                return;
+            }
+            catch( Exception e )
+            {
+                // The states will be migrated again the next time they are read
+                logger.warn( "Could not store migrated entities", e );
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write( final List<MigratedState> batch )
+        throws IOException
+    {
+        mapEntityStore.applyChanges( new MapEntityStore.MapChanges()
+        {
+            public void visitMap( MapEntityStore.MapChanger changer )
+                throws IOException
+            {
+                if( !( changer instanceof ConditionalMapChanger ) )
+                {
+                    supported = false;
+                    queue.clear();
+                    logger.warn( "Migrated entities are not written back, as the store can't check their versions" );
+                    return;
+                }
+
+                for( MigratedState state : batch )
+                {
+                    Writer writer = ( (ConditionalMapChanger) changer ).updateEntityIfVersion( state.identity, state.descriptor, state.version );
+                    writer.write( state.state );
+                    writer.close();
+                }
+            }
+        } );
+    }
+
+    private static class MigratedState
+    {
+        private final EntityReference identity;
+        private final EntityDescriptor descriptor;
+        private final String version;
+        private final String state;
+
+        private MigratedState( EntityReference identity, EntityDescriptor descriptor, String version, String state )
+        {
+            this.identity = identity;
+            this.descriptor = descriptor;
+            this.version = version;
+            this.state = state;
+        }
+    }
+}
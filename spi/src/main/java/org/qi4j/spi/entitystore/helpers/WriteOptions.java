@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore.helpers;
+
+/**
+ * WriteOptions is a metaInfo class for the MapEntityStore helpers.
+ * WriteOptions should be assigned to the Usecase of the UnitOfWork, to tell the entity store how
+ * updated entities should be written. See {@link org.qi4j.api.usecase.UsecaseBuilder} on how to
+ * set the metaInfo on Usecases.
+ */
+public final class WriteOptions
+{
+    public static final WriteOptions ALWAYS = new WriteOptions( false );
+    public static final WriteOptions SKIP_UNCHANGED = new WriteOptions( true );
+
+    private final boolean skipUnchanged;
+
+    /**
+     * Constructor for WriteOptions.
+     *
+     * @param skipUnchanged if true, the state of each updated entity is compared with the state it had
+     *                      when it was loaded, and the entity is not written if nothing has changed.
+     *                      This includes entities whose only change is the application version set by
+     *                      migration. The loaded state has to be kept until the UnitOfWork completes.
+     */
+    public WriteOptions( boolean skipUnchanged )
+    {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * @return if true, updated entities whose state is the same as when they were loaded are not written
+     */
+    public boolean skipUnchanged()
+    {
+        return skipUnchanged;
+    }
+}
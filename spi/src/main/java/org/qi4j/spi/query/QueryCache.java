@@ -0,0 +1,374 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.api.injection.scope.Uses;
+import org.qi4j.api.mixin.Mixins;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.service.Activatable;
+import org.qi4j.api.service.ServiceDescriptor;
+import org.qi4j.functional.Iterables;
+import org.qi4j.functional.Specification;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+import org.qi4j.spi.entitystore.StateChangeListener;
+import org.qi4j.spi.entitystore.StateCommitListener;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of query results. The UnitOfWork uses it for all queries if a {@link QueryCacheService} is visible
+ * from its module.
+ * <p>
+ * Entity references and counts are cached per result type, where clause, ordering, paging and variables.
+ * Only where clauses that are built from the query grammar are cached. When an entity changes, all results
+ * for its type and its supertypes are invalidated, as are all results of queries that traverse associations.
+ * </p>
+ * <p>
+ * Results are invalidated both when changes are about to be committed and after they have been committed,
+ * so a result that a query cached while a UnitOfWork was being committed is not kept.
+ * </p>
+ */
+@Mixins( QueryCache.QueryCacheMixin.class )
+public interface QueryCache
+{
+    /**
+     * @param finder the EntityFinder that does the actual queries
+     *
+     * @return EntityFinder that serves results from this cache, and adds the results of the given finder to it
+     */
+    EntityFinder cachingFinder( EntityFinder finder );
+
+    /**
+     * @return number of queries that were answered from the cache
+     */
+    long hits();
+
+    /**
+     * @return number of cacheable queries that had to be sent to the EntityFinder
+     */
+    long misses();
+
+    /**
+     * @return number of results that were removed because an entity changed
+     */
+    long invalidations();
+
+    /**
+     * @return number of results that were removed because the cache was full
+     */
+    long evictions();
+
+    /**
+     * @return current number of cached results
+     */
+    int size();
+
+    /**
+     * Remove all cached results.
+     */
+    void clear();
+
+    class QueryCacheMixin
+        implements QueryCache, StateChangeListener, StateCommitListener, Activatable
+    {
+        private static final Object NOT_FOUND = new Object();
+
+        @Uses
+        private ServiceDescriptor descriptor;
+
+        private final Object lock = new Object();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private QueryCacheOptions options;
+        private Map<QueryCacheKey, CachedResult> results;
+        private long generation;
+
+        public void activate()
+            throws Exception
+        {
+            QueryCacheOptions options = descriptor.metaInfo( QueryCacheOptions.class );
+            this.options = options == null ? QueryCacheOptions.DEFAULT : options;
+            final int maxEntries = this.options.maxEntries();
+            results = new LinkedHashMap<QueryCacheKey, CachedResult>( 16, 0.75f, true )
+            {
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<QueryCacheKey, CachedResult> eldest )
+                {
+                    if( size() > maxEntries )
+                    {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        public void passivate()
+            throws Exception
+        {
+            clear();
+        }
+
+        public EntityFinder cachingFinder( EntityFinder finder )
+        {
+            return new CachingEntityFinder( finder );
+        }
+
+        public long hits()
+        {
+            return hits.get();
+        }
+
+        public long misses()
+        {
+            return misses.get();
+        }
+
+        public long invalidations()
+        {
+            return invalidations.get();
+        }
+
+        public long evictions()
+        {
+            return evictions.get();
+        }
+
+        public int size()
+        {
+            synchronized( lock )
+            {
+                return results.size();
+            }
+        }
+
+        public void clear()
+        {
+            synchronized( lock )
+            {
+                generation++;
+                results.clear();
+            }
+        }
+
+        public void notifyChanges( Iterable<EntityState> changedStates )
+        {
+            invalidate( changedStates );
+        }
+
+        public void notifyCommitted( Iterable<EntityState> committedStates )
+        {
+            // Queries that ran during the commit may have cached results from before it
+            invalidate( committedStates );
+        }
+
+        private void invalidate( Iterable<EntityState> changedStates )
+        {
+            Set<Class<?>> changedTypes = new HashSet<Class<?>>();
+            for( EntityState changedState : changedStates )
+            {
+                if( changedState.status() != EntityStatus.LOADED )
+                {
+                    changedTypes.add( changedState.entityDescriptor().type() );
+                }
+            }
+            if( changedTypes.isEmpty() )
+            {
+                return;
+            }
+
+            synchronized( lock )
+            {
+                // Results of queries that are running now must not be added
+                generation++;
+
+                Iterator<QueryCacheKey> keys = results.keySet().iterator();
+                while( keys.hasNext() )
+                {
+                    QueryCacheKey key = keys.next();
+                    for( Class<?> changedType : changedTypes )
+                    {
+                        if( key.isAffectedBy( changedType ) )
+                        {
+                            keys.remove();
+                            invalidations.incrementAndGet();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private long generation()
+        {
+            synchronized( lock )
+            {
+                return generation;
+            }
+        }
+
+        private Object lookup( QueryCacheKey key )
+        {
+            Object result = null;
+            synchronized( lock )
+            {
+                CachedResult cachedResult = results.get( key );
+                if( cachedResult != null )
+                {
+                    if( options.maxAge() > 0 && System.currentTimeMillis() - cachedResult.created > options.maxAge() )
+                    {
+                        results.remove( key );
+                    }
+                    else
+                    {
+                        result = cachedResult.result;
+                    }
+                }
+            }
+
+            if( result == null )
+            {
+                misses.incrementAndGet();
+            }
+            else
+            {
+                hits.incrementAndGet();
+            }
+            return result;
+        }
+
+        private void store( QueryCacheKey key, Object result, long queryGeneration )
+        {
+            synchronized( lock )
+            {
+                if( generation == queryGeneration )
+                {
+                    results.put( key, new CachedResult( result, System.currentTimeMillis() ) );
+                }
+            }
+        }
+
+        private static class CachedResult
+        {
+            private final Object result;
+            private final long created;
+
+            private CachedResult( Object result, long created )
+            {
+                this.result = result;
+                this.created = created;
+            }
+        }
+
+        private class CachingEntityFinder
+            implements EntityFinder
+        {
+            private final EntityFinder finder;
+
+            private CachingEntityFinder( EntityFinder finder )
+            {
+                this.finder = finder;
+            }
+
+            @SuppressWarnings( "unchecked" )
+            public Iterable<EntityReference> findEntities( Class<?> resultType,
+                                                           Specification<Composite> whereClause,
+                                                           OrderBy[] orderBySegments,
+                                                           Integer firstResult,
+                                                           Integer maxResults,
+                                                           Map<String, Object> variables
+            )
+                throws EntityFinderException
+            {
+                QueryCacheKey key = QueryCacheKey.create( "find", resultType, whereClause, orderBySegments, firstResult, maxResults, variables );
+                if( key == null )
+                {
+                    return finder.findEntities( resultType, whereClause, orderBySegments, firstResult, maxResults, variables );
+                }
+
+                Object cached = lookup( key );
+                if( cached != null )
+                {
+                    return (List<EntityReference>) cached;
+                }
+
+                long queryGeneration = generation();
+                List<EntityReference> references = Collections.unmodifiableList( Iterables.toList(
+                    finder.findEntities( resultType, whereClause, orderBySegments, firstResult, maxResults, variables ) ) );
+                store( key, references, queryGeneration );
+                return references;
+            }
+
+            public EntityReference findEntity( Class<?> resultType,
+                                               Specification<Composite> whereClause,
+                                               Map<String, Object> variables
+            )
+                throws EntityFinderException
+            {
+                QueryCacheKey key = QueryCacheKey.create( "first", resultType, whereClause, null, null, null, variables );
+                if( key == null )
+                {
+                    return finder.findEntity( resultType, whereClause, variables );
+                }
+
+                Object cached = lookup( key );
+                if( cached != null )
+                {
+                    return cached == NOT_FOUND ? null : (EntityReference) cached;
+                }
+
+                long queryGeneration = generation();
+                EntityReference reference = finder.findEntity( resultType, whereClause, variables );
+                store( key, reference == null ? NOT_FOUND : reference, queryGeneration );
+                return reference;
+            }
+
+            public long countEntities( Class<?> resultType,
+                                       Specification<Composite> whereClause,
+                                       Map<String, Object> variables
+            )
+                throws EntityFinderException
+            {
+                QueryCacheKey key = QueryCacheKey.create( "count", resultType, whereClause, null, null, null, variables );
+                if( key == null )
+                {
+                    return finder.countEntities( resultType, whereClause, variables );
+                }
+
+                Object cached = lookup( key );
+                if( cached != null )
+                {
+                    return (Long) cached;
+                }
+
+                long queryGeneration = generation();
+                long count = finder.countEntities( resultType, whereClause, variables );
+                store( key, count, queryGeneration );
+                return count;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.query.grammar.AssociationFunction;
+import org.qi4j.api.query.grammar.AssociationNotNullSpecification;
+import org.qi4j.api.query.grammar.AssociationNullSpecification;
+import org.qi4j.api.query.grammar.BinarySpecification;
+import org.qi4j.api.query.grammar.ComparisonSpecification;
+import org.qi4j.api.query.grammar.ContainsAllSpecification;
+import org.qi4j.api.query.grammar.ContainsSpecification;
+import org.qi4j.api.query.grammar.ExpressionSpecification;
+import org.qi4j.api.query.grammar.ManyAssociationContainsSpecification;
+import org.qi4j.api.query.grammar.ManyAssociationFunction;
+import org.qi4j.api.query.grammar.MatchesSpecification;
+import org.qi4j.api.query.grammar.NotSpecification;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.api.query.grammar.PropertyFunction;
+import org.qi4j.api.query.grammar.PropertyNotNullSpecification;
+import org.qi4j.api.query.grammar.PropertyNullSpecification;
+import org.qi4j.api.query.grammar.Variable;
+import org.qi4j.functional.Specification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Key of a cached query result. Only queries whose where clause is built from the query grammar can be cached,
+ * since other specifications cannot be compared. The where clause is represented by its structure: the type of
+ * each specification, the accessors of its properties and associations, and its values, which are compared with
+ * equals. The operands of and/or are compared regardless of their order, so that the same query built in a
+ * different order has the same key.
+ */
+final class QueryCacheKey
+{
+    private final String operation;
+    private final Class<?> resultType;
+    private final Object whereClause;
+    private final List<Object> orderBy;
+    private final Integer firstResult;
+    private final Integer maxResults;
+    private final Map<String, Object> variables;
+    private final boolean traversing;
+    private final int hashCode;
+
+    /**
+     * @return the key, or null if the query cannot be cached
+     */
+    static QueryCacheKey create( String operation,
+                                 Class<?> resultType,
+                                 Specification<Composite> whereClause,
+                                 OrderBy[] orderBySegments,
+                                 Integer firstResult,
+                                 Integer maxResults,
+                                 Map<String, Object> variables
+    )
+    {
+        Object where = key( whereClause );
+        if( where == null )
+        {
+            return null;
+        }
+
+        boolean traversing = isTraversing( whereClause );
+        List<Object> orderBy = new ArrayList<Object>();
+        if( orderBySegments != null )
+        {
+            for( OrderBy orderBySegment : orderBySegments )
+            {
+                orderBy.add( Arrays.asList( key( orderBySegment.getPropertyFunction() ), orderBySegment.order() ) );
+                traversing |= isTraversing( orderBySegment.getPropertyFunction() );
+            }
+        }
+
+        return new QueryCacheKey( operation, resultType, where, orderBy, firstResult, maxResults,
+                                  variables == null ? Collections.<String, Object>emptyMap() : new TreeMap<String, Object>( variables ),
+                                  traversing );
+    }
+
+    private QueryCacheKey( String operation,
+                           Class<?> resultType,
+                           Object whereClause,
+                           List<Object> orderBy,
+                           Integer firstResult,
+                           Integer maxResults,
+                           Map<String, Object> variables,
+                           boolean traversing
+    )
+    {
+        this.operation = operation;
+        this.resultType = resultType;
+        this.whereClause = whereClause;
+        this.orderBy = orderBy;
+        this.firstResult = firstResult;
+        this.maxResults = maxResults;
+        this.variables = variables;
+        this.traversing = traversing;
+
+        int result = operation.hashCode();
+        result = 31 * result + resultType.hashCode();
+        result = 31 * result + whereClause.hashCode();
+        result = 31 * result + orderBy.hashCode();
+        result = 31 * result + ( firstResult != null ? firstResult.hashCode() : 0 );
+        result = 31 * result + ( maxResults != null ? maxResults.hashCode() : 0 );
+        result = 31 * result + variables.hashCode();
+        hashCode = result;
+    }
+
+    /**
+     * @return true if a result with this key can change when an entity of the given type changes
+     */
+    boolean isAffectedBy( Class<?> entityType )
+    {
+        // Results that depend on associated entities can change when any entity changes
+        return traversing || resultType.isAssignableFrom( entityType );
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if( this == o )
+        {
+            return true;
+        }
+        if( !( o instanceof QueryCacheKey ) )
+        {
+            return false;
+        }
+
+        QueryCacheKey that = (QueryCacheKey) o;
+        return hashCode == that.hashCode
+               && operation.equals( that.operation )
+               && resultType.equals( that.resultType )
+               && whereClause.equals( that.whereClause )
+               && orderBy.equals( that.orderBy )
+               && ( firstResult == null ? that.firstResult == null : firstResult.equals( that.firstResult ) )
+               && ( maxResults == null ? that.maxResults == null : maxResults.equals( that.maxResults ) )
+               && variables.equals( that.variables );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return operation + " " + resultType.getName() + " where " + whereClause + " order by " + orderBy
+               + " [" + firstResult + "," + maxResults + "] " + variables;
+    }
+
+    /**
+     * @return structural key of a where clause, or null if it contains specifications that cannot be compared
+     */
+    private static Object key( Specification<Composite> specification )
+    {
+        if( specification == null )
+        {
+            return Collections.emptyList();
+        }
+
+        if( specification instanceof BinarySpecification )
+        {
+            // Count of each operand, so that the order of the operands does not matter
+            Map<Object, Integer> operands = new HashMap<Object, Integer>();
+            for( Specification<Composite> operand : ( (BinarySpecification) specification ).getOperands() )
+            {
+                Object key = key( operand );
+                if( key == null )
+                {
+                    return null;
+                }
+                Integer count = operands.get( key );
+                operands.put( key, count == null ? 1 : count + 1 );
+            }
+            return Arrays.asList( specification.getClass(), operands );
+        }
+        else if( specification instanceof NotSpecification )
+        {
+            Object operand = key( ( (NotSpecification) specification ).getOperand() );
+            return operand == null ? null : Arrays.asList( NotSpecification.class, operand );
+        }
+        else if( specification instanceof ComparisonSpecification )
+        {
+            ComparisonSpecification<?> comparison = (ComparisonSpecification<?>) specification;
+            return Arrays.asList( specification.getClass(), key( comparison.getProperty() ), value( comparison.getValue() ) );
+        }
+        else if( specification instanceof PropertyNullSpecification )
+        {
+            return Arrays.asList( specification.getClass(), key( ( (PropertyNullSpecification<?>) specification ).getProperty() ) );
+        }
+        else if( specification instanceof PropertyNotNullSpecification )
+        {
+            return Arrays.asList( specification.getClass(), key( ( (PropertyNotNullSpecification<?>) specification ).getProperty() ) );
+        }
+        else if( specification instanceof MatchesSpecification )
+        {
+            MatchesSpecification matches = (MatchesSpecification) specification;
+            return Arrays.asList( specification.getClass(), key( matches.getProperty() ), matches.getRegexp() );
+        }
+        else if( specification instanceof ContainsSpecification )
+        {
+            ContainsSpecification<?> contains = (ContainsSpecification<?>) specification;
+            return Arrays.asList( specification.getClass(), key( contains.getCollectionProperty() ), value( contains.getValue() ) );
+        }
+        else if( specification instanceof ContainsAllSpecification )
+        {
+            ContainsAllSpecification<?> containsAll = (ContainsAllSpecification<?>) specification;
+            List<Object> values = new ArrayList<Object>();
+            for( Object value : containsAll.getValueCollection() )
+            {
+                values.add( value( value ) );
+            }
+            return Arrays.asList( specification.getClass(), key( containsAll.getCollectionProperty() ), values );
+        }
+        else if( specification instanceof AssociationNullSpecification )
+        {
+            return Arrays.asList( specification.getClass(), key( ( (AssociationNullSpecification<?>) specification ).getAssociation() ) );
+        }
+        else if( specification instanceof AssociationNotNullSpecification )
+        {
+            return Arrays.asList( specification.getClass(), key( ( (AssociationNotNullSpecification<?>) specification ).getAssociation() ) );
+        }
+        else if( specification instanceof ManyAssociationContainsSpecification )
+        {
+            ManyAssociationContainsSpecification<?> contains = (ManyAssociationContainsSpecification<?>) specification;
+            return Arrays.asList( specification.getClass(), key( contains.getManyAssociationFunction() ), value( contains.getValue() ) );
+        }
+        else
+        {
+            // Arbitrary specifications have no comparable structure
+            return null;
+        }
+    }
+
+    private static Object key( PropertyFunction<?> property )
+    {
+        if( property == null )
+        {
+            return null;
+        }
+        return Arrays.asList( property.getAccessor(),
+                              key( property.getTraversedProperty() ),
+                              key( property.getTraversedAssociation() ),
+                              key( property.getTraversedManyAssociation() ) );
+    }
+
+    private static Object key( AssociationFunction<?> association )
+    {
+        if( association == null )
+        {
+            return null;
+        }
+        return Arrays.asList( association.getAccessor(),
+                              key( association.getTraversedAssociation() ),
+                              key( association.getTraversedManyAssociation() ) );
+    }
+
+    private static Object key( ManyAssociationFunction<?> association )
+    {
+        if( association == null )
+        {
+            return null;
+        }
+        return Arrays.asList( association.getAccessor(),
+                              key( association.getTraversedAssociation() ),
+                              key( association.getTraversedManyAssociation() ) );
+    }
+
+    private static Object value( Object value )
+    {
+        // Variables are compared by name, as their values are in the variables of the key
+        return value instanceof Variable ? Arrays.asList( Variable.class, ( (Variable) value ).getName() ) : value;
+    }
+
+    private static boolean isTraversing( Specification<Composite> specification )
+    {
+        if( specification instanceof BinarySpecification )
+        {
+            for( Specification<Composite> operand : ( (BinarySpecification) specification ).getOperands() )
+            {
+                if( isTraversing( operand ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if( specification instanceof NotSpecification )
+        {
+            return isTraversing( ( (NotSpecification) specification ).getOperand() );
+        }
+        else if( specification instanceof ComparisonSpecification )
+        {
+            return isTraversing( ( (ComparisonSpecification<?>) specification ).getProperty() );
+        }
+        else if( specification instanceof PropertyNullSpecification )
+        {
+            return isTraversing( ( (PropertyNullSpecification<?>) specification ).getProperty() );
+        }
+        else if( specification instanceof PropertyNotNullSpecification )
+        {
+            return isTraversing( ( (PropertyNotNullSpecification<?>) specification ).getProperty() );
+        }
+        else if( specification instanceof MatchesSpecification )
+        {
+            return isTraversing( ( (MatchesSpecification) specification ).getProperty() );
+        }
+        else if( specification instanceof ContainsSpecification )
+        {
+            return isTraversing( ( (ContainsSpecification<?>) specification ).getCollectionProperty() );
+        }
+        else if( specification instanceof ContainsAllSpecification )
+        {
+            return isTraversing( ( (ContainsAllSpecification<?>) specification ).getCollectionProperty() );
+        }
+        else if( specification instanceof AssociationNullSpecification )
+        {
+            return isTraversing( ( (AssociationNullSpecification<?>) specification ).getAssociation() );
+        }
+        else if( specification instanceof AssociationNotNullSpecification )
+        {
+            return isTraversing( ( (AssociationNotNullSpecification<?>) specification ).getAssociation() );
+        }
+        else if( specification instanceof ManyAssociationContainsSpecification )
+        {
+            return isTraversing( ( (ManyAssociationContainsSpecification<?>) specification ).getManyAssociationFunction() );
+        }
+        else
+        {
+            // Unknown specifications, such as named queries, may depend on anything
+            return specification != null;
+        }
+    }
+
+    private static boolean isTraversing( PropertyFunction<?> property )
+    {
+        if( property.getTraversedAssociation() != null || property.getTraversedManyAssociation() != null )
+        {
+            return true;
+        }
+        return property.getTraversedProperty() != null && isTraversing( property.getTraversedProperty() );
+    }
+
+    private static boolean isTraversing( AssociationFunction<?> association )
+    {
+        return association.getTraversedAssociation() != null || association.getTraversedManyAssociation() != null;
+    }
+
+    private static boolean isTraversing( ManyAssociationFunction<?> association )
+    {
+        return association.getTraversedAssociation() != null || association.getTraversedManyAssociation() != null;
+    }
+}
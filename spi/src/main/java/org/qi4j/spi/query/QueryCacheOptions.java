@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+/**
+ * Set an instance of this as MetaInfo on a {@link QueryCacheService} to tune how results are kept.
+ * <p>
+ * Options: <br/>
+ * "maxEntries": maximum number of cached results. When there are more, the least recently used ones are evicted.<br/>
+ * "maxAge": maximum number of milliseconds a result is kept, or 0 to keep it until it is invalidated or evicted.
+ * </p>
+ */
+public final class QueryCacheOptions
+{
+    public static final QueryCacheOptions DEFAULT = new QueryCacheOptions( 1000, 60000 );
+
+    private final int maxEntries;
+    private final long maxAge;
+
+    public QueryCacheOptions( int maxEntries, long maxAge )
+    {
+        if( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "Max entries must be at least 1" );
+        }
+        if( maxAge < 0 )
+        {
+            throw new IllegalArgumentException( "Max age may not be negative" );
+        }
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    public int maxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long maxAge()
+    {
+        return maxAge;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+import org.qi4j.api.service.Activatable;
+import org.qi4j.api.service.ServiceComposite;
+import org.qi4j.spi.entitystore.StateChangeListener;
+import org.qi4j.spi.entitystore.StateCommitListener;
+
+/**
+ * Query result cache. Add this to the module of an EntityStore service that has
+ * {@link org.qi4j.spi.entitystore.StateChangeNotificationConcern}, so that it sees all changes,
+ * and configure it with {@link QueryCacheOptions}.
+ */
+public interface QueryCacheService
+    extends QueryCache, StateChangeListener, StateCommitListener, Activatable, ServiceComposite
+{
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.query;
+
+import org.qi4j.api.common.Optional;
+import org.qi4j.api.composite.Composite;
+import org.qi4j.api.query.grammar.OrderBy;
+import org.qi4j.functional.Specification;
+
+import java.util.Map;
+
+/**
+ * Optional interface of an {@link EntityFinder} service that tells the query planner which parts of a query
+ * the finder can execute. The parts that the finder does not support are executed on the loaded Entities instead.
+ * <p>
+ * EntityFinders that do not implement this interface are given the where clause unchanged, and do the ordering
+ * and paging. A {@link org.qi4j.api.query.grammar.QuerySpecification} is always given to the finder.
+ * </p>
+ */
+public interface QueryCapabilities
+{
+    /**
+     * Check if the finder can evaluate an expression. This is not called for and, or and not expressions,
+     * which are supported if all their operands are.
+     *
+     * @param specification expression of a where clause
+     *
+     * @return true if the finder can evaluate the expression
+     */
+    boolean supportsSpecification( Specification<Composite> specification );
+
+    /**
+     * @param orderBy order segment of a query
+     *
+     * @return true if the finder can order results by the segment
+     */
+    boolean supportsOrderBy( OrderBy orderBy );
+
+    /**
+     * @return true if the finder applies the first and max results of a query
+     */
+    boolean supportsPaging();
+
+    /**
+     * Estimate how many Entities match a where clause, without executing the query.
+     *
+     * @param resultType  type of the Entities
+     * @param whereClause where clause, or null for all Entities of the type
+     * @param variables   variable values of the query
+     *
+     * @return estimated number of matching Entities, or -1 if it is not known
+     */
+    long estimateCount( Class<?> resultType,
+                        @Optional Specification<Composite> whereClause,
+                        Map<String, Object> variables
+    );
+}
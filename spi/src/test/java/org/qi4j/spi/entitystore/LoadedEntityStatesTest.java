@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.qi4j.spi.entitystore;
+
+import org.junit.Test;
+import org.qi4j.api.entity.EntityReference;
+import org.qi4j.functional.Iterables;
+import org.qi4j.spi.entity.EntityState;
+import org.qi4j.spi.entity.EntityStatus;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadedEntityStatesTest
+{
+    @Test
+    public void givenReloadedStateWhenLoadingMoreThanMaxThenLeastRecentlyLoadedIsEvicted()
+    {
+        LoadedEntityStates states = new LoadedEntityStates( 2 );
+        EntityState first = state( "first", EntityStatus.LOADED );
+        EntityState second = state( "second", EntityStatus.LOADED );
+        EntityState third = state( "third", EntityStatus.LOADED );
+        states.addLoaded( first );
+        states.addLoaded( second );
+        states.addLoaded( first );
+        states.addLoaded( third );
+
+        List<EntityState> loaded = Iterables.toList( states );
+        assertEquals( 2, loaded.size() );
+        assertTrue( loaded.contains( first ) );
+        assertTrue( loaded.contains( third ) );
+        assertEquals( 1, states.evictions() );
+        assertEquals( "[second]", Iterables.toList( states.evictedIdentities() ).toString() );
+    }
+
+    @Test
+    public void givenChangedStateWhenItIsLoadedAgainThenBothAreKept()
+    {
+        LoadedEntityStates states = new LoadedEntityStates( 2 );
+        EntityState changed = state( "first", EntityStatus.UPDATED );
+        EntityState reloaded = state( "first", EntityStatus.LOADED );
+        states.addLoaded( changed );
+        states.addLoaded( reloaded );
+
+        List<EntityState> loaded = Iterables.toList( states );
+        assertEquals( 2, loaded.size() );
+        assertTrue( loaded.contains( changed ) );
+        assertTrue( loaded.contains( reloaded ) );
+    }
+
+    private static EntityState state( final String identity, final EntityStatus status )
+    {
+        return (EntityState) Proxy.newProxyInstance( EntityState.class.getClassLoader(), new Class[]{ EntityState.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if( method.getName().equals( "identity" ) )
+                {
+                    return EntityReference.parseEntityReference( identity );
+                }
+                else if( method.getName().equals( "status" ) )
+                {
+                    return status;
+                }
+                else if( method.getName().equals( "equals" ) )
+                {
+                    return proxy == args[ 0 ];
+                }
+                else if( method.getName().equals( "hashCode" ) )
+                {
+                    return System.identityHashCode( proxy );
+                }
+                throw new UnsupportedOperationException( method.getName() );
+            }
+        } );
+    }
+}
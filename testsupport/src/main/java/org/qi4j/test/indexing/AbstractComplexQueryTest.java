@@ -127,6 +127,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -150,6 +152,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -172,6 +176,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -200,6 +206,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -232,6 +240,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -292,6 +302,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -314,6 +326,8 @@ public abstract class AbstractComplexQueryTest
         param.name().set( "user" );
         param.value().set( "jackdoe" );
         queryParams.add( queryParamBuilder.newInstance() );
+        queryParamBuilder = this.module.newValueBuilder( QueryParam.class );
+        param = queryParamBuilder.prototype();
         param.name().set( "password" );
         param.value().set( "somepassword" );
         queryParams.add( queryParamBuilder.newInstance() );
@@ -105,7 +105,7 @@ public abstract class AbstractQueryTest
         QueryBuilder<Nameable> qb = this.module.newQueryBuilder( Nameable.class );
         Query<Nameable> query = unitOfWork.newQuery(qb);
         verifyUnorderedResults( query, "Joe Doe", "Ann Doe", "Jack Doe", "Penang", "Kuala Lumpur", "Cooking", "Gaming",
-                                "Programming", "Cars" );
+                                "Programming", "Cars", "Felix" );
         System.out.println( "*** script03: " + query );
     }
 
@@ -272,7 +272,7 @@ public abstract class AbstractQueryTest
         query.firstResult( 3 );
         query.maxResults( 2 );
         System.out.println( "*** script17: " + query );
-        verifyOrderedResults( query, "Gaming", "Jack Doe" );
+        verifyOrderedResults( query, "Felix", "Gaming" );
     }
 
     @Test
@@ -285,8 +285,8 @@ public abstract class AbstractQueryTest
         Query<Nameable> query = unitOfWork.newQuery(qb);
         query.orderBy( orderBy( nameable.name() ) );
         System.out.println( "*** script18: " + query );
-        verifyOrderedResults( query, "Ann Doe", "Cars", "Cooking", "Gaming", "Jack Doe", "Joe Doe", "Kuala Lumpur",
-                              "Penang", "Programming" );
+        verifyOrderedResults( query, "Ann Doe", "Cars", "Cooking", "Felix", "Gaming", "Jack Doe", "Joe Doe",
+                              "Kuala Lumpur", "Penang", "Programming" );
     }
 
     @Test
@@ -299,7 +299,8 @@ public abstract class AbstractQueryTest
         Query<Nameable> query = unitOfWork.newQuery( qb.where( gt( nameable.name(), "D" ) ));
         query.orderBy( orderBy( nameable.name() ) );
         System.out.println( "*** script19: " + query );
-        verifyOrderedResults( query, "Gaming", "Jack Doe", "Joe Doe", "Kuala Lumpur", "Penang", "Programming" );
+        verifyOrderedResults( query, "Felix", "Gaming", "Jack Doe", "Joe Doe", "Kuala Lumpur", "Penang",
+                              "Programming" );
     }
 
     @Test
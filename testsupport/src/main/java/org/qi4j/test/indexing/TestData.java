@@ -217,7 +217,7 @@ class TestData
                 Cat felix = catBuilder.instance();
                 felix.name().set( "Felix" );
                 felix = catBuilder.newInstance();
-                // NameableAssert.trace( felix );
+                NameableAssert.trace( felix );
                 unitOfWork.complete();
             }
         }